@@ -0,0 +1,127 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.fvdl.facet.BinaryFacetedReader;
+import uk.co.fvdl.facet.BinaryFacetedWriter;
+import uk.co.fvdl.facet.Driver;
+import uk.co.fvdl.facet.FacetedPerson;
+import uk.co.fvdl.facet.JsonFacetedReader;
+import uk.co.fvdl.facet.JsonFacetedWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary faceted codec with Jackson JSON, each encoding and decoding a batch of entities. The encoded size
+ * of the batch in each form is printed during setup.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"1000"})
+    private int entities;
+
+    private List<FacetedPerson> people;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        people = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            FacetedPerson person = new FacetedPerson();
+            person.setName("Person " + i);
+            person.addFacet(Driver.class, Driver.initialise("LICENCE" + i));
+            people.add(person);
+        }
+        json = jacksonEncode();
+        binary = binaryEncode();
+        System.out.printf("%nJSON %d bytes, binary %d bytes for %d entities%n", json.length, binary.length, entities);
+    }
+
+    @Benchmark
+    public byte[] jacksonEncode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonFacetedWriter.writeLines(people.iterator(), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BinaryFacetedWriter writer = new BinaryFacetedWriter(out)) {
+            for (FacetedPerson person : people) {
+                writer.write(person);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public void jacksonDecode(Blackhole blackhole) throws IOException {
+        new JsonFacetedReader<>(FacetedPerson::new).readLines(new ByteArrayInputStream(json), blackhole::consume);
+    }
+
+    @Benchmark
+    public void jacksonTreeDecode(Blackhole blackhole) throws IOException {
+        int start = 0;
+        for (int i = 0; i < json.length; i++) {
+            if (json[i] == '\n') {
+                blackhole.consume(new FacetedPerson((ObjectNode) MAPPER.readTree(json, start, i - start)));
+                start = i + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public void binaryDecode(Blackhole blackhole) throws IOException {
+        BinaryFacetedReader<FacetedPerson> reader =
+                new BinaryFacetedReader<>(new ByteArrayInputStream(binary), FacetedPerson::new);
+        for (Optional<FacetedPerson> person = reader.read(); person.isPresent(); person = reader.read()) {
+            blackhole.consume(person.get());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.benchmark;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.co.fvdl.facet.ConcurrentFacetedPerson;
+import uk.co.fvdl.facet.Driver;
+import uk.co.fvdl.facet.Facet;
+import uk.co.fvdl.facet.FacetedPerson;
+import uk.co.fvdl.facet.Person;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention benchmark comparing {@link uk.co.fvdl.facet.ConcurrentFaceted} with guarding a plain Faceted with a lock,
+ * which is the only safe way of sharing one otherwise. Run {@link #main} to go through 1 to 64 threads, or pass
+ * <code>-t</code> to the JMH runner for a single thread count.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    private ConcurrentFacetedPerson concurrentPerson;
+    private Driver concurrentDriver;
+    private FacetedPerson lockedPerson;
+    private Driver lockedDriver;
+
+    @Setup
+    public void setUp() {
+        concurrentPerson = new ConcurrentFacetedPerson();
+        concurrentPerson.setName("John");
+        concurrentDriver = concurrentPerson.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        lockedPerson = new FacetedPerson();
+        lockedPerson.setName("John");
+        lockedDriver = lockedPerson.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+    }
+
+    @Benchmark
+    public Driver concurrentGetFacet() {
+        return concurrentPerson.getFacet(Driver.class).get();
+    }
+
+    @Benchmark
+    public Driver lockedGetFacet() {
+        synchronized (lockedPerson) {
+            return lockedPerson.getFacet(Driver.class).get();
+        }
+    }
+
+    @Benchmark
+    public String concurrentFacetData() {
+        return concurrentDriver.getLicenceNumber();
+    }
+
+    @Benchmark
+    public String lockedFacetData() {
+        synchronized (lockedPerson) {
+            return lockedDriver.getLicenceNumber();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 100)
+    @Measurement(iterations = 20, batchSize = 100)
+    public Membership concurrentAddFacet(AddState state) {
+        return state.concurrentPerson.addFacet(Membership.class, state.nextTeam());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 100)
+    @Measurement(iterations = 20, batchSize = 100)
+    public Membership lockedAddFacet(AddState state) {
+        synchronized (state.lockedPerson) {
+            return state.lockedPerson.addFacet(Membership.class, state.nextTeam());
+        }
+    }
+
+    /**
+     * A fresh entity for each iteration so that adding facets does not grow one entity without bound.
+     */
+    @State(Scope.Benchmark)
+    public static class AddState {
+        private final AtomicLong teams = new AtomicLong();
+        private ConcurrentFacetedPerson concurrentPerson;
+        private FacetedPerson lockedPerson;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            concurrentPerson = new ConcurrentFacetedPerson();
+            lockedPerson = new FacetedPerson();
+        }
+
+        private java.util.function.Supplier<ObjectNode> nextTeam() {
+            String team = "team" + teams.incrementAndGet();
+            return () -> JsonNodeFactory.instance.objectNode().put("team", team);
+        }
+    }
+
+    /**
+     * A facet that a person can have many of, identified by the team.
+     */
+    public interface Membership extends Facet<Membership, ObjectNode>, Person {
+        @Override
+        default String getFacetIdentifier() {
+            return getFacetData().get("team").asText();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .include(ContentionBenchmark.class.getName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.benchmark;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.co.fvdl.facet.Driver;
+import uk.co.fvdl.facet.FacetEngine;
+import uk.co.fvdl.facet.FacetedPerson;
+import uk.co.fvdl.facet.Person;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the basic facet operations: adding a facet, looking one up, calling a default method on it, delegating
+ * from it to the base object and reading its data, each against a hand written class implementing the same plain
+ * interface. Every operation is measured for both facet engines and for entities carrying a few or many facets. State
+ * is per thread, so running with several threads shows how the shared parts of the runtime (the key registry and the
+ * class caches) scale; {@link ContentionBenchmark} covers threads sharing a single entity. Run {@link #main} for 1 and
+ * 4 threads with the GC profiler attached, the allocation rate per operation is as much a target as the time.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FacetRuntimeBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 4};
+
+    @Param({"PROXY", "GENERATED"})
+    private FacetEngine engine;
+
+    @Param({"1", "64"})
+    private int facetCount;
+
+    private FacetedPerson person;
+    private Driver driver;
+    private String lastTeam;
+    private PlainPerson plainPerson;
+    private PlainDriver plainDriver;
+
+    @Setup
+    public void setUp() {
+        person = new EnginePerson(engine);
+        person.setName("John");
+        driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        plainPerson = new PlainPerson();
+        plainPerson.setName("John");
+        plainDriver = plainPerson.setDriver("ABCDEF");
+        for (int i = 1; i < facetCount; i++) {
+            lastTeam = "team" + i;
+            person.addFacet(ContentionBenchmark.Membership.class, team(lastTeam));
+            plainPerson.addMembership(lastTeam, team(lastTeam).get());
+        }
+    }
+
+    @Benchmark
+    public Driver getFacet() {
+        return person.getFacet(Driver.class).get();
+    }
+
+    @Benchmark
+    public PlainDriver plainGetFacet() {
+        return plainPerson.getDriver();
+    }
+
+    @Benchmark
+    public Object getFacetByIdentifier() {
+        return lastTeam == null
+                ? person.getFacet(Driver.class).get()
+                : person.getFacet(ContentionBenchmark.Membership.class, lastTeam).get();
+    }
+
+    @Benchmark
+    public Object plainGetFacetByIdentifier() {
+        return lastTeam == null ? plainPerson.getDriver() : plainPerson.getMembership(lastTeam);
+    }
+
+    @Benchmark
+    public String defaultMethod() {
+        return driver.getLicenceNumber();
+    }
+
+    @Benchmark
+    public String plainDefaultMethod() {
+        return plainDriver.getLicenceNumber();
+    }
+
+    @Benchmark
+    public String baseDelegation() {
+        return driver.getName();
+    }
+
+    @Benchmark
+    public String plainBaseDelegation() {
+        return plainDriver.getName();
+    }
+
+    @Benchmark
+    public ObjectNode facetData() {
+        return driver.getFacetData();
+    }
+
+    @Benchmark
+    public ObjectNode plainFacetData() {
+        return plainDriver.getData();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 100)
+    @Measurement(iterations = 20, batchSize = 100)
+    public ContentionBenchmark.Membership addFacet(AddState state) {
+        return state.person.addFacet(ContentionBenchmark.Membership.class, team("added" + state.added++));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 100)
+    @Measurement(iterations = 20, batchSize = 100)
+    public ObjectNode plainAddFacet(AddState state) {
+        String team = "added" + state.added++;
+        return state.plainPerson.addMembership(team, team(team).get());
+    }
+
+    private static java.util.function.Supplier<ObjectNode> team(String team) {
+        return () -> JsonNodeFactory.instance.objectNode().put("team", team);
+    }
+
+    /**
+     * Fresh entities for each iteration, already carrying the facet count, so that adding facets does not grow one
+     * entity without bound.
+     */
+    @State(Scope.Thread)
+    public static class AddState {
+        private FacetedPerson person;
+        private PlainPerson plainPerson;
+        private int added;
+
+        @Setup(Level.Iteration)
+        public void setUp(FacetRuntimeBenchmark benchmark) {
+            person = new EnginePerson(benchmark.engine);
+            plainPerson = new PlainPerson();
+            for (int i = 1; i < benchmark.facetCount; i++) {
+                person.addFacet(ContentionBenchmark.Membership.class, team("team" + i));
+                plainPerson.addMembership("team" + i, team("team" + i).get());
+            }
+            added = 0;
+        }
+    }
+
+    /**
+     * A person that uses a particular facet engine.
+     */
+    public static class EnginePerson extends FacetedPerson {
+        private final FacetEngine engine;
+
+        EnginePerson(FacetEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        protected FacetEngine getFacetEngine() {
+            return engine;
+        }
+    }
+
+    /**
+     * The hand written equivalent of {@link Driver}: a plain interface with default methods.
+     */
+    public interface PlainDriver extends Person {
+        ObjectNode getData();
+
+        default String getLicenceNumber() {
+            return getData().get("licenceNumber").asText();
+        }
+    }
+
+    /**
+     * The hand written equivalent of a Faceted person, holding what would be its facets in fields and a map.
+     */
+    public static final class PlainPerson implements Person {
+        private final Map<String, ObjectNode> memberships = new HashMap<>();
+        private String name;
+        private PlainDriver driver;
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        PlainDriver setDriver(String licenceNumber) {
+            ObjectNode data = JsonNodeFactory.instance.objectNode().put("licenceNumber", licenceNumber);
+            driver = new PlainDriver() {
+                @Override
+                public ObjectNode getData() {
+                    return data;
+                }
+
+                @Override
+                public String getName() {
+                    return PlainPerson.this.getName();
+                }
+
+                @Override
+                public void setName(String name) {
+                    PlainPerson.this.setName(name);
+                }
+            };
+            return driver;
+        }
+
+        PlainDriver getDriver() {
+            return driver;
+        }
+
+        ObjectNode addMembership(String team, ObjectNode data) {
+            memberships.put(team, data);
+            return data;
+        }
+
+        ObjectNode getMembership(String team) {
+            return memberships.get(team);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .include(FacetRuntimeBenchmark.class.getName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.benchmark;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.fvdl.facet.Driver;
+import uk.co.fvdl.facet.FacetedPerson;
+import uk.co.fvdl.facet.JsonFacetedReader;
+import uk.co.fvdl.facet.JsonFacetedWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the <code>Externalizable</code> form of JsonFaceted with default Java serialisation of the same documents
+ * and with Jackson JSON, each writing and reading a batch of entities through one stream as they would be sent over a
+ * socket or to a queue. The size of the batch in each form is printed during setup.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1000"})
+    private int entities;
+
+    private List<FacetedPerson> people;
+    private List<ObjectNode> documents;
+    private byte[] externalized;
+    private byte[] serialized;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException, ClassNotFoundException {
+        people = new ArrayList<>();
+        documents = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            ObjectNode document = JsonNodeFactory.instance.objectNode();
+            document.putObject("$facets$");
+            FacetedPerson person = new FacetedPerson(document);
+            person.setName("Person " + i);
+            person.addFacet(Driver.class, Driver.initialise("LICENCE" + i));
+            people.add(person);
+            documents.add(document);
+        }
+        externalized = externalizableWrite();
+        serialized = defaultSerializationWrite();
+        json = jacksonWrite();
+        System.out.printf("%nExternalizable %d bytes, default serialisation %d bytes, JSON %d bytes for %d entities%n",
+                externalized.length, serialized.length, json.length, entities);
+    }
+
+    @Benchmark
+    public byte[] externalizableWrite() throws IOException {
+        return writeObjects(people);
+    }
+
+    @Benchmark
+    public byte[] defaultSerializationWrite() throws IOException {
+        return writeObjects(documents);
+    }
+
+    @Benchmark
+    public byte[] jacksonWrite() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonFacetedWriter.writeLines(people.iterator(), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public void externalizableRead(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        readObjects(externalized, blackhole);
+    }
+
+    @Benchmark
+    public void defaultSerializationRead(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        readObjects(serialized, blackhole);
+    }
+
+    @Benchmark
+    public void jacksonRead(Blackhole blackhole) throws IOException {
+        new JsonFacetedReader<>(FacetedPerson::new).readLines(new ByteArrayInputStream(json), blackhole::consume);
+    }
+
+    private static byte[] writeObjects(List<?> objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeInt(objects.size());
+            for (Object object : objects) {
+                out.writeObject(object);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void readObjects(byte[] bytes, Blackhole blackhole) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            for (int count = in.readInt(); count > 0; count--) {
+                blackhole.consume(in.readObject());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * Constants of the binary format written by {@link BinaryFacetedWriter} and read by {@link BinaryFacetedReader}.
+ * <p>
+ * A stream starts with {@link #MAGIC} followed by one object per entity. Every value starts with a one byte tag.
+ * Objects are a sequence of entries, each a value tag, the entry name and the rest of the value, ended by
+ * {@link #END}; arrays are a sequence of values ended by {@link #END}. Integers are zig-zag encoded varints, doubles
+ * are 8 bytes big endian and strings are a varint byte length followed by UTF-8.
+ * </p>
+ * <p>
+ * Names, which include facet class names and identifiers as well as property names, go through a dictionary shared by
+ * the whole stream. A name is written as a varint whose low two bits say whether it is a reference to a dictionary
+ * entry, a new entry that follows inline and is added to the dictionary, or, once the dictionary is full, a literal
+ * that is not.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class BinaryFacetFormat {
+
+    static final int MAGIC = 0x46435401; //"FCT" and version 1.
+
+    static final int END = 0;
+    static final int NULL = 1;
+    static final int FALSE = 2;
+    static final int TRUE = 3;
+    static final int INT = 4;
+    static final int DOUBLE = 5;
+    static final int FLOAT = 6;
+    static final int STRING = 7;
+    static final int OBJECT = 8;
+    static final int ARRAY = 9;
+    static final int BINARY = 10;
+    static final int BIG_INTEGER = 11;
+    static final int DECIMAL = 12;
+
+    static final int NAME_REFERENCE = 0;
+    static final int NAME_DEFINITION = 1;
+    static final int NAME_LITERAL = 2;
+    static final int NAME_KIND_BITS = 2;
+    static final int NAME_KIND_MASK = 3;
+
+    static final int MAXIMUM_DICTIONARY_SIZE = 1 << 16;
+
+    private BinaryFacetFormat() {
+    }
+}
@@ -0,0 +1,229 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static uk.co.fvdl.facet.BinaryFacetFormat.*;
+
+/**
+ * Reads entities written by {@link BinaryFacetedWriter}. Each entity's document is built directly from the stream, so
+ * there is no JSON text to tokenise and names come from the stream's dictionary. Not thread safe.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class BinaryFacetedReader<T extends JsonFaceted<?, ?>> implements Closeable {
+
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final Function<ObjectNode, T> facetedFactory;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final List<String> dictionary = new ArrayList<>();
+    private int position;
+    private int limit;
+
+    /**
+     * @param in the input, closed when this reader is closed.
+     * @param facetedFactory creates the entity for a document, usually the JsonFaceted sub-type's
+     *                       <code>ObjectNode</code> constructor.
+     * @throws IOException if the stream header cannot be read or is not recognised.
+     */
+    public BinaryFacetedReader(InputStream in, Function<ObjectNode, T> facetedFactory) throws IOException {
+        this.in = in;
+        this.facetedFactory = Objects.requireNonNull(facetedFactory, "facetedFactory");
+        int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (magic != MAGIC) {
+            throw new IOException("Not a binary faceted stream, or an unsupported version: " + Integer.toHexString(magic));
+        }
+    }
+
+    /**
+     * Read the next entity.
+     * @return the entity, empty at the end of the stream.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     */
+    public Optional<T> read() throws IOException {
+        if (position == limit && !fill()) {
+            return Optional.empty();
+        }
+        return Optional.of(facetedFactory.apply(readDocument()));
+    }
+
+    /**
+     * Read the document of the next entity, which must be there.
+     * @return the document.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     */
+    ObjectNode readDocument() throws IOException {
+        int tag = readByte();
+        if (tag != OBJECT) {
+            throw new IOException("Expected an entity but found tag " + tag);
+        }
+        return readObject();
+    }
+
+    private ObjectNode readObject() throws IOException {
+        ObjectNode node = NODE_FACTORY.objectNode();
+        for (int tag = readByte(); tag != END; tag = readByte()) {
+            String name = readName();
+            node.set(name, readValue(tag));
+        }
+        return node;
+    }
+
+    private JsonNode readValue(int tag) throws IOException {
+        switch (tag) {
+            case OBJECT:
+                return readObject();
+            case ARRAY:
+                ArrayNode array = NODE_FACTORY.arrayNode();
+                for (int elementTag = readByte(); elementTag != END; elementTag = readByte()) {
+                    array.add(readValue(elementTag));
+                }
+                return array;
+            case STRING:
+                return NODE_FACTORY.textNode(readText());
+            case TRUE:
+                return NODE_FACTORY.booleanNode(true);
+            case FALSE:
+                return NODE_FACTORY.booleanNode(false);
+            case INT:
+                long value = readSignedVarint();
+                return value == (int) value ? NODE_FACTORY.numberNode((int) value) : NODE_FACTORY.numberNode(value);
+            case DOUBLE:
+                return NODE_FACTORY.numberNode(Double.longBitsToDouble(readFixed(8)));
+            case FLOAT:
+                return NODE_FACTORY.numberNode(Float.intBitsToFloat((int) readFixed(4)));
+            case BIG_INTEGER:
+                return NODE_FACTORY.numberNode(new BigInteger(readText()));
+            case DECIMAL:
+                return NODE_FACTORY.numberNode(new BigDecimal(readText()));
+            case BINARY:
+                return NODE_FACTORY.binaryNode(readBytes());
+            case NULL:
+                return NODE_FACTORY.nullNode();
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    private String readName() throws IOException {
+        long name = readVarint();
+        int kind = (int) (name & NAME_KIND_MASK);
+        int value = (int) (name >>> NAME_KIND_BITS);
+        switch (kind) {
+            case NAME_REFERENCE:
+                if (value >= dictionary.size()) {
+                    throw new IOException("Unknown name " + value);
+                }
+                return dictionary.get(value);
+            case NAME_DEFINITION:
+                String definition = new String(readRaw(value), StandardCharsets.UTF_8);
+                dictionary.add(definition);
+                return definition;
+            case NAME_LITERAL:
+                return new String(readRaw(value), StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown name kind " + kind);
+        }
+    }
+
+    private String readText() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+        return readRaw((int) readVarint());
+    }
+
+    private long readSignedVarint() throws IOException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readFixed(int byteCount) throws IOException {
+        long value = 0;
+        for (int i = 0; i < byteCount; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private byte[] readRaw(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int count = Math.min(length - copied, limit - position);
+            System.arraycopy(buffer, position, bytes, copied, count);
+            position += count;
+            copied += count;
+        }
+        return bytes;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
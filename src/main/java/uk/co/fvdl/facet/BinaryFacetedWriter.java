@@ -0,0 +1,332 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static uk.co.fvdl.facet.BinaryFacetFormat.*;
+
+/**
+ * Writes {@link JsonFaceted} entities in a compact binary form, see {@link BinaryFacetFormat} for the layout. Facet
+ * class names, identifiers and property names are written once per stream and referred to by number afterwards, and
+ * values carry a type tag rather than their JSON text. Entities are written straight from their documents; facet data
+ * that has not been parsed since it was read by {@link JsonFacetedReader} is converted token by token without building
+ * a tree. Not thread safe.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class BinaryFacetedWriter implements Closeable, Flushable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private int position;
+
+    /**
+     * @param out the output, closed when this writer is closed.
+     * @throws IOException if the stream header cannot be written.
+     */
+    public BinaryFacetedWriter(OutputStream out) throws IOException {
+        this.out = out;
+        writeByte(MAGIC >>> 24);
+        writeByte(MAGIC >>> 16);
+        writeByte(MAGIC >>> 8);
+        writeByte(MAGIC);
+    }
+
+    /**
+     * Write an entity.
+     * @param faceted the entity.
+     * @throws IOException if the output cannot be written.
+     */
+    public void write(JsonFaceted<?, ?> faceted) throws IOException {
+        Map<String, Map<String, RawJson>> rawFacets = faceted.getRawFacetData();
+        if (rawFacets == null) {
+            rawFacets = Collections.emptyMap();
+        }
+        boolean facetsWritten = false;
+        writeByte(OBJECT);
+        for (Iterator<Map.Entry<String, JsonNode>> fields = faceted.baseNode.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (JsonFaceted.FACET_NODE.equals(field.getKey()) && field.getValue().isObject()) {
+                writeFacets(field.getValue(), rawFacets);
+                facetsWritten = true;
+            } else {
+                writeNode(field.getKey(), field.getValue());
+            }
+        }
+        if (!facetsWritten && !rawFacets.isEmpty()) {
+            writeFacets(faceted.baseNode.objectNode(), rawFacets);
+        }
+        writeByte(END);
+    }
+
+    private void writeFacets(JsonNode facetsNode, Map<String, Map<String, RawJson>> rawFacets) throws IOException {
+        writeByte(OBJECT);
+        writeName(JsonFaceted.FACET_NODE);
+        for (Iterator<Map.Entry<String, JsonNode>> classes = facetsNode.fields(); classes.hasNext(); ) {
+            Map.Entry<String, JsonNode> facetClass = classes.next();
+            Map<String, RawJson> rawIdentifiers = rawFacets.get(facetClass.getKey());
+            if (rawIdentifiers == null || !facetClass.getValue().isObject()) {
+                writeNode(facetClass.getKey(), facetClass.getValue());
+                continue;
+            }
+            writeByte(OBJECT);
+            writeName(facetClass.getKey());
+            for (Iterator<Map.Entry<String, JsonNode>> identifiers = facetClass.getValue().fields(); identifiers.hasNext(); ) {
+                Map.Entry<String, JsonNode> identifier = identifiers.next();
+                writeNode(identifier.getKey(), identifier.getValue());
+            }
+            writeRawFacets(rawIdentifiers);
+            writeByte(END);
+        }
+        for (Map.Entry<String, Map<String, RawJson>> rawClass : rawFacets.entrySet()) {
+            if (!facetsNode.has(rawClass.getKey())) {
+                writeByte(OBJECT);
+                writeName(rawClass.getKey());
+                writeRawFacets(rawClass.getValue());
+                writeByte(END);
+            }
+        }
+        writeByte(END);
+    }
+
+    private void writeRawFacets(Map<String, RawJson> rawIdentifiers) throws IOException {
+        for (Map.Entry<String, RawJson> identifier : rawIdentifiers.entrySet()) {
+            RawJson rawJson = identifier.getValue();
+            try (JsonParser parser = JSON_FACTORY.createParser(rawJson.getBytes(), rawJson.getOffset(), rawJson.getLength())) {
+                parser.nextToken();
+                writeParsed(identifier.getKey(), parser);
+            }
+        }
+    }
+
+    /**
+     * Write a value from a document tree.
+     * @param name the entry name, null for array elements.
+     * @param node the value.
+     */
+    private void writeNode(String name, JsonNode node) throws IOException {
+        switch (node.getNodeType()) {
+            case OBJECT:
+                writeTag(OBJECT, name);
+                for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    writeNode(field.getKey(), field.getValue());
+                }
+                writeByte(END);
+                break;
+            case ARRAY:
+                writeTag(ARRAY, name);
+                for (JsonNode element : node) {
+                    writeNode(null, element);
+                }
+                writeByte(END);
+                break;
+            case STRING:
+                writeTag(STRING, name);
+                writeText(node.textValue());
+                break;
+            case BOOLEAN:
+                writeTag(node.booleanValue() ? TRUE : FALSE, name);
+                break;
+            case NUMBER:
+                switch (node.numberType()) {
+                    case INT:
+                    case LONG:
+                        writeTag(INT, name);
+                        writeSignedVarint(node.longValue());
+                        break;
+                    case FLOAT:
+                        writeTag(FLOAT, name);
+                        writeFixed(Float.floatToRawIntBits(node.floatValue()), 4);
+                        break;
+                    case DOUBLE:
+                        writeTag(DOUBLE, name);
+                        writeFixed(Double.doubleToRawLongBits(node.doubleValue()), 8);
+                        break;
+                    case BIG_INTEGER:
+                        writeTag(BIG_INTEGER, name);
+                        writeText(node.bigIntegerValue().toString());
+                        break;
+                    default:
+                        writeTag(DECIMAL, name);
+                        writeText(node.decimalValue().toString());
+                }
+                break;
+            case BINARY:
+                writeTag(BINARY, name);
+                writeBytes(node.binaryValue());
+                break;
+            default:
+                writeTag(NULL, name);
+        }
+    }
+
+    /**
+     * Write the value at the parser's current token.
+     * @param name the entry name, null for array elements.
+     * @param parser the parser.
+     */
+    private void writeParsed(String name, JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                writeTag(OBJECT, name);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    parser.nextToken();
+                    writeParsed(fieldName, parser);
+                }
+                writeByte(END);
+                break;
+            case START_ARRAY:
+                writeTag(ARRAY, name);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    writeParsed(null, parser);
+                }
+                writeByte(END);
+                break;
+            case VALUE_STRING:
+                writeTag(STRING, name);
+                writeText(parser.getText());
+                break;
+            case VALUE_TRUE:
+                writeTag(TRUE, name);
+                break;
+            case VALUE_FALSE:
+                writeTag(FALSE, name);
+                break;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    writeTag(BIG_INTEGER, name);
+                    writeText(parser.getText());
+                } else {
+                    writeTag(INT, name);
+                    writeSignedVarint(parser.getLongValue());
+                }
+                break;
+            case VALUE_NUMBER_FLOAT:
+                writeTag(DOUBLE, name);
+                writeFixed(Double.doubleToRawLongBits(parser.getDoubleValue()), 8);
+                break;
+            default:
+                writeTag(NULL, name);
+        }
+    }
+
+    private void writeTag(int tag, String name) throws IOException {
+        writeByte(tag);
+        if (name != null) {
+            writeName(name);
+        }
+    }
+
+    private void writeName(String name) throws IOException {
+        Integer index = dictionary.get(name);
+        if (index != null) {
+            writeVarint(((long) index << NAME_KIND_BITS) | NAME_REFERENCE);
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (dictionary.size() < MAXIMUM_DICTIONARY_SIZE) {
+            dictionary.put(name, dictionary.size());
+            writeVarint(((long) bytes.length << NAME_KIND_BITS) | NAME_DEFINITION);
+        } else {
+            writeVarint(((long) bytes.length << NAME_KIND_BITS) | NAME_LITERAL);
+        }
+        writeRaw(bytes);
+    }
+
+    private void writeText(String text) throws IOException {
+        writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        writeRaw(bytes);
+    }
+
+    private void writeSignedVarint(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeFixed(long value, int byteCount) throws IOException {
+        for (int shift = (byteCount - 1) * 8; shift >= 0; shift -= 8) {
+            writeByte((int) (value >>> shift));
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeRaw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A Faceted type that can be shared between threads. Facet data is held in a persistent {@link FacetTrie} indexed by
+ * {@link FacetKey} id which is replaced, by compare and swap, whenever a facet is added or removed. Reads through
+ * {@link #getFacet}, {@link #hasFacet} and the facets' own <code>getFacetData()</code> therefore take no locks, and
+ * {@link #addFacet} and {@link #removeFacet} are atomic so two threads racing to add the same facet cannot both succeed. Facet instances are
+ * cached in a {@link FacetCache#concurrent()} cache.
+ * <p>
+ * A change copies only the nodes on the path to the facet, one small array for an entity with a handful of facets, and
+ * {@link #snapshot()} shares the current trie without copying anything. Sub-types remain responsible for the thread
+ * safety of their own state and of the facet data objects; data read by other threads is best changed with
+ * {@link #replaceFacet} rather than in place, which also keeps snapshots taken by those threads consistent.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public abstract class ConcurrentFaceted<T extends ConcurrentFaceted<T, V>, V> extends Faceted<T, V> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentFaceted, FacetTrie> FACET_TABLE =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentFaceted.class, FacetTrie.class, "facetTable");
+
+    private volatile FacetTrie<V> facetTable = FacetTrie.empty();
+
+    //The edition of data added from now on, null until the first snapshot. Data of any other edition is shared.
+    private volatile Object edition;
+
+    @Override
+    protected FacetCache createFacetCache() {
+        return FacetCache.concurrent();
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> Optional<V> getFacetData(Class<U> facetClass, String facetIdentifier) {
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
+        addFacetData(FacetKey.of(facetClass, facetIdentifier), facetData);
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        return facetTable.get(facetKey) != null;
+    }
+
+    @Override
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        FacetTrie<V> current = facetTable;
+        V facetData = current.get(facetKey);
+        Object currentEdition = edition;
+        if (facetData == null || currentEdition == null || current.getEdition(facetKey) == currentEdition) {
+            return Optional.ofNullable(facetData);
+        }
+        //Shared with a snapshot, so take a copy before anything can change it.
+        FacetTrie<V> replacement;
+        do {
+            current = facetTable;
+            facetData = current.get(facetKey);
+            if (facetData == null || current.getEdition(facetKey) == currentEdition) {
+                return Optional.ofNullable(facetData);
+            }
+            facetData = copyFacetData(facetData);
+            replacement = current.put(facetKey, facetData, currentEdition);
+        } while (!FACET_TABLE.compareAndSet(this, current, replacement));
+        return Optional.of(facetData);
+    }
+
+    @Override
+    protected void addFacetData(FacetKey facetKey, V facetData) {
+        Objects.requireNonNull(facetData, "facetData");
+        FacetTrie<V> current;
+        FacetTrie<V> replacement;
+        do {
+            current = facetTable;
+            replacement = current.put(facetKey, facetData, edition);
+        } while (!FACET_TABLE.compareAndSet(this, current, replacement));
+    }
+
+    @Override
+    protected boolean addFacetDataIfAbsent(FacetKey facetKey, V facetData) {
+        Objects.requireNonNull(facetData, "facetData");
+        FacetTrie<V> current;
+        FacetTrie<V> replacement;
+        do {
+            current = facetTable;
+            if (current.get(facetKey) != null) {
+                return false;
+            }
+            replacement = current.put(facetKey, facetData, edition);
+        } while (!FACET_TABLE.compareAndSet(this, current, replacement));
+        return true;
+    }
+
+    @Override
+    protected boolean removeFacetData(FacetKey facetKey) {
+        FacetTrie<V> current;
+        FacetTrie<V> replacement;
+        do {
+            current = facetTable;
+            replacement = current.remove(facetKey);
+            if (replacement == current) {
+                return false;
+            }
+        } while (!FACET_TABLE.compareAndSet(this, current, replacement));
+        return true;
+    }
+
+    /**
+     * The trie is read before the edition changes, so anything added under the new edition is not in the snapshot.
+     */
+    @Override
+    SharedFacetData<V> shareFacetData() {
+        FacetTrie<V> shared = facetTable;
+        edition = new Object();
+        return shared;
+    }
+
+    /**
+     * @return the number of facets this Faceted currently has.
+     */
+    public int getFacetCount() {
+        return facetTable.size();
+    }
+}
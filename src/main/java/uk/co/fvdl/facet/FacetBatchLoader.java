@@ -0,0 +1,214 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Loads the data of one unique facet for many entities in batches, in the manner of a DataLoader. Each entity given to
+ * {@link #attach} gets a lazily loaded facet, see {@link Faceted#addLazyFacet(Class, java.util.function.Supplier)},
+ * and joins the current batch. The first time any of those facets' data is needed, or when {@link #dispatch()} is
+ * called, the whole batch is fetched with one call to the {@link BatchFetch}, so code that attaches a facet to every
+ * entity of a request and then reads some of them makes one round trip to the store rather than one per entity.
+ * <p>
+ * Thread safe. The batch is handed over under a {@link ReentrantLock} that is released before fetching and readers
+ * wait on {@link CompletableFuture}s, so loaders can be shared by virtual threads without pinning their carriers.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ * @param <T> the entity type.
+ * @param <U> the facet type.
+ * @param <V> the facet data type.
+ */
+public final class FacetBatchLoader<T extends Faceted<T, V>, U extends UniqueFacet<U, V>, V> {
+
+    private final Class<U> facetClass;
+    private final FacetKey facetKey;
+    private final BatchFetch<T, V> fetch;
+    private final int maximumBatchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong fetchCount = new AtomicLong();
+    private List<T> batchEntities = new ArrayList<>();
+    private List<CompletableFuture<V>> batchData = new ArrayList<>();
+
+    /**
+     * Fetches the facet data of a batch of entities, typically with one request to the store.
+     * @param <T> the entity type.
+     * @param <V> the facet data type.
+     */
+    @FunctionalInterface
+    public interface BatchFetch<T, V> {
+        /**
+         * @param entities the entities, each of which appears once.
+         * @return the data of each entity in the same order, with null for any entity that has none.
+         */
+        CompletionStage<List<V>> fetch(List<T> entities);
+    }
+
+    /**
+     * Create a loader with no limit on the size of a batch.
+     * @param facetClass the facet class.
+     * @param fetch fetches the data of a batch.
+     */
+    public FacetBatchLoader(Class<U> facetClass, BatchFetch<T, V> fetch) {
+        this(facetClass, Integer.MAX_VALUE, fetch);
+    }
+
+    /**
+     * Create a loader.
+     * @param facetClass the facet class.
+     * @param maximumBatchSize the most entities to fetch at once, larger batches are split.
+     * @param fetch fetches the data of a batch.
+     */
+    public FacetBatchLoader(Class<U> facetClass, int maximumBatchSize, BatchFetch<T, V> fetch) {
+        if (maximumBatchSize < 1) {
+            throw new IllegalArgumentException("maximumBatchSize must be positive: " + maximumBatchSize);
+        }
+        this.facetClass = Objects.requireNonNull(facetClass, "facetClass");
+        this.facetKey = FacetKey.of(facetClass);
+        this.maximumBatchSize = maximumBatchSize;
+        this.fetch = Objects.requireNonNull(fetch, "fetch");
+    }
+
+    /**
+     * Give an entity the facet, with its data to be loaded in the current batch.
+     * @param entity the entity.
+     * @return the facet.
+     * @throws UnsupportedOperationException if the entity already has the facet.
+     */
+    public U attach(T entity) {
+        CompletableFuture<V> data = new CompletableFuture<>();
+        //Join the batch first so that a reader of the facet can never dispatch a batch without it.
+        lock.lock();
+        try {
+            batchEntities.add(entity);
+            batchData.add(data);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return entity.addPendingFacet(facetClass, facetKey, PendingFacetData.batched(facetKey, data, this::dispatch));
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                int index = batchData.indexOf(data);
+                if (index >= 0) {
+                    batchEntities.remove(index);
+                    batchData.remove(index);
+                }
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fetch the data of every entity in the current batch and start a new one. This happens anyway when the data of
+     * one of them is first needed; calling it directly starts the fetch sooner, for example when the data is known to
+     * be wanted.
+     */
+    public void dispatch() {
+        List<T> entities;
+        List<CompletableFuture<V>> data;
+        lock.lock();
+        try {
+            if (batchEntities.isEmpty()) {
+                return;
+            }
+            entities = batchEntities;
+            data = batchData;
+            batchEntities = new ArrayList<>();
+            batchData = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+        for (int from = 0; from < entities.size(); from += maximumBatchSize) {
+            int to = Math.min(entities.size(), from + maximumBatchSize);
+            fetch(entities.subList(from, to), data.subList(from, to));
+        }
+    }
+
+    /**
+     * @return the number of entities waiting for the next batch.
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return batchEntities.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of fetches made so far.
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    private void fetch(List<T> entities, List<CompletableFuture<V>> data) {
+        fetchCount.incrementAndGet();
+        CompletionStage<List<V>> fetched;
+        try {
+            fetched = fetch.fetch(entities);
+        } catch (RuntimeException e) {
+            //Reported to the readers, the other batches still go ahead.
+            fail(data, e);
+            return;
+        }
+        if (fetched == null) {
+            fail(data, new IllegalStateException("The batch fetch returned no result for " + entities.size() + " entities."));
+            return;
+        }
+        fetched.whenComplete((results, failure) -> {
+            try {
+                if (failure == null && results == null) {
+                    failure = new IllegalStateException("Fetched no results for " + entities.size() + " entities.");
+                } else if (failure == null && results.size() != entities.size()) {
+                    failure = new IllegalStateException("Fetched " + results.size() + " results for " + entities.size() + " entities.");
+                }
+                for (int i = 0; i < data.size(); i++) {
+                    if (failure != null) {
+                        data.get(i).completeExceptionally(failure);
+                    } else {
+                        data.get(i).complete(results.get(i));
+                    }
+                }
+            } catch (RuntimeException e) {
+                //Readers would otherwise wait forever for whatever had not been completed yet.
+                fail(data, e);
+            }
+        });
+    }
+
+    private static <V> void fail(List<CompletableFuture<V>> data, Throwable failure) {
+        data.forEach(future -> future.completeExceptionally(failure));
+    }
+
+    @Override
+    public String toString() {
+        return "FacetBatchLoader{facet=" + facetKey + ", pending=" + getPendingCount() + ", fetches=" + getFetchCount() + '}';
+    }
+}
@@ -0,0 +1,230 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a facet interface binds to a Faceted type: which method of the Faceted type implements each facet method that
+ * has no default, and whether any are missing. A binding is worked out once for each pair of Faceted type and facet
+ * interface, the first time the pair is used or when it is registered with {@link FacetRegistry#register}, and shared
+ * by every facet of the pair, so facet methods never look up their implementation as they are called.
+ * <p>
+ * The binding also holds the constructor of the pair's proxy class so that creating a {@link FacetEngine#PROXY} facet
+ * does not go through {@link Proxy#newProxyInstance} each time.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetBinding {
+
+    private static final ClassValue<ClassValue<FacetBinding>> BINDINGS = new ClassValue<ClassValue<FacetBinding>>() {
+        @Override
+        protected ClassValue<FacetBinding> computeValue(Class<?> facetedClass) {
+            return new ClassValue<FacetBinding>() {
+                @Override
+                protected FacetBinding computeValue(Class<?> facetClass) {
+                    return new FacetBinding(facetedClass, facetClass);
+                }
+            };
+        }
+    };
+
+    private final Class<?> facetedClass;
+    private final Class<?> facetClass;
+    private final Map<Method, Method> implementations = new HashMap<>();
+    private final List<String> problems = new ArrayList<>();
+    private volatile Constructor<?> proxyConstructor;
+    private volatile boolean proxyResolved;
+
+    private FacetBinding(Class<?> facetedClass, Class<?> facetClass) {
+        this.facetedClass = facetedClass;
+        this.facetClass = facetClass;
+        if (!facetClass.isInterface()) {
+            problems.add(facetClass.getName() + " is not an interface");
+            return;
+        }
+        for (Method method : facetClass.getMethods()) {
+            if (!isAbstractFacetMethod(facetClass, method)
+                    || method.getName().equals("getFacetData") && method.getParameterCount() == 0) {
+                continue;
+            }
+            Method implementation = findImplementation(facetedClass, method);
+            if (implementation != null) {
+                implementations.put(method, implementation);
+            } else if (method.getDeclaringClass() != Facet.class || method.getName().equals("getFacetIdentifier")) {
+                //Other methods declared by Facet itself are never called by the framework so they may be left out.
+                problems.add(method.getDeclaringClass().getSimpleName() + "." + method.getName()
+                        + Arrays.toString(method.getParameterTypes()).replace('[', '(').replace(']', ')'));
+            }
+        }
+    }
+
+    /**
+     * Get the binding of a facet interface to a Faceted type, working it out if this is the first request.
+     * @param facetedClass the Faceted type, or for snapshots the type of the live entity.
+     * @param facetClass the facet interface.
+     * @return the binding.
+     */
+    static FacetBinding of(Class<?> facetedClass, Class<?> facetClass) {
+        return BINDINGS.get(facetedClass).get(facetClass);
+    }
+
+    /**
+     * @return descriptions of the facet methods that have neither a default implementation nor an implementation in the
+     * Faceted type, empty if the facet can be used with the Faceted type.
+     */
+    List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the facet cannot be used with the Faceted type.
+     */
+    void checkValid() {
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException("Facet " + facetClass.getName() + " cannot be used with "
+                    + facetedClass.getName() + ", these methods have no default and are not implemented by it: " + problems);
+        }
+    }
+
+    /**
+     * @param method a method of the facet interface.
+     * @return the method of the Faceted type that implements it, null if there is none.
+     */
+    Method getImplementation(Method method) {
+        return implementations.get(method);
+    }
+
+    /**
+     * Call the implementation of a facet method on the Faceted, methods of {@link Object} are called on the Faceted too.
+     * @param faceted the Faceted, or the live entity for snapshots.
+     * @param method the facet method.
+     * @param args the arguments.
+     * @return the result.
+     * @throws Throwable whatever the implementation throws.
+     */
+    Object invoke(Object faceted, Method method, Object[] args) throws Throwable {
+        Method implementation = method.getDeclaringClass() == Object.class ? method : implementations.get(method);
+        if (implementation == null) {
+            throw new UnsupportedOperationException(facetClass.getName() + "." + method.getName()
+                    + " has no default implementation and is not implemented by " + facetedClass.getName());
+        }
+        try {
+            return implementation.invoke(faceted, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Create a proxy of the facet interface, defined in the Faceted type's class loader.
+     * @param handler the invocation handler.
+     * @return the proxy.
+     */
+    Object newProxy(InvocationHandler handler) {
+        if (!proxyResolved) {
+            prepareProxy();
+        }
+        Constructor<?> constructor = proxyConstructor;
+        if (constructor != null) {
+            try {
+                return constructor.newInstance(handler);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create a proxy of " + facetClass.getName(), e);
+            }
+        }
+        return Proxy.newProxyInstance(facetedClass.getClassLoader(), new Class[]{facetClass}, handler);
+    }
+
+    /**
+     * Define the proxy class and look up its constructor, if that is not possible proxies are created through
+     * {@link Proxy#newProxyInstance} instead.
+     */
+    @SuppressWarnings("deprecation")
+    void prepareProxy() {
+        if (!proxyResolved) {
+            try {
+                Constructor<?> constructor = Proxy.getProxyClass(facetedClass.getClassLoader(), facetClass)
+                        .getConstructor(InvocationHandler.class);
+                constructor.setAccessible(true);
+                proxyConstructor = constructor;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                proxyConstructor = null;
+            }
+            proxyResolved = true;
+        }
+    }
+
+    /**
+     * A method needs implementing if it is abstract and is not given a default implementation by a more specific
+     * interface, as {@link UniqueFacet#getFacetIdentifier()} does for {@link Facet#getFacetIdentifier()}.
+     */
+    static boolean isAbstractFacetMethod(Class<?> facetClass, Method method) {
+        if (!Modifier.isAbstract(method.getModifiers())) {
+            return false;
+        }
+        for (Method candidate : facetClass.getMethods()) {
+            if (candidate.isDefault() && candidate.getName().equals(method.getName())
+                    && candidate.getReturnType() == method.getReturnType()
+                    && Arrays.equals(candidate.getParameterTypes(), method.getParameterTypes())
+                    && method.getDeclaringClass().isAssignableFrom(candidate.getDeclaringClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The implementation has to be a public instance method with the same name and parameters whose return type can
+     * stand in for the facet method's.
+     */
+    private static Method findImplementation(Class<?> facetedClass, Method method) {
+        Method implementation;
+        try {
+            implementation = facetedClass.getMethod(method.getName(), method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        if (Modifier.isStatic(implementation.getModifiers()) || !method.getReturnType().isAssignableFrom(implementation.getReturnType())
+                || method.getReturnType().isPrimitive() && method.getReturnType() != implementation.getReturnType()) {
+            return null;
+        }
+        try {
+            implementation.setAccessible(true);
+        } catch (RuntimeException e) {
+            //Public methods of public classes do not need it, anything else fails when called as it always has.
+        }
+        return implementation;
+    }
+
+    @Override
+    public String toString() {
+        return "FacetBinding{" + facetClass.getName() + " -> " + facetedClass.getName() + ", problems=" + problems + '}';
+    }
+}
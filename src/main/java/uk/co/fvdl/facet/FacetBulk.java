@@ -0,0 +1,364 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Attaches a facet to many Faceted entities at once, for example when onboarding a batch. Compared with calling
+ * {@link Faceted#addFacet} for each entity:
+ * <ul>
+ *     <li>the facet identifier is resolved once for a {@link UniqueFacet}, and otherwise through one setup proxy per
+ *     batch rather than one per entity;</li>
+ *     <li>no facet instances are created, entities create them when the facet is first asked for;</li>
+ *     <li>entities kept in a {@link FacetStore} have their data written with one
+ *     {@link FacetStore#putAllFacetData} call per store per batch;</li>
+ *     <li>batches can be spread across a {@link ForkJoinPool}.</li>
+ * </ul>
+ * A failure, including the facet already existing, is recorded against its entity and the rest of the batch carries
+ * on.
+ * <pre>
+ *     FacetBulk.Result&lt;FacetedPerson&gt; result = FacetBulk.attach(Driver.class, (FacetedPerson person) -&gt; licence(person))
+ *             .inParallel()
+ *             .to(people);
+ * </pre>
+ * Each entity is only touched by the thread processing its batch, so the entities need not be thread safe, but an
+ * entity must not appear twice or be used elsewhere while the attachment runs.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetBulk {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private FacetBulk() {
+    }
+
+    /**
+     * Start describing a bulk attachment.
+     * @param facetClass the facet class.
+     * @param facetData creates the facet data for each entity.
+     * @param <T> the Faceted type.
+     * @param <V> the facet data type.
+     * @param <U> the facet type.
+     * @return the attachment, which is run by {@link Attachment#to(Collection)} or {@link Attachment#to(Stream)}.
+     */
+    public static <T extends Faceted<?, V>, V, U extends Facet<U, V>> Attachment<T, V, U> attach(
+            Class<U> facetClass, Function<? super T, ? extends V> facetData) {
+        return new Attachment<>(facetClass, facetData);
+    }
+
+    /**
+     * A bulk attachment of one facet class.
+     * @param <T> the Faceted type.
+     * @param <V> the facet data type.
+     * @param <U> the facet type.
+     */
+    public static final class Attachment<T extends Faceted<?, V>, V, U extends Facet<U, V>> {
+        private final Class<U> facetClass;
+        private final Function<? super T, ? extends V> facetData;
+        private final FacetKey uniqueKey;
+        private ForkJoinPool pool;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+
+        @SuppressWarnings("unchecked")
+        private Attachment(Class<U> facetClass, Function<? super T, ? extends V> facetData) {
+            this.facetClass = Objects.requireNonNull(facetClass, "facetClass");
+            this.facetData = Objects.requireNonNull(facetData, "facetData");
+            this.uniqueKey = UniqueFacet.class.isAssignableFrom(facetClass)
+                    ? FacetKey.of((Class<? extends UniqueFacet>) facetClass)
+                    : null;
+        }
+
+        /**
+         * Spread the batches across the common fork join pool.
+         * @return this attachment.
+         */
+        public Attachment<T, V, U> inParallel() {
+            return inParallel(ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Spread the batches across a fork join pool.
+         * @param pool the pool.
+         * @return this attachment.
+         */
+        public Attachment<T, V, U> inParallel(ForkJoinPool pool) {
+            this.pool = Objects.requireNonNull(pool, "pool");
+            return this;
+        }
+
+        /**
+         * @param batchSize the number of entities processed together, {@link #DEFAULT_BATCH_SIZE} by default.
+         * @return this attachment.
+         */
+        public Attachment<T, V, U> batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Attach the facet to every entity in a stream.
+         * @param entities the entities.
+         * @return the outcome.
+         */
+        public Result<T> to(Stream<? extends T> entities) {
+            return to(entities.collect(Collectors.toList()));
+        }
+
+        /**
+         * Attach the facet to every entity in a collection.
+         * @param entities the entities.
+         * @return the outcome.
+         */
+        public Result<T> to(Collection<? extends T> entities) {
+            List<? extends T> list = entities instanceof List ? (List<? extends T>) entities : new ArrayList<>(entities);
+            return pool == null
+                    ? new BatchTask(list, 0, list.size()).compute()
+                    : pool.invoke(new BatchTask(list, 0, list.size()));
+        }
+
+        private Result<T> attachBatch(List<? extends T> entities, int from, int to) {
+            Result<T> result = new Result<>();
+            DataHolder<V> holder = new DataHolder<>();
+            U setupProxy = uniqueKey == null ? Faceted.getFacetSetupProxy(facetClass.getClassLoader(), facetClass, holder) : null;
+            Map<FacetStore<V>, PendingWrites<T, V>> pendingWrites = null;
+            for (int i = from; i < to; i++) {
+                T entity = entities.get(i);
+                long start = FacetInstruments.start();
+                try {
+                    entity.checkFacetBinding(facetClass);
+                    V data = Objects.requireNonNull(facetData.apply(entity), "facetData");
+                    FacetKey facetKey = uniqueKey;
+                    if (facetKey == null) {
+                        holder.data = data;
+                        facetKey = FacetKey.of(facetClass, setupProxy.getFacetIdentifier());
+                    }
+                    if (entity instanceof StoredFaceted) {
+                        if (entity.hasFacetData(facetKey) || entity.isPending(facetKey)) {
+                            throw new UnsupportedOperationException("This facet already exists.");
+                        }
+                        if (pendingWrites == null) {
+                            pendingWrites = new IdentityHashMap<>();
+                        }
+                        @SuppressWarnings("unchecked")
+                        FacetStore<V> store = ((StoredFaceted<?, V>) entity).getStore();
+                        pendingWrites.computeIfAbsent(store, key -> new PendingWrites<>()).add(facetKey, entity, data);
+                        continue;
+                    }
+                    if (!entity.addNewFacetData(facetKey, data)) {
+                        throw new UnsupportedOperationException("This facet already exists.");
+                    }
+                    FacetInstruments.added(facetKey, start);
+                    result.attached++;
+                } catch (RuntimeException e) {
+                    result.addFailure(entity, e);
+                } finally {
+                    holder.data = null;
+                }
+            }
+            if (pendingWrites != null) {
+                pendingWrites.forEach((store, writes) -> writes.write(store, result));
+            }
+            return result;
+        }
+
+        /**
+         * Splits the entities into batches.
+         */
+        private final class BatchTask extends RecursiveTask<Result<T>> {
+            private final List<? extends T> entities;
+            private final int from;
+            private final int to;
+
+            private BatchTask(List<? extends T> entities, int from, int to) {
+                this.entities = entities;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Result<T> compute() {
+                if (to - from <= batchSize) {
+                    return attachBatch(entities, from, to);
+                }
+                if (pool == null) {
+                    Result<T> result = new Result<>();
+                    for (int start = from; start < to; start += batchSize) {
+                        result.merge(attachBatch(entities, start, Math.min(to, start + batchSize)));
+                    }
+                    return result;
+                }
+                int middle = from + (to - from) / 2;
+                BatchTask right = new BatchTask(entities, middle, to);
+                right.fork();
+                Result<T> result = new BatchTask(entities, from, middle).compute();
+                result.merge(right.join());
+                return result;
+            }
+        }
+    }
+
+    /**
+     * The outcome of a bulk attachment.
+     * @param <T> the Faceted type.
+     */
+    public static final class Result<T> {
+        private int attached;
+        private List<Failure<T>> failures = Collections.emptyList();
+
+        private Result() {
+        }
+
+        /**
+         * @return the number of entities the facet was attached to.
+         */
+        public int getAttachedCount() {
+            return attached;
+        }
+
+        /**
+         * @return the entities the facet could not be attached to, in no particular order.
+         */
+        public List<Failure<T>> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        /**
+         * @return true if the facet was attached to every entity.
+         */
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        private void addFailure(T entity, RuntimeException cause) {
+            if (failures.isEmpty()) {
+                failures = new ArrayList<>();
+            }
+            failures.add(new Failure<>(entity, cause));
+        }
+
+        private void merge(Result<T> other) {
+            attached += other.attached;
+            if (!other.failures.isEmpty()) {
+                if (failures.isEmpty()) {
+                    failures = new ArrayList<>();
+                }
+                failures.addAll(other.failures);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Result{attached=" + attached + ", failures=" + failures.size() + '}';
+        }
+    }
+
+    /**
+     * An entity the facet could not be attached to.
+     * @param <T> the Faceted type.
+     */
+    public static final class Failure<T> {
+        private final T entity;
+        private final RuntimeException cause;
+
+        private Failure(T entity, RuntimeException cause) {
+            this.entity = entity;
+            this.cause = cause;
+        }
+
+        public T getEntity() {
+            return entity;
+        }
+
+        public RuntimeException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{" + entity + ": " + cause + '}';
+        }
+    }
+
+    /**
+     * The facet data the reusable setup proxy of a batch currently answers with.
+     */
+    private static final class DataHolder<V> implements Supplier<V> {
+        private V data;
+
+        @Override
+        public V get() {
+            return data;
+        }
+    }
+
+    /**
+     * Facet data waiting to be written to one store, grouped by facet key as identifiers may differ between entities.
+     */
+    private static final class PendingWrites<T, V> {
+        private final Map<FacetKey, Map<Long, V>> data = new LinkedHashMap<>();
+        private final Map<FacetKey, List<T>> entities = new LinkedHashMap<>();
+
+        private void add(FacetKey facetKey, T entity, V facetData) {
+            long entityId = ((StoredFaceted<?, ?>) entity).getEntityId();
+            if (data.computeIfAbsent(facetKey, key -> new LinkedHashMap<>()).putIfAbsent(entityId, facetData) != null) {
+                throw new UnsupportedOperationException("This facet already exists.");
+            }
+            entities.computeIfAbsent(facetKey, key -> new ArrayList<>()).add(entity);
+        }
+
+        private void write(FacetStore<V> store, Result<T> result) {
+            data.forEach((facetKey, facetData) -> {
+                List<T> keyEntities = entities.get(facetKey);
+                try {
+                    long start = FacetInstruments.start();
+                    store.putAllFacetData(facetKey, facetData);
+                    for (T entity : keyEntities) {
+                        @SuppressWarnings("unchecked")
+                        StoredFaceted<?, V> stored = (StoredFaceted<?, V>) entity;
+                        V data = facetData.get(stored.getEntityId());
+                        stored.hydrate(facetKey, data);
+                        stored.indexFacetData(facetKey, data);
+                    }
+                    FacetInstruments.added(facetKey, start);
+                    result.attached += keyEntities.size();
+                } catch (RuntimeException e) {
+                    for (T entity : keyEntities) {
+                        result.addFailure(entity, e);
+                    }
+                }
+            });
+        }
+    }
+}
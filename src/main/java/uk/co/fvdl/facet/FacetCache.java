@@ -0,0 +1,376 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cache of facet instances held by each Faceted. Facets can always be recreated from the facet data so the cache
+ * only exists to avoid rebuilding them; how long they are kept is decided by the {@link RetentionPolicy}. Keys are the
+ * canonical {@link FacetKey} instances so lookups are an identity comparison, strong caches probe by key id, and a
+ * hit does not allocate.
+ * <p>
+ * The default policy is read from the <code>uk.co.fvdl.facet.cache.retention</code> system property and the size of
+ * bounded caches from <code>uk.co.fvdl.facet.cache.maximumSize</code>.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public abstract class FacetCache {
+
+    public static final String RETENTION_PROPERTY = "uk.co.fvdl.facet.cache.retention";
+    public static final String MAXIMUM_SIZE_PROPERTY = "uk.co.fvdl.facet.cache.maximumSize";
+
+    private static final RetentionPolicy DEFAULT_RETENTION =
+            RetentionPolicy.valueOf(System.getProperty(RETENTION_PROPERTY, RetentionPolicy.STRONG.name()).toUpperCase());
+    private static final int DEFAULT_MAXIMUM_SIZE = Integer.getInteger(MAXIMUM_SIZE_PROPERTY, 16);
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * How long cached facets are kept.
+     */
+    public enum RetentionPolicy {
+        /**
+         * Facets are kept for the life of the Faceted.
+         */
+        STRONG,
+        /**
+         * Facets are kept until the garbage collector needs the memory.
+         */
+        SOFT,
+        /**
+         * Only the most recently used facets are kept.
+         */
+        BOUNDED
+    }
+
+    /**
+     * Create a cache using the default retention policy.
+     * @return a new cache.
+     */
+    public static FacetCache create() {
+        return create(DEFAULT_RETENTION);
+    }
+
+    /**
+     * Create a cache using the given retention policy, bounded caches use the default maximum size.
+     * @param retentionPolicy the retention policy.
+     * @return a new cache.
+     */
+    public static FacetCache create(RetentionPolicy retentionPolicy) {
+        switch (retentionPolicy) {
+            case SOFT:
+                return new SoftFacetCache();
+            case BOUNDED:
+                return bounded(DEFAULT_MAXIMUM_SIZE);
+            default:
+                return new StrongFacetCache();
+        }
+    }
+
+    /**
+     * Create a strongly retaining cache that can be shared between threads. Lookups take no locks and the statistics
+     * are kept in {@link LongAdder}s so that readers do not contend on them.
+     * @return a new cache.
+     */
+    public static FacetCache concurrent() {
+        return new ConcurrentFacetCache();
+    }
+
+    /**
+     * Create a cache that keeps only the most recently used facets.
+     * @param maximumSize the maximum number of facets to keep.
+     * @return a new cache.
+     */
+    public static FacetCache bounded(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1: " + maximumSize);
+        }
+        return new BoundedFacetCache(maximumSize);
+    }
+
+    public abstract RetentionPolicy getRetentionPolicy();
+
+    /**
+     * @return the number of lookups that found a cached facet.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups that did not find a cached facet.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of facets currently cached.
+     */
+    public abstract int size();
+
+    Object get(FacetKey key) {
+        Object value = lookup(key);
+        if (value == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return value;
+    }
+
+    abstract Object lookup(FacetKey key);
+
+    abstract void put(FacetKey key, Object value);
+
+    /**
+     * Cache a facet unless one is already cached for the key.
+     * @param key the facet key.
+     * @param value the facet to cache.
+     * @return the facet now in the cache, either the existing one or the given one.
+     */
+    Object putIfAbsent(FacetKey key, Object value) {
+        Object existing = lookup(key);
+        if (existing != null) {
+            return existing;
+        }
+        put(key, value);
+        return value;
+    }
+
+    abstract void remove(FacetKey key);
+
+    abstract void clear();
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + '}';
+    }
+
+    private static final class StrongFacetCache extends FacetCache {
+        private final FacetKeyMap<Object> facets = new FacetKeyMap<>();
+
+        @Override
+        public RetentionPolicy getRetentionPolicy() {
+            return RetentionPolicy.STRONG;
+        }
+
+        @Override
+        public int size() {
+            return facets.size();
+        }
+
+        @Override
+        Object lookup(FacetKey key) {
+            return facets.get(key);
+        }
+
+        @Override
+        void put(FacetKey key, Object value) {
+            facets.put(key, value);
+        }
+
+        @Override
+        void remove(FacetKey key) {
+            facets.remove(key);
+        }
+
+        @Override
+        void clear() {
+            facets.clear();
+        }
+    }
+
+    private static final class ConcurrentFacetCache extends FacetCache {
+        private final ConcurrentMap<FacetKey, Object> facets = new ConcurrentHashMap<>(4);
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        @Override
+        public RetentionPolicy getRetentionPolicy() {
+            return RetentionPolicy.STRONG;
+        }
+
+        @Override
+        public long getHitCount() {
+            return hits.sum();
+        }
+
+        @Override
+        public long getMissCount() {
+            return misses.sum();
+        }
+
+        @Override
+        public int size() {
+            return facets.size();
+        }
+
+        @Override
+        Object get(FacetKey key) {
+            Object value = facets.get(key);
+            if (value == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return value;
+        }
+
+        @Override
+        Object lookup(FacetKey key) {
+            return facets.get(key);
+        }
+
+        @Override
+        void put(FacetKey key, Object value) {
+            facets.put(key, value);
+        }
+
+        @Override
+        Object putIfAbsent(FacetKey key, Object value) {
+            Object existing = facets.putIfAbsent(key, value);
+            return existing == null ? value : existing;
+        }
+
+        @Override
+        void remove(FacetKey key) {
+            facets.remove(key);
+        }
+
+        @Override
+        void clear() {
+            facets.clear();
+        }
+    }
+
+    private static final class SoftFacetCache extends FacetCache {
+        private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+        private final FacetKeyMap<KeyedReference> facets = new FacetKeyMap<>();
+
+        @Override
+        public RetentionPolicy getRetentionPolicy() {
+            return RetentionPolicy.SOFT;
+        }
+
+        @Override
+        public int size() {
+            expunge();
+            return facets.size();
+        }
+
+        @Override
+        Object lookup(FacetKey key) {
+            KeyedReference reference = facets.get(key);
+            return reference == null ? null : reference.get();
+        }
+
+        @Override
+        void put(FacetKey key, Object value) {
+            expunge();
+            facets.put(key, new KeyedReference(key, value, collected));
+        }
+
+        @Override
+        void remove(FacetKey key) {
+            facets.remove(key);
+        }
+
+        @Override
+        void clear() {
+            facets.clear();
+            expunge();
+        }
+
+        private void expunge() {
+            for (Reference<?> reference = collected.poll(); reference != null; reference = collected.poll()) {
+                KeyedReference keyed = (KeyedReference) reference;
+                if (facets.get(keyed.key) == keyed) {
+                    facets.remove(keyed.key);
+                }
+            }
+        }
+
+        private static final class KeyedReference extends SoftReference<Object> {
+            private final FacetKey key;
+
+            private KeyedReference(FacetKey key, Object value, ReferenceQueue<Object> queue) {
+                super(value, queue);
+                this.key = key;
+            }
+        }
+    }
+
+    private static final class BoundedFacetCache extends FacetCache {
+        private final int maximumSize;
+        private Map<FacetKey, Object> facets;
+
+        private BoundedFacetCache(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        public RetentionPolicy getRetentionPolicy() {
+            return RetentionPolicy.BOUNDED;
+        }
+
+        @Override
+        public int size() {
+            return facets == null ? 0 : facets.size();
+        }
+
+        @Override
+        Object lookup(FacetKey key) {
+            return facets == null ? null : facets.get(key);
+        }
+
+        @Override
+        void put(FacetKey key, Object value) {
+            if (facets == null) {
+                facets = new LinkedHashMap<FacetKey, Object>(4, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<FacetKey, Object> eldest) {
+                        return size() > maximumSize;
+                    }
+                };
+            }
+            facets.put(key, value);
+        }
+
+        @Override
+        void remove(FacetKey key) {
+            if (facets != null) {
+                facets.remove(key);
+            }
+        }
+
+        @Override
+        void clear() {
+            facets = null;
+        }
+    }
+}
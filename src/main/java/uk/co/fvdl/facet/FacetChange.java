@@ -0,0 +1,251 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import uk.co.fvdl.facet.schema.FacetRecord;
+import uk.co.fvdl.facet.schema.FacetSchema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A change to one facet of a Faceted, one entry of a {@link FacetDelta}. Changed facets list the properties that
+ * changed, which are the fields of JSON object data or the slots of a {@link FacetRecord}; other data is compared
+ * with {@link Object#equals(Object)} and has no properties.
+ * <p>
+ * The data held by a change is the data of the checkpoint it was exported against, which the Faceted never changes,
+ * so changes can be handed to another thread to be written.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetChange<V> {
+
+    private final Type type;
+    private final String facetClassName;
+    private final String facetIdentifier;
+    private final V facetData;
+    private final V patch;
+    private final boolean mergePatch;
+    private final List<String> changedProperties;
+
+    /**
+     * What happened to the facet.
+     */
+    public enum Type {
+        ADDED, CHANGED, REMOVED
+    }
+
+    private FacetChange(Type type, String facetClassName, String facetIdentifier, V facetData, V patch,
+                        boolean mergePatch, List<String> changedProperties) {
+        this.type = type;
+        this.facetClassName = facetClassName;
+        this.facetIdentifier = facetIdentifier;
+        this.facetData = facetData;
+        this.patch = patch;
+        this.mergePatch = mergePatch;
+        this.changedProperties = changedProperties;
+    }
+
+    /**
+     * Work out the change between two versions of a facet's data.
+     * @return the change, or null if the two are the same.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> FacetChange<V> between(String facetClassName, String facetIdentifier, V before, V after) {
+        if (before == null) {
+            return after == null ? null : new FacetChange<>(Type.ADDED, facetClassName, facetIdentifier, after, after,
+                    after instanceof JsonNode && !hasNullField((JsonNode) after), Collections.emptyList());
+        } else if (after == null) {
+            return new FacetChange<>(Type.REMOVED, facetClassName, facetIdentifier, null, null, false, Collections.emptyList());
+        }
+        List<String> changedProperties = new ArrayList<>();
+        V patch = after;
+        boolean mergePatch = false;
+        if (before instanceof ObjectNode && after instanceof ObjectNode) {
+            diff((ObjectNode) before, (ObjectNode) after, changedProperties);
+            if (changedProperties.isEmpty()) {
+                return null;
+            }
+            ObjectNode objectPatch = mergePatch((ObjectNode) before, (ObjectNode) after);
+            if (objectPatch != null) {
+                patch = (V) objectPatch;
+                mergePatch = true;
+            }
+        } else if (before instanceof FacetRecord && after instanceof FacetRecord
+                && ((FacetRecord) before).getSchema() == ((FacetRecord) after).getSchema()) {
+            diff((FacetRecord) before, (FacetRecord) after, changedProperties);
+            if (changedProperties.isEmpty()) {
+                return null;
+            }
+        } else if (before.equals(after)) {
+            return null;
+        } else {
+            //Any JSON value other than an object replaces the whole target of a merge patch.
+            mergePatch = after instanceof JsonNode && !hasNullField((JsonNode) after);
+        }
+        return new FacetChange<>(Type.CHANGED, facetClassName, facetIdentifier, after, patch, mergePatch, changedProperties);
+    }
+
+    private static void diff(ObjectNode before, ObjectNode after, List<String> changedProperties) {
+        for (Iterator<String> fieldNames = after.fieldNames(); fieldNames.hasNext(); ) {
+            String fieldName = fieldNames.next();
+            if (!after.get(fieldName).equals(before.get(fieldName))) {
+                changedProperties.add(fieldName);
+            }
+        }
+        for (Iterator<String> fieldNames = before.fieldNames(); fieldNames.hasNext(); ) {
+            String fieldName = fieldNames.next();
+            if (!after.has(fieldName)) {
+                changedProperties.add(fieldName);
+            }
+        }
+    }
+
+    /**
+     * Work out the JSON merge patch (RFC 7386) that turns one object into another: changed fields with their new
+     * values, fields of objects on both sides patched in turn, and removed fields as null.
+     * @return the patch, or null if the change cannot be expressed as a merge patch because it sets a field to null.
+     */
+    private static ObjectNode mergePatch(ObjectNode before, ObjectNode after) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        for (Iterator<String> fieldNames = after.fieldNames(); fieldNames.hasNext(); ) {
+            String fieldName = fieldNames.next();
+            JsonNode value = after.get(fieldName);
+            JsonNode previous = before.get(fieldName);
+            if (value.equals(previous)) {
+                continue;
+            }
+            if (value.isObject() && previous != null && previous.isObject()) {
+                ObjectNode fieldPatch = mergePatch((ObjectNode) previous, (ObjectNode) value);
+                if (fieldPatch == null) {
+                    return null;
+                }
+                patch.set(fieldName, fieldPatch);
+            } else if (value.isNull() || hasNullField(value)) {
+                return null;
+            } else {
+                patch.set(fieldName, value);
+            }
+        }
+        for (Iterator<String> fieldNames = before.fieldNames(); fieldNames.hasNext(); ) {
+            String fieldName = fieldNames.next();
+            if (!after.has(fieldName)) {
+                patch.putNull(fieldName);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * @return true if an object, or an object nested in it, has a field set to null, which a merge patch would remove.
+     */
+    private static boolean hasNullField(JsonNode node) {
+        if (node.isObject()) {
+            for (JsonNode value : node) {
+                if (value.isNull() || hasNullField(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void diff(FacetRecord before, FacetRecord after, List<String> changedProperties) {
+        FacetSchema schema = after.getSchema();
+        for (int slot = 0; slot < schema.size(); slot++) {
+            boolean changed;
+            switch (schema.getSlot(slot).getKind()) {
+                case INT:
+                    changed = before.getInt(slot) != after.getInt(slot);
+                    break;
+                case LONG:
+                    changed = before.getLong(slot) != after.getLong(slot);
+                    break;
+                case DOUBLE:
+                    changed = Double.doubleToRawLongBits(before.getDouble(slot)) != Double.doubleToRawLongBits(after.getDouble(slot));
+                    break;
+                case BOOLEAN:
+                    changed = before.getBoolean(slot) != after.getBoolean(slot);
+                    break;
+                default:
+                    changed = !Objects.equals(before.get(slot), after.get(slot));
+            }
+            if (changed) {
+                changedProperties.add(schema.getSlot(slot).getName());
+            }
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the name of the facet class, as used in the <code>$facets$</code> node of {@link JsonFaceted}.
+     */
+    public String getFacetClassName() {
+        return facetClassName;
+    }
+
+    public String getFacetIdentifier() {
+        return facetIdentifier;
+    }
+
+    /**
+     * @return the whole of the facet's data after the change, null if the facet was removed.
+     */
+    public V getFacetData() {
+        return facetData;
+    }
+
+    /**
+     * @return the least data that brings the facet up to date: a JSON merge patch of the changed fields for changed JSON
+     * object data, the whole of the data otherwise, null if the facet was removed. See {@link #isMergePatch()}.
+     */
+    public V getPatch() {
+        return patch;
+    }
+
+    /**
+     * @return true if applying {@link #getPatch()} as a JSON merge patch (RFC 7386) to the facet's previous data gives
+     * its new data. False for removed facets, for data that is not JSON, and for JSON data with a field set to null,
+     * which a merge patch cannot express; the patch is then the whole of the new data and replaces the old.
+     */
+    public boolean isMergePatch() {
+        return mergePatch;
+    }
+
+    /**
+     * @return the properties that changed, empty for added and removed facets and for data that has no properties.
+     */
+    public List<String> getChangedProperties() {
+        return Collections.unmodifiableList(changedProperties);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetChange{" + type + ' ' + facetClassName + '/' + facetIdentifier
+                + (changedProperties.isEmpty() ? "" : " " + changedProperties) + '}';
+    }
+}
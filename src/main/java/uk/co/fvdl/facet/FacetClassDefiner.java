@@ -0,0 +1,95 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Defines the classes {@link GeneratedFacets} writes for one Faceted type. This version defines them in a class loader
+ * of their own, a child of the Faceted type's class loader, in the <code>uk.co.fvdl.facet.generated</code> package.
+ * The Java 16 version in <code>src/main/java16</code> defines hidden classes instead.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetClassDefiner {
+
+    private static final String GENERATED_PACKAGE = "uk.co.fvdl.facet.generated.";
+
+    private final GeneratedFacetClassLoader classLoader;
+
+    private FacetClassDefiner(Class<?> facetedClass) {
+        this.classLoader = new GeneratedFacetClassLoader(facetedClass.getClassLoader());
+    }
+
+    /**
+     * @param facetedClass the Faceted type.
+     * @return the definer for the classes generated for a Faceted type.
+     */
+    static FacetClassDefiner forFacetedType(Class<?> facetedClass) {
+        return new FacetClassDefiner(facetedClass);
+    }
+
+    /**
+     * @param type a type used by a generated class.
+     * @return true if generated classes will resolve the type's name to the type itself.
+     */
+    boolean canSee(Class<?> type) {
+        try {
+            return classLoader.loadClass(type.getName()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param simpleName the name of a generated class without its package.
+     * @return the name to write into the generated class.
+     */
+    String className(String simpleName) {
+        return GENERATED_PACKAGE + simpleName;
+    }
+
+    /**
+     * Define a generated class.
+     * @param className the name of the class, as returned by {@link #className(String)}.
+     * @param classFile the class file.
+     * @param constructorType the type of the public constructor to return.
+     * @return the constructor of the class.
+     * @throws ReflectiveOperationException if the constructor cannot be found.
+     */
+    MethodHandle define(String className, byte[] classFile, MethodType constructorType)
+            throws ReflectiveOperationException {
+        Class<?> generated = classLoader.define(className, classFile);
+        return MethodHandles.publicLookup().findConstructor(generated, constructorType);
+    }
+
+    /**
+     * Class loader for generated facets, a child of the Faceted type's own class loader.
+     */
+    private static final class GeneratedFacetClassLoader extends ClassLoader {
+
+        private GeneratedFacetClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+    }
+}
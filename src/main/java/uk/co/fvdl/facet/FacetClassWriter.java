@@ -0,0 +1,348 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the class file for a generated facet. The generated class extends {@link GeneratedFacet} and implements a
+ * single facet interface. Only straight line method bodies are generated, so no stack map frames are needed and the
+ * writer can stay very small.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetClassWriter {
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ALOAD = 0x19;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int FLOAD = 0x17;
+    private static final int DLOAD = 0x18;
+    private static final int IRETURN = 0xac;
+    private static final int LRETURN = 0xad;
+    private static final int FRETURN = 0xae;
+    private static final int DRETURN = 0xaf;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int CHECKCAST = 0xc0;
+    private static final int ATHROW = 0xbf;
+    private static final int LDC_W = 0x13;
+
+    private static final String SUPER_CLASS = internalName(GeneratedFacet.class);
+    private static final String CONSTRUCTOR_DESCRIPTOR =
+            MethodType.methodType(void.class, Faceted.class, FacetKey.class).toMethodDescriptorString();
+
+    private final ConstantPool constantPool = new ConstantPool();
+    private final List<byte[]> methods = new ArrayList<>();
+    private final String className;
+    private final Class<?> facetClass;
+    private final Class<?> facetedClass;
+
+    FacetClassWriter(String className, Class<?> facetClass, Class<?> facetedClass) {
+        this.className = className;
+        this.facetClass = facetClass;
+        this.facetedClass = facetedClass;
+    }
+
+    /**
+     * Write a constructor that passes its arguments straight on to the {@link GeneratedFacet} constructor.
+     */
+    void writeConstructor() {
+        Code code = new Code();
+        code.load(Object.class, 0).load(Object.class, 1).load(Object.class, 2);
+        code.op(INVOKESPECIAL).u2(constantPool.methodRef(SUPER_CLASS, "<init>", CONSTRUCTOR_DESCRIPTOR));
+        code.op(RETURN);
+        addMethod("<init>", CONSTRUCTOR_DESCRIPTOR, code, 3, 3);
+    }
+
+    /**
+     * Write an implementation of <code>getFacetData()</code> that reads from the Faceted storage.
+     * @param method the facet method being implemented.
+     */
+    void writeFacetDataMethod(Method method) {
+        Code code = new Code();
+        code.load(Object.class, 0);
+        code.op(INVOKEVIRTUAL).u2(constantPool.methodRef(SUPER_CLASS, "facetData", "()Ljava/lang/Object;"));
+        if (method.getReturnType() != Object.class) {
+            code.op(CHECKCAST).u2(constantPool.classRef(method.getReturnType()));
+        }
+        code.op(ARETURN);
+        addMethod(method.getName(), descriptor(method), code, 1, 1);
+    }
+
+    /**
+     * Write an implementation of a facet method that checks the facet is still current and then makes a direct virtual
+     * call to the equivalent method on the Faceted type.
+     * @param method the facet method being implemented.
+     * @param target the method on the Faceted type.
+     */
+    void writeDelegatingMethod(Method method, Method target) {
+        Code code = new Code();
+        code.load(Object.class, 0);
+        code.op(INVOKEVIRTUAL).u2(constantPool.methodRef(SUPER_CLASS, "checkCurrent", "()V"));
+        code.load(Object.class, 0);
+        code.op(GETFIELD).u2(constantPool.fieldRef(SUPER_CLASS, "faceted", "L" + internalName(Faceted.class) + ";"));
+        code.op(CHECKCAST).u2(constantPool.classRef(facetedClass));
+        int slot = 1;
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            code.load(parameterType, slot);
+            slot += slots(parameterType);
+        }
+        code.op(INVOKEVIRTUAL).u2(constantPool.methodRef(internalName(facetedClass), target.getName(), descriptor(target)));
+        code.returnValue(method.getReturnType());
+        addMethod(method.getName(), descriptor(method), code, Math.max(slot, slots(method.getReturnType())), slot);
+    }
+
+    /**
+     * Write an implementation of a facet method that always throws an UnsupportedOperationException.
+     * @param method the facet method being implemented.
+     */
+    void writeUnsupportedMethod(Method method) {
+        Code code = new Code();
+        code.load(Object.class, 0);
+        code.op(LDC_W).u2(constantPool.string(method.getName()));
+        code.op(INVOKEVIRTUAL).u2(constantPool.methodRef(SUPER_CLASS, "unsupportedMethod", "(Ljava/lang/String;)Ljava/lang/RuntimeException;"));
+        code.op(ATHROW);
+        int locals = 1;
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            locals += slots(parameterType);
+        }
+        addMethod(method.getName(), descriptor(method), code, 2, locals);
+    }
+
+    byte[] toByteArray() {
+        int thisClass = constantPool.classRef(className.replace('.', '/'));
+        int superClass = constantPool.classRef(SUPER_CLASS);
+        int facetInterface = constantPool.classRef(facetClass);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(facetInterface);
+            out.writeShort(0); //No fields.
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); //No class attributes.
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //Cannot happen writing to memory.
+        }
+        return bytes.toByteArray();
+    }
+
+    private void addMethod(String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        if (maxLocals > 255) {
+            throw new IllegalArgumentException("Too many parameters to generate " + name + descriptor);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] instructions = code.bytes.toByteArray();
+            out.writeShort(ACC_PUBLIC | (name.equals("<init>") ? 0 : ACC_FINAL));
+            out.writeShort(constantPool.utf8(name));
+            out.writeShort(constantPool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(constantPool.utf8("Code"));
+            out.writeInt(12 + instructions.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(instructions.length);
+            out.write(instructions);
+            out.writeShort(0); //No exception table.
+            out.writeShort(0); //No code attributes.
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static String descriptor(Method method) {
+        return MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString();
+    }
+
+    private static int slots(Class<?> type) {
+        return type == void.class ? 0 : type == long.class || type == double.class ? 2 : 1;
+    }
+
+    /**
+     * A method body under construction.
+     */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        Code load(Class<?> type, int slot) {
+            int opcode;
+            if (!type.isPrimitive()) {
+                opcode = ALOAD;
+            } else if (type == long.class) {
+                opcode = LLOAD;
+            } else if (type == float.class) {
+                opcode = FLOAD;
+            } else if (type == double.class) {
+                opcode = DLOAD;
+            } else {
+                opcode = ILOAD;
+            }
+            bytes.write(opcode);
+            bytes.write(slot);
+            return this;
+        }
+
+        Code returnValue(Class<?> type) {
+            if (type == void.class) {
+                return op(RETURN);
+            } else if (!type.isPrimitive()) {
+                return op(ARETURN);
+            } else if (type == long.class) {
+                return op(LRETURN);
+            } else if (type == float.class) {
+                return op(FRETURN);
+            } else if (type == double.class) {
+                return op(DRETURN);
+            } else {
+                return op(IRETURN);
+            }
+        }
+    }
+
+    /**
+     * The constant pool of the class being written, entries are shared where they are identical.
+     */
+    private static final class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int CLASS = 7;
+        private static final int STRING = 8;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(UTF8);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(Class<?> type) {
+            return classRef(type.isArray() ? type.getName().replace('.', '/') : internalName(type));
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(CLASS);
+                out.writeShort(name);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, () -> {
+                out.writeByte(STRING);
+                out.writeShort(utf8);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(FIELD_REF, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(METHOD_REF, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, () -> {
+                out.writeByte(NAME_AND_TYPE);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + tag + owner + "." + name + ":" + descriptor, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerClass);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, EntryWriter writer) {
+            Integer index = entries.get(key);
+            if (index == null) {
+                try {
+                    writer.write();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = count++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        void writeTo(DataOutputStream classOut) throws IOException {
+            classOut.writeShort(count);
+            classOut.write(bytes.toByteArray());
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+}
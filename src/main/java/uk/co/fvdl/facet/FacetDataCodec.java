@@ -0,0 +1,47 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts facet data to and from bytes for a {@link FacetStore}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ * @param <V> the facet data type.
+ */
+public interface FacetDataCodec<V> {
+
+    byte[] encode(V facetData);
+
+    /**
+     * @param bytes the encoded data, a read only view that may be of a memory mapped file so it must not be kept.
+     * @return the decoded data.
+     */
+    V decode(ByteBuffer bytes);
+
+    /**
+     * @param <V> the JSON node type of the facet data.
+     * @return a codec storing facet data as JSON text.
+     */
+    @SuppressWarnings("unchecked")
+    static <V extends JsonNode> FacetDataCodec<V> json() {
+        return (FacetDataCodec<V>) JsonFacetDataCodec.INSTANCE;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Binds the default methods of facet interfaces for {@link FacetDispatchPlan}. Each handle is adapted to the exact
+ * <code>(Object, Object[])Object</code> shape of an invocation handler. This version uses the private
+ * <code>Lookup</code> constructor on Java 8, and <code>privateLookupIn</code> found reflectively when the classes are
+ * run unpackaged on a later Java; the versions in <code>src/main/java11</code> and <code>src/main/java16</code>,
+ * packaged under <code>META-INF/versions</code>, call the later APIs directly.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetDefaultMethods {
+
+    //Only present on Java 9 and later, where it replaces the private Lookup constructor used on Java 8.
+    private static final Method PRIVATE_LOOKUP_IN = findPrivateLookupIn();
+
+    private FacetDefaultMethods() {
+    }
+
+    /**
+     * Bind a default method so that it can be invoked on a facet proxy.
+     * @param method the default method.
+     * @return a handle taking the proxy and the arguments, which may be null if the method takes none.
+     * @throws IllegalStateException if the method cannot be bound.
+     */
+    static MethodHandle bind(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        try {
+            int parameterCount = method.getParameterCount();
+            return privateLookup(declaringClass)
+                    .unreflectSpecial(method, declaringClass)
+                    .asType(MethodType.genericMethodType(parameterCount + 1))
+                    .asSpreader(Object[].class, parameterCount);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to bind default method " + method, e);
+        }
+    }
+
+    private static MethodHandles.Lookup privateLookup(Class<?> declaringClass) throws ReflectiveOperationException {
+        if (PRIVATE_LOOKUP_IN != null) {
+            return (MethodHandles.Lookup) PRIVATE_LOOKUP_IN.invoke(null, declaringClass, MethodHandles.lookup());
+        }
+        Constructor<MethodHandles.Lookup> constructor =
+                MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(declaringClass, MethodHandles.Lookup.PRIVATE);
+    }
+
+    private static Method findPrivateLookupIn() {
+        try {
+            return MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes made to the facets of one Faceted between two calls of {@link Faceted#exportDelta()}, so that only what
+ * changed needs to be persisted rather than the whole entity. See {@link FacetFlusher} to write deltas behind the
+ * threads making the changes.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetDelta<T extends Faceted<T, V>, V> {
+
+    private final T entity;
+    private final List<FacetChange<V>> changes;
+
+    FacetDelta(T entity, List<FacetChange<V>> changes) {
+        this.entity = entity;
+        this.changes = changes;
+    }
+
+    /**
+     * @return the entity the changes were made to.
+     */
+    public T getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the changes, one per changed facet.
+     */
+    public List<FacetChange<V>> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Express the changes to JSON facet data as a JSON merge patch of the document written by
+     * {@link JsonFacetedWriter}: each changed facet's patch under <code>$facets$/&lt;facet class&gt;/&lt;facet
+     * identifier&gt;</code> and null for each removed facet.
+     * @return the merge patch, an empty object if there are no changes.
+     * @throws IllegalStateException if any facet data is not JSON, or sets a field to null which a merge patch cannot
+     * express.
+     */
+    public ObjectNode toJsonMergePatch() {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        for (FacetChange<V> change : changes) {
+            if (change.getType() != FacetChange.Type.REMOVED && !(change.getPatch() instanceof JsonNode)) {
+                throw new IllegalStateException("Facet data of " + change.getFacetClassName() + " is not JSON.");
+            }
+            if (change.getType() != FacetChange.Type.REMOVED && !change.isMergePatch()) {
+                throw new IllegalStateException("Facet data of " + change.getFacetClassName() + '/'
+                        + change.getFacetIdentifier() + " sets a field to null, which a merge patch cannot express.");
+            }
+            patch.with(JsonFaceted.FACET_NODE).with(change.getFacetClassName())
+                    .set(change.getFacetIdentifier(), (JsonNode) change.getPatch());
+        }
+        return patch;
+    }
+
+    @Override
+    public String toString() {
+        return "FacetDelta{" + entity + ", changes=" + changes + '}';
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The dispatch plan for a single facet interface. A plan is built once per facet interface, the first time it is
+ * needed, and shared between every facet instance of that interface. Each default method is resolved to a method handle
+ * that has already been adapted to the exact <code>(Object, Object[])Object</code> shape of an invocation handler, so
+ * calling a default method is a table lookup followed by <code>invokeExact</code>. How a default method is bound
+ * depends on the Java version, see {@link FacetDefaultMethods}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetDispatchPlan {
+
+    private static final ClassValue<FacetDispatchPlan> PLANS = new ClassValue<FacetDispatchPlan>() {
+        @Override
+        protected FacetDispatchPlan computeValue(Class<?> facetClass) {
+            return new FacetDispatchPlan(facetClass);
+        }
+    };
+
+    private final Class<?> facetClass;
+    private final Map<Method, MethodHandle> defaultMethods;
+
+    private FacetDispatchPlan(Class<?> facetClass) {
+        this.facetClass = facetClass;
+        Map<Method, MethodHandle> handles = new HashMap<>();
+        for (Method method : facetClass.getMethods()) {
+            if (method.isDefault()) {
+                handles.put(method, FacetDefaultMethods.bind(method));
+            }
+        }
+        this.defaultMethods = handles;
+    }
+
+    /**
+     * Get the shared dispatch plan for a facet interface, building it if this is the first request.
+     * @param facetClass the facet interface.
+     * @return the dispatch plan.
+     */
+    static FacetDispatchPlan forFacet(Class<?> facetClass) {
+        return PLANS.get(facetClass);
+    }
+
+    /**
+     * Invoke a default method of the facet interface on a facet instance.
+     * @param facet the facet instance, usually a proxy.
+     * @param method the default method to invoke.
+     * @param args the arguments to the method, may be null if the method takes none.
+     * @return the result of the method, null for void methods.
+     * @throws Throwable whatever the default method throws.
+     */
+    Object invokeDefault(Object facet, Method method, Object[] args) throws Throwable {
+        MethodHandle handle = defaultMethods.get(method);
+        if (handle == null) {
+            throw new UnsupportedOperationException(
+                    method + " is not a default method of " + facetClass.getName());
+        }
+        return (Object) handle.invokeExact(facet, args);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * The mechanism used to create facet instances for a Faceted object. The engine used can be chosen per Faceted type
+ * by overriding {@link Faceted#getFacetEngine()} or globally with the <code>uk.co.fvdl.facet.engine</code> system
+ * property, which takes the name of one of the constants below.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public enum FacetEngine {
+
+    /**
+     * Facets are {@link java.lang.reflect.Proxy} instances that route every call through an invocation handler. This
+     * works for any facet interface and Faceted type.
+     */
+    PROXY {
+        @Override
+        <V, U extends Facet<U, V>> U createFacet(Faceted<?, V> faceted, Class<U> facetClass, FacetKey facetKey) {
+            return FacetProxies.createFacet(faceted, facetClass, facetKey);
+        }
+
+        @Override
+        void prepare(Class<?> facetedClass, Class<?> facetClass) {
+            FacetBinding.of(facetedClass, facetClass).prepareProxy();
+        }
+    },
+
+    /**
+     * Facets are instances of a class generated at runtime for each pair of Faceted type and facet interface. Default
+     * methods are inherited from the interface, methods implemented by the Faceted type are direct virtual calls and
+     * facet data is read straight from the Faceted storage, so the JIT can inline through the facet as it would any
+     * ordinary class. Where a class cannot be generated, for example because the Faceted type or facet interface is not
+     * public, this falls back to {@link #PROXY}.
+     */
+    GENERATED {
+        @Override
+        <V, U extends Facet<U, V>> U createFacet(Faceted<?, V> faceted, Class<U> facetClass, FacetKey facetKey) {
+            return GeneratedFacets.createFacet(faceted, facetClass, facetKey);
+        }
+
+        @Override
+        void prepare(Class<?> facetedClass, Class<?> facetClass) {
+            if (!GeneratedFacets.prepare(facetedClass, facetClass)) {
+                PROXY.prepare(facetedClass, facetClass);
+            }
+        }
+    };
+
+    /**
+     * Name of the system property used to select the default engine.
+     */
+    public static final String ENGINE_PROPERTY = "uk.co.fvdl.facet.engine";
+
+    abstract <V, U extends Facet<U, V>> U createFacet(Faceted<?, V> faceted, Class<U> facetClass, FacetKey facetKey);
+
+    /**
+     * Do whatever this engine would otherwise do when the first facet of a pair of Faceted type and facet interface is
+     * created, such as defining classes.
+     */
+    abstract void prepare(Class<?> facetedClass, Class<?> facetClass);
+
+    /**
+     * Get the engine selected by the <code>uk.co.fvdl.facet.engine</code> system property, {@link #PROXY} if it is not
+     * set.
+     * @return the default engine.
+     */
+    public static FacetEngine getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    private static final class DefaultHolder {
+        private static final FacetEngine DEFAULT = valueOf(System.getProperty(ENGINE_PROPERTY, PROXY.name()).toUpperCase());
+    }
+}
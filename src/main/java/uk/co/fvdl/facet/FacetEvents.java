@@ -0,0 +1,45 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.reflect.Method;
+
+/**
+ * Flight Recorder events for facet operations. Flight Recorder has no API on Java 8, so this version does nothing; the
+ * Java 11 version in <code>src/main/java11</code>, packaged under <code>META-INF/versions/11</code>, commits real
+ * events.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetEvents {
+
+    private FacetEvents() {
+    }
+
+    /**
+     * @return true if events are actually recorded on this Java version.
+     */
+    static boolean isAvailable() {
+        return false;
+    }
+
+    static void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+    }
+
+    static void slowDispatch(FacetKey facetKey, Method method, long elapsedNanos) {
+    }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes {@link FacetDelta}s behind the threads that make the changes. Deltas are exported on the thread that owns the
+ * entity, which is cheap, and handed to a {@link Sink} in batches on a background daemon thread, either once a batch
+ * is full or after a delay, so the cost of persisting follows what changed rather than the size of the entities.
+ * <p>
+ * Batches are written in the order the deltas were submitted. A batch the sink fails to write is kept and written
+ * again before anything else, by the next scheduled flush or an explicit {@link #flush()}, whether the sink threw an
+ * {@link IOException} or an unchecked exception.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetFlusher<T extends Faceted<T, V>, V> implements Closeable {
+
+    private final Sink<T, V> sink;
+    private final int batchSize;
+    private final ScheduledExecutorService writer;
+    private final Queue<FacetDelta<T, V>> submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    //The batch being written, kept if writing it fails, guarded by this.
+    private List<FacetDelta<T, V>> batch;
+    private long writtenCount;
+    private volatile Exception lastFailure;
+    private volatile boolean closed;
+
+    /**
+     * Where the deltas are written.
+     */
+    @FunctionalInterface
+    public interface Sink<T extends Faceted<T, V>, V> {
+        void write(List<FacetDelta<T, V>> deltas) throws IOException;
+    }
+
+    /**
+     * Create a flusher and start its background thread.
+     * @param sink where to write the deltas.
+     * @param batchSize the largest number of deltas to write at once, a full batch is written straight away.
+     * @param delay the longest time a delta waits before it is written.
+     * @param unit the unit of the delay.
+     */
+    public FacetFlusher(Sink<T, V> sink, int batchSize, long delay, TimeUnit unit) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "facet-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushInBackground, delay, delay, unit);
+    }
+
+    /**
+     * Export the changes to an entity and submit them, this must be called on a thread that may use the entity.
+     * @param entity the entity.
+     */
+    public void submit(T entity) {
+        submit(entity.exportDelta());
+    }
+
+    /**
+     * Submit a delta to be written, empty deltas are ignored.
+     * @param delta the delta.
+     */
+    public void submit(FacetDelta<T, V> delta) {
+        if (closed) {
+            throw new IllegalStateException("The facet flusher is closed.");
+        }
+        if (!delta.isEmpty()) {
+            submitted.add(delta);
+            if (submittedCount.incrementAndGet() >= batchSize && flushRequested.compareAndSet(false, true)) {
+                writer.execute(() -> {
+                    flushRequested.set(false);
+                    flushInBackground();
+                });
+            }
+        }
+    }
+
+    /**
+     * Write every delta submitted so far.
+     * @throws IOException if the sink fails, the batch it failed on is kept to be written again.
+     */
+    public synchronized void flush() throws IOException {
+        while (true) {
+            if (batch == null) {
+                List<FacetDelta<T, V>> next = new ArrayList<>(batchSize);
+                for (FacetDelta<T, V> delta; next.size() < batchSize && (delta = submitted.poll()) != null; ) {
+                    next.add(delta);
+                }
+                if (next.isEmpty()) {
+                    return;
+                }
+                submittedCount.addAndGet(-next.size());
+                batch = next;
+            }
+            sink.write(Collections.unmodifiableList(batch));
+            writtenCount += batch.size();
+            batch = null;
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            //An exception escaping a scheduled task would cancel every later flush.
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * @return the number of deltas written so far.
+     */
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return the number of deltas submitted but not yet written.
+     */
+    public synchronized int getPendingCount() {
+        return submittedCount.get() + (batch == null ? 0 : batch.size());
+    }
+
+    /**
+     * @return the last failure of a background flush, an {@link IOException} or an unchecked exception thrown by the
+     * sink, null if there has been none.
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stop the background thread and write everything still pending.
+     * @throws IOException if the sink fails.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        writer.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,417 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.PropertyIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Indexes over the facets of ordinary Faceted entities, such as {@link JsonFaceted} and {@link SimpleFaceted} ones, so
+ * that the entities with a facet, or whose facet has a property value, are found without calling <code>hasFacet</code>
+ * or <code>getFacet</code> on every entity. {@link FacetedPopulation} indexes its rows itself, this is the equivalent
+ * for entities that are not rows.
+ * <p>
+ * Facet classes are indexed with {@link #indexMembership(Class)} and their properties with {@link #createIndex}, which
+ * takes a function reading the property from the facet data. Entities join with {@link #add(Faceted)}, after which
+ * Faceted reports each facet it adds, replaces or removes to the index, so membership is always current. Facet setters
+ * change the data in place, so rather than being reported as they happen the facets whose data an entity has handed
+ * out since they were last indexed are read again before the next lookup, the same way {@link Faceted#exportDelta()}
+ * finds changes. Changes made through data obtained before a lookup are found by the lookup after the data is next
+ * handed out.
+ * </p>
+ * <p>
+ * When an entity joins, or a facet class is indexed after entities have joined, only unique facets can be found
+ * without the entity reporting them; facets with other identifiers are indexed as they are added from then on. Each
+ * entity can join one index. Entities are held strongly until they are removed with {@link #remove(Faceted)}.
+ * Methods are synchronized and the index can be shared between threads.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetIndex<T extends Faceted<T, V>, V> {
+
+    private final Map<Class<?>, ClassIndex<T, V>> classIndexes = new ConcurrentHashMap<>();
+    private final Set<T> entities = identitySet();
+    //The facets of property indexed classes whose data was handed out since it was last indexed, guarded by this.
+    private final Map<T, FacetKeyMap<Boolean>> handedOut = new IdentityHashMap<>();
+
+    /**
+     * Index which entities have a facet class, whatever the facet identifier.
+     * @param facetClass the facet class.
+     * @return this index.
+     */
+    public FacetIndex<T, V> indexMembership(Class<? extends Facet> facetClass) {
+        ClassIndex<T, V> classIndex;
+        List<T> joined;
+        synchronized (this) {
+            if (classIndexes.containsKey(facetClass)) {
+                return this;
+            }
+            classIndex = new ClassIndex<>();
+            classIndexes.put(facetClass, classIndex);
+            joined = new ArrayList<>(entities);
+        }
+        for (T entity : joined) {
+            indexUniqueFacet(entity, facetClass);
+        }
+        return this;
+    }
+
+    /**
+     * Index a property of a facet class, also indexing membership of the class. Null values are not indexed.
+     * @param facetClass the facet class.
+     * @param name the name the property is looked up by.
+     * @param property reads the property's value from the facet data.
+     * @param type the kind of index, values of a {@link PropertyIndex.Type#SORTED} index must be comparable.
+     * @return this index.
+     * @throws IllegalArgumentException if the class already has an index with the name.
+     */
+    public FacetIndex<T, V> createIndex(Class<? extends Facet> facetClass, String name, Function<? super V, ?> property, PropertyIndex.Type type) {
+        indexMembership(facetClass);
+        List<T> changed;
+        synchronized (this) {
+            ClassIndex<T, V> classIndex = classIndexes.get(facetClass);
+            if (classIndex.properties.containsKey(name)) {
+                throw new IllegalArgumentException(facetClass.getName() + " already has an index named " + name);
+            }
+            PropertyValues<T, V> values = new PropertyValues<>(Objects.requireNonNull(property, "property"), type);
+            classIndex.members.forEach((entity, facetKeys) -> facetKeys.forEach((facetKey, present) -> markHandedOut(entity, facetKey)));
+            classIndex.properties.put(name, values);
+            changed = new ArrayList<>(handedOut.keySet());
+        }
+        refresh(changed);
+        return this;
+    }
+
+    /**
+     * Join an entity to the index, indexing the unique facets it already has.
+     * @param entity the entity.
+     * @throws IllegalStateException if the entity has joined another index.
+     */
+    public void add(T entity) {
+        synchronized (this) {
+            if (!entities.add(entity)) {
+                return;
+            }
+        }
+        try {
+            entity.joinIndex(this);
+        } catch (IllegalStateException e) {
+            synchronized (this) {
+                entities.remove(entity);
+            }
+            throw e;
+        }
+        for (Class<?> facetClass : classIndexes.keySet()) {
+            indexUniqueFacet(entity, facetClass);
+        }
+    }
+
+    /**
+     * Remove an entity and its facets from the index.
+     * @param entity the entity.
+     * @return true if the entity had joined the index.
+     */
+    public boolean remove(T entity) {
+        synchronized (this) {
+            if (!entities.remove(entity)) {
+                return false;
+            }
+            for (ClassIndex<T, V> classIndex : classIndexes.values()) {
+                FacetKeyMap<Boolean> facetKeys = classIndex.members.get(entity);
+                if (facetKeys != null) {
+                    facetKeys.copy().forEach((facetKey, present) -> classIndex.remove(entity, facetKey));
+                }
+            }
+            handedOut.remove(entity);
+        }
+        entity.leaveIndex(this);
+        return true;
+    }
+
+    /**
+     * @param facetClass an indexed facet class.
+     * @return a new set of the entities that have the facet class, whatever the facet identifier.
+     */
+    public synchronized Set<T> getMembers(Class<? extends Facet> facetClass) {
+        Set<T> members = identitySet();
+        members.addAll(getClassIndex(facetClass).members.keySet());
+        return members;
+    }
+
+    /**
+     * @param facetClass the facet class.
+     * @param name the name of the property index.
+     * @param value the value to find.
+     * @return a new set of the entities with a facet of the class whose property has the value.
+     */
+    public Set<T> find(Class<? extends Facet> facetClass, String name, Object value) {
+        refresh();
+        synchronized (this) {
+            return getPropertyValues(facetClass, name).find(value);
+        }
+    }
+
+    /**
+     * Only supported by {@link PropertyIndex.Type#SORTED} indexes. Nothing is found if <code>from</code> is greater
+     * than <code>to</code>.
+     * @param facetClass the facet class.
+     * @param name the name of the property index.
+     * @param from the lowest value to find, inclusive.
+     * @param to the highest value to find, inclusive.
+     * @param <C> the type of the property.
+     * @return a new set of the entities with a facet of the class whose property has a value in the range.
+     */
+    public <C extends Comparable<? super C>> Set<T> findBetween(Class<? extends Facet> facetClass, String name, C from, C to) {
+        refresh();
+        synchronized (this) {
+            return getPropertyValues(facetClass, name).findBetween(from, to);
+        }
+    }
+
+    /**
+     * @return the number of entities that have joined the index.
+     */
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    /**
+     * Called by Faceted when a facet is added or replaced, and so may be called with the entity's lock held.
+     */
+    void added(T entity, FacetKey facetKey, V facetData) {
+        ClassIndex<T, V> classIndex = classIndexes.get(facetKey.getFacetType());
+        if (classIndex != null) {
+            synchronized (this) {
+                if (entities.contains(entity)) {
+                    classIndex.add(entity, facetKey, facetData);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by Faceted when a facet is removed.
+     */
+    void removed(T entity, FacetKey facetKey) {
+        ClassIndex<T, V> classIndex = classIndexes.get(facetKey.getFacetType());
+        if (classIndex != null) {
+            synchronized (this) {
+                classIndex.remove(entity, facetKey);
+            }
+        }
+    }
+
+    /**
+     * Called by Faceted each time it hands out facet data, which facet setters may change in place.
+     */
+    void handedOut(T entity, FacetKey facetKey) {
+        ClassIndex<T, V> classIndex = classIndexes.get(facetKey.getFacetType());
+        if (classIndex != null && !classIndex.properties.isEmpty()) {
+            synchronized (this) {
+                markHandedOut(entity, facetKey);
+            }
+        }
+    }
+
+    private void markHandedOut(T entity, FacetKey facetKey) {
+        handedOut.computeIfAbsent(entity, e -> new FacetKeyMap<>()).put(facetKey, Boolean.TRUE);
+    }
+
+    private void refresh() {
+        List<T> changed;
+        synchronized (this) {
+            if (handedOut.isEmpty()) {
+                return;
+            }
+            changed = new ArrayList<>(handedOut.keySet());
+        }
+        refresh(changed);
+    }
+
+    /**
+     * Index the handed out facet data of some entities again. The data is read without this index's lock, as Faceted
+     * calls the index with its own lock held.
+     */
+    private void refresh(List<T> changed) {
+        for (T entity : changed) {
+            FacetKeyMap<Boolean> facetKeys;
+            synchronized (this) {
+                facetKeys = handedOut.remove(entity);
+            }
+            if (facetKeys != null) {
+                facetKeys.forEach((facetKey, present) -> {
+                    Optional<V> facetData = entity.getFacetData(facetKey);
+                    synchronized (this) {
+                        ClassIndex<T, V> classIndex = classIndexes.get(facetKey.getFacetType());
+                        if (facetData.isPresent() && classIndex.isMember(entity, facetKey)) {
+                            classIndex.add(entity, facetKey, facetData.get());
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void indexUniqueFacet(T entity, Class<?> facetClass) {
+        if (UniqueFacet.class.isAssignableFrom(facetClass)) {
+            FacetKey facetKey = FacetKey.of((Class<? extends UniqueFacet>) facetClass);
+            entity.getFacetData(facetKey).ifPresent(facetData -> added(entity, facetKey, facetData));
+        }
+    }
+
+    private ClassIndex<T, V> getClassIndex(Class<? extends Facet> facetClass) {
+        ClassIndex<T, V> classIndex = classIndexes.get(facetClass);
+        if (classIndex == null) {
+            throw new IllegalArgumentException(facetClass.getName() + " is not indexed.");
+        }
+        return classIndex;
+    }
+
+    private PropertyValues<T, V> getPropertyValues(Class<? extends Facet> facetClass, String name) {
+        PropertyValues<T, V> values = getClassIndex(facetClass).properties.get(name);
+        if (values == null) {
+            throw new IllegalArgumentException(facetClass.getName() + " has no index named " + name);
+        }
+        return values;
+    }
+
+    private static <T> Set<T> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FacetIndex{entities=" + entities.size() + ", classes=" + classIndexes.size() + '}';
+    }
+
+    /**
+     * The entities with facets of one class and the indexes of the class's properties, guarded by the FacetIndex.
+     */
+    private static final class ClassIndex<T, V> {
+        private final Map<T, FacetKeyMap<Boolean>> members = new IdentityHashMap<>();
+        private final Map<String, PropertyValues<T, V>> properties = new ConcurrentHashMap<>();
+
+        private boolean isMember(T entity, FacetKey facetKey) {
+            FacetKeyMap<Boolean> facetKeys = members.get(entity);
+            return facetKeys != null && facetKeys.get(facetKey) != null;
+        }
+
+        private void add(T entity, FacetKey facetKey, V facetData) {
+            members.computeIfAbsent(entity, e -> new FacetKeyMap<>()).put(facetKey, Boolean.TRUE);
+            for (PropertyValues<T, V> values : properties.values()) {
+                values.put(entity, facetKey, facetData);
+            }
+        }
+
+        private void remove(T entity, FacetKey facetKey) {
+            FacetKeyMap<Boolean> facetKeys = members.get(entity);
+            if (facetKeys != null && facetKeys.remove(facetKey) != null) {
+                if (facetKeys.size() == 0) {
+                    members.remove(entity);
+                }
+                for (PropertyValues<T, V> values : properties.values()) {
+                    values.remove(entity, facetKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * One property index: the entities holding each value, counted as an entity may hold a value in several facets of
+     * the class, and the value each facet was last indexed with.
+     */
+    private static final class PropertyValues<T, V> {
+        private final Function<? super V, ?> property;
+        private final PropertyIndex.Type type;
+        private final Map<Object, Map<T, Integer>> entitiesByValue;
+        private final Map<T, FacetKeyMap<Object>> indexedValues = new IdentityHashMap<>();
+
+        private PropertyValues(Function<? super V, ?> property, PropertyIndex.Type type) {
+            this.property = property;
+            this.type = type;
+            this.entitiesByValue = type == PropertyIndex.Type.SORTED ? new TreeMap<>() : new HashMap<>();
+        }
+
+        private void put(T entity, FacetKey facetKey, V facetData) {
+            remove(entity, facetKey);
+            Object value = property.apply(facetData);
+            if (value != null) {
+                entitiesByValue.computeIfAbsent(value, v -> new IdentityHashMap<>()).merge(entity, 1, Integer::sum);
+                indexedValues.computeIfAbsent(entity, e -> new FacetKeyMap<>()).put(facetKey, value);
+            }
+        }
+
+        private void remove(T entity, FacetKey facetKey) {
+            FacetKeyMap<Object> values = indexedValues.get(entity);
+            Object value = values == null ? null : values.remove(facetKey);
+            if (value != null) {
+                if (values.size() == 0) {
+                    indexedValues.remove(entity);
+                }
+                Map<T, Integer> holders = entitiesByValue.get(value);
+                int count = holders.get(entity);
+                if (count > 1) {
+                    holders.put(entity, count - 1);
+                } else {
+                    holders.remove(entity);
+                    if (holders.isEmpty()) {
+                        entitiesByValue.remove(value);
+                    }
+                }
+            }
+        }
+
+        private Set<T> find(Object value) {
+            Set<T> found = identitySet();
+            Map<T, Integer> holders = value == null ? null : entitiesByValue.get(value);
+            if (holders != null) {
+                found.addAll(holders.keySet());
+            }
+            return found;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <C extends Comparable<? super C>> Set<T> findBetween(C from, C to) {
+            if (type != PropertyIndex.Type.SORTED) {
+                throw new UnsupportedOperationException("Range lookups need a sorted index.");
+            }
+            Set<T> found = identitySet();
+            if (from.compareTo(to) > 0) {
+                return found;
+            }
+            for (Map<T, Integer> holders : ((NavigableMap<Object, Map<T, Integer>>) entitiesByValue).subMap(from, true, to, true).values()) {
+                found.addAll(holders.keySet());
+            }
+            return found;
+        }
+    }
+}
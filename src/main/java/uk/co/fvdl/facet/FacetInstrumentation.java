@@ -0,0 +1,119 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * Receives measurements of facet operations. The instrumentation is chosen once, when the runtime is first used, from
+ * the <code>uk.co.fvdl.facet.instrumentation</code> system property: a comma separated list of <code>metrics</code>
+ * for the shared {@link FacetMetrics}, <code>jfr</code> for Flight Recorder events, or the names of classes
+ * implementing this interface with a public no argument constructor. When the property is not set the checks around
+ * each operation are constant false and the JIT removes them, so instrumentation costs nothing unless it is enabled.
+ * <p>
+ * Methods are called on the thread performing the operation, so implementations must be thread safe and quick. Only a
+ * sample of operations are timed, the elapsed time of the others is {@link #NOT_TIMED}. Dispatch through
+ * {@link FacetEngine#GENERATED} facets is a direct call and is not reported.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public interface FacetInstrumentation {
+
+    /**
+     * Name of the system property used to choose the instrumentation.
+     */
+    String INSTRUMENTATION_PROPERTY = "uk.co.fvdl.facet.instrumentation";
+
+    /**
+     * The elapsed time reported for operations that were not sampled for timing.
+     */
+    long NOT_TIMED = -1L;
+
+    /**
+     * @return the instrumentation chosen by the system property, empty if instrumentation is disabled.
+     */
+    static Optional<FacetInstrumentation> installed() {
+        return Optional.ofNullable(FacetInstruments.INSTRUMENTATION);
+    }
+
+    /**
+     * A facet was added.
+     * @param facetKey the key of the facet.
+     * @param elapsedNanos how long adding took, including creating the facet instance.
+     */
+    default void facetAdded(FacetKey facetKey, long elapsedNanos) {
+    }
+
+    /**
+     * A facet was asked for.
+     * @param facetKey the key of the facet.
+     * @param cached true if the facet instance was found in the facet cache.
+     * @param elapsedNanos how long the request took.
+     */
+    default void facetRetrieved(FacetKey facetKey, boolean cached, long elapsedNanos) {
+    }
+
+    /**
+     * A Faceted was asked whether it has a facet.
+     * @param facetKey the key of the facet.
+     * @param present the answer.
+     * @param elapsedNanos how long answering took.
+     */
+    default void facetChecked(FacetKey facetKey, boolean present, long elapsedNanos) {
+    }
+
+    /**
+     * A facet was removed.
+     * @param facetKey the key of the facet.
+     * @param removed true if the facet existed.
+     * @param elapsedNanos how long removing took.
+     */
+    default void facetRemoved(FacetKey facetKey, boolean removed, long elapsedNanos) {
+    }
+
+    /**
+     * A facet instance was created.
+     * @param facetedClass the type of the Faceted the facet belongs to.
+     * @param facetKey the key of the facet.
+     * @param engine the engine that created it.
+     * @param elapsedNanos how long creating it took, including generating a class the first time one is needed.
+     */
+    default void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+    }
+
+    /**
+     * A default method was called on a proxy facet.
+     * @param facetKey the key of the facet.
+     * @param method the default method.
+     * @param elapsedNanos how long the call took, including the method itself.
+     */
+    default void defaultMethodDispatched(FacetKey facetKey, Method method, long elapsedNanos) {
+    }
+
+    /**
+     * Facet data was looked up in a {@link JsonFaceted} document. The depth is how far the lookup got: 0 when the
+     * document has no facets, 1 when it has none of the facet class, 2 when it has none with the identifier, 3 when the
+     * data was found in the document and 4 when it had to be parsed from the raw bytes it was read with.
+     * @param facetKey the key of the facet.
+     * @param depth how far the lookup got.
+     * @param elapsedNanos how long the lookup took, including any parsing.
+     */
+    default void facetDataLookedUp(FacetKey facetKey, int depth, long elapsedNanos) {
+    }
+}
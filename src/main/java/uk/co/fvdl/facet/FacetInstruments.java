@@ -0,0 +1,211 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Holds the {@link FacetInstrumentation} chosen by the system property and reports operations to it. Every report is
+ * guarded by the static final {@link #ENABLED} flag, so when instrumentation is disabled the JIT reduces each call to
+ * nothing, including the {@link System#nanoTime()} calls that time it.
+ * <p>
+ * Reading the clock costs more than the facet operations being timed on some platforms, so only a random sample of
+ * operations are timed: one in the power of two given by the <code>uk.co.fvdl.facet.instrumentation.timingRate</code>
+ * system property, 16 by default. Every operation is still reported. Creating facets is rare and slow enough that it is
+ * always timed.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetInstruments {
+
+    static final FacetInstrumentation INSTRUMENTATION = load(System.getProperty(FacetInstrumentation.INSTRUMENTATION_PROPERTY));
+    static final boolean ENABLED = INSTRUMENTATION != null;
+    private static final int TIMING_MASK =
+            Integer.highestOneBit(Math.max(Integer.getInteger(FacetInstrumentation.INSTRUMENTATION_PROPERTY + ".timingRate", 16), 1)) - 1;
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private FacetInstruments() {
+    }
+
+    static long start() {
+        return ENABLED && (ThreadLocalRandom.current().nextInt() & TIMING_MASK) == 0 ? System.nanoTime() : NOT_STARTED;
+    }
+
+    static long startCreation() {
+        return ENABLED ? System.nanoTime() : NOT_STARTED;
+    }
+
+    private static long elapsed(long start) {
+        return start == NOT_STARTED ? FacetInstrumentation.NOT_TIMED : System.nanoTime() - start;
+    }
+
+    static void added(FacetKey facetKey, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetAdded(facetKey, elapsed(start));
+        }
+    }
+
+    static void retrieved(FacetKey facetKey, boolean cached, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetRetrieved(facetKey, cached, elapsed(start));
+        }
+    }
+
+    static void checked(FacetKey facetKey, boolean present, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetChecked(facetKey, present, elapsed(start));
+        }
+    }
+
+    static void removed(FacetKey facetKey, boolean removed, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetRemoved(facetKey, removed, elapsed(start));
+        }
+    }
+
+    static void created(Faceted<?, ?> faceted, FacetKey facetKey, FacetEngine engine, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetCreated(faceted.getClass(), facetKey, engine, elapsed(start));
+        }
+    }
+
+    static void dispatched(FacetKey facetKey, Method method, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.defaultMethodDispatched(facetKey, method, elapsed(start));
+        }
+    }
+
+    static void dataLookedUp(FacetKey facetKey, int depth, long start) {
+        if (ENABLED) {
+            INSTRUMENTATION.facetDataLookedUp(facetKey, depth, elapsed(start));
+        }
+    }
+
+    static FacetInstrumentation load(String names) {
+        if (names == null || names.trim().isEmpty()) {
+            return null;
+        }
+        List<FacetInstrumentation> instrumentations = new ArrayList<>();
+        for (String name : names.split(",")) {
+            instrumentations.add(create(name.trim()));
+        }
+        return instrumentations.size() == 1
+                ? instrumentations.get(0)
+                : new CompositeInstrumentation(instrumentations.toArray(new FacetInstrumentation[0]));
+    }
+
+    private static FacetInstrumentation create(String name) {
+        switch (name) {
+            case "metrics":
+                return FacetMetrics.global();
+            case "jfr":
+                return new JfrInstrumentation();
+            default:
+                try {
+                    return (FacetInstrumentation) Class.forName(name).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unable to create facet instrumentation " + name, e);
+                }
+        }
+    }
+
+    /**
+     * Reports to several instrumentations in turn.
+     */
+    private static final class CompositeInstrumentation implements FacetInstrumentation {
+        private final FacetInstrumentation[] instrumentations;
+
+        private CompositeInstrumentation(FacetInstrumentation[] instrumentations) {
+            this.instrumentations = instrumentations;
+        }
+
+        @Override
+        public void facetAdded(FacetKey facetKey, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetAdded(facetKey, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void facetRetrieved(FacetKey facetKey, boolean cached, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetRetrieved(facetKey, cached, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void facetChecked(FacetKey facetKey, boolean present, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetChecked(facetKey, present, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void facetRemoved(FacetKey facetKey, boolean removed, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetRemoved(facetKey, removed, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetCreated(facetedClass, facetKey, engine, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void defaultMethodDispatched(FacetKey facetKey, Method method, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.defaultMethodDispatched(facetKey, method, elapsedNanos);
+            }
+        }
+
+        @Override
+        public void facetDataLookedUp(FacetKey facetKey, int depth, long elapsedNanos) {
+            for (FacetInstrumentation instrumentation : instrumentations) {
+                instrumentation.facetDataLookedUp(facetKey, depth, elapsedNanos);
+            }
+        }
+    }
+
+    /**
+     * Turns facet creation and slow dispatch into Flight Recorder events, slow being at least the number of nanoseconds
+     * in the <code>uk.co.fvdl.facet.instrumentation.slowDispatchNanos</code> system property, one millisecond by
+     * default. Slow dispatch is only caught among the calls sampled for timing.
+     */
+    private static final class JfrInstrumentation implements FacetInstrumentation {
+        private static final long SLOW_DISPATCH_NANOS =
+                Long.getLong(FacetInstrumentation.INSTRUMENTATION_PROPERTY + ".slowDispatchNanos", 1_000_000L);
+
+        @Override
+        public void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+            FacetEvents.facetCreated(facetedClass, facetKey, engine, elapsedNanos);
+        }
+
+        @Override
+        public void defaultMethodDispatched(FacetKey facetKey, Method method, long elapsedNanos) {
+            if (elapsedNanos >= SLOW_DISPATCH_NANOS) {
+                FacetEvents.slowDispatch(facetKey, method, elapsedNanos);
+            }
+        }
+    }
+}
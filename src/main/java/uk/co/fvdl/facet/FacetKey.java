@@ -0,0 +1,122 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * Key used to identify a facet within a Faceted instance: the facet class together with the facet identifier. Keys
+ * are issued by the {@link FacetRegistry} and are canonical, there is only one key instance for a given facet class and
+ * identifier while it is in use, so keys compare by identity and each carries a compact int id that storage and caches
+ * can index by.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetKey {
+
+    private final Class<? extends Facet> facetType;
+    private final String facetClass;
+    private final String facetIdentifier;
+    private final int id;
+
+    FacetKey(Class<? extends Facet> facetType, String facetIdentifier, int id) {
+        this.facetType = facetType;
+        this.facetClass = facetType.toString();
+        this.facetIdentifier = facetIdentifier;
+        this.id = id;
+    }
+
+    /**
+     * Get the key for a unique facet.
+     *
+     * @param facetClass the class of the facet.
+     * @return the canonical key.
+     */
+    public static FacetKey of(Class<? extends UniqueFacet> facetClass) {
+        return FacetRegistry.getKey(facetClass);
+    }
+
+    /**
+     * Get the key for a facet that may not be unique.
+     *
+     * @param facetClass      the class of the facet.
+     * @param facetIdentifier the identifier of the facet.
+     * @return the canonical key.
+     */
+    public static FacetKey of(Class<? extends Facet> facetClass, String facetIdentifier) {
+        return FacetRegistry.getKey(facetClass, facetIdentifier);
+    }
+
+    public Class<? extends Facet> getFacetType() {
+        return facetType;
+    }
+
+    /**
+     * @return the facet class as a string, as given by {@link Class#toString()}.
+     */
+    public String getFacetClass() {
+        return facetClass;
+    }
+
+    public String getFacetIdentifier() {
+        return facetIdentifier;
+    }
+
+    /**
+     * @return the id of this key, unique among the keys in use within the running JVM. The ids of keys that have been
+     * dropped by the {@link FacetRegistry} are given to new keys, so ids are only meaningful for as long as the key
+     * itself is referenced and anything indexing by id must also keep hold of the key.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return true if this is the key of a unique facet.
+     */
+    public boolean isUnique() {
+        return FacetRegistry.getUniqueKey(facetType) == this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return id * 0x9E3779B9;
+    }
+
+    /**
+     * Convenience toString() method for debugging purposes, do not attempt to use this as a key in any concrete
+     * implementations of Faceted as it includes the Object Identity and will not generate a key that will work as
+     * might be expeceted. The reason foe this is that the implementation details of FacetKey may need to change
+     * over time, adding extra fields and this would break any implementation relying on this method. Faceted
+     * Implementations need to use the FacetKey and its data directly to minimise the chance of a breaking change.
+     *
+     * @return
+     */
+    @Override
+    public final String toString() {
+        final StringBuilder sb = new StringBuilder("FacetKey{");
+        sb.append("facetClass='").append(facetClass).append('\'');
+        sb.append(", facetIdentifier='").append(facetIdentifier).append('\'');
+        sb.append(", id=").append(id);
+        sb.append(", instanceId='").append(super.toString()).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A small open addressing map from {@link FacetKey} to value that probes by key id and compares keys by identity. It
+ * holds its keys strongly which keeps their ids valid for as long as they are in the map. Not thread safe.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetKeyMap<E> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private FacetKey[] keys;
+    private Object[] values;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(FacetKey key) {
+        if (keys == null) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int i = key.hashCode() & mask; ; i = (i + 1) & mask) {
+            FacetKey candidate = keys[i];
+            if (candidate == key) {
+                return (E) values[i];
+            } else if (candidate == null) {
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E put(FacetKey key, E value) {
+        if (keys == null) {
+            keys = new FacetKey[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        } else if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        for (int i = key.hashCode() & mask; ; i = (i + 1) & mask) {
+            FacetKey candidate = keys[i];
+            if (candidate == key) {
+                E previous = (E) values[i];
+                values[i] = value;
+                return previous;
+            } else if (candidate == null) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E remove(FacetKey key) {
+        if (keys == null) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int i = key.hashCode() & mask; ; i = (i + 1) & mask) {
+            FacetKey candidate = keys[i];
+            if (candidate == null) {
+                return null;
+            } else if (candidate == key) {
+                E previous = (E) values[i];
+                deleteSlot(i);
+                size--;
+                //Shrink as facets are removed so an entity's table follows its live facets rather than its history.
+                if (size == 0) {
+                    clear();
+                } else if (size * 8 < keys.length && keys.length > INITIAL_CAPACITY) {
+                    resize(keys.length / 2);
+                }
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of this map that can be changed without affecting this one.
+     */
+    FacetKeyMap<E> copy() {
+        FacetKeyMap<E> copy = new FacetKeyMap<>();
+        if (keys != null) {
+            copy.keys = keys.clone();
+            copy.values = values.clone();
+            copy.size = size;
+        }
+        return copy;
+    }
+
+    void clear() {
+        keys = null;
+        values = null;
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<FacetKey, ? super E> action) {
+        if (keys != null) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    action.accept(keys[i], (E) values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the entry in a slot and shift back any following entries in the same probe sequence so that lookups do
+     * not need tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int i = (gap + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = keys[i].hashCode() & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        FacetKey[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new FacetKey[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = oldKeys[j].hashCode() & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FacetKeyMap{size=" + size + ", keys=" + Arrays.toString(keys) + '}';
+    }
+}
@@ -0,0 +1,52 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * The lifecycle of one facet of one Faceted, shared by every instance created for the facet. Removing or replacing the
+ * facet ends the lifecycle, after which the instances throw {@link StaleFacetException}; the facet's next instance
+ * gets a new lifecycle. Only facets that have instances have a lifecycle and it is dropped when it ends, so removed
+ * facets leave nothing behind.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetLifecycle {
+
+    private final FacetKey facetKey;
+    private volatile boolean ended;
+
+    FacetLifecycle(FacetKey facetKey) {
+        this.facetKey = facetKey;
+    }
+
+    void end() {
+        ended = true;
+    }
+
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * @throws StaleFacetException if the lifecycle has ended.
+     */
+    void checkCurrent() {
+        if (ended) {
+            throw new StaleFacetException(facetKey);
+        }
+    }
+}
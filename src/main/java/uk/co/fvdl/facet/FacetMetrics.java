@@ -0,0 +1,159 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link FacetInstrumentation} that keeps a count and {@link LatencyHistogram} of each {@link FacetOperation}, facet
+ * cache hits and misses, and how deep {@link JsonFaceted} data lookups went. Everything is held in {@link LongAdder}s
+ * so it can be left enabled under load. Choosing <code>metrics</code> with the
+ * <code>uk.co.fvdl.facet.instrumentation</code> system property installs the {@link #global()} instance.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetMetrics implements FacetInstrumentation {
+
+    private static final FacetMetrics GLOBAL = new FacetMetrics();
+    private static final int DEPTHS = 5;
+
+    private final Map<FacetOperation, LatencyHistogram> latencies = new EnumMap<>(FacetOperation.class);
+    private final Map<FacetOperation, LongAdder> counts = new EnumMap<>(FacetOperation.class);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder[] dataLookupDepths = new LongAdder[DEPTHS];
+
+    public FacetMetrics() {
+        for (FacetOperation operation : FacetOperation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            counts.put(operation, new LongAdder());
+        }
+        for (int i = 0; i < DEPTHS; i++) {
+            dataLookupDepths[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the instance installed by the <code>metrics</code> instrumentation option.
+     */
+    public static FacetMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param operation the operation.
+     * @return the latencies of the operations that were timed.
+     */
+    public LatencyHistogram getLatencies(FacetOperation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @param operation the operation.
+     * @return the number of times the operation has been performed.
+     */
+    public long getCount(FacetOperation operation) {
+        return counts.get(operation).sum();
+    }
+
+    /**
+     * @return the number of facet requests satisfied from a facet cache.
+     */
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of facet requests that were not satisfied from a facet cache.
+     */
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @param depth the depth, as described by {@link FacetInstrumentation#facetDataLookedUp}.
+     * @return the number of facet data lookups that went that deep.
+     */
+    public long getDataLookupCount(int depth) {
+        return dataLookupDepths[depth].sum();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        counts.values().forEach(LongAdder::reset);
+        cacheHits.reset();
+        cacheMisses.reset();
+        for (LongAdder depth : dataLookupDepths) {
+            depth.reset();
+        }
+    }
+
+    @Override
+    public void facetAdded(FacetKey facetKey, long elapsedNanos) {
+        record(FacetOperation.ADD, elapsedNanos);
+    }
+
+    @Override
+    public void facetRetrieved(FacetKey facetKey, boolean cached, long elapsedNanos) {
+        (cached ? cacheHits : cacheMisses).increment();
+        record(FacetOperation.GET, elapsedNanos);
+    }
+
+    @Override
+    public void facetChecked(FacetKey facetKey, boolean present, long elapsedNanos) {
+        record(FacetOperation.HAS, elapsedNanos);
+    }
+
+    @Override
+    public void facetRemoved(FacetKey facetKey, boolean removed, long elapsedNanos) {
+        record(FacetOperation.REMOVE, elapsedNanos);
+    }
+
+    @Override
+    public void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+        record(FacetOperation.CREATE, elapsedNanos);
+    }
+
+    @Override
+    public void defaultMethodDispatched(FacetKey facetKey, Method method, long elapsedNanos) {
+        record(FacetOperation.DISPATCH, elapsedNanos);
+    }
+
+    @Override
+    public void facetDataLookedUp(FacetKey facetKey, int depth, long elapsedNanos) {
+        dataLookupDepths[Math.min(Math.max(depth, 0), DEPTHS - 1)].increment();
+        record(FacetOperation.DATA, elapsedNanos);
+    }
+
+    private void record(FacetOperation operation, long elapsedNanos) {
+        counts.get(operation).increment();
+        if (elapsedNanos != NOT_TIMED) {
+            latencies.get(operation).record(elapsedNanos);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FacetMetrics{counts=" + counts + ", latencies=" + latencies + ", cacheHits=" + getCacheHitCount() + ", cacheMisses=" + getCacheMissCount() + '}';
+    }
+}
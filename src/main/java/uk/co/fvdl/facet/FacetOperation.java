@@ -0,0 +1,53 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * The facet operations reported to a {@link FacetInstrumentation}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public enum FacetOperation {
+    /**
+     * {@link Faceted#addFacet}, from the supplied data being available to the facet being returned.
+     */
+    ADD,
+    /**
+     * {@link Faceted#getFacet}, whether or not the facet was cached.
+     */
+    GET,
+    /**
+     * {@link Faceted#hasFacet}.
+     */
+    HAS,
+    /**
+     * {@link Faceted#removeFacet}.
+     */
+    REMOVE,
+    /**
+     * Creating a facet instance with a {@link FacetEngine}.
+     */
+    CREATE,
+    /**
+     * Calling a default method on a proxy facet.
+     */
+    DISPATCH,
+    /**
+     * Looking up facet data in a {@link JsonFaceted} document.
+     */
+    DATA
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * Creates facets as dynamic proxies, the implementation behind {@link FacetEngine#PROXY}. The proxy class and the
+ * methods of the Faceted type that facet methods are routed to come from the pair's {@link FacetBinding}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetProxies {
+
+    private FacetProxies() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V, U extends Facet<U, V>> U createFacet(Faceted<?, V> faceted, Class<U> facetClass, FacetKey facetKey) {
+        final Object target = faceted.getFacetMethodTarget();
+        final FacetBinding binding = FacetBinding.of(target.getClass(), facetClass);
+        final FacetDispatchPlan dispatchPlan = FacetDispatchPlan.forFacet(facetClass);
+        final FacetLifecycle lifecycle = faceted.getFacetLifecycle(facetKey);
+        return (U) binding.newProxy((proxy, method, args) -> {
+                if (method.getDeclaringClass() != Object.class) {
+                    lifecycle.checkCurrent();
+                }
+                if (method.getName().equals("getFacetData")) {
+                    return faceted.readFacetData(facetKey).orElseThrow(() -> new StaleFacetException(facetKey));
+                } else if (method.isDefault()) {
+                    long start = FacetInstruments.start();
+                    try {
+                        return dispatchPlan.invokeDefault(proxy, method, args);
+                    } finally {
+                        FacetInstruments.dispatched(facetKey, method, start);
+                    }
+                } else {
+                    return binding.invoke(target, method, args);
+                }
+            });
+    }
+}
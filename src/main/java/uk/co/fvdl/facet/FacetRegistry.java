@@ -0,0 +1,227 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The registry of {@link FacetKey}s. Each pair of facet class and identifier is interned once and given an int id so
+ * that Faceted implementations and caches can index facets by id rather than hashing and comparing strings.
+ * <p>
+ * Keys are held against their facet class using a {@link ClassValue} so the registry never keeps a facet class, or its
+ * class loader, alive. The key of a unique facet lives as long as its class; keys with other identifiers are only
+ * weakly held and are dropped once nothing refers to them, so any storage indexed by id must keep hold of the key. The
+ * ids of dropped keys are given to new keys, so the ids in use stay as many as the keys in use however many
+ * identifiers come and go.
+ * </p>
+ * <p>
+ * Facet interfaces can also be registered against the Faceted types they will be used with, with {@link #register}, for
+ * example at application start up. Registration checks that the Faceted type implements every facet method without a
+ * default, failing straight away if it does not, and does the work otherwise left to the first facet of each pair:
+ * interning the key, resolving default methods and defining the proxy or generated facet class.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetRegistry {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final Queue<Integer> FREE_IDS = new ConcurrentLinkedQueue<>();
+
+    private static final ClassValue<KeysForClass> KEYS = new ClassValue<KeysForClass>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected KeysForClass computeValue(Class<?> facetClass) {
+            return new KeysForClass((Class<? extends Facet>) facetClass);
+        }
+    };
+
+    private static final ClassValue<String> UNIQUE_IDENTIFIERS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> implementationClass) {
+            for (Class<?> facetInterface : implementationClass.getInterfaces()) {
+                if (UniqueFacet.class.isAssignableFrom(facetInterface)) {
+                    return facetInterface.toString();
+                }
+            }
+            return implementationClass.toString();
+        }
+    };
+
+    private FacetRegistry() {
+    }
+
+    /**
+     * Get the key for a unique facet, its identifier is the facet class as a string.
+     * @param facetClass the facet class.
+     * @return the canonical key.
+     */
+    public static FacetKey getKey(Class<? extends UniqueFacet> facetClass) {
+        return KEYS.get(facetClass).uniqueKey;
+    }
+
+    /**
+     * Get the key for a facet class and identifier.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @return the canonical key.
+     */
+    public static FacetKey getKey(Class<? extends Facet> facetClass, String facetIdentifier) {
+        return KEYS.get(facetClass).getKey(facetIdentifier);
+    }
+
+    static FacetKey getUniqueKey(Class<? extends Facet> facetClass) {
+        return KEYS.get(facetClass).uniqueKey;
+    }
+
+    /**
+     * Get the identifier of a unique facet from the class that implements it, as used by
+     * {@link UniqueFacet#getFacetIdentifier()}. Generated and proxy facet classes implement just the one facet
+     * interface, so this is the identifier of that interface.
+     * @param implementationClass the class implementing the facet.
+     * @return the facet identifier.
+     */
+    public static String getUniqueIdentifier(Class<?> implementationClass) {
+        return UNIQUE_IDENTIFIERS.get(implementationClass);
+    }
+
+    /**
+     * Register facet interfaces with a Faceted type using the Faceted type's default engine, see
+     * {@link #register(FacetEngine, Class, Class[])}.
+     * @param facetedClass the Faceted type.
+     * @param facetClasses the facet interfaces.
+     * @throws IllegalArgumentException if a facet method has no default and is not implemented by the Faceted type.
+     */
+    @SafeVarargs
+    public static void register(Class<? extends Faceted> facetedClass, Class<? extends Facet>... facetClasses) {
+        register(FacetEngine.getDefault(), facetedClass, facetClasses);
+    }
+
+    /**
+     * Register facet interfaces with a Faceted type, validating each pair and preparing everything needed to create
+     * facets of it so that the first call is as quick as any other. Registering a pair again does nothing more.
+     * @param engine the engine that will create the facets, as returned by the Faceted type's
+     *               {@link Faceted#getFacetEngine()}.
+     * @param facetedClass the Faceted type.
+     * @param facetClasses the facet interfaces.
+     * @throws IllegalArgumentException if a facet method has no default and is not implemented by the Faceted type.
+     */
+    @SafeVarargs
+    public static void register(FacetEngine engine, Class<? extends Faceted> facetedClass, Class<? extends Facet>... facetClasses) {
+        for (Class<? extends Facet> facetClass : facetClasses) {
+            FacetBinding.of(facetedClass, facetClass).checkValid();
+        }
+        for (Class<? extends Facet> facetClass : facetClasses) {
+            FacetDispatchPlan.forFacet(facetClass);
+            if (UniqueFacet.class.isAssignableFrom(facetClass)) {
+                getUniqueKey(facetClass);
+            }
+            engine.prepare(facetedClass, facetClass);
+        }
+    }
+
+    /**
+     * Check a facet interface against a Faceted type without registering it.
+     * @param facetedClass the Faceted type.
+     * @param facetClass the facet interface.
+     * @return the facet methods that have no default and are not implemented by the Faceted type, empty if the facet can
+     * be used with it.
+     */
+    public static List<String> validate(Class<? extends Faceted> facetedClass, Class<? extends Facet> facetClass) {
+        return FacetBinding.of(facetedClass, facetClass).getProblems();
+    }
+
+    /**
+     * @return the number of ids issued so far, an upper bound on any id in use. Ids of dropped keys are reused rather
+     * than counted again.
+     */
+    public static int getIssuedIdCount() {
+        return NEXT_ID.get();
+    }
+
+    private static int nextId() {
+        Integer freeId = FREE_IDS.poll();
+        if (freeId != null) {
+            return freeId;
+        }
+        int id = NEXT_ID.getAndIncrement();
+        if (id < 0) {
+            throw new IllegalStateException("Facet key ids are exhausted.");
+        }
+        return id;
+    }
+
+    private static final class KeysForClass {
+        private final Class<? extends Facet> facetClass;
+        private final FacetKey uniqueKey;
+        private final ConcurrentMap<String, KeyReference> keys = new ConcurrentHashMap<>();
+        private final ReferenceQueue<FacetKey> collected = new ReferenceQueue<>();
+
+        private KeysForClass(Class<? extends Facet> facetClass) {
+            this.facetClass = facetClass;
+            this.uniqueKey = new FacetKey(facetClass, facetClass.toString(), nextId());
+        }
+
+        private FacetKey getKey(String facetIdentifier) {
+            if (uniqueKey.getFacetIdentifier().equals(facetIdentifier)) {
+                return uniqueKey;
+            }
+            KeyReference reference = keys.get(facetIdentifier);
+            FacetKey key = reference == null ? null : reference.get();
+            if (key == null) {
+                key = intern(facetIdentifier);
+            }
+            return key;
+        }
+
+        private synchronized FacetKey intern(String facetIdentifier) {
+            expunge();
+            KeyReference reference = keys.get(facetIdentifier);
+            FacetKey key = reference == null ? null : reference.get();
+            if (key == null) {
+                key = new FacetKey(facetClass, facetIdentifier, nextId());
+                keys.put(facetIdentifier, new KeyReference(key, collected));
+            }
+            return key;
+        }
+
+        private void expunge() {
+            for (KeyReference reference = (KeyReference) collected.poll(); reference != null; reference = (KeyReference) collected.poll()) {
+                keys.remove(reference.facetIdentifier, reference);
+                FREE_IDS.add(reference.id);
+            }
+        }
+    }
+
+    private static final class KeyReference extends WeakReference<FacetKey> {
+        private final String facetIdentifier;
+        private final int id;
+
+        private KeyReference(FacetKey key, ReferenceQueue<FacetKey> queue) {
+            super(key, queue);
+            this.facetIdentifier = key.getFacetIdentifier();
+            this.id = key.getId();
+        }
+    }
+}
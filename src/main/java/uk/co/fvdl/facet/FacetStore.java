@@ -0,0 +1,74 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage for the facet data of many entities, each identified by a numeric entity id. A {@link StoredFaceted} keeps
+ * its facet data in a store rather than in memory, which lets the dataset be larger than the heap. Implementations
+ * report I/O failures as {@link java.io.UncheckedIOException}s.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ * @param <V> the facet data type.
+ */
+public interface FacetStore<V> extends Closeable {
+
+    /**
+     * @param entityId the entity id.
+     * @param facetKey the facet key.
+     * @return true if the store has data for the entity's facet.
+     */
+    boolean hasFacetData(long entityId, FacetKey facetKey);
+
+    /**
+     * Read the data of an entity's facet. Each call returns a new copy of the data, changes to it are not stored until
+     * it is put back.
+     * @param entityId the entity id.
+     * @param facetKey the facet key.
+     * @return the facet data, empty if there is none.
+     */
+    Optional<V> getFacetData(long entityId, FacetKey facetKey);
+
+    /**
+     * Store the data of an entity's facet, replacing any data it already has.
+     * @param entityId the entity id.
+     * @param facetKey the facet key.
+     * @param facetData the facet data.
+     */
+    void putFacetData(long entityId, FacetKey facetKey, V facetData);
+
+    /**
+     * Store the data of one facet for many entities, replacing any data they already have. This is how
+     * {@link FacetBulk} writes, stores that can write a batch more cheaply than one record at a time should override it.
+     * @param facetKey the facet key.
+     * @param facetData the facet data by entity id.
+     */
+    default void putAllFacetData(FacetKey facetKey, Map<Long, ? extends V> facetData) {
+        facetData.forEach((entityId, data) -> putFacetData(entityId, facetKey, data));
+    }
+
+    /**
+     * Remove the data of an entity's facet. Stores reclaim the space it used, though not necessarily straight away.
+     * @param entityId the entity id.
+     * @param facetKey the facet key.
+     * @return true if the store had data for the entity's facet.
+     */
+    boolean removeFacetData(long entityId, FacetKey facetKey);
+}
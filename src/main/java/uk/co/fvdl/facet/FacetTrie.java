@@ -0,0 +1,297 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent hash array mapped trie from {@link FacetKey} to value. It is never changed, {@link #put} and
+ * {@link #remove} return a new trie that shares every node off the path to the key with this one, so taking a copy is
+ * free and a change costs one small array per level. Keys are placed by the bits of their hash, which is unique to
+ * each key, five bits per level; an entity with a handful of facets has a single node and a lookup is a bitmap test
+ * and an array read.
+ * <p>
+ * Each entry also carries an edition, an opaque token of the owner's choosing. Faceted types use it to tell the data
+ * they have added since their last snapshot, which is theirs to hand out, from data still shared with a snapshot,
+ * which has to be copied first.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetTrie<E> implements SharedFacetData<E> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    //Each entry in a node takes three slots: the key, or null for a child node, the value or child node and the edition.
+    private static final int ENTRY = 3;
+
+    private static final FacetTrie<Object> EMPTY = new FacetTrie<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private FacetTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> FacetTrie<E> empty() {
+        return (FacetTrie<E>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(FacetKey key) {
+        return find(key, 1) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(FacetKey key) {
+        return (E) find(key, 1);
+    }
+
+    /**
+     * @param key the key.
+     * @return the edition the key's entry was put with, null if there is no entry or it was put without one.
+     */
+    Object getEdition(FacetKey key) {
+        return find(key, 2);
+    }
+
+    /**
+     * @param key the key.
+     * @param value the value, not null.
+     * @param edition the edition of the entry, may be null.
+     * @return a trie with the entry added or replaced.
+     */
+    FacetTrie<E> put(FacetKey key, E value, Object edition) {
+        int newSize = find(key, 1) == null ? size + 1 : size;
+        Node newRoot = root == null
+                ? new Node(bit(key.hashCode(), 0), new Object[]{key, value, edition})
+                : root.put(key, key.hashCode(), 0, value, edition);
+        return new FacetTrie<>(newRoot, newSize);
+    }
+
+    /**
+     * @param key the key.
+     * @return a trie without the key's entry, this trie if there was none.
+     */
+    FacetTrie<E> remove(FacetKey key) {
+        if (find(key, 1) == null) {
+            return this;
+        }
+        Node newRoot = root.remove(key, key.hashCode(), 0);
+        return newRoot == null ? empty() : new FacetTrie<>(newRoot, size - 1);
+    }
+
+    @Override
+    public void diff(SharedFacetData<E> previous, ChangeVisitor<E> visitor) {
+        FacetTrie<E> before = previous == null ? empty() : (FacetTrie<E>) previous;
+        diff(before, before.root, root, visitor);
+    }
+
+    /**
+     * Compare two nodes at the same place in this trie and an earlier one, skipping everything the two still share.
+     */
+    private void diff(FacetTrie<E> before, Node previousNode, Node node, ChangeVisitor<E> visitor) {
+        if (previousNode == node) {
+            return;
+        } else if (previousNode == null || node == null) {
+            diffEntries(before, previousNode, -1, node, -1, visitor);
+            return;
+        }
+        for (int bits = previousNode.bitmap | node.bitmap; bits != 0; bits &= bits - 1) {
+            int bit = bits & -bits;
+            int previousIndex = (previousNode.bitmap & bit) == 0 ? -1 : previousNode.index(bit);
+            int index = (node.bitmap & bit) == 0 ? -1 : node.index(bit);
+            if (previousIndex >= 0 && index >= 0 && previousNode.slots[previousIndex] == null && node.slots[index] == null) {
+                diff(before, (Node) previousNode.slots[previousIndex + 1], (Node) node.slots[index + 1], visitor);
+            } else if (previousIndex < 0 || index < 0 || previousNode.slots[previousIndex] != node.slots[index]
+                    || previousNode.slots[previousIndex + 1] != node.slots[index + 1]) {
+                diffEntries(before, previousNode, previousIndex, node, index, visitor);
+            }
+        }
+    }
+
+    /**
+     * Compare the entries under a position, or under the whole node when the index is -1, by looking each one up in the
+     * other trie.
+     */
+    @SuppressWarnings("unchecked")
+    private void diffEntries(FacetTrie<E> before, Node previousNode, int previousIndex, Node node, int index, ChangeVisitor<E> visitor) {
+        forEachEntry(previousNode, previousIndex, (key, value) -> {
+            if (!contains(key)) {
+                visitor.visit(key.getFacetType().getName(), key.getFacetIdentifier(), (E) value, null);
+            }
+        });
+        forEachEntry(node, index, (key, value) -> {
+            E previousValue = before.get(key);
+            if (previousValue != value) {
+                visitor.visit(key.getFacetType().getName(), key.getFacetIdentifier(), previousValue, (E) value);
+            }
+        });
+    }
+
+    private static void forEachEntry(Node node, int index, BiConsumer<FacetKey, Object> action) {
+        if (node == null) {
+            return;
+        } else if (index < 0) {
+            node.forEach(action);
+        } else if (node.slots[index] == null) {
+            ((Node) node.slots[index + 1]).forEach(action);
+        } else {
+            action.accept((FacetKey) node.slots[index], node.slots[index + 1]);
+        }
+    }
+
+    void forEach(BiConsumer<FacetKey, ? super E> action) {
+        if (root != null) {
+            root.forEach(action);
+        }
+    }
+
+    private Object find(FacetKey key, int offset) {
+        Node node = root;
+        int hash = key.hashCode();
+        for (int shift = 0; node != null; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            int index = node.index(bit);
+            Object slotKey = node.slots[index];
+            if (slotKey == null) {
+                node = (Node) node.slots[index + 1];
+            } else {
+                return slotKey == key ? node.slots[index + offset] : null;
+            }
+        }
+        return null;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetTrie{size=" + size + '}';
+    }
+
+    private static final class Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * ENTRY;
+        }
+
+        private Node put(FacetKey key, int hash, int shift, Object value, Object edition) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + ENTRY];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = key;
+                newSlots[index + 1] = value;
+                newSlots[index + 2] = edition;
+                System.arraycopy(slots, index, newSlots, index + ENTRY, slots.length - index);
+                return new Node(bitmap | bit, newSlots);
+            }
+            Object slotKey = slots[index];
+            if (slotKey == null) {
+                return with(index, null, ((Node) slots[index + 1]).put(key, hash, shift + BITS, value, edition), null);
+            } else if (slotKey == key) {
+                return with(index, key, value, edition);
+            }
+            //Another key shares this position so both move down into a new child node.
+            FacetKey other = (FacetKey) slotKey;
+            Node child = pair(other, other.hashCode(), slots[index + 1], slots[index + 2], key, hash, value, edition, shift + BITS);
+            return with(index, null, child, null);
+        }
+
+        private Node remove(FacetKey key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            Object slotKey = slots[index];
+            if (slotKey != null) {
+                return without(bit, index);
+            }
+            Node child = ((Node) slots[index + 1]).remove(key, hash, shift + BITS);
+            if (child == null) {
+                return without(bit, index);
+            } else if (child.slots.length == ENTRY && child.slots[0] != null) {
+                //A child left with a single entry is pulled up so that lookups stay as short as possible.
+                return with(index, child.slots[0], child.slots[1], child.slots[2]);
+            }
+            return with(index, null, child, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <E> void forEach(BiConsumer<FacetKey, ? super E> action) {
+            for (int i = 0; i < slots.length; i += ENTRY) {
+                if (slots[i] == null) {
+                    ((Node) slots[i + 1]).forEach(action);
+                } else {
+                    action.accept((FacetKey) slots[i], (E) slots[i + 1]);
+                }
+            }
+        }
+
+        private Node with(int index, Object key, Object value, Object edition) {
+            Object[] newSlots = slots.clone();
+            newSlots[index] = key;
+            newSlots[index + 1] = value;
+            newSlots[index + 2] = edition;
+            return new Node(bitmap, newSlots);
+        }
+
+        private Node without(int bit, int index) {
+            if (slots.length == ENTRY) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - ENTRY];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + ENTRY, newSlots, index, slots.length - index - ENTRY);
+            return new Node(bitmap & ~bit, newSlots);
+        }
+
+        private static Node pair(FacetKey key1, int hash1, Object value1, Object edition1,
+                                 FacetKey key2, int hash2, Object value2, Object edition2, int shift) {
+            int position1 = (hash1 >>> shift) & MASK;
+            int position2 = (hash2 >>> shift) & MASK;
+            if (position1 == position2) {
+                Node child = pair(key1, hash1, value1, edition1, key2, hash2, value2, edition2, shift + BITS);
+                return new Node(1 << position1, new Object[]{null, child, null});
+            }
+            Object[] slots = position1 < position2
+                    ? new Object[]{key1, value1, edition1, key2, value2, edition2}
+                    : new Object[]{key2, value2, edition2, key1, value1, edition1};
+            return new Node((1 << position1) | (1 << position2), slots);
+        }
+    }
+}
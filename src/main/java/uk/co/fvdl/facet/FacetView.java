@@ -0,0 +1,101 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several unique facets of one entity resolved together, obtained with {@link Faceted#getView(Class[])}. Code that
+ * works with an entity as, say, a driver and a team member at once can take the view once and then get each facet
+ * from it with {@link #get(Class)}, an identity search of a few classes, instead of looking each facet up on the entity
+ * every time. The entity's own methods are available through {@link #getEntity()}.
+ * <p>
+ * Each facet interface inherits <code>getFacetData()</code> from {@link Facet} so no single object can implement two
+ * of them; the view hands out the entity's ordinary facet instances instead, which are created once for the view. Views
+ * are cached by the entity and replaced when any of their facets is removed or replaced, after which the old view's
+ * facets throw {@link StaleFacetException} like any other stale facet.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetView<T extends Faceted<T, V>, V> {
+
+    private final T entity;
+    private final Class<?>[] facetClasses;
+    private final Object[] facets;
+    private final FacetLifecycle[] lifecycles;
+
+    FacetView(T entity, Class<?>[] facetClasses, Object[] facets, FacetLifecycle[] lifecycles) {
+        this.entity = entity;
+        this.facetClasses = facetClasses;
+        this.facets = facets;
+        this.lifecycles = lifecycles;
+    }
+
+    /**
+     * @return the entity the facets belong to.
+     */
+    public T getEntity() {
+        return entity;
+    }
+
+    /**
+     * Get one of the facets of the view.
+     * @param facetClass the facet class, one of those the view was created with.
+     * @param <U> the facet type.
+     * @return the facet.
+     * @throws IllegalArgumentException if the facet is not part of the view.
+     */
+    public <U extends Facet<U, V>> U get(Class<U> facetClass) {
+        for (int i = 0; i < facetClasses.length; i++) {
+            if (facetClasses[i] == facetClass) {
+                return facetClass.cast(facets[i]);
+            }
+        }
+        throw new IllegalArgumentException(facetClass.getName() + " is not part of this view.");
+    }
+
+    /**
+     * @return the facet classes of the view in the order they were given.
+     */
+    public List<Class<?>> getFacetClasses() {
+        return Collections.unmodifiableList(Arrays.asList(facetClasses));
+    }
+
+    /**
+     * @return true unless one of the view's facets has since been removed or replaced.
+     */
+    public boolean isCurrent() {
+        for (FacetLifecycle lifecycle : lifecycles) {
+            if (lifecycle.isEnded()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isViewOf(Class<?>[] classes) {
+        return Arrays.equals(facetClasses, classes);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetView{entity=" + entity.getClass().getName() + ", facets=" + Arrays.toString(facetClasses) + '}';
+    }
+}
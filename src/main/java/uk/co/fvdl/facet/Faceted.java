@@ -19,14 +19,15 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.lang.invoke.MethodHandles;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
+import uk.co.fvdl.facet.schema.FacetRecord;
+
 import java.lang.reflect.Proxy;
-import java.util.Map;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
-import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -34,8 +35,8 @@ import java.util.function.Supplier;
 /**
  * This is the base class for all faceted types. A faceted type is one that has one or more facets.
  * Sub-implementation define the mechanisms for storing and manipulating facet data. Initially we'll be working with
- * Java Objects and a TypedMap although others can be added. I'm also going to introduce Serializable specialisations
- * too.
+ * Java Objects and a TypedMap although others can be added. {@link JsonFaceted} and {@link SimpleFaceted} are the
+ * Serializable specialisations, both <code>Externalizable</code>.
  * <p>&#169; 2017 Robert Boothby.</p>
  *
  * @author robertboothby
@@ -43,28 +44,119 @@ import java.util.function.Supplier;
 public abstract class Faceted<T extends Faceted<T, V>, V> {
 
 
+    private static final int MAXIMUM_CACHED_VIEWS = 4;
+
     //Cache only as facets can always be recreated.
-    private final transient Map<FacetKey, Object> facetCache = new WeakHashMap<>();
+    private final transient FacetCache facetCache = createFacetCache();
+
+    //The lifecycles of facets that have instances, created when the first instance is, guarded by this.
+    private transient FacetKeyMap<FacetLifecycle> facetLifecycles;
+
+    //Facets whose data is still to be loaded, null if there are none. Replaced whole under this lock so reads need none.
+    private transient volatile FacetKeyMap<PendingFacetData<V>> pendingFacetData;
+
+    //Recently used views, most recent first, replaced whole so that readers need no lock.
+    private transient volatile FacetView<?, ?>[] facetViews;
+
+    //The facet data as of the last exported delta, null if there has been none, guarded by this.
+    private transient SharedFacetData<V> checkpoint;
+
+    //The index this entity has joined, null if none, changed under this lock.
+    private transient volatile FacetIndex<T, V> joinedIndex;
 
-    @SuppressWarnings("unchecked")
     public <U extends Facet<U, V>> U addFacet(Class<U> facetClass, Supplier<V> facetData) {
 
         V initialFacetData = facetData.get();
-
-        //Need to create a setup proxy so that we can invoke the getFacetIdentifier method as part of initialisation.
-        String facetIdentifier = getFacetSetupProxy(facetClass, initialFacetData).getFacetIdentifier();
+        String facetIdentifier = getFacetIdentifier(facetClass, initialFacetData);
 
         // Now we have the facet identifier we can complete initialisation and create the actual facet instance.
         return initialiseFacet(facetClass, initialFacetData, facetIdentifier);
     }
 
+    /**
+     * Replace a facet's data, adding the facet if it does not exist. Instances of the facet obtained before the
+     * replacement become stale and throw {@link StaleFacetException} when used.
+     * @param facetClass the facet class.
+     * @param facetData supplies the new facet data, from which the facet identifier is taken as in {@link #addFacet}.
+     * @param <U> the facet type.
+     * @return a new instance of the facet.
+     */
+    public <U extends Facet<U, V>> U replaceFacet(Class<U> facetClass, Supplier<V> facetData) {
+        long start = FacetInstruments.start();
+        V replacementFacetData = facetData.get();
+        FacetKey facetKey = FacetKey.of(facetClass, getFacetIdentifier(facetClass, replacementFacetData));
+        checkFacetBinding(facetClass);
+        removePendingFacetData(facetKey);
+        endFacetLifecycle(facetKey);
+        facetCache.remove(facetKey);
+        addFacetData(facetKey, replacementFacetData);
+        indexFacetData(facetKey, replacementFacetData);
+        U facet = getFacetProxy(facetClass, facetKey);
+        FacetInstruments.added(facetKey, start);
+        return facet;
+    }
+
+    /**
+     * Remove a unique facet and its data. Instances of the facet become stale and throw {@link StaleFacetException}
+     * when used.
+     * @param facetClass the facet class.
+     * @param <U> the facet type.
+     * @return true if the facet existed.
+     */
+    public <U extends UniqueFacet<U, V>> boolean removeFacet(Class<U> facetClass) {
+        return removeFacet(FacetKey.of(facetClass));
+    }
+
+    /**
+     * Remove a facet and its data. Instances of the facet become stale and throw {@link StaleFacetException} when used.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param <U> the facet type.
+     * @return true if the facet existed.
+     */
+    public <U extends Facet<U, V>> boolean removeFacet(Class<U> facetClass, String facetIdentifier) {
+        return removeFacet(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    private boolean removeFacet(FacetKey facetKey) {
+        long start = FacetInstruments.start();
+        //Data first, so that a racing getFacet either finds no data or creates an instance whose lifecycle ends below.
+        boolean removed = removePendingFacetData(facetKey) | removeFacetData(facetKey);
+        unindexFacetData(facetKey);
+        endFacetLifecycle(facetKey);
+        facetCache.remove(facetKey);
+        FacetInstruments.removed(facetKey, removed, start);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <U extends Facet<U, V>> String getFacetIdentifier(Class<U> facetClass, V initialFacetData) {
+        //Unique facets are always identified by their class, otherwise we need to create a setup proxy so that we can
+        //invoke the getFacetIdentifier method as part of initialisation.
+        return UniqueFacet.class.isAssignableFrom(facetClass)
+                ? FacetKey.of((Class<? extends UniqueFacet>) facetClass).getFacetIdentifier()
+                : getFacetSetupProxy(getClass().getClassLoader(), facetClass, () -> initialFacetData).getFacetIdentifier();
+    }
+
+    /**
+     * Create a proxy that can run the default methods of a facet, such as <code>getFacetIdentifier()</code>, against
+     * facet data before the facet has been added.
+     * @param classLoader the class loader to define the proxy in.
+     * @param facetClass the facet class.
+     * @param facetData supplies the facet data, called each time the proxy's data is asked for so that one proxy can be
+     *                  reused for many pieces of data.
+     * @param <V> the facet data type.
+     * @param <U> the facet type.
+     * @return the proxy.
+     */
     @SuppressWarnings("unchecked")
-    private <U extends Facet<U, V>> U getFacetSetupProxy(Class<U> facetClass, V initialFacetData) {
-        return (U) Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{facetClass}, (proxy, method, args) -> {
+    static <V, U extends Facet<U, V>> U getFacetSetupProxy(ClassLoader classLoader, Class<U> facetClass, Supplier<V> facetData) {
+        final FacetDispatchPlan dispatchPlan = FacetDispatchPlan.forFacet(facetClass);
+        return (U) Proxy.newProxyInstance(classLoader, new Class[]{facetClass}, (proxy, method, args) -> {
             if (method.getName().equals("getFacetData")) { //This allows us to access the facet data if needed for a facet identifier.
-                return initialFacetData;
+                return facetData.get();
             } else if (method.isDefault()) {
-                return bindDefaultMethod(proxy, method, args); // this lets us call whatever default methods we want.
+                return dispatchPlan.invokeDefault(proxy, method, args); // this lets us call whatever default methods we want.
             } else {
                 throw new UnsupportedOperationException( // this stops us calling non-default methods which might cause problems before initialisation is complete.
                         "Can only call default methods during initialisation - make sure that you have a " +
@@ -77,69 +169,371 @@ public abstract class Faceted<T extends Faceted<T, V>, V> {
 
     private <U extends Facet<U, V>> U initialiseFacet(Class<U> facetClass, V initialFacetData, String facetIdentifier) {
 
-        //TODO add further initialisation checks that all necessary methods exist etc.
-        if (hasFacetData(facetClass, facetIdentifier)) {
+        long start = FacetInstruments.start();
+        FacetKey facetKey = FacetKey.of(facetClass, facetIdentifier);
+
+        checkFacetBinding(facetClass);
+        if (!addNewFacetData(facetKey, initialFacetData)) {
             throw new UnsupportedOperationException("This facet already exists.");
         }
 
-        U facet = getFacetProxy(facetClass, facetIdentifier);
+        U facet = getFacetProxy(facetClass, facetKey);
+        FacetInstruments.added(facetKey, start);
+        return facet;
+    }
+
+    /**
+     * Add a unique facet whose data is loaded when it is first needed, by the first thread to call
+     * <code>getFacetData()</code> on the facet or {@link #getFacetAsync(Class)}. Nothing is loaded for facets that are
+     * never read, which suits data held in a slower store. If the supplier returns null the facet is removed once the
+     * load completes; if it throws, the exception is thrown to every reader until the facet is replaced or removed.
+     * <p>
+     * Until it is loaded the facet's data is not part of snapshots or exported deltas.
+     * </p>
+     * @param facetClass the facet class.
+     * @param facetData supplies the facet data when it is first needed.
+     * @param <U> the facet type.
+     * @return the facet.
+     */
+    public <U extends UniqueFacet<U, V>> U addLazyFacet(Class<U> facetClass, Supplier<? extends V> facetData) {
+        FacetKey facetKey = FacetKey.of(facetClass);
+        return addPendingFacet(facetClass, facetKey, PendingFacetData.lazy(facetKey, facetData));
+    }
+
+    /**
+     * Add a facet whose data is loaded when it is first needed, see {@link #addLazyFacet(Class, Supplier)}. The facet
+     * identifier has to be given as the data is not there to take it from.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param facetData supplies the facet data when it is first needed.
+     * @param <U> the facet type.
+     * @return the facet.
+     */
+    public <U extends Facet<U, V>> U addLazyFacet(Class<U> facetClass, String facetIdentifier, Supplier<? extends V> facetData) {
+        FacetKey facetKey = FacetKey.of(facetClass, facetIdentifier);
+        return addPendingFacet(facetClass, facetKey, PendingFacetData.lazy(facetKey, facetData));
+    }
+
+    /**
+     * Add a unique facet whose data is already being loaded asynchronously, for example by a non-blocking store
+     * client. Reading the facet's data waits for the load, as for {@link #addLazyFacet(Class, Supplier)}.
+     * @param facetClass the facet class.
+     * @param facetData the facet data once loaded.
+     * @param <U> the facet type.
+     * @return the facet.
+     */
+    public <U extends UniqueFacet<U, V>> U addAsyncFacet(Class<U> facetClass, CompletionStage<? extends V> facetData) {
+        FacetKey facetKey = FacetKey.of(facetClass);
+        return addPendingFacet(facetClass, facetKey, PendingFacetData.async(facetKey, facetData));
+    }
+
+    /**
+     * Add a facet whose data is already being loaded asynchronously, see {@link #addAsyncFacet(Class, CompletionStage)}.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param facetData the facet data once loaded.
+     * @param <U> the facet type.
+     * @return the facet.
+     */
+    public <U extends Facet<U, V>> U addAsyncFacet(Class<U> facetClass, String facetIdentifier, CompletionStage<? extends V> facetData) {
+        FacetKey facetKey = FacetKey.of(facetClass, facetIdentifier);
+        return addPendingFacet(facetClass, facetKey, PendingFacetData.async(facetKey, facetData));
+    }
+
+    /**
+     * Get a unique facet once its data has been loaded, starting the load if it is lazy. Facets whose data is held
+     * already are returned straight away.
+     * @param facetClass the facet class.
+     * @param <U> the facet type.
+     * @return the facet once loaded, empty if this Faceted does not have it.
+     */
+    public <U extends UniqueFacet<U, V>> CompletableFuture<Optional<U>> getFacetAsync(Class<U> facetClass) {
+        return getFacetAsync(facetClass, FacetKey.of(facetClass));
+    }
+
+    /**
+     * Get a facet once its data has been loaded, see {@link #getFacetAsync(Class)}.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param <U> the facet type.
+     * @return the facet once loaded, empty if this Faceted does not have it.
+     */
+    public <U extends Facet<U, V>> CompletableFuture<Optional<U>> getFacetAsync(Class<U> facetClass, String facetIdentifier) {
+        return getFacetAsync(facetClass, FacetKey.of(facetClass, facetIdentifier));
+    }
 
-        addFacetData(facetClass, facetIdentifier, initialFacetData);
+    private <U extends Facet<U, V>> CompletableFuture<Optional<U>> getFacetAsync(Class<U> facetClass, FacetKey facetKey) {
+        FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData;
+        PendingFacetData<V> load = pending == null ? null : pending.get(facetKey);
+        if (load == null) {
+            return CompletableFuture.completedFuture(getFacet(facetClass, facetKey));
+        }
+        return load.start().thenApply(data -> {
+            completeLoad(facetKey, load, data);
+            return getFacet(facetClass, facetKey);
+        });
+    }
 
+    /**
+     * Add the data of a new facet unless the facet already has data or is pending. The lock is the one
+     * {@link #addPendingFacet} takes, so a facet cannot be added both ways at once and then have its data overwritten
+     * when the pending load completes.
+     * @param facetKey the key of the facet.
+     * @param facetData the facet data.
+     * @return true if the data was added, false if the facet already exists.
+     */
+    final synchronized boolean addNewFacetData(FacetKey facetKey, V facetData) {
+        if (isPending(facetKey) || !addFacetDataIfAbsent(facetKey, facetData)) {
+            return false;
+        }
+        indexFacetData(facetKey, facetData);
+        return true;
+    }
+
+    <U extends Facet<U, V>> U addPendingFacet(Class<U> facetClass, FacetKey facetKey, PendingFacetData<V> load) {
+        long start = FacetInstruments.start();
+        checkFacetBinding(facetClass);
+        synchronized (this) {
+            if (isPending(facetKey) || hasFacetData(facetKey)) {
+                throw new UnsupportedOperationException("This facet already exists.");
+            }
+            FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData == null ? new FacetKeyMap<>() : pendingFacetData.copy();
+            pending.put(facetKey, load);
+            pendingFacetData = pending;
+        }
+        U facet = getFacetProxy(facetClass, facetKey);
+        FacetInstruments.added(facetKey, start);
         return facet;
     }
 
-    @SuppressWarnings("unchecked")
-    private <U extends Facet<U, V>> U getFacetProxy(Class<U> facetClass, String facetIdentifier) {
-        return (U) Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{facetClass}, (proxy, method, args) -> {
-                if (method.getName().equals("getFacetData")) {
-                    return getFacetData(facetClass, facetIdentifier).orElseThrow(RuntimeException::new);
-                } else if (method.isDefault()) {
-                    return bindDefaultMethod(proxy, method, args);
-                } else {
-                    return this.getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(this, args);
-                }
-            });
+    /**
+     * Read a facet's data for one of its instances, first waiting for it to be loaded if it is pending.
+     * @param facetKey the key of the facet.
+     * @return the facet data if there is any.
+     */
+    final Optional<V> readFacetData(FacetKey facetKey) {
+        FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData;
+        if (pending != null) {
+            PendingFacetData<V> load = pending.get(facetKey);
+            if (load != null) {
+                completeLoad(facetKey, load, load.await());
+            }
+        }
+        Optional<V> facetData = getFacetData(facetKey);
+        FacetIndex<T, V> index = joinedIndex;
+        if (index != null && facetData.isPresent()) {
+            index.handedOut(getBaseFaceted(), facetKey);
+        }
+        return facetData;
+    }
+
+    /**
+     * Wait for the data of every pending facet to be loaded, for example before the facets are written out.
+     */
+    final void loadPendingFacetData() {
+        FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData;
+        if (pending != null) {
+            pending.forEach((facetKey, load) -> completeLoad(facetKey, load, load.await()));
+        }
     }
 
-    private static Object bindDefaultMethod(Object proxy, Method method, Object[] args) throws Throwable {
-        final Class<?> declaringClass = method.getDeclaringClass();
-        Constructor<MethodHandles.Lookup> constructor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
-        constructor.setAccessible(true);
-        return
-                constructor.newInstance(declaringClass, MethodHandles.Lookup.PRIVATE)
-                        .unreflectSpecial(method, declaringClass)
-                        .bindTo(proxy)
-                        .invokeWithArguments(args);
+    final boolean isPending(FacetKey facetKey) {
+        FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData;
+        return pending != null && pending.get(facetKey) != null;
+    }
+
+    /**
+     * Store loaded data, unless the facet was removed or replaced while it was loading.
+     */
+    private synchronized void completeLoad(FacetKey facetKey, PendingFacetData<V> load, V facetData) {
+        if (pendingFacetData == null || pendingFacetData.get(facetKey) != load) {
+            return;
+        }
+        if (facetData != null) {
+            addFacetData(facetKey, facetData);
+            indexFacetData(facetKey, facetData);
+        }
+        removePendingFacetData(facetKey);
+        if (facetData == null) {
+            endFacetLifecycle(facetKey);
+            facetCache.remove(facetKey);
+        }
+    }
+
+    private synchronized boolean removePendingFacetData(FacetKey facetKey) {
+        if (pendingFacetData == null || pendingFacetData.get(facetKey) == null) {
+            return false;
+        }
+        FacetKeyMap<PendingFacetData<V>> pending = pendingFacetData.copy();
+        pending.remove(facetKey);
+        pendingFacetData = pending.size() == 0 ? null : pending;
+        return true;
+    }
+
+    /**
+     * Report added or replaced facet data to the {@link FacetIndex} this entity has joined, if any. Facet data is added
+     * through the overridable key based methods, so this is called by whatever asked for it to be added.
+     * @param facetKey the key of the facet.
+     * @param facetData the facet data.
+     */
+    final void indexFacetData(FacetKey facetKey, V facetData) {
+        FacetIndex<T, V> index = joinedIndex;
+        if (index != null) {
+            index.added(getBaseFaceted(), facetKey, facetData);
+        }
+    }
+
+    private void unindexFacetData(FacetKey facetKey) {
+        FacetIndex<T, V> index = joinedIndex;
+        if (index != null) {
+            index.removed(getBaseFaceted(), facetKey);
+        }
+    }
+
+    final synchronized void joinIndex(FacetIndex<T, V> index) {
+        if (joinedIndex != null && joinedIndex != index) {
+            throw new IllegalStateException(this + " has already joined a facet index.");
+        }
+        joinedIndex = index;
+    }
+
+    final synchronized void leaveIndex(FacetIndex<T, V> index) {
+        if (joinedIndex == index) {
+            joinedIndex = null;
+        }
+    }
+
+    /**
+     * Check, once for each facet interface and Faceted type, that every facet method without a default is implemented
+     * by this type, so that a missing method is found when the facet is added rather than when it is called.
+     */
+    void checkFacetBinding(Class<?> facetClass) {
+        FacetBinding.of(getFacetMethodTarget().getClass(), facetClass).checkValid();
+    }
+
+    private <U extends Facet<U, V>> U getFacetProxy(Class<U> facetClass, FacetKey facetKey) {
+        FacetEngine engine = getFacetEngine();
+        long start = FacetInstruments.startCreation();
+        U facet = engine.createFacet(this, facetClass, facetKey);
+        FacetInstruments.created(this, facetKey, engine, start);
+        return facet;
+    }
+
+    /**
+     * The engine used to create facet instances for this Faceted. Override this to choose an engine for a particular
+     * Faceted type rather than relying on {@link FacetEngine#getDefault()}.
+     * @return the facet engine.
+     */
+    protected FacetEngine getFacetEngine() {
+        return FacetEngine.getDefault();
+    }
+
+    /**
+     * Create the cache used to hold this Faceted's facet instances. This is called during construction so overriding
+     * implementations must not rely on any state of the sub-type.
+     * @return the facet cache.
+     */
+    protected FacetCache createFacetCache() {
+        return FacetCache.create();
+    }
+
+    /**
+     * @return the cache of facet instances, mainly of interest for its statistics.
+     */
+    public FacetCache getFacetCache() {
+        return facetCache;
     }
 
     public <U extends UniqueFacet<U, V>> Optional<U> getFacet(Class<U> facetClass){
-        return getFacet(facetClass, new FacetKey(facetClass));
+        return getFacet(facetClass, FacetKey.of(facetClass));
     }
 
     public <U extends Facet<U, V>> Optional<U> getFacet(Class<U> facetClass, String facetIdentifier)   {
-        return getFacet(facetClass, new FacetKey(facetClass, facetIdentifier));
+        return getFacet(facetClass, FacetKey.of(facetClass, facetIdentifier));
     }
 
     @SuppressWarnings("unchecked")
     private <U extends Facet<U, V>> Optional<U> getFacet(Class<U> facetClass, FacetKey key) {
-        return Optional.ofNullable((
-                U)facetCache.computeIfAbsent(key,
-                (facetKey -> this.getFacetProxy(facetClass, facetKey.getFacetIdentifier()))));
+        long start = FacetInstruments.start();
+        //The Optional itself is cached so that a cache hit does not allocate.
+        Optional<U> facet = (Optional<U>) facetCache.get(key);
+        boolean cached = facet != null;
+        if (!cached) {
+            facet = hasFacetData(key) || isPending(key)
+                    ? (Optional<U>) facetCache.putIfAbsent(key, Optional.of(getFacetProxy(facetClass, key)))
+                    : Optional.empty();
+            if (facet.isPresent() && !hasFacetData(key) && !isPending(key)) {
+                //Removed while the instance was being created, so do not leave it in the cache.
+                facetCache.remove(key);
+                facet = Optional.empty();
+            }
+        }
+        FacetInstruments.retrieved(key, cached, start);
+        return facet;
+    }
+
+    /**
+     * Get several unique facets of this Faceted together, see {@link FacetView}. The view is cached so asking for the
+     * same facets again returns the same view for as long as none of them is removed or replaced.
+     * @param facetClasses the facet classes.
+     * @return the view, empty unless this Faceted has every one of the facets.
+     */
+    @SafeVarargs
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public final Optional<FacetView<T, V>> getView(Class<? extends UniqueFacet<?, V>>... facetClasses) {
+        FacetView<?, ?>[] views = facetViews;
+        if (views != null) {
+            for (FacetView<?, ?> view : views) {
+                if (view.isViewOf(facetClasses) && view.isCurrent()) {
+                    return Optional.of((FacetView<T, V>) view);
+                }
+            }
+        }
+        Class<?>[] classes = facetClasses.clone();
+        Object[] facets = new Object[classes.length];
+        FacetLifecycle[] lifecycles = new FacetLifecycle[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            FacetKey facetKey = FacetKey.of((Class<? extends UniqueFacet>) classes[i]);
+            Optional<?> facet = getFacet((Class) classes[i], facetKey);
+            if (!facet.isPresent()) {
+                return Optional.empty();
+            }
+            facets[i] = facet.get();
+            //The facet has an instance so this is the lifecycle it was created with.
+            lifecycles[i] = getFacetLifecycle(facetKey);
+        }
+        FacetView<T, V> view = new FacetView<>(getBaseFaceted(), classes, facets, lifecycles);
+        cacheView(view, classes, views);
+        return Optional.of(view);
+    }
+
+    private void cacheView(FacetView<?, ?> view, Class<?>[] classes, FacetView<?, ?>[] views) {
+        FacetView<?, ?>[] updated = new FacetView<?, ?>[MAXIMUM_CACHED_VIEWS];
+        int count = 0;
+        updated[count++] = view;
+        if (views != null) {
+            for (int i = 0; i < views.length && count < updated.length; i++) {
+                if (views[i].isCurrent() && !views[i].isViewOf(classes)) {
+                    updated[count++] = views[i];
+                }
+            }
+        }
+        facetViews = Arrays.copyOf(updated, count);
     }
 
     public <U extends UniqueFacet<U, V>> boolean hasFacet(Class<U> facetClass) {
-        return hasFacet(facetClass, new FacetKey(facetClass));
+        return hasFacet(FacetKey.of(facetClass));
     }
 
-    public <U extends UniqueFacet<U, V>> boolean hasFacet(Class<U> facetClass, String facetIdentifier) {
-        return hasFacet(facetClass, new FacetKey(facetClass, facetIdentifier));
+    public <U extends Facet<U, V>> boolean hasFacet(Class<U> facetClass, String facetIdentifier) {
+        return hasFacet(FacetKey.of(facetClass, facetIdentifier));
     }
 
-    private <U extends Facet<U, V>> boolean hasFacet(Class<U> facetClass, FacetKey facetKey) {
-        return Optional.ofNullable(facetCache.get(facetKey))
-                .map(Objects::nonNull)
-                .orElse(hasFacetData(facetClass, facetKey.getFacetIdentifier()));
+    private boolean hasFacet(FacetKey facetKey) {
+        long start = FacetInstruments.start();
+        boolean present = facetCache.lookup(facetKey) != null || hasFacetData(facetKey) || isPending(facetKey);
+        FacetInstruments.checked(facetKey, present, start);
+        return present;
     }
 
     protected abstract <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier);
@@ -148,80 +542,196 @@ public abstract class Faceted<T extends Faceted<T, V>, V> {
 
     protected abstract <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData);
 
+    /**
+     * Remove the data of a facet. Storage that supports {@link #removeFacet} must override this or its key based
+     * equivalent, by default facets cannot be removed.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param <U> the facet type.
+     * @return true if there was data to remove.
+     */
+    protected <U extends Facet<U, V>> boolean removeFacetData(Class<U> facetClass, String facetIdentifier) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support removing facets.");
+    }
+
+    /**
+     * Key based equivalent of {@link #hasFacetData(Class, String)}, which is what Faceted and its facets actually call.
+     * By default the key based methods delegate to the class and identifier versions; storage that can index by
+     * {@link FacetKey#getId()} should override them.
+     * @param facetKey the key of the facet.
+     * @return true if there is data for the facet.
+     */
     @SuppressWarnings("unchecked")
-    public T getBaseFaceted(){
-        return (T)this;
+    protected boolean hasFacetData(FacetKey facetKey) {
+        return hasFacetData((Class) facetKey.getFacetType(), facetKey.getFacetIdentifier());
     }
 
     /**
-     * Key used to identify a facet within a Faceted instance. This should only be the concern of sub-types of
-     * Faceted.
+     * Key based equivalent of {@link #getFacetData(Class, String)}.
+     * @param facetKey the key of the facet.
+     * @return the facet data if there is any.
      */
-    protected final class FacetKey {
-        private final String facetClass;
-        private final String facetIdentifier;
+    @SuppressWarnings("unchecked")
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        return getFacetData((Class) facetKey.getFacetType(), facetKey.getFacetIdentifier());
+    }
 
-        /**
-         * Default constuctor for unique facets.
-         *
-         * @param facetClass the class of the facet.
-         */
-        public FacetKey(Class<? extends UniqueFacet> facetClass) {
-            this.facetClass = facetClass.toString();
-            this.facetIdentifier = facetClass.toString();
-        }
+    /**
+     * Key based equivalent of {@link #addFacetData(Class, String, Object)}.
+     * @param facetKey the key of the facet.
+     * @param facetData the facet data.
+     */
+    @SuppressWarnings("unchecked")
+    protected void addFacetData(FacetKey facetKey, V facetData) {
+        addFacetData((Class) facetKey.getFacetType(), facetKey.getFacetIdentifier(), facetData);
+    }
 
-        /**
-         * More general constructor for non-unique facets.
-         *
-         * @param facetClass      the class of the facet.
-         * @param facetIdentifier the identifier of the facet.
-         */
-        public FacetKey(Class<? extends Facet> facetClass, String facetIdentifier) {
-            this.facetClass = facetClass.toString();
-            this.facetIdentifier = facetIdentifier;
-        }
+    /**
+     * Key based equivalent of {@link #removeFacetData(Class, String)}.
+     * @param facetKey the key of the facet.
+     * @return true if there was data to remove.
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean removeFacetData(FacetKey facetKey) {
+        return removeFacetData((Class) facetKey.getFacetType(), facetKey.getFacetIdentifier());
+    }
 
-        public String getFacetClass() {
-            return facetClass;
+    /**
+     * Add the data for a facet only if the facet does not already have data, this is how {@link #addFacet} adds data.
+     * The default implementation is a check followed by an add so sub-types that need to be thread safe must override
+     * it with an atomic equivalent.
+     * @param facetKey the key of the facet.
+     * @param facetData the facet data.
+     * @return true if the data was added, false if the facet already had data.
+     */
+    protected boolean addFacetDataIfAbsent(FacetKey facetKey, V facetData) {
+        if (hasFacetData(facetKey)) {
+            return false;
         }
+        addFacetData(facetKey, facetData);
+        return true;
+    }
 
-        public String getFacetIdentifier() {
-            return facetIdentifier;
+    /**
+     * Get the lifecycle shared by the instances of a facet, starting a new one if the facet has none. Called as each
+     * facet instance is created.
+     * @param facetKey the key of the facet.
+     * @return the current lifecycle of the facet.
+     */
+    synchronized FacetLifecycle getFacetLifecycle(FacetKey facetKey) {
+        if (facetLifecycles == null) {
+            facetLifecycles = new FacetKeyMap<>();
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            FacetKey facetKey = (FacetKey) o;
-            return Objects.equals(facetClass, facetKey.facetClass) &&
-                    Objects.equals(facetIdentifier, facetKey.facetIdentifier);
+        FacetLifecycle lifecycle = facetLifecycles.get(facetKey);
+        if (lifecycle == null) {
+            lifecycle = new FacetLifecycle(facetKey);
+            facetLifecycles.put(facetKey, lifecycle);
         }
+        return lifecycle;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(facetClass, facetIdentifier);
+    private synchronized void endFacetLifecycle(FacetKey facetKey) {
+        FacetLifecycle lifecycle = facetLifecycles == null ? null : facetLifecycles.remove(facetKey);
+        if (lifecycle != null) {
+            lifecycle.end();
+            if (facetLifecycles.size() == 0) {
+                facetLifecycles = null;
+            }
         }
+    }
+
+    synchronized int getFacetLifecycleCount() {
+        return facetLifecycles == null ? 0 : facetLifecycles.size();
+    }
 
-        /**
-         * Convenience toString() method for debugging purposes, do not attempt to use this as a key in any concrete
-         * implementations of Faceted as it includes the Object Identity and will not generate a key that will work as
-         * might be expeceted. The reason foe this is that the implementation details of FacetKey may need to change
-         * over time, adding extra fields and this would break any implementation relying on this method. Faceted
-         * Implementations need to use the FacetKey and its data directly to minimise the chance of a breaking change.
-         *
-         * @return
-         */
-        @Override
-        public final String toString() {
-            final StringBuilder sb = new StringBuilder("FacetKey{");
-            sb.append("facetClass='").append(facetClass).append('\'');
-            sb.append(", facetIdentifier='").append(facetIdentifier).append('\'');
-            sb.append(", instanceId='").append(super.toString()).append('\'');
-            sb.append('}');
-            return sb.toString();
+    /**
+     * Take a read only snapshot of this Faceted's facets. The snapshot shares facet data with this Faceted rather than
+     * copying it: this Faceted copies any shared data before handing it out again, see {@link #copyFacetData}, so the
+     * snapshot keeps seeing the facets as they were however they change afterwards. Snapshots can be read by any
+     * number of threads without locking.
+     * <p>
+     * Taking a snapshot does not copy anything for the Faceted types that support it, which are
+     * {@link SimpleFaceted}, {@link ConcurrentFaceted} and {@link JsonFaceted}. Facet data obtained before the snapshot
+     * is taken is still shared with it, facets fetch their data afresh on each call so this only matters to code that
+     * holds on to <code>getFacetData()</code> results.
+     * </p>
+     * @return the snapshot.
+     * @throws UnsupportedOperationException if this Faceted type does not support snapshots.
+     */
+    public FacetedSnapshot<T, V> snapshot() {
+        return new FacetedSnapshot<>(getBaseFaceted(), shareFacetData());
+    }
+
+    /**
+     * Export the changes made to this Faceted's facets since the last export, or since {@link #markClean()} was called,
+     * and start recording changes afresh. Before either every facet is reported as added.
+     * <p>
+     * Changes are found by comparing the facet data with a snapshot taken at the last export, see {@link #snapshot()},
+     * so nothing is recorded as facets are changed and only facets whose data was handed out since the last export are
+     * compared. Changing data through references obtained before the last export is not detected.
+     * </p>
+     * @return the changes.
+     * @throws UnsupportedOperationException if this Faceted type does not support snapshots.
+     */
+    public synchronized FacetDelta<T, V> exportDelta() {
+        SharedFacetData<V> current = shareFacetData();
+        List<FacetChange<V>> changes = new ArrayList<>();
+        current.diff(checkpoint, (facetClassName, facetIdentifier, before, after) -> {
+            FacetChange<V> change = FacetChange.between(facetClassName, facetIdentifier, before, after);
+            if (change != null) {
+                changes.add(change);
+            }
+        });
+        checkpoint = current;
+        return new FacetDelta<>(getBaseFaceted(), changes);
+    }
+
+    /**
+     * Treat the facets as they are now as already persisted, for example once the entity has been read, so that the
+     * next {@link #exportDelta()} only reports changes made from now on.
+     * @throws UnsupportedOperationException if this Faceted type does not support snapshots.
+     */
+    public synchronized void markClean() {
+        checkpoint = shareFacetData();
+    }
+
+    /**
+     * Share the facet data as it is now with a new snapshot. From now on the implementation must copy, rather than
+     * change, anything the returned view refers to.
+     * @return a view of the facet data that never changes.
+     */
+    SharedFacetData<V> shareFacetData() {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support snapshots.");
+    }
+
+    /**
+     * Copy facet data that is shared with a snapshot, this is done the first time the data is asked for after the
+     * snapshot is taken so that changes made through facets do not reach the snapshot. By default Jackson nodes are deep
+     * copied, {@link FacetRecord}s are copied and any other data is assumed not to change once added; Faceted types
+     * with other facet data that can be changed in place must override this.
+     * @param facetData the shared facet data.
+     * @return data that can be changed without affecting the snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    protected V copyFacetData(V facetData) {
+        if (facetData instanceof JsonNode) {
+            return (V) ((JsonNode) facetData).deepCopy();
+        } else if (facetData instanceof FacetRecord) {
+            return (V) ((FacetRecord) facetData).copy();
         }
+        return facetData;
+    }
+
+    /**
+     * @return the object that facet methods the facet interface does not implement are called on.
+     */
+    Object getFacetMethodTarget() {
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getBaseFaceted(){
+        return (T)this;
     }
 
 }
@@ -0,0 +1,175 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static uk.co.fvdl.facet.BinaryFacetFormat.MAXIMUM_DICTIONARY_SIZE;
+
+/**
+ * The state behind the <code>Externalizable</code> forms of {@link JsonFaceted} and {@link SimpleFaceted}, kept for
+ * each object stream so that facet class names and identifiers are written in full once per stream however many
+ * entities it carries.
+ * <p>
+ * JSON entities are written in the {@link BinaryFacetFormat} by one {@link BinaryFacetedWriter} per stream, whose name
+ * dictionary therefore spans the stream, each entity prefixed by its length so that the reading side never reads past
+ * it. Other entities write each facet key as a number into a dictionary of {@link FacetKey}s, defining it the first time
+ * it is seen. The state is held weakly against the stream, so the entities of a stream must be read back in the order
+ * they were written, from a single stream, as Java serialisation requires anyway.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetedExternals {
+
+    private static final int KEY_DEFINITION = -1;
+    private static final int KEY_LITERAL = -2;
+
+    private static final Map<ObjectOutput, Output> OUTPUTS = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<ObjectInput, Input> INPUTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private FacetedExternals() {
+    }
+
+    static void writeDocument(ObjectOutput out, JsonFaceted<?, ?> faceted) throws IOException {
+        Output output = OUTPUTS.computeIfAbsent(out, stream -> new Output());
+        output.bytes.reset();
+        if (output.writer == null) {
+            output.writer = new BinaryFacetedWriter(output.bytes);
+        }
+        output.writer.write(faceted);
+        output.writer.flush();
+        out.writeInt(output.bytes.size());
+        output.bytes.writeTo(out);
+    }
+
+    static ObjectNode readDocument(ObjectInput in) throws IOException {
+        Input input = INPUTS.computeIfAbsent(in, stream -> new Input());
+        int length = in.readInt();
+        if (length < 0) {
+            throw new StreamCorruptedException("Negative document length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        input.chunk.set(bytes);
+        if (input.reader == null) {
+            input.reader = new BinaryFacetedReader<>(input.chunk, document -> {
+                throw new UnsupportedOperationException();
+            });
+        }
+        return input.reader.readDocument();
+    }
+
+    static void writeFacetKey(ObjectOutput out, FacetKey facetKey) throws IOException {
+        Map<FacetKey, Integer> keys = OUTPUTS.computeIfAbsent(out, stream -> new Output()).keys;
+        Integer index = keys.get(facetKey);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        if (keys.size() < MAXIMUM_DICTIONARY_SIZE) {
+            keys.put(facetKey, keys.size());
+            out.writeInt(KEY_DEFINITION);
+        } else {
+            out.writeInt(KEY_LITERAL);
+        }
+        out.writeUTF(facetKey.getFacetType().getName());
+        out.writeUTF(facetKey.getFacetIdentifier());
+    }
+
+    static FacetKey readFacetKey(ObjectInput in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        List<FacetKey> keys = INPUTS.computeIfAbsent(in, stream -> new Input()).keys;
+        int index = in.readInt();
+        if (index >= 0) {
+            if (index >= keys.size()) {
+                throw new StreamCorruptedException("Unknown facet key " + index);
+            }
+            return keys.get(index);
+        } else if (index != KEY_DEFINITION && index != KEY_LITERAL) {
+            throw new StreamCorruptedException("Unknown facet key kind " + index);
+        }
+        Class<? extends Facet> facetClass = Class.forName(in.readUTF(), false, classLoader).asSubclass(Facet.class);
+        FacetKey facetKey = FacetKey.of(facetClass, in.readUTF());
+        if (index == KEY_DEFINITION) {
+            keys.add(facetKey);
+        }
+        return facetKey;
+    }
+
+    private static final class Output {
+        private final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+        private final Map<FacetKey, Integer> keys = new IdentityHashMap<>();
+        private BinaryFacetedWriter writer;
+    }
+
+    private static final class Input {
+        private final ChunkInputStream chunk = new ChunkInputStream();
+        private final List<FacetKey> keys = new ArrayList<>();
+        private BinaryFacetedReader<?> reader;
+    }
+
+    /**
+     * Lets the buffered bytes be written on without copying them.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private void writeTo(ObjectOutput out) throws IOException {
+            out.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * An input stream over one entity's bytes at a time.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private byte[] bytes = new byte[0];
+        private int position;
+
+        private void set(byte[] bytes) {
+            this.bytes = bytes;
+            this.position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= bytes.length) {
+                return -1;
+            }
+            int count = Math.min(length, bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
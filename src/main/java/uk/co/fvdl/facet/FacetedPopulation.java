@@ -0,0 +1,263 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.FacetColumns;
+import uk.co.fvdl.facet.schema.FacetRecord;
+import uk.co.fvdl.facet.schema.FacetSchema;
+import uk.co.fvdl.facet.schema.PropertyIndex;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A population of faceted entities stored by column rather than by entity. Each entity is a row index and the data of
+ * each facet, for every entity that has it, is kept in one {@link FacetColumns} so there is no per entity document,
+ * facet table or cache. The entities handed out are {@link PopulationFaceted} flyweights over a row that can be created
+ * and discarded freely; any number of them for the same row see the same data.
+ * <p>
+ * Facet data is a {@link FacetRecord}. Adding a facet copies its initial record into the columns and
+ * <code>getFacetData()</code> returns a flyweight record over the row, so scanning one property of one facet over the
+ * whole population, through {@link #getColumns(Class)}, is a sequential read. The entities' own state can be kept
+ * in columns too by giving the population a base schema, see {@link PopulationFaceted#getBaseRecord()}.
+ * </p>
+ * <p>
+ * Because entities are rows, which entities have a facet is a bitmap and facet properties can be indexed with
+ * {@link #createIndex}. {@link #query()} combines both to find entities without visiting every one of them. Other
+ * Faceted types are indexed with a {@link FacetIndex}.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetedPopulation<T extends PopulationFaceted<T>> {
+
+    private final EntityFactory<T> entityFactory;
+    private final Storage storage;
+    private final FacetColumns baseColumns;
+    private final FacetKeyMap<FacetColumns> facetColumns = new FacetKeyMap<>();
+    private int size;
+
+    /**
+     * Where the primitive columns of the population are held.
+     */
+    public enum Storage {
+        HEAP, OFF_HEAP
+    }
+
+    /**
+     * Creates the flyweight entity for a row, usually the constructor of the {@link PopulationFaceted} sub-type.
+     * @param <T> the entity type.
+     */
+    @FunctionalInterface
+    public interface EntityFactory<T extends PopulationFaceted<T>> {
+        T create(FacetedPopulation<T> population, int row);
+    }
+
+    /**
+     * Create a population on the heap whose entities have no state of their own.
+     * @param entityFactory creates the flyweight entities.
+     */
+    public FacetedPopulation(EntityFactory<T> entityFactory) {
+        this(null, Storage.HEAP, entityFactory);
+    }
+
+    /**
+     * Create a population.
+     * @param baseSchema the schema of the entities' own state, or null if they have none.
+     * @param storage where to hold the primitive columns.
+     * @param entityFactory creates the flyweight entities.
+     */
+    public FacetedPopulation(FacetSchema baseSchema, Storage storage, EntityFactory<T> entityFactory) {
+        this.entityFactory = Objects.requireNonNull(entityFactory, "entityFactory");
+        this.storage = Objects.requireNonNull(storage, "storage");
+        this.baseColumns = baseSchema == null ? null : newColumns(baseSchema);
+    }
+
+    /**
+     * Add a new entity with no facets.
+     * @return a flyweight for the entity.
+     */
+    public T add() {
+        int row = size++;
+        if (baseColumns != null) {
+            baseColumns.addRow(row);
+        }
+        return entityFactory.create(this, row);
+    }
+
+    /**
+     * @param row the row index of the entity.
+     * @return a flyweight for the entity.
+     */
+    public T get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return entityFactory.create(this, row);
+    }
+
+    /**
+     * @return the number of entities.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Call the action with a flyweight for every entity in row order.
+     * @param action the action.
+     */
+    public void forEach(Consumer<? super T> action) {
+        for (int row = 0; row < size; row++) {
+            action.accept(entityFactory.create(this, row));
+        }
+    }
+
+    /**
+     * Get the columns holding a unique facet's data for the whole population.
+     * @param facetClass the facet class.
+     * @return the columns, empty if no entity has ever had the facet.
+     */
+    public Optional<FacetColumns> getColumns(Class<? extends UniqueFacet> facetClass) {
+        return Optional.ofNullable(facetColumns.get(FacetKey.of(facetClass)));
+    }
+
+    /**
+     * Get the columns holding a facet's data for the whole population.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @return the columns, empty if no entity has ever had the facet.
+     */
+    public Optional<FacetColumns> getColumns(Class<? extends Facet> facetClass, String facetIdentifier) {
+        return Optional.ofNullable(facetColumns.get(FacetKey.of(facetClass, facetIdentifier)));
+    }
+
+    /**
+     * Index a property of a unique facet so that queries on it do not scan the facet's column. The index is kept up to
+     * date as facets are added and their data changes.
+     * @param facetClass the facet class.
+     * @param schema the schema of the facet's data.
+     * @param slot the slot of the property to index.
+     * @param type the type of index.
+     * @return the index.
+     */
+    public PropertyIndex createIndex(Class<? extends UniqueFacet> facetClass, FacetSchema schema, int slot, PropertyIndex.Type type) {
+        return createIndex(FacetKey.of(facetClass), schema, slot, type);
+    }
+
+    /**
+     * Index a property of a facet, see {@link #createIndex(Class, FacetSchema, int, PropertyIndex.Type)}.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param schema the schema of the facet's data.
+     * @param slot the slot of the property to index.
+     * @param type the type of index.
+     * @return the index.
+     */
+    public PropertyIndex createIndex(Class<? extends Facet> facetClass, String facetIdentifier, FacetSchema schema, int slot, PropertyIndex.Type type) {
+        return createIndex(FacetKey.of(facetClass, facetIdentifier), schema, slot, type);
+    }
+
+    private PropertyIndex createIndex(FacetKey facetKey, FacetSchema schema, int slot, PropertyIndex.Type type) {
+        FacetColumns columns = facetColumns.get(facetKey);
+        if (columns == null) {
+            columns = newColumns(schema);
+            facetColumns.put(facetKey, columns);
+        } else if (columns.getSchema() != schema) {
+            throw new IllegalArgumentException("Facet " + facetKey + " has schema " + columns.getSchema().getName());
+        }
+        return columns.createIndex(slot, type);
+    }
+
+    /**
+     * @param facetClass the facet class.
+     * @return a new set of the rows of every entity with a facet of the class, whatever its identifier.
+     */
+    public BitSet getMembers(Class<? extends Facet> facetClass) {
+        BitSet members = new BitSet();
+        facetColumns.forEach((facetKey, columns) -> {
+            if (facetKey.getFacetType() == facetClass) {
+                members.or(columns.getRows());
+            }
+        });
+        return members;
+    }
+
+    /**
+     * @return a new query matching every entity in the population.
+     */
+    public PopulationQuery<T> query() {
+        return new PopulationQuery<>(this);
+    }
+
+    FacetColumns getColumns(FacetKey facetKey) {
+        return facetColumns.get(facetKey);
+    }
+
+    FacetRecord getBaseRecord(int row) {
+        if (baseColumns == null) {
+            throw new IllegalStateException("This population has no base schema.");
+        }
+        return baseColumns.getRecord(row);
+    }
+
+    boolean hasFacetData(int row, FacetKey facetKey) {
+        FacetColumns columns = facetColumns.get(facetKey);
+        return columns != null && columns.isPresent(row);
+    }
+
+    Optional<FacetRecord> getFacetData(int row, FacetKey facetKey) {
+        FacetColumns columns = facetColumns.get(facetKey);
+        return columns != null && columns.isPresent(row) ? Optional.of(columns.getRecord(row)) : Optional.empty();
+    }
+
+    void addFacetData(int row, FacetKey facetKey, FacetRecord facetData) {
+        FacetColumns columns = facetColumns.get(facetKey);
+        if (columns == null) {
+            columns = newColumns(facetData.getSchema());
+            facetColumns.put(facetKey, columns);
+        }
+        columns.setRecord(row, facetData);
+    }
+
+    boolean removeFacetData(int row, FacetKey facetKey) {
+        FacetColumns columns = facetColumns.get(facetKey);
+        if (columns == null || !columns.isPresent(row)) {
+            return false;
+        }
+        columns.removeRow(row);
+        return true;
+    }
+
+    private FacetColumns newColumns(FacetSchema schema) {
+        return storage == Storage.OFF_HEAP ? FacetColumns.offHeap(schema) : FacetColumns.onHeap(schema);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetedPopulation{size=" + size + ", facets=" + facetColumns.size() + ", storage=" + storage + '}';
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A read only snapshot of a Faceted's facets, taken with {@link Faceted#snapshot()}. It is a Faceted in its own right so
+ * facets are obtained from it in the usual way, but facets cannot be added, replaced or removed and its facet data
+ * stays as it was when the snapshot was taken however the entity changes. Facet methods that the entity itself
+ * implements are called on the live entity, so its own state is not part of the snapshot.
+ * <p>
+ * Snapshots are thread safe and lookups take no locks, so they suit readers that need a consistent view of an entity
+ * while writers carry on changing it. They should be treated as read only: nothing stops facet data being changed
+ * through a snapshot's facets but such changes are not isolated from other readers of the snapshot.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetedSnapshot<T extends Faceted<T, V>, V> extends Faceted<FacetedSnapshot<T, V>, V> {
+
+    private final T entity;
+    private final SharedFacetData<V> facetData;
+
+    FacetedSnapshot(T entity, SharedFacetData<V> facetData) {
+        this.entity = entity;
+        this.facetData = facetData;
+    }
+
+    /**
+     * @return the live entity this is a snapshot of.
+     */
+    public T getEntity() {
+        return entity;
+    }
+
+    @Override
+    public <U extends Facet<U, V>> U addFacet(Class<U> facetClass, Supplier<V> facetData) {
+        throw readOnly();
+    }
+
+    @Override
+    public <U extends Facet<U, V>> U replaceFacet(Class<U> facetClass, Supplier<V> facetData) {
+        throw readOnly();
+    }
+
+    @Override
+    public <U extends UniqueFacet<U, V>> boolean removeFacet(Class<U> facetClass) {
+        throw readOnly();
+    }
+
+    @Override
+    public <U extends Facet<U, V>> boolean removeFacet(Class<U> facetClass, String facetIdentifier) {
+        throw readOnly();
+    }
+
+    /**
+     * Lazy, asynchronous and batched facets all come through here, so they are refused before anything is loaded.
+     */
+    @Override
+    <U extends Facet<U, V>> U addPendingFacet(Class<U> facetClass, FacetKey facetKey, PendingFacetData<V> load) {
+        throw readOnly();
+    }
+
+    @Override
+    protected FacetCache createFacetCache() {
+        return FacetCache.concurrent();
+    }
+
+    /**
+     * Generated facet classes call the methods of the Faceted type they were generated for, a snapshot is not that
+     * type so its facets are always proxies.
+     */
+    @Override
+    protected FacetEngine getFacetEngine() {
+        return FacetEngine.PROXY;
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> Optional<V> getFacetData(Class<U> facetClass, String facetIdentifier) {
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
+        throw readOnly();
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        return facetData.contains(facetKey);
+    }
+
+    @Override
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        return Optional.ofNullable(facetData.get(facetKey));
+    }
+
+    @Override
+    protected boolean addFacetDataIfAbsent(FacetKey facetKey, V facetData) {
+        throw readOnly();
+    }
+
+    @Override
+    SharedFacetData<V> shareFacetData() {
+        return facetData;
+    }
+
+    @Override
+    Object getFacetMethodTarget() {
+        return entity;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Snapshots are read only.");
+    }
+
+    @Override
+    public String toString() {
+        return "FacetedSnapshot{" + entity + '}';
+    }
+}
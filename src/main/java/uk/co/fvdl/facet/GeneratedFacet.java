@@ -0,0 +1,69 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * Super class of the facet classes generated by {@link FacetEngine#GENERATED}. It has to be public so that classes
+ * generated in their own class loader can extend it, but it is not intended to be used directly.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public abstract class GeneratedFacet<V> {
+
+    protected final Faceted<?, V> faceted;
+    private final FacetKey facetKey;
+    private final FacetLifecycle lifecycle;
+
+    protected GeneratedFacet(Faceted<?, V> faceted, FacetKey facetKey) {
+        this.faceted = faceted;
+        this.facetKey = facetKey;
+        this.lifecycle = faceted.getFacetLifecycle(facetKey);
+    }
+
+    /**
+     * Implementation of {@link Facet#getFacetData()} for generated facets.
+     * @return the facet data held by the Faceted for this facet.
+     */
+    protected final V facetData() {
+        lifecycle.checkCurrent();
+        return faceted.readFacetData(facetKey).orElseThrow(() -> new StaleFacetException(facetKey));
+    }
+
+    /**
+     * Called by generated methods before delegating to the Faceted.
+     * @throws StaleFacetException if the facet has been removed or replaced.
+     */
+    protected final void checkCurrent() {
+        lifecycle.checkCurrent();
+    }
+
+    /**
+     * Implementation of any facet method that neither has a default implementation nor is implemented by the Faceted
+     * type.
+     * @param methodName the name of the method called.
+     * @return the exception to throw.
+     */
+    protected final RuntimeException unsupportedMethod(String methodName) {
+        return new UnsupportedOperationException(facetKey.getFacetType().getName() + "." + methodName +
+                " has no default implementation and is not implemented by " + faceted.getClass().getName());
+    }
+
+    @Override
+    public String toString() {
+        return facetKey.getFacetType().getName() + "[" + facetKey.getFacetIdentifier() + "] of " + faceted;
+    }
+}
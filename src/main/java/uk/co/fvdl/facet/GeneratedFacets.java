@@ -0,0 +1,154 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates facets as instances of classes generated at runtime, the implementation behind
+ * {@link FacetEngine#GENERATED}. A class is generated once for each pair of Faceted type and facet interface and its
+ * constructor is kept as a method handle so creating a facet is a single allocation.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class GeneratedFacets {
+
+    private static final MethodType CONSTRUCTOR_TYPE =
+            MethodType.methodType(Object.class, Faceted.class, FacetKey.class);
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private static final ClassValue<FacetedType> FACETED_TYPES = new ClassValue<FacetedType>() {
+        @Override
+        protected FacetedType computeValue(Class<?> facetedClass) {
+            return new FacetedType(facetedClass);
+        }
+    };
+
+    private GeneratedFacets() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V, U extends Facet<U, V>> U createFacet(Faceted<?, V> faceted, Class<U> facetClass, FacetKey facetKey) {
+        MethodHandle constructor = FACETED_TYPES.get(faceted.getClass()).constructors.get(facetClass);
+        if (constructor == null) {
+            return FacetProxies.createFacet(faceted, facetClass, facetKey);
+        }
+        try {
+            return (U) (Object) constructor.invokeExact((Faceted) faceted, facetKey);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to create facet " + facetClass.getName(), t);
+        }
+    }
+
+    /**
+     * Generate the class for a pair of Faceted type and facet interface ahead of the first facet being created.
+     * @param facetedClass the Faceted type.
+     * @param facetClass the facet interface.
+     * @return true if a class was generated, false if facets of the pair will be proxies.
+     */
+    static boolean prepare(Class<?> facetedClass, Class<?> facetClass) {
+        return FACETED_TYPES.get(facetedClass).constructors.get(facetClass) != null;
+    }
+
+    /**
+     * Everything generated for one Faceted type: the definer of its generated classes and the constructors of those
+     * classes for each facet interface. A null constructor means that a class could not be generated and proxies should
+     * be used instead.
+     */
+    private static final class FacetedType {
+        private final Class<?> facetedClass;
+        private final FacetClassDefiner definer;
+        private final ClassValue<MethodHandle> constructors = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> facetClass) {
+                return generate(facetClass);
+            }
+        };
+
+        private FacetedType(Class<?> facetedClass) {
+            this.facetedClass = facetedClass;
+            FacetClassDefiner classDefiner = FacetClassDefiner.forFacetedType(facetedClass);
+            this.definer = isGeneratable(facetedClass) && classDefiner.canSee(GeneratedFacet.class) ? classDefiner : null;
+        }
+
+        private MethodHandle generate(Class<?> facetClass) {
+            if (definer == null || !facetClass.isInterface() || !isGeneratable(facetClass) || !definer.canSee(facetClass)) {
+                return null;
+            }
+            String className = definer.className(facetClass.getSimpleName() + "$" + facetedClass.getSimpleName() +
+                    "$Facet" + CLASS_COUNTER.incrementAndGet());
+            FacetClassWriter writer = new FacetClassWriter(className, facetClass, facetedClass);
+            writer.writeConstructor();
+            FacetBinding binding = FacetBinding.of(facetedClass, facetClass);
+            Set<String> written = new HashSet<>();
+            for (Method method : facetClass.getMethods()) {
+                if (FacetBinding.isAbstractFacetMethod(facetClass, method) && written.add(method.getName() + MethodType.methodType(method.getReturnType(), method.getParameterTypes()))) {
+                    if (!writeMethod(writer, binding, method)) {
+                        return null;
+                    }
+                }
+            }
+            try {
+                return definer.define(className, writer.toByteArray(),
+                                MethodType.methodType(void.class, Faceted.class, FacetKey.class))
+                        .asType(CONSTRUCTOR_TYPE);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+        private boolean writeMethod(FacetClassWriter writer, FacetBinding binding, Method method) {
+            if (method.getName().equals("getFacetData") && method.getParameterCount() == 0) {
+                if (!isGeneratable(method.getReturnType())) {
+                    return false;
+                }
+                writer.writeFacetDataMethod(method);
+                return true;
+            }
+            Method target = binding.getImplementation(method);
+            if (target == null) {
+                writer.writeUnsupportedMethod(method);
+            } else {
+                writer.writeDelegatingMethod(method, target);
+            }
+            return true;
+        }
+    }
+
+    private static boolean isGeneratable(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        for (Class<?> enclosing = type; enclosing != null; enclosing = enclosing.getDeclaringClass()) {
+            if (!Modifier.isPublic(enclosing.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
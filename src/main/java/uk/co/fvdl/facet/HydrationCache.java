@@ -0,0 +1,114 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+/**
+ * Keeps the most recently used {@link StoredFaceted} entities in memory, up to a maximum number. Entities that fall out
+ * of the cache are saved, after which they are only held by the store, so heap use depends on the cache size rather
+ * than on the size of the dataset. Methods are synchronized and the cache can be shared between threads, the entities
+ * themselves are not thread safe.
+ * <p>
+ * Entities should not be kept past their time in the cache: an evicted entity, and any facet obtained from it, throws
+ * {@link IllegalStateException} when used, as the next {@link #get(long)} creates a new entity for the same id and the
+ * two would otherwise overwrite each other's changes.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class HydrationCache<T extends StoredFaceted<T, ?>> {
+
+    private final int maximumSize;
+    private final LongFunction<T> entityFactory;
+    private final Map<Long, T> entities;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maximumSize the maximum number of entities to keep in memory.
+     * @param entityFactory creates an entity over the store for an entity id.
+     */
+    public HydrationCache(int maximumSize, LongFunction<T> entityFactory) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entityFactory = Objects.requireNonNull(entityFactory, "entityFactory");
+        this.entities = new LinkedHashMap<Long, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+                if (size() > HydrationCache.this.maximumSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get an entity, creating it over the store if it is not in memory.
+     * @param entityId the entity id.
+     * @return the entity.
+     */
+    public synchronized T get(long entityId) {
+        T entity = entities.get(entityId);
+        if (entity == null) {
+            missCount++;
+            entity = entityFactory.apply(entityId);
+            entities.put(entityId, entity);
+        } else {
+            hitCount++;
+        }
+        return entity;
+    }
+
+    /**
+     * Save every entity in memory, they stay in the cache.
+     */
+    public synchronized void flush() {
+        for (T entity : new ArrayList<>(entities.values())) {
+            entity.save();
+        }
+    }
+
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HydrationCache{size=" + entities.size() + ", hits=" + hitCount + ", misses=" + missCount + '}';
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Facet data stored as JSON text, decoded straight from the buffer without copying it first.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class JsonFacetDataCodec implements FacetDataCodec<JsonNode> {
+
+    static final JsonFacetDataCodec INSTANCE = new JsonFacetDataCodec();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonFacetDataCodec() {
+    }
+
+    @Override
+    public byte[] encode(JsonNode facetData) {
+        try {
+            return MAPPER.writeValueAsBytes(facetData);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public JsonNode decode(ByteBuffer bytes) {
+        try {
+            return MAPPER.readTree(new ByteBufferBackedInputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -16,22 +16,74 @@ limitations under the License.
 package uk.co.fvdl.facet;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * A Faceted type whose state and facet data are held in a Jackson document, facet data under
+ * <code>$facets$/&lt;facet class&gt;/&lt;facet identifier&gt;</code>.
+ * <p>
+ * Documents read by {@link JsonFacetedReader} keep each facet's data as its raw bytes until the facet data is first
+ * asked for, and {@link JsonFacetedWriter} writes facets that were never asked for back out byte for byte, so loading
+ * and saving only pays for parsing the facets that are actually used.
+ * </p>
+ * <p>
+ * {@link #snapshot()} shares the facet nodes with the snapshot instead of deep copying the document. Afterwards the
+ * nodes are copied on write, one level at a time, and the data of each facet is deep copied the first time it is asked
+ * for, so the cost of a snapshot is paid only for the facets that change.
+ * </p>
+ * <p>
+ * Facets that have been looked up are also held in a flat index by {@link FacetKey}, so reading their data again is a
+ * single probe rather than a walk down the document. The index is kept in step with every change made through the
+ * Faceted and survives snapshots, an entry shared with a snapshot being copied and re-pointed when its data is next
+ * handed out; the <code>$facets$</code> node must not be changed directly, other than through the facet data nodes
+ * themselves.
+ * </p>
+ * <p>
+ * JsonFaceted is <code>Externalizable</code>: the document is written in the {@link BinaryFacetFormat} with one name
+ * dictionary for the whole object stream, and nothing else, so facet instances are created afresh when first asked
+ * for on the receiving side. Sub-types need a public no argument constructor to be read back.
+ * </p>
  * <p>&#169; 2017 Robert Boothby.</p>
  *
  * @author robertboothby
  */
-public class JsonFaceted<T extends JsonFaceted<T, V>, V extends JsonNode>  extends Faceted<T, V> {
+public class JsonFaceted<T extends JsonFaceted<T, V>, V extends JsonNode>  extends Faceted<T, V> implements Externalizable {
 
-    private static final String FACET_NODE = "$facets$";
+    static final String FACET_NODE = "$facets$";
+    private static final ObjectMapper RAW_FACET_MAPPER = new ObjectMapper();
     protected static final JsonNodeFactory jsonFactory = JsonNodeFactory.instance;
     protected final ObjectNode baseNode;
 
+    //Facet data that has been read but not yet parsed, by facet class name then identifier, null when there is none.
+    private Map<String, Map<String, RawJson>> rawFacets;
+
+    //The facets node and raw facets as they were at the last snapshot, null if there has been none. Nodes shared with
+    //it are copied before they are changed.
+    private ObjectNode sharedFacetsNode;
+    private Map<String, Map<String, RawJson>> sharedRawFacets;
+
+    //The data node of each facet that has been looked up or added, exactly as it is in the document, so an indexed
+    //facet is found with one probe rather than walking the document.
+    private final FacetKeyMap<IndexEntry> facetIndex = new FacetKeyMap<>();
+
+    //The edition of index entries made from now on, null until the first snapshot. Entries of any other edition refer
+    //to nodes shared with a snapshot.
+    private Object edition;
+
     public JsonFaceted() {
         baseNode = jsonFactory.objectNode();
         baseNode.putObject(FACET_NODE);
@@ -43,23 +95,369 @@ public class JsonFaceted<T extends JsonFaceted<T, V>, V extends JsonNode>  exten
 
     @Override
     protected <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
-        return getFacetData(facetClass, facetIdentifier).isPresent();
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     protected <U extends Facet<U, V>> Optional<V> getFacetData(Class<U> facetClass, String facetIdentifier) {
-        final JsonNode candidateNode = baseNode.path(FACET_NODE).path(facetClass.getName()).path(facetIdentifier);
-        if(candidateNode.isMissingNode()){
-            return Optional.empty();
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
+        addFacetData(FacetKey.of(facetClass, facetIdentifier), facetData);
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> boolean removeFacetData(Class<U> facetClass, String facetIdentifier) {
+        return removeFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        if (facetIndex.get(facetKey) != null) {
+            return true;
+        }
+        String facetClassName = facetKey.getFacetType().getName();
+        return !baseNode.path(FACET_NODE).path(facetClassName).path(facetKey.getFacetIdentifier()).isMissingNode()
+                || getRawFacetData(facetClassName, facetKey.getFacetIdentifier()) != null;
+    }
+
+    /**
+     * Facets in the index are found with one probe, and copied if they are shared with a snapshot. Anything else is
+     * looked up in the document, parsed if it is still raw and copied if it is shared with a snapshot, then indexed. The
+     * depth of each lookup is reported to the
+     * {@link FacetInstrumentation} when instrumentation is enabled, an indexed facet counting as found in the document.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        long start = FacetInstruments.start();
+        IndexEntry entry = facetIndex.get(facetKey);
+        JsonNode facetData;
+        int depth = 3;
+        if (entry != null) {
+            if (entry.edition != edition) {
+                //Shared with a snapshot, so take a copy before anything can change it.
+                String facetClassName = facetKey.getFacetType().getName();
+                entry.facetData = copyFacetData((V) entry.facetData);
+                entry.edition = edition;
+                writableClassNode(facetClassName).set(facetKey.getFacetIdentifier(), entry.facetData);
+            }
+            facetData = entry.facetData;
         } else {
-            return Optional.of((V)candidateNode);
+            String facetClassName = facetKey.getFacetType().getName();
+            String facetIdentifier = facetKey.getFacetIdentifier();
+            JsonNode facetsNode = baseNode.path(FACET_NODE);
+            JsonNode classNode = facetsNode.path(facetClassName);
+            facetData = classNode.path(facetIdentifier);
+            if (facetData.isMissingNode()) {
+                depth = facetsNode.isMissingNode() ? 0 : classNode.isMissingNode() ? 1 : 2;
+                facetData = parseRawFacetData(facetClassName, facetIdentifier);
+                if (facetData == null) {
+                    FacetInstruments.dataLookedUp(facetKey, depth, start);
+                    return Optional.empty();
+                }
+                depth = 4;
+            } else if (sharedFacetsNode != null && sharedFacetsNode.path(facetClassName).path(facetIdentifier) == facetData) {
+                //Shared with a snapshot, so take a copy before anything can change it.
+                facetData = copyFacetData((V) facetData);
+                writableClassNode(facetClassName).set(facetIdentifier, facetData);
+            }
+            facetIndex.put(facetKey, new IndexEntry(facetData, edition));
         }
+        FacetInstruments.dataLookedUp(facetKey, depth, start);
+        return Optional.of((V) facetData);
     }
 
     @Override
-    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
-        baseNode.with(FACET_NODE).with(facetClass.getName()).set(facetIdentifier, facetData);
+    protected void addFacetData(FacetKey facetKey, V facetData) {
+        String facetClassName = facetKey.getFacetType().getName();
+        removeRawFacetData(facetClassName, facetKey.getFacetIdentifier());
+        writableClassNode(facetClassName).set(facetKey.getFacetIdentifier(), facetData);
+        facetIndex.put(facetKey, new IndexEntry(facetData, edition));
+    }
+
+    /**
+     * Removes the facet from the document, along with its facet class node once that has no facets left, so removed
+     * facets do not leave empty nodes behind.
+     */
+    @Override
+    protected boolean removeFacetData(FacetKey facetKey) {
+        String facetClassName = facetKey.getFacetType().getName();
+        String facetIdentifier = facetKey.getFacetIdentifier();
+        facetIndex.remove(facetKey);
+        boolean removed = removeRawFacetData(facetClassName, facetIdentifier) != null;
+        JsonNode facetsNode = baseNode.get(FACET_NODE);
+        JsonNode classNode = facetsNode == null ? null : facetsNode.get(facetClassName);
+        if (classNode instanceof ObjectNode && classNode.has(facetIdentifier)) {
+            ObjectNode writableClassNode = writableClassNode(facetClassName);
+            writableClassNode.remove(facetIdentifier);
+            if (writableClassNode.size() == 0) {
+                writableFacetsNode().remove(facetClassName);
+            }
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Every indexed node is shared from now on, which the new edition marks, so the index is kept and each entry is
+     * copied only when its data is next handed out.
+     */
+    @Override
+    SharedFacetData<V> shareFacetData() {
+        edition = new Object();
+        sharedFacetsNode = baseNode.with(FACET_NODE);
+        sharedRawFacets = rawFacets;
+        return new SharedFacets<>(sharedFacetsNode, sharedRawFacets);
+    }
+
+    /**
+     * @return the facets node, first replacing it with a shallow copy if it is shared with a snapshot.
+     */
+    private ObjectNode writableFacetsNode() {
+        ObjectNode facetsNode = baseNode.with(FACET_NODE);
+        if (facetsNode == sharedFacetsNode) {
+            facetsNode = jsonFactory.objectNode();
+            facetsNode.setAll(sharedFacetsNode);
+            baseNode.set(FACET_NODE, facetsNode);
+        }
+        return facetsNode;
+    }
+
+    /**
+     * @return the node of a facet class, created if missing and first replaced with a shallow copy if it is shared with
+     * a snapshot.
+     */
+    private ObjectNode writableClassNode(String facetClassName) {
+        ObjectNode facetsNode = writableFacetsNode();
+        ObjectNode classNode = facetsNode.with(facetClassName);
+        if (sharedFacetsNode != null && sharedFacetsNode.get(facetClassName) == classNode) {
+            classNode = jsonFactory.objectNode();
+            classNode.setAll((ObjectNode) sharedFacetsNode.get(facetClassName));
+            facetsNode.set(facetClassName, classNode);
+        }
+        return classNode;
+    }
+
+    /**
+     * Record facet data that has been read but not parsed, it will be parsed into the document when first asked for.
+     */
+    void addRawFacetData(String facetClassName, String facetIdentifier, RawJson rawJson) {
+        if (rawFacets == null) {
+            rawFacets = new LinkedHashMap<>();
+        }
+        unshareRawFacetData();
+        facetIndex.clear();
+        rawFacets.computeIfAbsent(facetClassName, name -> new LinkedHashMap<>()).put(facetIdentifier, rawJson);
+    }
+
+    /**
+     * @return the facet data that has not been parsed yet, by facet class name then identifier, or null if there is
+     * none.
+     */
+    Map<String, Map<String, RawJson>> getRawFacetData() {
+        return rawFacets;
+    }
+
+    private RawJson getRawFacetData(String facetClassName, String facetIdentifier) {
+        Map<String, RawJson> identifiers = rawFacets == null ? null : rawFacets.get(facetClassName);
+        return identifiers == null ? null : identifiers.get(facetIdentifier);
+    }
+
+    private RawJson removeRawFacetData(String facetClassName, String facetIdentifier) {
+        Map<String, RawJson> identifiers = rawFacets == null ? null : rawFacets.get(facetClassName);
+        if (identifiers == null || !identifiers.containsKey(facetIdentifier)) {
+            return null;
+        }
+        unshareRawFacetData();
+        identifiers = rawFacets.get(facetClassName);
+        RawJson rawJson = identifiers.remove(facetIdentifier);
+        if (identifiers.isEmpty()) {
+            rawFacets.remove(facetClassName);
+            if (rawFacets.isEmpty()) {
+                rawFacets = null;
+            }
+        }
+        return rawJson;
+    }
+
+    /**
+     * Replace the raw facets with a copy if they are shared with a snapshot, the raw data itself is never changed so
+     * only the maps are copied.
+     */
+    private void unshareRawFacetData() {
+        if (rawFacets != null && rawFacets == sharedRawFacets) {
+            Map<String, Map<String, RawJson>> copy = new LinkedHashMap<>();
+            rawFacets.forEach((facetClassName, identifiers) -> copy.put(facetClassName, new LinkedHashMap<>(identifiers)));
+            rawFacets = copy;
+        }
+    }
+
+    private JsonNode parseRawFacetData(String facetClassName, String facetIdentifier) {
+        RawJson rawJson = removeRawFacetData(facetClassName, facetIdentifier);
+        if (rawJson == null) {
+            return null;
+        }
+        JsonNode facetData = parse(facetClassName, facetIdentifier, rawJson);
+        writableClassNode(facetClassName).set(facetIdentifier, facetData);
+        return facetData;
+    }
 
+    /**
+     * Write the document, loading any facets whose data is still pending first.
+     * @param out the stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        loadPendingFacetData();
+        FacetedExternals.writeDocument(out, this);
+    }
+
+    /**
+     * Replace the document, of a newly constructed instance, with the one read.
+     * @param in the stream.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        ObjectNode document = FacetedExternals.readDocument(in);
+        baseNode.removeAll();
+        baseNode.setAll(document);
+        facetIndex.clear();
+        edition = null;
+        rawFacets = null;
+        sharedFacetsNode = null;
+        sharedRawFacets = null;
+    }
+
+    /**
+     * @return the number of facets in the index.
+     */
+    int getIndexedFacetCount() {
+        return facetIndex.size();
+    }
+
+    private static JsonNode parse(String facetClassName, String facetIdentifier, RawJson rawJson) {
+        try {
+            return RAW_FACET_MAPPER.readTree(rawJson.getBytes(), rawJson.getOffset(), rawJson.getLength());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to parse data of facet " + facetClassName + "/" + facetIdentifier, e);
+        }
+    }
+
+    /**
+     * The data node of an indexed facet and the edition it was indexed in.
+     */
+    private static final class IndexEntry {
+        private JsonNode facetData;
+        private Object edition;
+
+        private IndexEntry(JsonNode facetData, Object edition) {
+            this.facetData = facetData;
+            this.edition = edition;
+        }
+    }
+
+    /**
+     * The facets of a JsonFaceted as they were when a snapshot was taken. Raw facet data is parsed when first asked for
+     * and kept by the snapshot, separately from the parse the JsonFaceted itself does.
+     */
+    private static final class SharedFacets<V extends JsonNode> implements SharedFacetData<V> {
+        private static final SharedFacets<JsonNode> NONE = new SharedFacets<>(MissingNode.getInstance(), null);
+
+        private final JsonNode facetsNode;
+        private final Map<String, Map<String, RawJson>> rawFacets;
+        private final ConcurrentMap<RawJson, JsonNode> parsedFacets;
+
+        private SharedFacets(JsonNode facetsNode, Map<String, Map<String, RawJson>> rawFacets) {
+            this.facetsNode = facetsNode;
+            this.rawFacets = rawFacets;
+            this.parsedFacets = rawFacets == null ? null : new ConcurrentHashMap<>();
+        }
+
+        @Override
+        public boolean contains(FacetKey facetKey) {
+            return contains(facetKey.getFacetType().getName(), facetKey.getFacetIdentifier());
+        }
+
+        @Override
+        public V get(FacetKey facetKey) {
+            return get(facetKey.getFacetType().getName(), facetKey.getFacetIdentifier());
+        }
+
+        /**
+         * Parsed facets are compared by node and raw facets by their bytes, a class node that is still shared is
+         * skipped whole.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void diff(SharedFacetData<V> previous, ChangeVisitor<V> visitor) {
+            SharedFacets<V> before = previous == null ? (SharedFacets<V>) NONE : (SharedFacets<V>) previous;
+            if (before.facetsNode != facetsNode) {
+                facetsNode.fields().forEachRemaining(classEntry -> {
+                    String facetClassName = classEntry.getKey();
+                    JsonNode previousClassNode = before.facetsNode.path(facetClassName);
+                    if (previousClassNode != classEntry.getValue()) {
+                        classEntry.getValue().fields().forEachRemaining(facetEntry -> {
+                            if (previousClassNode.path(facetEntry.getKey()) != facetEntry.getValue()) {
+                                visitor.visit(facetClassName, facetEntry.getKey(),
+                                        before.get(facetClassName, facetEntry.getKey()), (V) facetEntry.getValue());
+                            }
+                        });
+                    }
+                });
+                before.facetsNode.fields().forEachRemaining(classEntry -> {
+                    String facetClassName = classEntry.getKey();
+                    if (facetsNode.path(facetClassName) != classEntry.getValue()) {
+                        classEntry.getValue().fieldNames().forEachRemaining(facetIdentifier -> {
+                            if (!contains(facetClassName, facetIdentifier)) {
+                                visitor.visit(facetClassName, facetIdentifier, before.get(facetClassName, facetIdentifier), null);
+                            }
+                        });
+                    }
+                });
+            }
+            if (before.rawFacets != rawFacets) {
+                if (rawFacets != null) {
+                    rawFacets.forEach((facetClassName, identifiers) -> identifiers.forEach((facetIdentifier, rawJson) -> {
+                        if (before.getRawFacetData(facetClassName, facetIdentifier) != rawJson) {
+                            visitor.visit(facetClassName, facetIdentifier, before.get(facetClassName, facetIdentifier),
+                                    get(facetClassName, facetIdentifier));
+                        }
+                    }));
+                }
+                if (before.rawFacets != null) {
+                    before.rawFacets.forEach((facetClassName, identifiers) -> identifiers.keySet().forEach(facetIdentifier -> {
+                        if (!contains(facetClassName, facetIdentifier)) {
+                            visitor.visit(facetClassName, facetIdentifier, before.get(facetClassName, facetIdentifier), null);
+                        }
+                    }));
+                }
+            }
+        }
+
+        private boolean contains(String facetClassName, String facetIdentifier) {
+            return !facetsNode.path(facetClassName).path(facetIdentifier).isMissingNode()
+                    || getRawFacetData(facetClassName, facetIdentifier) != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(String facetClassName, String facetIdentifier) {
+            JsonNode facetData = facetsNode.path(facetClassName).path(facetIdentifier);
+            if (!facetData.isMissingNode()) {
+                return (V) facetData;
+            }
+            RawJson rawJson = getRawFacetData(facetClassName, facetIdentifier);
+            return rawJson == null ? null
+                    : (V) parsedFacets.computeIfAbsent(rawJson, raw -> parse(facetClassName, facetIdentifier, raw));
+        }
+
+        private RawJson getRawFacetData(String facetClassName, String facetIdentifier) {
+            Map<String, RawJson> identifiers = rawFacets == null ? null : rawFacets.get(facetClassName);
+            return identifiers == null ? null : identifiers.get(facetIdentifier);
+        }
     }
 }
@@ -0,0 +1,159 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads {@link JsonFaceted} documents with a streaming parser. Everything outside <code>$facets$</code> is read into
+ * the document as usual but the data of each facet is only located, its bytes are kept and parsed the first time the
+ * facet data is asked for. Loading an entity therefore costs a scan of its facets rather than a tree for each of them.
+ * <p>
+ * {@link #readLines(InputStream, Consumer)} reads newline delimited JSON, one document per line, handing each entity to
+ * the caller as soon as its line has been read so that memory use does not depend on the size of the input.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class JsonFacetedReader<T extends JsonFaceted<?, ?>> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Function<ObjectNode, T> facetedFactory;
+
+    /**
+     * @param facetedFactory creates the entity for a document, usually the JsonFaceted sub-type's
+     *                       <code>ObjectNode</code> constructor.
+     */
+    public JsonFacetedReader(Function<ObjectNode, T> facetedFactory) {
+        this.facetedFactory = Objects.requireNonNull(facetedFactory, "facetedFactory");
+    }
+
+    /**
+     * Read a single document. The entity keeps the array for the facets it has not parsed yet, so it must not be
+     * changed afterwards.
+     * @param json the UTF-8 encoded document.
+     * @return the entity.
+     * @throws IOException if the document cannot be read.
+     */
+    public T read(byte[] json) throws IOException {
+        ObjectNode baseNode = MAPPER.getNodeFactory().objectNode();
+        Map<String, Map<String, RawJson>> rawFacets = new LinkedHashMap<>();
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object at " + parser.getCurrentLocation());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && JsonFaceted.FACET_NODE.equals(fieldName)) {
+                    readFacets(parser, json, baseNode.putObject(JsonFaceted.FACET_NODE), rawFacets);
+                } else {
+                    baseNode.set(fieldName, MAPPER.readTree(parser));
+                }
+            }
+        }
+        T faceted = facetedFactory.apply(baseNode);
+        rawFacets.forEach((facetClassName, identifiers) -> identifiers.forEach((facetIdentifier, rawJson) ->
+                faceted.addRawFacetData(facetClassName, facetIdentifier, rawJson)));
+        return faceted;
+    }
+
+    /**
+     * Record where the data of each facet is. Only objects and arrays are kept raw, anything else is so small that it
+     * is read straight into the document.
+     */
+    private static void readFacets(JsonParser parser, byte[] json, ObjectNode facetsNode, Map<String, Map<String, RawJson>> rawFacets) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String facetClassName = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                facetsNode.set(facetClassName, MAPPER.readTree(parser));
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String facetIdentifier = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    int start = (int) parser.getTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int end = (int) parser.getCurrentLocation().getByteOffset();
+                    rawFacets.computeIfAbsent(facetClassName, name -> new LinkedHashMap<>())
+                            .put(facetIdentifier, new RawJson(json, start, end - start));
+                } else {
+                    facetsNode.with(facetClassName).set(facetIdentifier, MAPPER.readTree(parser));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read newline delimited JSON, one document per line, blank lines are skipped. Each line is read into its own
+     * array which is released along with the entity.
+     * @param in the input, which is not closed.
+     * @param action called with each entity in the order they are read.
+     * @throws IOException if the input cannot be read.
+     */
+    public void readLines(InputStream in, Consumer<? super T> action) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] line = new byte[BUFFER_SIZE];
+        int lineLength = 0;
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    line = append(line, lineLength, buffer, start, i - start);
+                    lineLength += i - start;
+                    readLine(line, lineLength, action);
+                    lineLength = 0;
+                    start = i + 1;
+                }
+            }
+            line = append(line, lineLength, buffer, start, read - start);
+            lineLength += read - start;
+        }
+        readLine(line, lineLength, action);
+    }
+
+    private void readLine(byte[] line, int length, Consumer<? super T> action) throws IOException {
+        while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == ' ' || line[length - 1] == '\t')) {
+            length--;
+        }
+        if (length > 0) {
+            action.accept(read(Arrays.copyOf(line, length)));
+        }
+    }
+
+    private static byte[] append(byte[] line, int lineLength, byte[] bytes, int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+        }
+        System.arraycopy(bytes, offset, line, lineLength, length);
+        return line;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes {@link JsonFaceted} documents with a streaming generator. Facets whose data was read by
+ * {@link JsonFacetedReader} and never asked for are written as the bytes they were read from, without being parsed,
+ * and the rest of the document is written from its tree. The output has the same shape as serialising the fully
+ * parsed document.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class JsonFacetedWriter {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonFacetedWriter() {
+    }
+
+    /**
+     * Write a single document.
+     * @param faceted the entity to write.
+     * @param out the output, which is flushed but not closed.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void write(JsonFaceted<?, ?> faceted, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            write(faceted, generator);
+        }
+    }
+
+    /**
+     * Write newline delimited JSON, one document per line.
+     * @param faceteds the entities to write.
+     * @param out the output, which is flushed but not closed.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void writeLines(Iterator<? extends JsonFaceted<?, ?>> faceteds, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            boolean written = false;
+            while (faceteds.hasNext()) {
+                write(faceteds.next(), generator);
+                written = true;
+            }
+            if (written) {
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    private static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return MAPPER.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    static void write(JsonFaceted<?, ?> faceted, JsonGenerator generator) throws IOException {
+        Map<String, Map<String, RawJson>> rawFacets = faceted.getRawFacetData();
+        if (rawFacets == null) {
+            rawFacets = Collections.emptyMap();
+        }
+        boolean facetsWritten = false;
+        generator.writeStartObject();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = faceted.baseNode.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (JsonFaceted.FACET_NODE.equals(field.getKey()) && field.getValue().isObject()) {
+                writeFacets(field.getValue(), rawFacets, generator);
+                facetsWritten = true;
+            } else {
+                generator.writeFieldName(field.getKey());
+                generator.writeTree(field.getValue());
+            }
+        }
+        if (!facetsWritten && !rawFacets.isEmpty()) {
+            writeFacets(MAPPER.getNodeFactory().objectNode(), rawFacets, generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeFacets(JsonNode facetsNode, Map<String, Map<String, RawJson>> rawFacets, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart(JsonFaceted.FACET_NODE);
+        for (Iterator<Map.Entry<String, JsonNode>> classes = facetsNode.fields(); classes.hasNext(); ) {
+            Map.Entry<String, JsonNode> facetClass = classes.next();
+            Map<String, RawJson> rawIdentifiers = rawFacets.get(facetClass.getKey());
+            if (!facetClass.getValue().isObject()) {
+                generator.writeFieldName(facetClass.getKey());
+                generator.writeTree(facetClass.getValue());
+                continue;
+            }
+            generator.writeObjectFieldStart(facetClass.getKey());
+            for (Iterator<Map.Entry<String, JsonNode>> identifiers = facetClass.getValue().fields(); identifiers.hasNext(); ) {
+                Map.Entry<String, JsonNode> identifier = identifiers.next();
+                generator.writeFieldName(identifier.getKey());
+                generator.writeTree(identifier.getValue());
+            }
+            if (rawIdentifiers != null) {
+                writeRawFacets(rawIdentifiers, generator);
+            }
+            generator.writeEndObject();
+        }
+        for (Map.Entry<String, Map<String, RawJson>> rawClass : rawFacets.entrySet()) {
+            if (!facetsNode.has(rawClass.getKey())) {
+                generator.writeObjectFieldStart(rawClass.getKey());
+                writeRawFacets(rawClass.getValue(), generator);
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeRawFacets(Map<String, RawJson> rawIdentifiers, JsonGenerator generator) throws IOException {
+        for (Map.Entry<String, RawJson> identifier : rawIdentifiers.entrySet()) {
+            generator.writeFieldName(identifier.getKey());
+            generator.writeRawValue(identifier.getValue());
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link FacetStore} that appends facet records to a log of memory mapped segment files in a directory. An in memory
+ * index maps each entity's facet keys to the position of their latest record, so reads go straight to the mapped
+ * bytes and are decoded from them without copying. Replacing facet data appends a new record and leaves the old one as
+ * garbage, removing it appends a tombstone record so that the removal survives reopening. {@link #compact()} reclaims
+ * garbage by copying the live records out of mostly dead segments and deleting them, carrying tombstones forward only
+ * while a segment still holds a record of the facet they remove; {@link #startCompaction(long, TimeUnit)} does this
+ * periodically on a background thread.
+ * <p>
+ * Reopening a directory rebuilds the index by scanning the segments, so facet classes must be loadable by the class
+ * loader given when opening. A record left incomplete by a crash fails its checksum, and the segment is truncated
+ * before it. Methods are synchronized and the store can be shared between threads.
+ * </p>
+ * <p>
+ * Each record is laid out as: record length (int, 0 marks the end of a segment), CRC-32 of the rest of the record
+ * (int), entity id (long), facet class name and facet identifier (each a short length then UTF-8), data length (int,
+ * -1 for a tombstone) and the encoded data. The record length is written last so that it commits the record.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ * @param <V> the facet data type.
+ */
+public final class MappedFacetStore<V> implements FacetStore<V> {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SEGMENT_SUFFIX = ".facets";
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    private static final int TOMBSTONE = -1;
+    //Record length, checksum, entity id, the two string lengths and the data length.
+    private static final int RECORD_HEADER = 4 + 4 + 8 + 2 + 2 + 4;
+
+    private final Path directory;
+    private final FacetDataCodec<V> codec;
+    private final int segmentSize;
+    private final ClassLoader classLoader;
+    private final Map<Long, FacetKeyMap<Long>> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+    private ScheduledExecutorService compactor;
+    private volatile RuntimeException lastCompactionFailure;
+    private boolean closed;
+
+    private MappedFacetStore(Path directory, FacetDataCodec<V> codec, int segmentSize, ClassLoader classLoader) {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Open a store with the default segment size, creating the directory if needed.
+     * @param directory the directory holding the segment files.
+     * @param codec the facet data codec.
+     * @param <V> the facet data type.
+     * @return the store.
+     * @throws IOException if the directory cannot be read or contains a facet class that cannot be loaded.
+     */
+    public static <V> MappedFacetStore<V> open(Path directory, FacetDataCodec<V> codec) throws IOException {
+        return open(directory, codec, DEFAULT_SEGMENT_SIZE, MappedFacetStore.class.getClassLoader());
+    }
+
+    /**
+     * Open a store, creating the directory if needed.
+     * @param directory the directory holding the segment files.
+     * @param codec the facet data codec.
+     * @param segmentSize the size of each segment file, which limits the size of a single record.
+     * @param classLoader the class loader used to load facet classes named in existing segments.
+     * @param <V> the facet data type.
+     * @return the store.
+     * @throws IOException if the directory cannot be read or contains a facet class that cannot be loaded.
+     */
+    public static <V> MappedFacetStore<V> open(Path directory, FacetDataCodec<V> codec, int segmentSize, ClassLoader classLoader) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size must be at least 1024 bytes: " + segmentSize);
+        }
+        MappedFacetStore<V> store = new MappedFacetStore<>(Files.createDirectories(directory),
+                Objects.requireNonNull(codec, "codec"), segmentSize, classLoader);
+        store.recover();
+        return store;
+    }
+
+    @Override
+    public synchronized boolean hasFacetData(long entityId, FacetKey facetKey) {
+        checkOpen();
+        return location(entityId, facetKey) != null;
+    }
+
+    @Override
+    public Optional<V> getFacetData(long entityId, FacetKey facetKey) {
+        ByteBuffer data;
+        synchronized (this) {
+            checkOpen();
+            Long location = location(entityId, facetKey);
+            if (location == null) {
+                return Optional.empty();
+            }
+            data = segments.get(segmentNumber(location)).data(offset(location));
+        }
+        //Segments stay mapped while a view of them is held, even if compaction removes them meanwhile.
+        return Optional.of(codec.decode(data));
+    }
+
+    @Override
+    public synchronized void putFacetData(long entityId, FacetKey facetKey, V facetData) {
+        checkOpen();
+        byte[] data = codec.encode(Objects.requireNonNull(facetData, "facetData"));
+        if (!isCurrent(entityId, facetKey, data)) {
+            append(entityId, facetKey, data);
+        }
+    }
+
+    /**
+     * Encodes the whole batch before taking the store's lock once to append it, skipping unchanged data as
+     * {@link #putFacetData} does.
+     */
+    @Override
+    public void putAllFacetData(FacetKey facetKey, Map<Long, ? extends V> facetData) {
+        Map<Long, byte[]> encoded = new LinkedHashMap<>();
+        facetData.forEach((entityId, data) -> encoded.put(entityId, codec.encode(Objects.requireNonNull(data, "facetData"))));
+        synchronized (this) {
+            checkOpen();
+            encoded.forEach((entityId, data) -> {
+                if (!isCurrent(entityId, facetKey, data)) {
+                    append(entityId, facetKey, data);
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized boolean removeFacetData(long entityId, FacetKey facetKey) {
+        checkOpen();
+        if (location(entityId, facetKey) == null) {
+            return false;
+        }
+        append(entityId, facetKey, null);
+        return true;
+    }
+
+    /**
+     * Copy the live records out of every segment that is mostly garbage and delete those segments.
+     * @return the number of segments removed.
+     */
+    public synchronized int compact() {
+        checkOpen();
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != activeSegment && segment.liveBytes < segment.writePosition * COMPACTION_THRESHOLD) {
+                candidates.add(segment);
+            }
+        }
+        for (Segment segment : candidates) {
+            compact(segment);
+        }
+        return candidates.size();
+    }
+
+    /**
+     * Run {@link #compact()} periodically on a background daemon thread until the store is closed. A compaction that
+     * fails, for example because a segment file cannot be deleted, is recorded in {@link #getLastCompactionFailure()}
+     * and tried again at the next period.
+     * @param period the time between compactions.
+     * @param unit the unit of the period.
+     */
+    public synchronized void startCompaction(long period, TimeUnit unit) {
+        checkOpen();
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "facet-store-compactor-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactInBackground, period, period, unit);
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            //An exception escaping a scheduled task would cancel every later compaction.
+            lastCompactionFailure = e;
+        }
+    }
+
+    /**
+     * @return the last failure of a background compaction, null if there has been none.
+     */
+    public RuntimeException getLastCompactionFailure() {
+        return lastCompactionFailure;
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the total bytes of the records that are still current.
+     */
+    public synchronized long getLiveBytes() {
+        long liveBytes = 0;
+        for (Segment segment : segments.values()) {
+            liveBytes += segment.liveBytes;
+        }
+        return liveBytes;
+    }
+
+    /**
+     * @return the number of entities with facet data.
+     */
+    public synchronized int getEntityCount() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            if (compactor != null) {
+                compactor.shutdownNow();
+            }
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            segments.clear();
+            index.clear();
+            activeSegment = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The facet store is closed.");
+        }
+    }
+
+    private Long location(long entityId, FacetKey facetKey) {
+        FacetKeyMap<Long> entityIndex = index.get(entityId);
+        return entityIndex == null ? null : entityIndex.get(facetKey);
+    }
+
+    /**
+     * @return true if the facet's current record holds exactly this data, so there is no need for a new record.
+     */
+    private boolean isCurrent(long entityId, FacetKey facetKey, byte[] data) {
+        Long location = location(entityId, facetKey);
+        return location != null && segments.get(segmentNumber(location)).data(offset(location)).equals(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Append a record, or a tombstone if the data is null, and update the index to match.
+     */
+    private void append(long entityId, FacetKey facetKey, byte[] data) {
+        byte[] className = facetKey.getFacetType().getName().getBytes(StandardCharsets.UTF_8);
+        byte[] identifier = facetKey.getFacetIdentifier().getBytes(StandardCharsets.UTF_8);
+        int dataLength = data == null ? 0 : data.length;
+        int recordLength = RECORD_HEADER + className.length + identifier.length + dataLength;
+        if (recordLength > segmentSize - 4 || className.length > Short.MAX_VALUE || identifier.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Facet record of " + recordLength + " bytes is too large for " + facetKey);
+        }
+        if (activeSegment == null || activeSegment.remaining() < recordLength) {
+            activeSegment = createSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        }
+        ByteBuffer buffer = activeSegment.buffer.duplicate();
+        int offset = activeSegment.writePosition;
+        buffer.position(offset + 8);
+        buffer.putLong(entityId)
+                .putShort((short) className.length).put(className)
+                .putShort((short) identifier.length).put(identifier);
+        if (data == null) {
+            buffer.putInt(TOMBSTONE);
+        } else {
+            buffer.putInt(data.length).put(data);
+        }
+        buffer.putInt(offset + 4, activeSegment.checksum(offset + 8, recordLength - 8));
+        buffer.putInt(offset, recordLength);
+        activeSegment.writePosition += recordLength;
+        if (data == null) {
+            unindex(entityId, facetKey);
+        } else {
+            index(entityId, facetKey, toLocation(activeSegment.number, offset), recordLength);
+            activeSegment.addFacet(entityId, facetKey);
+        }
+    }
+
+    /**
+     * @return true if a segment older than the given one holds a record, current or replaced, of the facet.
+     */
+    private boolean hasOlderRecord(int segmentNumber, long entityId, FacetKey facetKey) {
+        for (Segment segment : segments.headMap(segmentNumber).values()) {
+            if (segment.holdsFacet(entityId, facetKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void index(long entityId, FacetKey facetKey, long location, int recordLength) {
+        Long previous = index.computeIfAbsent(entityId, id -> new FacetKeyMap<>()).put(facetKey, location);
+        if (previous != null) {
+            Segment previousSegment = segments.get(segmentNumber(previous));
+            previousSegment.liveBytes -= previousSegment.recordLength(offset(previous));
+        }
+        segments.get(segmentNumber(location)).liveBytes += recordLength;
+    }
+
+    private void unindex(long entityId, FacetKey facetKey) {
+        FacetKeyMap<Long> entityIndex = index.get(entityId);
+        Long previous = entityIndex == null ? null : entityIndex.remove(facetKey);
+        if (previous != null) {
+            Segment previousSegment = segments.get(segmentNumber(previous));
+            previousSegment.liveBytes -= previousSegment.recordLength(offset(previous));
+            if (entityIndex.size() == 0) {
+                index.remove(entityId);
+            }
+        }
+    }
+
+    /**
+     * The segment stays in the store until its file is deleted, so a failed delete leaves the store as it is on disk
+     * and the delete is tried again by the next compaction without copying the records again.
+     */
+    private void compact(Segment segment) {
+        if (!segment.copied) {
+            for (int offset = 0; offset < segment.writePosition; offset += segment.recordLength(offset)) {
+                Record record = segment.record(offset);
+                Long location = location(record.entityId, record.facetKey);
+                if (segment.isTombstone(offset)) {
+                    //Still needed if the facet has not been added back and an older segment holds a record of it.
+                    if (location == null && hasOlderRecord(segment.number, record.entityId, record.facetKey)) {
+                        append(record.entityId, record.facetKey, null);
+                    }
+                } else if (location != null && location == toLocation(segment.number, offset)) {
+                    ByteBuffer data = segment.data(offset);
+                    byte[] bytes = new byte[data.remaining()];
+                    data.get(bytes);
+                    append(record.entityId, record.facetKey, bytes);
+                }
+            }
+            segment.copied = true;
+        }
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.remove(segment.number);
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            files.forEach(paths::add);
+        }
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            int number = Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+            segments.put(number, new Segment(number, path, map(path)));
+        }
+        try {
+            for (Segment segment : segments.values()) {
+                ByteBuffer buffer = segment.buffer;
+                int offset = 0;
+                while (offset <= buffer.capacity() - 4 && buffer.getInt(offset) > 0) {
+                    if (!segment.isComplete(offset)) {
+                        segment.truncate(offset);
+                        break;
+                    }
+                    int recordLength = buffer.getInt(offset);
+                    segment.writePosition = offset + recordLength;
+                    Record record = segment.record(offset);
+                    if (segment.isTombstone(offset)) {
+                        unindex(record.entityId, record.facetKey);
+                    } else {
+                        index(record.entityId, record.facetKey, toLocation(segment.number, offset), recordLength);
+                        segment.addFacet(record.entityId, record.facetKey);
+                    }
+                    offset += recordLength;
+                }
+                activeSegment = segment;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Segment createSegment(int number) {
+        Path path = directory.resolve(String.format("%010d%s", number, SEGMENT_SUFFIX));
+        try {
+            Segment segment = new Segment(number, path, map(path));
+            segments.put(number, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+        }
+    }
+
+    private static long toLocation(int segmentNumber, int offset) {
+        return ((long) segmentNumber << 32) | offset;
+    }
+
+    private static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFacetStore{" + directory + ", segments=" + segments.size() + '}';
+    }
+
+    /**
+     * The header of a record read back from a segment.
+     */
+    private static final class Record {
+        private final long entityId;
+        private final FacetKey facetKey;
+
+        private Record(long entityId, FacetKey facetKey) {
+            this.entityId = entityId;
+            this.facetKey = facetKey;
+        }
+    }
+
+    /**
+     * One mapped segment file.
+     */
+    private final class Segment {
+        private final int number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        //The facets this segment holds records of, current or replaced, so that tombstones can be dropped once no
+        //older segment holds a record they remove.
+        private final Map<Long, FacetKeyMap<Boolean>> facets = new HashMap<>();
+        private int writePosition;
+        private long liveBytes;
+        //Set once compaction has copied the live records out, so only the delete is left to do.
+        private boolean copied;
+
+        private Segment(int number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        private void addFacet(long entityId, FacetKey facetKey) {
+            facets.computeIfAbsent(entityId, id -> new FacetKeyMap<>()).put(facetKey, Boolean.TRUE);
+        }
+
+        private boolean holdsFacet(long entityId, FacetKey facetKey) {
+            FacetKeyMap<Boolean> entityFacets = facets.get(entityId);
+            return entityFacets != null && entityFacets.get(facetKey) != null;
+        }
+
+        private int remaining() {
+            //Leave room for the zero length that marks the end of the records.
+            return buffer.capacity() - writePosition - 4;
+        }
+
+        private int recordLength(int offset) {
+            return buffer.getInt(offset);
+        }
+
+        private int checksum(int position, int length) {
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(position).limit(position + length);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return (int) crc.getValue();
+        }
+
+        /**
+         * @return true if the record at the offset was written in full, false if a crash left it incomplete.
+         */
+        private boolean isComplete(int offset) {
+            int recordLength = recordLength(offset);
+            return recordLength >= RECORD_HEADER && recordLength <= buffer.capacity() - 4 - offset
+                    && buffer.getInt(offset + 4) == checksum(offset + 8, recordLength - 8);
+        }
+
+        /**
+         * Discard an incomplete record, and anything after it, so that it is overwritten by the next record appended.
+         */
+        private void truncate(int offset) {
+            for (int position = offset; position < buffer.capacity(); position++) {
+                buffer.put(position, (byte) 0);
+            }
+            writePosition = offset;
+        }
+
+        private Record record(int offset) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + 8);
+            long entityId = record.getLong();
+            String className = readString(record);
+            String identifier = readString(record);
+            try {
+                @SuppressWarnings("unchecked")
+                Class<? extends Facet> facetClass = (Class<? extends Facet>) Class.forName(className, false, classLoader);
+                return new Record(entityId, FacetKey.of(facetClass, identifier));
+            } catch (ClassNotFoundException e) {
+                throw new UncheckedIOException(new IOException("Unknown facet class " + className + " in " + path, e));
+            }
+        }
+
+        private boolean isTombstone(int offset) {
+            return buffer.getInt(dataLengthPosition(offset)) == TOMBSTONE;
+        }
+
+        private int dataLengthPosition(int offset) {
+            int position = offset + 16;
+            position += 2 + buffer.getShort(position);
+            return position + 2 + buffer.getShort(position);
+        }
+
+        private ByteBuffer data(int offset) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(dataLengthPosition(offset));
+            int dataLength = record.getInt();
+            record.limit(record.position() + dataLength);
+            return record.slice().asReadOnlyBuffer();
+        }
+
+        private String readString(ByteBuffer record) {
+            byte[] bytes = new byte[record.getShort()];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The data of a facet that has been added but not loaded yet, see {@link Faceted#addLazyFacet(Class, Supplier)}. The
+ * load is started when the data is first needed, at most once however many threads need it, and every thread then waits
+ * on the same future. Waiting is done with {@link CompletableFuture#join()} and no monitor is held while loading, so a
+ * virtual thread waiting for a slow store does not pin its carrier.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class PendingFacetData<V> {
+
+    private final FacetKey facetKey;
+    private final CompletableFuture<V> future;
+    private final Runnable trigger;
+    private final AtomicBoolean triggered = new AtomicBoolean();
+
+    private PendingFacetData(FacetKey facetKey, CompletableFuture<V> future, Runnable trigger) {
+        this.facetKey = facetKey;
+        this.future = future;
+        this.trigger = trigger;
+    }
+
+    /**
+     * Data loaded by the first thread to need it.
+     */
+    static <V> PendingFacetData<V> lazy(FacetKey facetKey, Supplier<? extends V> supplier) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        return new PendingFacetData<>(facetKey, future, () -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+    }
+
+    /**
+     * Data already being loaded by someone else.
+     */
+    static <V> PendingFacetData<V> async(FacetKey facetKey, CompletionStage<? extends V> stage) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        stage.whenComplete((data, failure) -> {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(data);
+            }
+        });
+        return new PendingFacetData<>(facetKey, future, null);
+    }
+
+    /**
+     * Data loaded in a batch, the dispatcher sends the batch the data is waiting in.
+     */
+    static <V> PendingFacetData<V> batched(FacetKey facetKey, CompletableFuture<V> future, Runnable dispatcher) {
+        return new PendingFacetData<>(facetKey, future, dispatcher);
+    }
+
+    /**
+     * Start loading, if that has not already been done.
+     * @return the future data, which completes with null if there turns out to be none.
+     */
+    CompletableFuture<V> start() {
+        if (trigger != null && triggered.compareAndSet(false, true)) {
+            trigger.run();
+        }
+        return future;
+    }
+
+    /**
+     * Start loading and wait for the data.
+     * @return the data, null if there is none.
+     */
+    V await() {
+        try {
+            return start().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to load the data of facet " + facetKey, cause);
+        }
+    }
+}
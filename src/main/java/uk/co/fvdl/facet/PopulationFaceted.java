@@ -0,0 +1,113 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.FacetRecord;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A Faceted entity that is a flyweight over one row of a {@link FacetedPopulation}. It holds only the population and
+ * its row index; facet data and, where the population has a base schema, the entity's own state live in the
+ * population's columns. Flyweights for the same row are equal and interchangeable.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public abstract class PopulationFaceted<T extends PopulationFaceted<T>> extends Faceted<T, FacetRecord> {
+
+    private final FacetedPopulation<T> population;
+    private final int row;
+
+    protected PopulationFaceted(FacetedPopulation<T> population, int row) {
+        this.population = Objects.requireNonNull(population, "population");
+        this.row = row;
+    }
+
+    public FacetedPopulation<T> getPopulation() {
+        return population;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return a flyweight record over this entity's own state, as described by the population's base schema.
+     */
+    protected FacetRecord getBaseRecord() {
+        return population.getBaseRecord(row);
+    }
+
+    @Override
+    protected FacetCache createFacetCache() {
+        //Flyweights are short lived, so only keep a couple of facets.
+        return FacetCache.bounded(2);
+    }
+
+    @Override
+    protected <U extends Facet<U, FacetRecord>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, FacetRecord>> Optional<FacetRecord> getFacetData(Class<U> facetClass, String facetIdentifier) {
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, FacetRecord>> void addFacetData(Class<U> facetClass, String facetIdentifier, FacetRecord facetData) {
+        addFacetData(FacetKey.of(facetClass, facetIdentifier), facetData);
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        return population.hasFacetData(row, facetKey);
+    }
+
+    @Override
+    protected Optional<FacetRecord> getFacetData(FacetKey facetKey) {
+        return population.getFacetData(row, facetKey);
+    }
+
+    @Override
+    protected void addFacetData(FacetKey facetKey, FacetRecord facetData) {
+        population.addFacetData(row, facetKey, Objects.requireNonNull(facetData, "facetData"));
+    }
+
+    @Override
+    protected boolean removeFacetData(FacetKey facetKey) {
+        return population.removeFacetData(row, facetKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PopulationFaceted
+                && ((PopulationFaceted<?>) o).population == population
+                && ((PopulationFaceted<?>) o).row == row;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(population) * 31 + row;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{row=" + row + '}';
+    }
+}
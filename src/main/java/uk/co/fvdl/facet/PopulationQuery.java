@@ -0,0 +1,218 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.FacetColumns;
+import uk.co.fvdl.facet.schema.PropertyIndex;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Finds entities of a {@link FacetedPopulation} by the facets they have and the values of facet properties. Each
+ * condition narrows the matching rows, held as a bitmap: facet membership comes straight from the facet's columns,
+ * property conditions use a {@link PropertyIndex} when the property has one and otherwise scan only the property's
+ * column for rows that still match.
+ * <pre>
+ *     population.query()
+ *             .having(Car.class)
+ *             .whereBetween(Car.class, CarSchema.SEATS, 2, 5)
+ *             .stream()
+ * </pre>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class PopulationQuery<T extends PopulationFaceted<T>> {
+
+    private final FacetedPopulation<T> population;
+    private BitSet rows;
+
+    PopulationQuery(FacetedPopulation<T> population) {
+        this.population = population;
+        this.rows = new BitSet();
+        this.rows.set(0, population.size());
+    }
+
+    /**
+     * Only match entities with a unique facet.
+     * @param facetClass the facet class.
+     * @return this query.
+     */
+    public PopulationQuery<T> having(Class<? extends UniqueFacet> facetClass) {
+        return having(FacetKey.of(facetClass));
+    }
+
+    /**
+     * Only match entities with a facet.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @return this query.
+     */
+    public PopulationQuery<T> having(Class<? extends Facet> facetClass, String facetIdentifier) {
+        return having(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    /**
+     * Only match entities with at least one facet of a class, whatever its identifier.
+     * @param facetClass the facet class.
+     * @return this query.
+     */
+    public PopulationQuery<T> havingAny(Class<? extends Facet> facetClass) {
+        rows.and(population.getMembers(facetClass));
+        return this;
+    }
+
+    private PopulationQuery<T> having(FacetKey facetKey) {
+        FacetColumns columns = population.getColumns(facetKey);
+        if (columns == null) {
+            rows.clear();
+        } else {
+            rows.and(columns.getRows());
+        }
+        return this;
+    }
+
+    /**
+     * Only match entities with a unique facet whose property has a value.
+     * @param facetClass the facet class.
+     * @param slot the slot of the property.
+     * @param value the value, primitive properties take their boxed equivalent.
+     * @return this query.
+     */
+    public PopulationQuery<T> where(Class<? extends UniqueFacet> facetClass, int slot, Object value) {
+        return where(FacetKey.of(facetClass), slot, value);
+    }
+
+    /**
+     * Only match entities with a facet whose property has a value.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param slot the slot of the property.
+     * @param value the value, primitive properties take their boxed equivalent.
+     * @return this query.
+     */
+    public PopulationQuery<T> where(Class<? extends Facet> facetClass, String facetIdentifier, int slot, Object value) {
+        return where(FacetKey.of(facetClass, facetIdentifier), slot, value);
+    }
+
+    private PopulationQuery<T> where(FacetKey facetKey, int slot, Object value) {
+        FacetColumns columns = population.getColumns(facetKey);
+        if (columns == null) {
+            rows.clear();
+            return this;
+        }
+        PropertyIndex index = columns.getIndex(slot, PropertyIndex.Type.HASH);
+        if (index == null) {
+            index = columns.getIndex(slot, PropertyIndex.Type.SORTED);
+        }
+        if (index != null) {
+            rows.and(index.find(value));
+        } else {
+            rows.and(columns.getRows());
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (!Objects.equals(columns.get(row, slot), value)) {
+                    rows.clear(row);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Only match entities with a unique facet whose property has a value in a range. Nothing matches if
+     * <code>from</code> is greater than <code>to</code>.
+     * @param facetClass the facet class.
+     * @param slot the slot of the property.
+     * @param from the lowest value, inclusive.
+     * @param to the highest value, inclusive.
+     * @param <C> the type of the property.
+     * @return this query.
+     */
+    public <C extends Comparable<? super C>> PopulationQuery<T> whereBetween(Class<? extends UniqueFacet> facetClass, int slot, C from, C to) {
+        return whereBetween(FacetKey.of(facetClass), slot, from, to);
+    }
+
+    /**
+     * Only match entities with a facet whose property has a value in a range. Nothing matches if <code>from</code> is
+     * greater than <code>to</code>.
+     * @param facetClass the facet class.
+     * @param facetIdentifier the facet identifier.
+     * @param slot the slot of the property.
+     * @param from the lowest value, inclusive.
+     * @param to the highest value, inclusive.
+     * @param <C> the type of the property.
+     * @return this query.
+     */
+    public <C extends Comparable<? super C>> PopulationQuery<T> whereBetween(Class<? extends Facet> facetClass, String facetIdentifier, int slot, C from, C to) {
+        return whereBetween(FacetKey.of(facetClass, facetIdentifier), slot, from, to);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C extends Comparable<? super C>> PopulationQuery<T> whereBetween(FacetKey facetKey, int slot, C from, C to) {
+        FacetColumns columns = population.getColumns(facetKey);
+        if (columns == null || from.compareTo(to) > 0) {
+            rows.clear();
+            return this;
+        }
+        PropertyIndex index = columns.getIndex(slot, PropertyIndex.Type.SORTED);
+        if (index != null) {
+            rows.and(index.findBetween(from, to));
+        } else {
+            rows.and(columns.getRows());
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                C value = (C) columns.get(row, slot);
+                if (value == null || value.compareTo(from) < 0 || value.compareTo(to) > 0) {
+                    rows.clear(row);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return a new set of the rows of the matching entities.
+     */
+    public BitSet rows() {
+        return (BitSet) rows.clone();
+    }
+
+    /**
+     * @return the number of matching entities.
+     */
+    public int count() {
+        return rows.cardinality();
+    }
+
+    /**
+     * @return flyweights for the matching entities, in row order.
+     */
+    public Stream<T> stream() {
+        return rows.stream().mapToObj(population::get);
+    }
+
+    /**
+     * Call the action with a flyweight for each matching entity, in row order.
+     * @param action the action.
+     */
+    public void forEach(Consumer<? super T> action) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            action.accept(population.get(row));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * A read only view of a Faceted's facet data as it was when a {@link FacetedSnapshot} was taken. The Faceted copies
+ * anything it shares with the view before changing it, so the view never changes and can be read by any number of
+ * threads without locking.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+interface SharedFacetData<V> {
+
+    /**
+     * @param facetKey the key of the facet.
+     * @return true if there is data for the facet.
+     */
+    boolean contains(FacetKey facetKey);
+
+    /**
+     * @param facetKey the key of the facet.
+     * @return the facet data, or null if there is none.
+     */
+    V get(FacetKey facetKey);
+
+    /**
+     * Visit the facets whose data may differ from an earlier view of the same Faceted. Data that is still shared with
+     * the earlier view is skipped without being compared, so this costs in proportion to the facets that were changed,
+     * or at least handed out, between the two views rather than to the number of facets.
+     * @param previous the earlier view, or null to compare with no facets at all.
+     * @param visitor called with each facet's data in both views, before is null for added facets and after for removed
+     *                ones. The data may turn out to be equal.
+     */
+    void diff(SharedFacetData<V> previous, ChangeVisitor<V> visitor);
+
+    @FunctionalInterface
+    interface ChangeVisitor<V> {
+        void visit(String facetClassName, String facetIdentifier, V before, V after);
+    }
+}
@@ -15,10 +15,168 @@ limitations under the License.
 */
 package uk.co.fvdl.facet;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
 /**
+ * A plain Java Faceted type. Facet data is held directly as Java objects in a persistent {@link FacetTrie} indexed by
+ * {@link FacetKey} id, with no document tree around it, so reading facet data is usually a single node lookup and
+ * {@link #snapshot()} shares the trie rather than copying it. It is intended for in memory entity
+ * graphs whose facets do not need JSON; using {@link uk.co.fvdl.facet.schema.FacetRecord} as the facet data type gives
+ * each facet a schema driven layout with unboxed int, long, double and boolean slots.
+ * <p>
+ * SimpleFaceted is <code>Externalizable</code>. Each facet key is written in full once per object stream and as a
+ * number after that, and facet data is written by {@link #writeExternalFacetData}, Java serialisation unless that is
+ * overridden; facet instances are created afresh when first asked for on the receiving side. Sub-types with state of
+ * their own must override {@link #writeExternal} and {@link #readExternal} to add it, and need a public no argument
+ * constructor to be read back.
+ * </p>
+ * <p>
+ * Not thread safe, see {@link ConcurrentFaceted} for a Faceted type that can be shared between threads.
+ * </p>
  * <p>&#169; 2017 Robert Boothby.</p>
  *
  * @author robertboothby
  */
-public class SimpleFaceted {
+public abstract class SimpleFaceted<T extends SimpleFaceted<T, V>, V> extends Faceted<T, V> implements Externalizable {
+
+    private FacetTrie<V> facets = FacetTrie.empty();
+
+    //The edition of data added from now on, null until the first snapshot. Data of any other edition is shared.
+    private Object edition;
+
+    @Override
+    protected <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> Optional<V> getFacetData(Class<U> facetClass, String facetIdentifier) {
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
+        addFacetData(FacetKey.of(facetClass, facetIdentifier), facetData);
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        return facets.get(facetKey) != null;
+    }
+
+    @Override
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        V facetData = facets.get(facetKey);
+        if (facetData != null && edition != null && facets.getEdition(facetKey) != edition) {
+            //Shared with a snapshot, so take a copy before anything can change it.
+            facetData = copyFacetData(facetData);
+            facets = facets.put(facetKey, facetData, edition);
+        }
+        return Optional.ofNullable(facetData);
+    }
+
+    @Override
+    protected void addFacetData(FacetKey facetKey, V facetData) {
+        facets = facets.put(facetKey, Objects.requireNonNull(facetData, "facetData"), edition);
+    }
+
+    @Override
+    protected boolean removeFacetData(FacetKey facetKey) {
+        FacetTrie<V> current = facets;
+        facets = current.remove(facetKey);
+        return facets != current;
+    }
+
+    @Override
+    protected boolean addFacetDataIfAbsent(FacetKey facetKey, V facetData) {
+        Objects.requireNonNull(facetData, "facetData");
+        if (facets.get(facetKey) != null) {
+            return false;
+        }
+        facets = facets.put(facetKey, facetData, edition);
+        return true;
+    }
+
+    @Override
+    SharedFacetData<V> shareFacetData() {
+        edition = new Object();
+        return facets;
+    }
+
+    /**
+     * Write the facets, loading any whose data is still pending first.
+     * @param out the stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        loadPendingFacetData();
+        List<FacetKey> facetKeys = new ArrayList<>(facets.size());
+        List<V> facetData = new ArrayList<>(facets.size());
+        facets.forEach((facetKey, data) -> {
+            facetKeys.add(facetKey);
+            facetData.add(data);
+        });
+        out.writeInt(facetKeys.size());
+        for (int i = 0; i < facetKeys.size(); i++) {
+            FacetedExternals.writeFacetKey(out, facetKeys.get(i));
+            writeExternalFacetData(out, facetData.get(i));
+        }
+    }
+
+    /**
+     * Read the facets into a newly constructed instance.
+     * @param in the stream.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     * @throws ClassNotFoundException if a facet class, or a class of the facet data, cannot be found.
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        FacetTrie<V> read = FacetTrie.empty();
+        for (int count = in.readInt(); count > 0; count--) {
+            FacetKey facetKey = FacetedExternals.readFacetKey(in, classLoader);
+            read = read.put(facetKey, Objects.requireNonNull(readExternalFacetData(in), "facetData"), null);
+        }
+        facets = read;
+        edition = null;
+    }
+
+    /**
+     * Write the data of one facet, by default with Java serialisation. Override this, and
+     * {@link #readExternalFacetData}, for data that is not <code>Serializable</code> or can be written more compactly,
+     * such as {@link uk.co.fvdl.facet.schema.FacetRecord}s of a known schema.
+     * @param out the stream.
+     * @param facetData the facet data.
+     * @throws IOException if the stream cannot be written.
+     */
+    protected void writeExternalFacetData(ObjectOutput out, V facetData) throws IOException {
+        out.writeObject(facetData);
+    }
+
+    /**
+     * Read the data of one facet as written by {@link #writeExternalFacetData}.
+     * @param in the stream.
+     * @return the facet data.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     * @throws ClassNotFoundException if a class of the facet data cannot be found.
+     */
+    @SuppressWarnings("unchecked")
+    protected V readExternalFacetData(ObjectInput in) throws IOException, ClassNotFoundException {
+        return (V) in.readObject();
+    }
+
+    /**
+     * @return the number of facets this Faceted currently has.
+     */
+    public int getFacetCount() {
+        return facets.size();
+    }
 }
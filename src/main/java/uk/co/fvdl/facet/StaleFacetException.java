@@ -0,0 +1,41 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+/**
+ * Thrown when a facet instance is used after its facet has been removed or replaced, or when its data has gone.
+ * Facet instances are handles on the Faceted they came from, so once the facet has changed under them they fail rather
+ * than quietly reading or writing data that now belongs to something else.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class StaleFacetException extends IllegalStateException {
+
+    private final transient FacetKey facetKey;
+
+    public StaleFacetException(FacetKey facetKey) {
+        super("Facet " + facetKey.getFacetType().getName() + "[" + facetKey.getFacetIdentifier() + "] has been removed or replaced.");
+        this.facetKey = facetKey;
+    }
+
+    /**
+     * @return the key of the facet, null if this exception has been deserialized.
+     */
+    public FacetKey getFacetKey() {
+        return facetKey;
+    }
+}
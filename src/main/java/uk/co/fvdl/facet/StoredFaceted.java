@@ -0,0 +1,160 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A Faceted entity whose facet data lives in a {@link FacetStore}. Facet data is read from the store the first time it
+ * is needed and then kept, so facets see and change the same data for as long as the entity is in memory; added facet
+ * data is written straight through to the store. Changes made to facet data after it was read, for example through a
+ * facet's setters, are written by {@link #save()}, which compares each facet with a copy of the data last written to or
+ * read from the store and only writes the facets that changed. A {@link HydrationCache} keeps a bounded number of
+ * entities in memory and saves them as they leave it, after which the entity and its facets throw
+ * {@link IllegalStateException} when used so that a copy held on to cannot diverge from the one the cache creates
+ * next. Not thread safe.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public abstract class StoredFaceted<T extends StoredFaceted<T, V>, V> extends Faceted<T, V> {
+
+    private final FacetStore<V> store;
+    private final long entityId;
+    private final FacetKeyMap<V> hydrated = new FacetKeyMap<>();
+    private final FacetKeyMap<V> stored = new FacetKeyMap<>();
+    private boolean evicted;
+
+    protected StoredFaceted(FacetStore<V> store, long entityId) {
+        this.store = Objects.requireNonNull(store, "store");
+        this.entityId = entityId;
+    }
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public FacetStore<V> getStore() {
+        return store;
+    }
+
+    /**
+     * Write the data of the facets read or added through this entity that have changed since they were last written
+     * back to the store. Changes are found the same way as {@link #exportDelta()} finds them, see {@link FacetChange}.
+     */
+    public void save() {
+        checkNotEvicted();
+        hydrated.forEach((facetKey, facetData) -> {
+            if (FacetChange.between(facetKey.getFacetClass(), facetKey.getFacetIdentifier(), stored.get(facetKey), facetData) != null) {
+                store.putFacetData(entityId, facetKey, facetData);
+                stored.put(facetKey, copyFacetData(facetData));
+            }
+        });
+    }
+
+    /**
+     * Save the entity and stop it being used, as {@link HydrationCache} does when the entity leaves the cache.
+     */
+    void evict() {
+        save();
+        evicted = true;
+        hydrated.clear();
+        stored.clear();
+    }
+
+    /**
+     * @return true if the entity has left its {@link HydrationCache}, it has to be got from the cache again to be used.
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return the number of facets whose data is held in memory.
+     */
+    public int getHydratedFacetCount() {
+        return hydrated.size();
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> boolean hasFacetData(Class<U> facetClass, String facetIdentifier) {
+        return hasFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> Optional<V> getFacetData(Class<U> facetClass, String facetIdentifier) {
+        return getFacetData(FacetKey.of(facetClass, facetIdentifier));
+    }
+
+    @Override
+    protected <U extends Facet<U, V>> void addFacetData(Class<U> facetClass, String facetIdentifier, V facetData) {
+        addFacetData(FacetKey.of(facetClass, facetIdentifier), facetData);
+    }
+
+    @Override
+    protected boolean hasFacetData(FacetKey facetKey) {
+        checkNotEvicted();
+        return hydrated.get(facetKey) != null || store.hasFacetData(entityId, facetKey);
+    }
+
+    @Override
+    protected Optional<V> getFacetData(FacetKey facetKey) {
+        checkNotEvicted();
+        V facetData = hydrated.get(facetKey);
+        if (facetData == null) {
+            Optional<V> storedData = store.getFacetData(entityId, facetKey);
+            storedData.ifPresent(data -> hydrate(facetKey, data));
+            return storedData;
+        }
+        return Optional.of(facetData);
+    }
+
+    @Override
+    protected void addFacetData(FacetKey facetKey, V facetData) {
+        checkNotEvicted();
+        store.putFacetData(entityId, facetKey, facetData);
+        hydrate(facetKey, facetData);
+    }
+
+    /**
+     * Keep facet data that has already been written to the store, as {@link FacetBulk} does after a batched write.
+     */
+    void hydrate(FacetKey facetKey, V facetData) {
+        checkNotEvicted();
+        hydrated.put(facetKey, facetData);
+        stored.put(facetKey, copyFacetData(facetData));
+    }
+
+    @Override
+    protected boolean removeFacetData(FacetKey facetKey) {
+        checkNotEvicted();
+        boolean hydratedData = hydrated.remove(facetKey) != null;
+        stored.remove(facetKey);
+        return store.removeFacetData(entityId, facetKey) || hydratedData;
+    }
+
+    private void checkNotEvicted() {
+        if (evicted) {
+            throw new IllegalStateException(this + " has been evicted from its hydration cache, get it from the cache again.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{entityId=" + entityId + '}';
+    }
+}
@@ -29,6 +29,6 @@ public interface UniqueFacet<T extends UniqueFacet<T, U>, U> extends Facet<T, U>
      * @return a facet identifier that ensures the uniqueness.
      */
     default String getFacetIdentifier(){
-        return this.getClass().toString();
+        return FacetRegistry.getUniqueIdentifier(this.getClass());
     }
 }
@@ -25,29 +25,16 @@ import java.util.Optional;
  */
 public class JsonHelper {
 
+    /**
+     * Get the node at an address relative to a node. Each element of the address is a field name optionally followed by
+     * array indexes, such as <code>"drivers[2]"</code>. The address is compiled on every call, callers that use the same
+     * address repeatedly should compile it once with {@link JsonPath#compile(String...)}.
+     * @param jsonNode the node to start from.
+     * @param relativeAddress the address.
+     * @return the node at the address if there is one.
+     */
     public static Optional<JsonNode> getNode(JsonNode jsonNode, String ... relativeAddress){
-        for (int i = 0; jsonNode != null && i < relativeAddress.length; i++){
-            String nodeName = relativeAddress[i];
-            jsonNode = jsonNode.get(nodeName);
-            if(jsonNode != null){
-                if(nodeName.contains("[")){ //Array address.
-                    if(jsonNode.isArray()){
-                        try {
-                            int index = Integer.valueOf(nodeName.substring(nodeName.indexOf('[') + 1, nodeName.indexOf(']')));
-                            jsonNode = jsonNode.get(index);
-                        } catch (Exception e) {
-                            //Couldn't parse the index for whatever reason.
-                            jsonNode = null;
-                        }
-                    } else {
-                        jsonNode = null; //Can't resolve array address.
-                    }
-                }
-            }
-        }
-        return Optional.ofNullable(jsonNode);
+        return JsonPath.compile(relativeAddress).evaluate(jsonNode);
     }
 
-
-
 }
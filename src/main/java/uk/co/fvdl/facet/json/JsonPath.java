@@ -0,0 +1,164 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A path to a node within a JSON tree, parsed once into a sequence of field and array index steps so that evaluating it
+ * is a plain walk of the tree that does not allocate. Each segment of the address is a field name optionally followed
+ * by one or more array indexes, for example <code>"drivers[2]"</code>, or just indexes such as <code>"[0]"</code>. A
+ * segment whose index is not a number compiles to a path that never matches. {@link JsonPathGroup} evaluates several
+ * paths that share prefixes in a single walk.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class JsonPath {
+
+    static final int FIELD = -1;
+
+    private final String address;
+    private final String[] fields;
+    private final int[] indexes;
+    private final boolean matchable;
+
+    private JsonPath(String address, String[] fields, int[] indexes, boolean matchable) {
+        this.address = address;
+        this.fields = fields;
+        this.indexes = indexes;
+        this.matchable = matchable;
+    }
+
+    /**
+     * Compile a path.
+     * @param relativeAddress the segments of the path relative to the node it will be evaluated against.
+     * @return the compiled path.
+     */
+    public static JsonPath compile(String... relativeAddress) {
+        List<String> fields = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        boolean matchable = true;
+        for (String segment : relativeAddress) {
+            int bracket = segment.indexOf('[');
+            if (bracket != 0) {
+                fields.add(bracket < 0 ? segment : segment.substring(0, bracket));
+                indexes.add(FIELD);
+            }
+            while (bracket >= 0) {
+                int close = segment.indexOf(']', bracket);
+                int index = close < 0 ? -1 : parseIndex(segment, bracket + 1, close);
+                if (index < 0) {
+                    matchable = false;
+                    break;
+                }
+                fields.add(null);
+                indexes.add(index);
+                bracket = segment.indexOf('[', close);
+            }
+        }
+        int[] indexArray = new int[indexes.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            indexArray[i] = indexes.get(i);
+        }
+        return new JsonPath(String.join("/", relativeAddress), fields.toArray(new String[0]), indexArray, matchable);
+    }
+
+    private static int parseIndex(String segment, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Evaluate the path without allocating.
+     * @param jsonNode the node to start from, may be null.
+     * @return the node at the end of the path, or null if there is none.
+     */
+    public JsonNode find(JsonNode jsonNode) {
+        if (!matchable) {
+            return null;
+        }
+        for (int i = 0; jsonNode != null && i < indexes.length; i++) {
+            jsonNode = step(jsonNode, fields[i], indexes[i]);
+        }
+        return jsonNode;
+    }
+
+    /**
+     * @param jsonNode the node to start from, may be null.
+     * @return the node at the end of the path if there is one.
+     */
+    public Optional<JsonNode> evaluate(JsonNode jsonNode) {
+        return Optional.ofNullable(find(jsonNode));
+    }
+
+    static JsonNode step(JsonNode jsonNode, String field, int index) {
+        return index == FIELD ? jsonNode.get(field) : jsonNode.isArray() ? jsonNode.get(index) : null;
+    }
+
+    int length() {
+        return indexes.length;
+    }
+
+    String getField(int step) {
+        return fields[step];
+    }
+
+    int getIndex(int step) {
+        return indexes[step];
+    }
+
+    boolean isMatchable() {
+        return matchable;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JsonPath)) {
+            return false;
+        }
+        JsonPath other = (JsonPath) o;
+        return matchable == other.matchable && Arrays.equals(fields, other.fields) && Arrays.equals(indexes, other.indexes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(fields) + Arrays.hashCode(indexes);
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several {@link JsonPath}s evaluated together. The paths are merged into a tree of steps so that a prefix shared by
+ * several paths is walked once however many paths share it, and evaluation fills a caller supplied array rather than
+ * allocating results.
+ * <pre>
+ *     JsonPathGroup group = JsonPathGroup.of(JsonPath.compile("driver", "name"), JsonPath.compile("driver", "licence"));
+ *     JsonNode[] results = group.newResults();
+ *     group.evaluate(node, results);
+ * </pre>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class JsonPathGroup {
+
+    private final JsonPath[] paths;
+    private final Step root;
+
+    private JsonPathGroup(JsonPath[] paths) {
+        this.paths = paths;
+        this.root = new Step(null, JsonPath.FIELD);
+        for (int p = 0; p < paths.length; p++) {
+            if (!paths[p].isMatchable()) {
+                continue;
+            }
+            Step step = root;
+            for (int i = 0; i < paths[p].length(); i++) {
+                step = step.child(paths[p].getField(i), paths[p].getIndex(i));
+            }
+            step.addPath(p);
+        }
+    }
+
+    /**
+     * @param paths the paths, results are reported in the same order.
+     * @return the group.
+     */
+    public static JsonPathGroup of(JsonPath... paths) {
+        return new JsonPathGroup(paths.clone());
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public JsonPath getPath(int index) {
+        return paths[index];
+    }
+
+    /**
+     * @return a new array big enough to hold the results of evaluating this group.
+     */
+    public JsonNode[] newResults() {
+        return new JsonNode[paths.length];
+    }
+
+    /**
+     * Evaluate every path in a single walk of the tree.
+     * @param jsonNode the node to start from, may be null.
+     * @param results filled with the node at the end of each path, in the order the paths were given, or null where a
+     *                path does not match.
+     */
+    public void evaluate(JsonNode jsonNode, JsonNode[] results) {
+        Arrays.fill(results, 0, paths.length, null);
+        if (jsonNode != null) {
+            root.evaluate(jsonNode, results);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JsonPathGroup" + Arrays.toString(paths);
+    }
+
+    /**
+     * A step in the merged tree of paths.
+     */
+    private static final class Step {
+        private static final Step[] NO_CHILDREN = new Step[0];
+        private static final int[] NO_PATHS = new int[0];
+
+        private final String field;
+        private final int index;
+        private Step[] children = NO_CHILDREN;
+        private int[] pathIndexes = NO_PATHS;
+
+        private Step(String field, int index) {
+            this.field = field;
+            this.index = index;
+        }
+
+        private Step child(String childField, int childIndex) {
+            for (Step child : children) {
+                if (child.index == childIndex && (childIndex != JsonPath.FIELD || child.field.equals(childField))) {
+                    return child;
+                }
+            }
+            Step child = new Step(childField, childIndex);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        private void addPath(int pathIndex) {
+            pathIndexes = Arrays.copyOf(pathIndexes, pathIndexes.length + 1);
+            pathIndexes[pathIndexes.length - 1] = pathIndex;
+        }
+
+        private void evaluate(JsonNode jsonNode, JsonNode[] results) {
+            for (int pathIndex : pathIndexes) {
+                results[pathIndex] = jsonNode;
+            }
+            for (Step child : children) {
+                JsonNode next = JsonPath.step(jsonNode, child.field, child.index);
+                if (next != null) {
+                    child.evaluate(next, results);
+                }
+            }
+        }
+    }
+}
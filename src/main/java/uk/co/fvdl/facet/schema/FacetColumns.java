@@ -0,0 +1,555 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * The data of one facet for a whole population of entities, stored column by column. Each slot of the schema has its
+ * own column indexed by row, so a scan of one property over every row is a sequential read of a single array rather
+ * than a walk over one object per entity. Primitive columns are 64 bit words, doubles as their raw bits and booleans as
+ * 0 or 1, held either in heap arrays or in direct buffers outside the heap; reference columns are always on the heap.
+ * <p>
+ * Rows are addressed by the index the owning population gave the entity. {@link #getRecord(int)} returns a flyweight
+ * {@link FacetRecord} over a row that reads and writes the columns directly. Which rows have data is itself a bitmap
+ * index, see {@link #getRows()}, and slots can be given {@link PropertyIndex}es that are kept up to date on every write.
+ * Not thread safe.
+ * </p>
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetColumns {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Object NOT_INDEXED = new Object();
+
+    private final FacetSchema schema;
+    private final PrimitiveColumns primitives;
+    private final Object[][] references;
+    private final BitSet present = new BitSet();
+    private PropertyIndex[][] indexes;
+    private int capacity;
+
+    private FacetColumns(FacetSchema schema, PrimitiveColumns primitives) {
+        this.schema = schema;
+        this.primitives = primitives;
+        this.references = new Object[schema.getReferenceCount()][];
+    }
+
+    /**
+     * Create columns held entirely on the heap.
+     * @param schema the schema of the facet data.
+     * @return the new, empty, columns.
+     */
+    public static FacetColumns onHeap(FacetSchema schema) {
+        return new FacetColumns(schema, new HeapPrimitiveColumns(schema.getPrimitiveCount()));
+    }
+
+    /**
+     * Create columns whose primitive slots are held in direct buffers outside the heap.
+     * @param schema the schema of the facet data.
+     * @return the new, empty, columns.
+     */
+    public static FacetColumns offHeap(FacetSchema schema) {
+        return new FacetColumns(schema, new DirectPrimitiveColumns(schema.getPrimitiveCount()));
+    }
+
+    public FacetSchema getSchema() {
+        return schema;
+    }
+
+    public boolean isOffHeap() {
+        return primitives instanceof DirectPrimitiveColumns;
+    }
+
+    /**
+     * @param row the row index.
+     * @return true if the row has data in these columns.
+     */
+    public boolean isPresent(int row) {
+        return row >= 0 && present.get(row);
+    }
+
+    /**
+     * @return the number of rows that have data.
+     */
+    public int getRowCount() {
+        return present.cardinality();
+    }
+
+    /**
+     * @return a new set of the rows that have data.
+     */
+    public BitSet getRows() {
+        return (BitSet) present.clone();
+    }
+
+    /**
+     * Call the action with the index of every row that has data, in ascending order.
+     * @param action the action.
+     */
+    public void forEachRow(IntConsumer action) {
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            action.accept(row);
+        }
+    }
+
+    /**
+     * Give a row data with every reference slot null and every primitive slot zero or false.
+     * @param row the row index.
+     */
+    public void addRow(int row) {
+        ensureCapacity(row + 1);
+        unindexRow(row);
+        clear(row);
+        present.set(row);
+        indexRow(row);
+    }
+
+    /**
+     * Copy a record into a row, giving the row data if it did not already have any.
+     * @param row the row index.
+     * @param record the record to copy, which must have the same schema as these columns.
+     */
+    public void setRecord(int row, FacetRecord record) {
+        if (record.getSchema() != schema) {
+            throw new IllegalArgumentException("Record schema " + record.getSchema().getName() + " does not match " + schema.getName());
+        }
+        if (record instanceof ColumnRecord && ((ColumnRecord) record).columns == this && ((ColumnRecord) record).row == row) {
+            return;
+        }
+        ensureCapacity(row + 1);
+        unindexRow(row);
+        for (int slot = 0; slot < schema.size(); slot++) {
+            FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+            int storageIndex = schemaSlot.getStorageIndex();
+            switch (schemaSlot.getKind()) {
+                case INT:
+                    primitives.set(storageIndex, row, record.getInt(slot));
+                    break;
+                case LONG:
+                    primitives.set(storageIndex, row, record.getLong(slot));
+                    break;
+                case DOUBLE:
+                    primitives.set(storageIndex, row, Double.doubleToRawLongBits(record.getDouble(slot)));
+                    break;
+                case BOOLEAN:
+                    primitives.set(storageIndex, row, record.getBoolean(slot) ? 1 : 0);
+                    break;
+                default:
+                    references[storageIndex][row] = record.get(slot);
+            }
+        }
+        present.set(row);
+        indexRow(row);
+    }
+
+    /**
+     * Remove the data of a row, releasing any objects it referenced.
+     * @param row the row index.
+     */
+    public void removeRow(int row) {
+        if (isPresent(row)) {
+            unindexRow(row);
+            clear(row);
+            present.clear(row);
+        }
+    }
+
+    /**
+     * Get a flyweight record over a row. The record reads and writes these columns so it sees every change to the row
+     * and costs nothing to keep or discard.
+     * @param row the row index, which must have data.
+     * @return the record.
+     */
+    public FacetRecord getRecord(int row) {
+        if (!isPresent(row)) {
+            throw new IllegalArgumentException("Row " + row + " has no " + schema.getName() + " data.");
+        }
+        return new ColumnRecord(this, row);
+    }
+
+    public Object get(int row, int slot) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        int storageIndex = schemaSlot.getStorageIndex();
+        switch (schemaSlot.getKind()) {
+            case INT:
+                return (int) primitives.get(storageIndex, row);
+            case LONG:
+                return primitives.get(storageIndex, row);
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives.get(storageIndex, row));
+            case BOOLEAN:
+                return primitives.get(storageIndex, row) != 0;
+            default:
+                return references[storageIndex][row];
+        }
+    }
+
+    public void set(int row, int slot, Object value) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        if (schemaSlot.getKind() != FacetSchema.SlotKind.REFERENCE && value == null) {
+            throw new IllegalArgumentException("Cannot set primitive slot " + schemaSlot.getName() + " to null.");
+        }
+        Object oldValue = indexedValue(row, slot);
+        int storageIndex = schemaSlot.getStorageIndex();
+        switch (schemaSlot.getKind()) {
+            case INT:
+                primitives.set(storageIndex, row, (Integer) value);
+                break;
+            case LONG:
+                primitives.set(storageIndex, row, (Long) value);
+                break;
+            case DOUBLE:
+                primitives.set(storageIndex, row, Double.doubleToRawLongBits((Double) value));
+                break;
+            case BOOLEAN:
+                primitives.set(storageIndex, row, (Boolean) value ? 1 : 0);
+                break;
+            default:
+                references[storageIndex][row] = value;
+        }
+        reindex(row, slot, oldValue);
+    }
+
+    public int getInt(int row, int slot) {
+        return (int) primitives.get(primitiveIndex(slot, FacetSchema.SlotKind.INT), row);
+    }
+
+    public void setInt(int row, int slot, int value) {
+        int storageIndex = primitiveIndex(slot, FacetSchema.SlotKind.INT);
+        Object oldValue = indexedValue(row, slot);
+        primitives.set(storageIndex, row, value);
+        reindex(row, slot, oldValue);
+    }
+
+    public long getLong(int row, int slot) {
+        return primitives.get(primitiveIndex(slot, FacetSchema.SlotKind.LONG), row);
+    }
+
+    public void setLong(int row, int slot, long value) {
+        int storageIndex = primitiveIndex(slot, FacetSchema.SlotKind.LONG);
+        Object oldValue = indexedValue(row, slot);
+        primitives.set(storageIndex, row, value);
+        reindex(row, slot, oldValue);
+    }
+
+    public double getDouble(int row, int slot) {
+        return Double.longBitsToDouble(primitives.get(primitiveIndex(slot, FacetSchema.SlotKind.DOUBLE), row));
+    }
+
+    public void setDouble(int row, int slot, double value) {
+        int storageIndex = primitiveIndex(slot, FacetSchema.SlotKind.DOUBLE);
+        Object oldValue = indexedValue(row, slot);
+        primitives.set(storageIndex, row, Double.doubleToRawLongBits(value));
+        reindex(row, slot, oldValue);
+    }
+
+    public boolean getBoolean(int row, int slot) {
+        return primitives.get(primitiveIndex(slot, FacetSchema.SlotKind.BOOLEAN), row) != 0;
+    }
+
+    public void setBoolean(int row, int slot, boolean value) {
+        int storageIndex = primitiveIndex(slot, FacetSchema.SlotKind.BOOLEAN);
+        Object oldValue = indexedValue(row, slot);
+        primitives.set(storageIndex, row, value ? 1 : 0);
+        reindex(row, slot, oldValue);
+    }
+
+    /**
+     * Create an index over a slot, or get the existing one if the slot already has an index of the same type.
+     * @param slot the slot to index.
+     * @param type the type of index.
+     * @return the index.
+     */
+    public PropertyIndex createIndex(int slot, PropertyIndex.Type type) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        if (type == PropertyIndex.Type.SORTED && schemaSlot.getKind() == FacetSchema.SlotKind.REFERENCE
+                && !Comparable.class.isAssignableFrom(schemaSlot.getType())) {
+            throw new IllegalArgumentException("Slot " + schemaSlot.getName() + " is not comparable so cannot have a sorted index.");
+        }
+        PropertyIndex existing = getIndex(slot, type);
+        if (existing != null) {
+            return existing;
+        }
+        PropertyIndex index = new PropertyIndex(slot, type);
+        forEachRow(row -> index.add(row, get(row, slot)));
+        if (indexes == null) {
+            indexes = new PropertyIndex[schema.size()][];
+        }
+        PropertyIndex[] slotIndexes = indexes[slot];
+        slotIndexes = slotIndexes == null ? new PropertyIndex[1] : Arrays.copyOf(slotIndexes, slotIndexes.length + 1);
+        slotIndexes[slotIndexes.length - 1] = index;
+        indexes[slot] = slotIndexes;
+        return index;
+    }
+
+    /**
+     * @param slot the slot.
+     * @param type the type of index.
+     * @return the index of the given type over the slot, or null if there is none.
+     */
+    public PropertyIndex getIndex(int slot, PropertyIndex.Type type) {
+        if (indexes != null && indexes[slot] != null) {
+            for (PropertyIndex index : indexes[slot]) {
+                if (index.getType() == type) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of a slot in a row if the slot is indexed and the row has data, otherwise a marker meaning
+     * there is nothing to update.
+     */
+    private Object indexedValue(int row, int slot) {
+        return indexes != null && indexes[slot] != null && present.get(row) ? get(row, slot) : NOT_INDEXED;
+    }
+
+    private void reindex(int row, int slot, Object oldValue) {
+        if (oldValue != NOT_INDEXED) {
+            Object newValue = get(row, slot);
+            if (!Objects.equals(oldValue, newValue)) {
+                for (PropertyIndex index : indexes[slot]) {
+                    index.remove(row, oldValue);
+                    index.add(row, newValue);
+                }
+            }
+        }
+    }
+
+    private void indexRow(int row) {
+        if (indexes != null) {
+            for (int slot = 0; slot < indexes.length; slot++) {
+                if (indexes[slot] != null) {
+                    Object value = get(row, slot);
+                    for (PropertyIndex index : indexes[slot]) {
+                        index.add(row, value);
+                    }
+                }
+            }
+        }
+    }
+
+    private void unindexRow(int row) {
+        if (indexes != null && present.get(row)) {
+            for (int slot = 0; slot < indexes.length; slot++) {
+                if (indexes[slot] != null) {
+                    Object value = get(row, slot);
+                    for (PropertyIndex index : indexes[slot]) {
+                        index.remove(row, value);
+                    }
+                }
+            }
+        }
+    }
+
+    private int primitiveIndex(int slot, FacetSchema.SlotKind kind) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        if (schemaSlot.getKind() != kind) {
+            throw new IllegalArgumentException("Slot " + schemaSlot.getName() + " is " + schemaSlot.getKind() + " not " + kind);
+        }
+        return schemaSlot.getStorageIndex();
+    }
+
+    private void clear(int row) {
+        for (int i = 0; i < schema.getPrimitiveCount(); i++) {
+            primitives.set(i, row, 0);
+        }
+        for (Object[] column : references) {
+            column[row] = null;
+        }
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows > capacity) {
+            int newCapacity = Math.max(rows, Math.max(INITIAL_CAPACITY, capacity * 2));
+            primitives.resize(capacity, newCapacity);
+            for (int i = 0; i < references.length; i++) {
+                references[i] = references[i] == null ? new Object[newCapacity] : Arrays.copyOf(references[i], newCapacity);
+            }
+            capacity = newCapacity;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FacetColumns{" + schema.getName() + ", rows=" + getRowCount() + (isOffHeap() ? ", off heap" : "") + '}';
+    }
+
+    /**
+     * The primitive columns, one 64 bit word per row in each.
+     */
+    private abstract static class PrimitiveColumns {
+        abstract long get(int column, int row);
+
+        abstract void set(int column, int row, long value);
+
+        abstract void resize(int oldCapacity, int newCapacity);
+    }
+
+    private static final class HeapPrimitiveColumns extends PrimitiveColumns {
+        private final long[][] columns;
+
+        private HeapPrimitiveColumns(int columnCount) {
+            this.columns = new long[columnCount][];
+        }
+
+        @Override
+        long get(int column, int row) {
+            return columns[column][row];
+        }
+
+        @Override
+        void set(int column, int row, long value) {
+            columns[column][row] = value;
+        }
+
+        @Override
+        void resize(int oldCapacity, int newCapacity) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = columns[i] == null ? new long[newCapacity] : Arrays.copyOf(columns[i], newCapacity);
+            }
+        }
+    }
+
+    private static final class DirectPrimitiveColumns extends PrimitiveColumns {
+        private final ByteBuffer[] columns;
+
+        private DirectPrimitiveColumns(int columnCount) {
+            this.columns = new ByteBuffer[columnCount];
+        }
+
+        @Override
+        long get(int column, int row) {
+            return columns[column].getLong(row << 3);
+        }
+
+        @Override
+        void set(int column, int row, long value) {
+            columns[column].putLong(row << 3, value);
+        }
+
+        @Override
+        void resize(int oldCapacity, int newCapacity) {
+            for (int i = 0; i < columns.length; i++) {
+                ByteBuffer column = ByteBuffer.allocateDirect(newCapacity << 3).order(ByteOrder.nativeOrder());
+                if (columns[i] != null) {
+                    ByteBuffer old = columns[i].duplicate();
+                    old.clear();
+                    column.put(old);
+                    column.clear();
+                }
+                columns[i] = column;
+            }
+        }
+    }
+
+    /**
+     * Flyweight record over one row of the columns.
+     */
+    private static final class ColumnRecord implements FacetRecord {
+        private final FacetColumns columns;
+        private final int row;
+
+        private ColumnRecord(FacetColumns columns, int row) {
+            this.columns = columns;
+            this.row = row;
+        }
+
+        @Override
+        public FacetSchema getSchema() {
+            return columns.schema;
+        }
+
+        @Override
+        public Object get(int slot) {
+            return columns.get(row, slot);
+        }
+
+        @Override
+        public void set(int slot, Object value) {
+            columns.set(row, slot, value);
+        }
+
+        @Override
+        public int getInt(int slot) {
+            return columns.getInt(row, slot);
+        }
+
+        @Override
+        public void setInt(int slot, int value) {
+            columns.setInt(row, slot, value);
+        }
+
+        @Override
+        public long getLong(int slot) {
+            return columns.getLong(row, slot);
+        }
+
+        @Override
+        public void setLong(int slot, long value) {
+            columns.setLong(row, slot, value);
+        }
+
+        @Override
+        public double getDouble(int slot) {
+            return columns.getDouble(row, slot);
+        }
+
+        @Override
+        public void setDouble(int slot, double value) {
+            columns.setDouble(row, slot, value);
+        }
+
+        @Override
+        public boolean getBoolean(int slot) {
+            return columns.getBoolean(row, slot);
+        }
+
+        @Override
+        public void setBoolean(int slot, boolean value) {
+            columns.setBoolean(row, slot, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ColumnRecord && ((ColumnRecord) o).columns == columns && ((ColumnRecord) o).row == row;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(columns) * 31 + row;
+        }
+
+        @Override
+        public String toString() {
+            Object[] values = new Object[columns.schema.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = get(i);
+            }
+            return columns.schema.getName() + "@" + row + Arrays.toString(values);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the data properties of a facet interface. For an annotated facet <code>Car</code> the annotation processor
+ * generates:
+ * <ul>
+ *     <li><code>CarSchema</code> holding the {@link FacetSchema} and a slot index constant for each property.</li>
+ *     <li><code>CarProperties&lt;T&gt;</code>, an interface with default typed getters and setters for each property
+ *     and a static <code>initialise</code> method to supply the initial {@link FacetRecord} to
+ *     {@link uk.co.fvdl.facet.Faceted#addFacet}.</li>
+ * </ul>
+ * The facet interface then extends the generated properties interface, for example
+ * <code>interface Car extends CarProperties&lt;Car&gt;, UniqueFacet&lt;Car, FacetRecord&gt;</code>.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface FacetProperties {
+
+    /**
+     * @return the properties of the facet, in slot order.
+     */
+    FacetProperty[] value();
+}
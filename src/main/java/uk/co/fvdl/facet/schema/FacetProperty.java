@@ -0,0 +1,43 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A single data property of a facet, see {@link FacetProperties}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({})
+public @interface FacetProperty {
+
+    /**
+     * @return the name of the property, used to name the generated getter and setter.
+     */
+    String name();
+
+    /**
+     * @return the type of the property, either a reference type or one of int, long, double and boolean.
+     */
+    Class<?> type();
+}
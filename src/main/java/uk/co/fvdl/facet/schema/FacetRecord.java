@@ -0,0 +1,85 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+/**
+ * Facet data laid out according to a {@link FacetSchema}. Values are addressed by slot index and primitive slots have
+ * their own accessors so that they can be read and written without boxing.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public interface FacetRecord {
+
+    FacetSchema getSchema();
+
+    /**
+     * Get the value of any slot, primitive values are boxed.
+     * @param slot the slot index.
+     * @return the value.
+     */
+    Object get(int slot);
+
+    /**
+     * Set the value of any slot, primitive slots accept their boxed equivalent.
+     * @param slot the slot index.
+     * @param value the value.
+     */
+    void set(int slot, Object value);
+
+    int getInt(int slot);
+
+    void setInt(int slot, int value);
+
+    long getLong(int slot);
+
+    void setLong(int slot, long value);
+
+    double getDouble(int slot);
+
+    void setDouble(int slot, double value);
+
+    boolean getBoolean(int slot);
+
+    void setBoolean(int slot, boolean value);
+
+    /**
+     * @return a heap record of the same schema holding a copy of this record's values.
+     */
+    default FacetRecord copy() {
+        FacetSchema schema = getSchema();
+        FacetRecord copy = schema.newRecord();
+        for (int slot = 0; slot < schema.size(); slot++) {
+            switch (schema.getSlot(slot).getKind()) {
+                case INT:
+                    copy.setInt(slot, getInt(slot));
+                    break;
+                case LONG:
+                    copy.setLong(slot, getLong(slot));
+                    break;
+                case DOUBLE:
+                    copy.setDouble(slot, getDouble(slot));
+                    break;
+                case BOOLEAN:
+                    copy.setBoolean(slot, getBoolean(slot));
+                    break;
+                default:
+                    copy.set(slot, get(slot));
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Describes the data of a facet as a fixed list of typed slots. Each property of the facet is given a slot index when
+ * the schema is built and that index never changes, so accessors can address facet data by index rather than by name
+ * and storage can lay the data out densely. Schemas are normally generated from {@link FacetProperties}.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class FacetSchema {
+
+    private final String name;
+    private final Slot[] slots;
+    private final Map<String, Slot> slotsByName;
+    private final int primitiveCount;
+
+    private FacetSchema(String name, List<Slot> slots) {
+        this.name = name;
+        this.slots = slots.toArray(new Slot[slots.size()]);
+        Map<String, Slot> byName = new HashMap<>();
+        int primitives = 0;
+        for (Slot slot : this.slots) {
+            byName.put(slot.getName(), slot);
+            if (slot.getKind() != SlotKind.REFERENCE) {
+                primitives++;
+            }
+        }
+        this.slotsByName = byName;
+        this.primitiveCount = primitives;
+    }
+
+    /**
+     * Start building a schema.
+     * @param name the name of the schema, usually the name of the facet interface it describes.
+     * @return a new builder.
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    public Slot getSlot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * @return the number of int, long, double and boolean slots, which storage keeps together in 64 bit words.
+     */
+    int getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    /**
+     * @return the number of reference slots.
+     */
+    int getReferenceCount() {
+        return slots.length - primitiveCount;
+    }
+
+    public Optional<Slot> getSlot(String slotName) {
+        return Optional.ofNullable(slotsByName.get(slotName));
+    }
+
+    public List<Slot> getSlots() {
+        return Collections.unmodifiableList(Arrays.asList(slots));
+    }
+
+    /**
+     * Create an empty record for this schema with all reference slots null and primitive slots zero or false.
+     * @return the new record.
+     */
+    public FacetRecord newRecord() {
+        return new HeapFacetRecord(this);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetSchema{" + name + Arrays.toString(slots) + '}';
+    }
+
+    /**
+     * The storage kind of a slot, primitive slots are kept separately from references by storage that can do so.
+     */
+    public enum SlotKind {
+        REFERENCE, INT, LONG, DOUBLE, BOOLEAN;
+
+        static SlotKind of(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return REFERENCE;
+            } else if (type == int.class) {
+                return INT;
+            } else if (type == long.class) {
+                return LONG;
+            } else if (type == double.class) {
+                return DOUBLE;
+            } else if (type == boolean.class) {
+                return BOOLEAN;
+            }
+            throw new IllegalArgumentException("Unsupported slot type " + type + ", use int, long, double or boolean.");
+        }
+    }
+
+    /**
+     * A single property of a facet.
+     */
+    public static final class Slot {
+        private final String name;
+        private final Class<?> type;
+        private final int index;
+        private final SlotKind kind;
+        private final int storageIndex;
+
+        private Slot(String name, Class<?> type, int index, int storageIndex) {
+            this.name = name;
+            this.type = type;
+            this.index = index;
+            this.kind = SlotKind.of(type);
+            this.storageIndex = storageIndex;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public SlotKind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the index of this slot among the slots of the same storage class, primitive or reference.
+         */
+        int getStorageIndex() {
+            return storageIndex;
+        }
+
+        @Override
+        public String toString() {
+            return index + ":" + name + ":" + type.getName();
+        }
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final List<Slot> slots = new ArrayList<>();
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Add the next slot to the schema, slots are indexed in the order they are added.
+         * @param slotName the name of the property.
+         * @param type the type of the property.
+         * @return this builder.
+         */
+        public Builder slot(String slotName, Class<?> type) {
+            boolean primitive = SlotKind.of(type) != SlotKind.REFERENCE;
+            int storageIndex = 0;
+            for (Slot slot : slots) {
+                if (slot.getName().equals(slotName)) {
+                    throw new IllegalArgumentException("Duplicate slot " + slotName + " in schema " + name);
+                }
+                if ((slot.getKind() != SlotKind.REFERENCE) == primitive) {
+                    storageIndex++;
+                }
+            }
+            slots.add(new Slot(slotName, type, slots.size(), storageIndex));
+            return this;
+        }
+
+        public FacetSchema build() {
+            return new FacetSchema(name, slots);
+        }
+    }
+}
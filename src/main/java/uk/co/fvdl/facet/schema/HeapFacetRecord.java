@@ -0,0 +1,147 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.util.Arrays;
+
+/**
+ * A facet record held on the heap. Primitive slots are packed into a <code>long[]</code>, doubles as their raw bits and
+ * booleans as 0 or 1, and reference slots into an <code>Object[]</code>, so reading and writing primitives never boxes
+ * and a record costs two arrays rather than an object per value.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class HeapFacetRecord implements FacetRecord {
+
+    private static final long[] NO_PRIMITIVES = new long[0];
+    private static final Object[] NO_REFERENCES = new Object[0];
+
+    private final FacetSchema schema;
+    private final long[] primitives;
+    private final Object[] references;
+
+    HeapFacetRecord(FacetSchema schema) {
+        this.schema = schema;
+        this.primitives = schema.getPrimitiveCount() == 0 ? NO_PRIMITIVES : new long[schema.getPrimitiveCount()];
+        this.references = schema.getReferenceCount() == 0 ? NO_REFERENCES : new Object[schema.getReferenceCount()];
+    }
+
+    @Override
+    public FacetSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public Object get(int slot) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        int storageIndex = schemaSlot.getStorageIndex();
+        switch (schemaSlot.getKind()) {
+            case INT:
+                return (int) primitives[storageIndex];
+            case LONG:
+                return primitives[storageIndex];
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives[storageIndex]);
+            case BOOLEAN:
+                return primitives[storageIndex] != 0;
+            default:
+                return references[storageIndex];
+        }
+    }
+
+    @Override
+    public void set(int slot, Object value) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        if (schemaSlot.getKind() != FacetSchema.SlotKind.REFERENCE && value == null) {
+            throw new IllegalArgumentException("Cannot set primitive slot " + schemaSlot.getName() + " to null.");
+        }
+        int storageIndex = schemaSlot.getStorageIndex();
+        switch (schemaSlot.getKind()) {
+            case INT:
+                primitives[storageIndex] = (Integer) value;
+                break;
+            case LONG:
+                primitives[storageIndex] = (Long) value;
+                break;
+            case DOUBLE:
+                primitives[storageIndex] = Double.doubleToRawLongBits((Double) value);
+                break;
+            case BOOLEAN:
+                primitives[storageIndex] = (Boolean) value ? 1 : 0;
+                break;
+            default:
+                references[storageIndex] = value;
+        }
+    }
+
+    @Override
+    public int getInt(int slot) {
+        return (int) primitives[primitiveIndex(slot, FacetSchema.SlotKind.INT)];
+    }
+
+    @Override
+    public void setInt(int slot, int value) {
+        primitives[primitiveIndex(slot, FacetSchema.SlotKind.INT)] = value;
+    }
+
+    @Override
+    public long getLong(int slot) {
+        return primitives[primitiveIndex(slot, FacetSchema.SlotKind.LONG)];
+    }
+
+    @Override
+    public void setLong(int slot, long value) {
+        primitives[primitiveIndex(slot, FacetSchema.SlotKind.LONG)] = value;
+    }
+
+    @Override
+    public double getDouble(int slot) {
+        return Double.longBitsToDouble(primitives[primitiveIndex(slot, FacetSchema.SlotKind.DOUBLE)]);
+    }
+
+    @Override
+    public void setDouble(int slot, double value) {
+        primitives[primitiveIndex(slot, FacetSchema.SlotKind.DOUBLE)] = Double.doubleToRawLongBits(value);
+    }
+
+    @Override
+    public boolean getBoolean(int slot) {
+        return primitives[primitiveIndex(slot, FacetSchema.SlotKind.BOOLEAN)] != 0;
+    }
+
+    @Override
+    public void setBoolean(int slot, boolean value) {
+        primitives[primitiveIndex(slot, FacetSchema.SlotKind.BOOLEAN)] = value ? 1 : 0;
+    }
+
+    private int primitiveIndex(int slot, FacetSchema.SlotKind kind) {
+        FacetSchema.Slot schemaSlot = schema.getSlot(slot);
+        if (schemaSlot.getKind() != kind) {
+            throw new IllegalArgumentException("Slot " + schemaSlot.getName() + " is " + schemaSlot.getKind() + " not " + kind);
+        }
+        return schemaSlot.getStorageIndex();
+    }
+
+    @Override
+    public String toString() {
+        Object[] values = new Object[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+        return schema.getName() + Arrays.toString(values);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A secondary index over one slot of a {@link FacetColumns}, mapping each value to the set of rows holding it. Indexes
+ * are created with {@link FacetColumns#createIndex(int, Type)} and the columns keep them up to date as rows are added,
+ * removed and changed, including changes made through the flyweight records. Null values are not indexed.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public final class PropertyIndex {
+
+    private final int slot;
+    private final Type type;
+    private final Map<Object, BitSet> rowsByValue;
+
+    /**
+     * The kind of index.
+     */
+    public enum Type {
+        /**
+         * Finds rows with a given value.
+         */
+        HASH,
+        /**
+         * Finds rows with a given value or with values in a range, the slot's values must be comparable.
+         */
+        SORTED
+    }
+
+    PropertyIndex(int slot, Type type) {
+        this.slot = slot;
+        this.type = type;
+        this.rowsByValue = type == Type.SORTED ? new TreeMap<>() : new HashMap<>();
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of distinct values in the index.
+     */
+    public int getValueCount() {
+        return rowsByValue.size();
+    }
+
+    /**
+     * @param value the value to find.
+     * @return a new set of the rows holding the value.
+     */
+    public BitSet find(Object value) {
+        BitSet rows = value == null ? null : rowsByValue.get(value);
+        return rows == null ? new BitSet() : (BitSet) rows.clone();
+    }
+
+    /**
+     * Only supported by {@link Type#SORTED} indexes.
+     * @param from the lowest value to find, inclusive.
+     * @param to the highest value to find, inclusive.
+     * @return a new set of the rows holding values in the range.
+     */
+    public BitSet findBetween(Object from, Object to) {
+        if (type != Type.SORTED) {
+            throw new UnsupportedOperationException("Range lookups need a sorted index.");
+        }
+        BitSet rows = new BitSet();
+        for (BitSet valueRows : ((NavigableMap<Object, BitSet>) rowsByValue).subMap(from, true, to, true).values()) {
+            rows.or(valueRows);
+        }
+        return rows;
+    }
+
+    void add(int row, Object value) {
+        if (value != null) {
+            rowsByValue.computeIfAbsent(value, v -> new BitSet()).set(row);
+        }
+    }
+
+    void remove(int row, Object value) {
+        if (value != null) {
+            BitSet rows = rowsByValue.get(value);
+            if (rows != null) {
+                rows.clear(row);
+                if (rows.isEmpty()) {
+                    rowsByValue.remove(value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyIndex{slot=" + slot + ", type=" + type + ", values=" + rowsByValue.size() + '}';
+    }
+}
@@ -0,0 +1,289 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet.schema.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor that generates the schema and typed accessors for facet interfaces annotated with
+ * {@link uk.co.fvdl.facet.schema.FacetProperties}. See that annotation for what is generated.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@SupportedAnnotationTypes(FacetPropertiesProcessor.FACET_PROPERTIES)
+public class FacetPropertiesProcessor extends AbstractProcessor {
+
+    static final String FACET_PROPERTIES = "uk.co.fvdl.facet.schema.FacetProperties";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    error(element, "@FacetProperties can only be applied to facet interfaces.");
+                    continue;
+                }
+                List<Property> properties = readProperties((TypeElement) element);
+                if (properties != null) {
+                    try {
+                        generate((TypeElement) element, properties);
+                    } catch (IOException e) {
+                        error(element, "Unable to generate facet properties: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<Property> readProperties(TypeElement facet) {
+        List<Property> properties = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (AnnotationMirror mirror : facet.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(FACET_PROPERTIES)) {
+                continue;
+            }
+            for (AnnotationValue propertyValue : valuesOf(value(mirror, "value"))) {
+                AnnotationMirror property = (AnnotationMirror) propertyValue.getValue();
+                String name = (String) value(property, "name").getValue();
+                TypeMirror type = (TypeMirror) value(property, "type").getValue();
+                if (!SourceVersion.isIdentifier(name) || SourceVersion.isKeyword(name)) {
+                    error(facet, "Facet property name '" + name + "' is not a valid Java identifier.");
+                    return null;
+                }
+                if (!names.add(name)) {
+                    error(facet, "Duplicate facet property '" + name + "'.");
+                    return null;
+                }
+                if (type.getKind().isPrimitive() && !isSupportedPrimitive(type.getKind())) {
+                    error(facet, "Facet property '" + name + "' has unsupported type " + type + ", use int, long, double or boolean.");
+                    return null;
+                }
+                properties.add(new Property(name, type));
+            }
+        }
+        return properties;
+    }
+
+    private void generate(TypeElement facet, List<Property> properties) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(facet).getQualifiedName().toString();
+        String baseName = baseName(facet);
+        String schemaName = baseName + "Schema";
+        String propertiesName = baseName + "Properties";
+        String facetName = facet.getQualifiedName().toString();
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualify(packageName, schemaName), facet).openWriter())) {
+            header(out, packageName);
+            out.println("/**");
+            out.println(" * Schema of the data of {@link " + facetName + "}, generated from its @FacetProperties.");
+            out.println(" */");
+            out.println("public final class " + schemaName + " {");
+            out.println();
+            for (int i = 0; i < properties.size(); i++) {
+                out.println("    public static final int " + properties.get(i).constantName() + " = " + i + ";");
+            }
+            out.println();
+            out.println("    public static final uk.co.fvdl.facet.schema.FacetSchema SCHEMA = uk.co.fvdl.facet.schema.FacetSchema.builder(\"" + facetName + "\")");
+            for (Property property : properties) {
+                out.println("            .slot(\"" + property.name + "\", " + erasure(property.type) + ".class)");
+            }
+            out.println("            .build();");
+            out.println();
+            out.println("    private " + schemaName + "() {");
+            out.println("    }");
+            out.println("}");
+        }
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualify(packageName, propertiesName), facet).openWriter())) {
+            header(out, packageName);
+            out.println("/**");
+            out.println(" * Typed accessors for the data of {@link " + facetName + "}, generated from its @FacetProperties.");
+            out.println(" */");
+            out.println("public interface " + propertiesName + "<T extends uk.co.fvdl.facet.Facet<T, uk.co.fvdl.facet.schema.FacetRecord>>");
+            out.println("        extends uk.co.fvdl.facet.Facet<T, uk.co.fvdl.facet.schema.FacetRecord> {");
+            for (Property property : properties) {
+                String slot = schemaName + "." + property.constantName();
+                out.println();
+                out.println("    default " + property.type + " " + property.getterName() + "() {");
+                out.println("        return " + property.read("getFacetData()", slot) + ";");
+                out.println("    }");
+                out.println();
+                out.println("    default void " + property.setterName() + "(" + property.type + " " + property.name + ") {");
+                out.println("        " + property.write("getFacetData()", slot, property.name) + ";");
+                out.println("    }");
+            }
+            out.println();
+            StringBuilder parameters = new StringBuilder();
+            for (Property property : properties) {
+                if (parameters.length() > 0) {
+                    parameters.append(", ");
+                }
+                parameters.append(property.type).append(' ').append(property.name);
+            }
+            out.println("    static java.util.function.Supplier<uk.co.fvdl.facet.schema.FacetRecord> initialise(" + parameters + ") {");
+            out.println("        return () -> {");
+            out.println("            uk.co.fvdl.facet.schema.FacetRecord record = " + schemaName + ".SCHEMA.newRecord();");
+            for (Property property : properties) {
+                out.println("            " + property.write("record", schemaName + "." + property.constantName(), property.name) + ";");
+            }
+            out.println("            return record;");
+            out.println("        };");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    private static void header(PrintWriter out, String packageName) {
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+    }
+
+    private static String qualify(String packageName, String name) {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    private static String baseName(TypeElement facet) {
+        StringBuilder name = new StringBuilder(facet.getSimpleName());
+        for (Element enclosing = facet.getEnclosingElement(); !(enclosing instanceof PackageElement); enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+        }
+        return name.toString();
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private static boolean isSupportedPrimitive(TypeKind kind) {
+        return kind == TypeKind.INT || kind == TypeKind.LONG || kind == TypeKind.DOUBLE || kind == TypeKind.BOOLEAN;
+    }
+
+    private static AnnotationValue value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+        throw new IllegalStateException("Missing annotation value " + name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<? extends AnnotationValue> valuesOf(AnnotationValue value) {
+        Object values = value.getValue();
+        if (values instanceof List) {
+            return (List<? extends AnnotationValue>) values;
+        }
+        List<AnnotationValue> single = new ArrayList<>();
+        single.add(value);
+        return single;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A property read from the annotation along with the naming rules for the code generated for it.
+     */
+    private static final class Property {
+        private final String name;
+        private final TypeMirror type;
+
+        private Property(String name, TypeMirror type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        private String capitalised() {
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+
+        private String getterName() {
+            return (type.getKind() == TypeKind.BOOLEAN ? "is" : "get") + capitalised();
+        }
+
+        private String setterName() {
+            return "set" + capitalised();
+        }
+
+        private String constantName() {
+            StringBuilder constant = new StringBuilder();
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (Character.isUpperCase(c) && i > 0) {
+                    constant.append('_');
+                }
+                constant.append(Character.toUpperCase(c));
+            }
+            return constant.toString();
+        }
+
+        private String primitiveSuffix() {
+            switch (type.getKind()) {
+                case INT:
+                    return "Int";
+                case LONG:
+                    return "Long";
+                case DOUBLE:
+                    return "Double";
+                case BOOLEAN:
+                    return "Boolean";
+                default:
+                    return null;
+            }
+        }
+
+        private String read(String record, String slot) {
+            String suffix = primitiveSuffix();
+            return suffix == null
+                    ? "(" + type + ") " + record + ".get(" + slot + ")"
+                    : record + ".get" + suffix + "(" + slot + ")";
+        }
+
+        private String write(String record, String slot, String value) {
+            String suffix = primitiveSuffix();
+            return record + ".set" + (suffix == null ? "" : suffix) + "(" + slot + ", " + value + ")";
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.lang.reflect.Method;
+
+/**
+ * Flight Recorder events for facet operations, the Java 11 replacement for the version that does nothing on Java 8.
+ * The measured time is carried in an <code>elapsed</code> field as the operation has finished by the time it is
+ * reported.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetEvents {
+
+    private FacetEvents() {
+    }
+
+    static boolean isAvailable() {
+        return true;
+    }
+
+    static void facetCreated(Class<?> facetedClass, FacetKey facetKey, FacetEngine engine, long elapsedNanos) {
+        FacetCreatedEvent event = new FacetCreatedEvent();
+        if (event.isEnabled()) {
+            event.facetedClass = facetedClass;
+            event.facetClass = facetKey.getFacetType();
+            event.facetIdentifier = facetKey.getFacetIdentifier();
+            event.engine = engine.name();
+            event.elapsed = elapsedNanos;
+            event.commit();
+        }
+    }
+
+    static void slowDispatch(FacetKey facetKey, Method method, long elapsedNanos) {
+        SlowDispatchEvent event = new SlowDispatchEvent();
+        if (event.isEnabled()) {
+            event.facetClass = facetKey.getFacetType();
+            event.facetIdentifier = facetKey.getFacetIdentifier();
+            event.method = method.getName();
+            event.elapsed = elapsedNanos;
+            event.commit();
+        }
+    }
+
+    @Name("uk.co.fvdl.facet.FacetCreated")
+    @Label("Facet Created")
+    @Category("Facets")
+    @Description("A facet instance was created")
+    @StackTrace(false)
+    static final class FacetCreatedEvent extends Event {
+        @Label("Faceted Class")
+        Class<?> facetedClass;
+        @Label("Facet Class")
+        Class<?> facetClass;
+        @Label("Facet Identifier")
+        String facetIdentifier;
+        @Label("Engine")
+        String engine;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("uk.co.fvdl.facet.SlowDispatch")
+    @Label("Slow Facet Dispatch")
+    @Category("Facets")
+    @Description("A default method call on a proxy facet took longer than the slow dispatch threshold")
+    static final class SlowDispatchEvent extends Event {
+        @Label("Facet Class")
+        Class<?> facetClass;
+        @Label("Facet Identifier")
+        String facetIdentifier;
+        @Label("Method")
+        String method;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Defines the classes {@link GeneratedFacets} writes for one Faceted type, the Java 16 replacement for the version that
+ * creates a class loader per Faceted type. Generated classes are hidden classes in the Faceted type's own package, so
+ * they need no class loader of their own and each can be unloaded as soon as it is no longer used. Where this library
+ * does not have full access to that package, such as a Faceted type in a named module not open to it or one loaded by
+ * a different class loader, the class loader is still used.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetClassDefiner {
+
+    private static final String GENERATED_PACKAGE = "uk.co.fvdl.facet.generated.";
+
+    private final Class<?> facetedClass;
+    private final MethodHandles.Lookup lookup;
+    private final GeneratedFacetClassLoader classLoader;
+
+    private FacetClassDefiner(Class<?> facetedClass, MethodHandles.Lookup lookup) {
+        this.facetedClass = facetedClass;
+        this.lookup = lookup;
+        this.classLoader = lookup == null ? new GeneratedFacetClassLoader(facetedClass.getClassLoader()) : null;
+    }
+
+    static FacetClassDefiner forFacetedType(Class<?> facetedClass) {
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(facetedClass, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            lookup = null;
+        }
+        return new FacetClassDefiner(facetedClass, lookup != null && lookup.hasFullPrivilegeAccess() ? lookup : null);
+    }
+
+    boolean canSee(Class<?> type) {
+        try {
+            return lookup == null
+                    ? classLoader.loadClass(type.getName()) == type
+                    : Class.forName(type.getName(), false, facetedClass.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    String className(String simpleName) {
+        if (lookup == null) {
+            return GENERATED_PACKAGE + simpleName;
+        }
+        String packageName = facetedClass.getPackageName();
+        return packageName.isEmpty() ? simpleName : packageName + '.' + simpleName;
+    }
+
+    MethodHandle define(String className, byte[] classFile, MethodType constructorType)
+            throws ReflectiveOperationException {
+        if (lookup == null) {
+            Class<?> generated = classLoader.define(className, classFile);
+            return MethodHandles.publicLookup().findConstructor(generated, constructorType);
+        }
+        MethodHandles.Lookup hidden = lookup.defineHiddenClass(classFile, true);
+        return hidden.findConstructor(hidden.lookupClass(), constructorType);
+    }
+
+    /**
+     * Class loader for generated facets, a child of the Faceted type's own class loader.
+     */
+    private static final class GeneratedFacetClassLoader extends ClassLoader {
+
+        private GeneratedFacetClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * Binds the default methods of facet interfaces for {@link FacetDispatchPlan}, the Java 16 replacement for the Java 11
+ * version. A handle from <code>privateLookupIn</code> is still the fastest way to call a default method, but it is
+ * refused for an interface in a named module that is not open to this library. Those default methods are now called
+ * through <code>InvocationHandler.invokeDefault</code>, which needs no access to the interface's package, rather than
+ * failing.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+final class FacetDefaultMethods {
+
+    private static final MethodHandle INVOKE_DEFAULT = findInvokeDefault();
+
+    private FacetDefaultMethods() {
+    }
+
+    static MethodHandle bind(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        try {
+            int parameterCount = method.getParameterCount();
+            return MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup())
+                    .unreflectSpecial(method, declaringClass)
+                    .asType(MethodType.genericMethodType(parameterCount + 1))
+                    .asSpreader(Object[].class, parameterCount);
+        } catch (IllegalAccessException e) {
+            //The package is not open to this library, invokeDefault only needs the interface to be public.
+            return MethodHandles.insertArguments(INVOKE_DEFAULT, 1, method);
+        }
+    }
+
+    private static MethodHandle findInvokeDefault() {
+        try {
+            return MethodHandles.lookup().findStatic(InvocationHandler.class, "invokeDefault",
+                    MethodType.methodType(Object.class, Object.class, Method.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class BinaryFacetedCodecTest {
+
+    @Test
+    public void shouldRoundTripEntities() throws IOException {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.setName("John");
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.baseNode.put("age", 42).put("height", 1.8).put("big", Long.MAX_VALUE).putNull("nothing")
+                .putArray("tags").add("a").add(-1).add(true);
+        FacetedPerson loaded = new JsonFacetedReader<>(FacetedPerson::new).read(
+                ("{\"name\":\"Jane\",\"$facets$\":{\"" + Driver.class.getName() + "\":{\"" + Driver.class
+                        + "\":{\"licenceNumber\":\"XYZ\",\"points\":[3,-6],\"ratio\":0.5}}}}").getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //When
+        try (BinaryFacetedWriter writer = new BinaryFacetedWriter(out)) {
+            writer.write(person);
+            writer.write(loaded);
+        }
+        BinaryFacetedReader<FacetedPerson> reader =
+                new BinaryFacetedReader<>(new ByteArrayInputStream(out.toByteArray()), FacetedPerson::new);
+        FacetedPerson first = reader.read().get();
+        FacetedPerson second = reader.read().get();
+        Optional<FacetedPerson> end = reader.read();
+
+        //Then
+        assertThat(first.baseNode, is(person.baseNode));
+        assertThat(first.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+        assertThat(second.getFacet(Driver.class).get().getLicenceNumber(), is("XYZ"));
+        assertThat(second.baseNode, is(new ObjectMapper().readTree(toJson(loaded))));
+        assertThat(end.isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldBeSmallerThanJson() throws IOException {
+        //Given
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        int jsonSize = 0;
+
+        //When
+        try (BinaryFacetedWriter writer = new BinaryFacetedWriter(binary)) {
+            for (int i = 0; i < 100; i++) {
+                FacetedPerson person = new FacetedPerson();
+                person.setName("Person " + i);
+                person.addFacet(Driver.class, Driver.initialise("LICENCE" + i));
+                writer.write(person);
+                jsonSize += toJson(person).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+
+        //Then
+        assertThat(binary.size() * 3 < jsonSize, is(true));
+    }
+
+    private static String toJson(FacetedPerson person) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonFacetedWriter.write(person, out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,37 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.FacetProperties;
+import uk.co.fvdl.facet.schema.FacetProperty;
+import uk.co.fvdl.facet.schema.FacetRecord;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+@FacetProperties({
+        @FacetProperty(name = "registration", type = String.class),
+        @FacetProperty(name = "seats", type = int.class),
+        @FacetProperty(name = "electric", type = boolean.class)
+})
+public interface Car extends CarProperties<Car>, UniqueFacet<Car, FacetRecord>, Person {
+
+    default String describe() {
+        return getName() + " drives " + getRegistration() + (isElectric() ? " (electric)" : "");
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class ConcurrentFacetedTest {
+
+    private static final int THREADS = 16;
+
+    @Test
+    public void shouldAddUniqueFacetOnlyOnceWhenRacing() throws Exception {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            //Given
+            ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+            person.setName("John");
+
+            //When
+            List<Future<Boolean>> results = race(() -> {
+                try {
+                    person.addFacet(Driver.class, Driver.initialise(Thread.currentThread().getName()));
+                    return true;
+                } catch (UnsupportedOperationException e) {
+                    return false;
+                }
+            });
+
+            //Then
+            int added = 0;
+            for (Future<Boolean> result : results) {
+                added += result.get() ? 1 : 0;
+            }
+            assertThat(added, is(1));
+            assertThat(person.getFacetCount(), is(1));
+        }
+    }
+
+    @Test
+    public void shouldKeepEveryFacetAddedConcurrently() throws Exception {
+        //Given
+        ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+
+        //When
+        race(() -> {
+            for (int i = 0; i < 100; i++) {
+                person.addFacetData(FacetKey.of(Driver.class, Thread.currentThread().getName() + "/" + i),
+                        JsonNodeFactory.instance.objectNode().put("licenceNumber", "L" + i));
+            }
+            return true;
+        });
+
+        //Then
+        assertThat(person.getFacetCount(), is(THREADS * 100));
+    }
+
+    @Test
+    public void shouldShareOneFacetInstanceBetweenReaders() throws Exception {
+        //Given
+        ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        List<Future<Driver>> drivers = race(() -> person.getFacet(Driver.class).get());
+
+        //Then
+        for (Future<Driver> driver : drivers) {
+            assertThat(driver.get(), is(sameInstance(drivers.get(0).get())));
+            assertThat(driver.get().getLicenceNumber(), is("ABCDEF"));
+        }
+    }
+
+    private static <R> List<Future<R>> race(Callable<R> task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<R>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return results;
+    }
+}
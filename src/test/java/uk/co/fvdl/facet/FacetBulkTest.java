@@ -0,0 +1,137 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetBulkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldAttachInParallelAndReportFailuresPerEntity() {
+        //Given
+        List<FacetedPerson> people = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            FacetedPerson person = new FacetedPerson();
+            person.setName("Person" + i);
+            people.add(person);
+        }
+        FacetedPerson alreadyDriving = people.get(1234);
+        alreadyDriving.addFacet(Driver.class, Driver.initialise("EXISTING"));
+
+        //When
+        FacetBulk.Result<FacetedPerson> result = FacetBulk.attach(Driver.class,
+                (FacetedPerson person) -> JsonNodeFactory.instance.objectNode().put("licenceNumber", person.getName()))
+                .inParallel(new ForkJoinPool(4))
+                .batchSize(100)
+                .to(people);
+
+        //Then
+        assertThat(result.getAttachedCount(), is(9_999));
+        assertThat(result.getFailures().size(), is(1));
+        assertThat(result.getFailures().get(0).getEntity(), is(sameInstance(alreadyDriving)));
+        assertThat(result.getFailures().get(0).getCause().getMessage(), is("This facet already exists."));
+        assertThat(people.get(42).getFacet(Driver.class).get().getLicenceNumber(), is("Person42"));
+        assertThat(alreadyDriving.getFacet(Driver.class).get().getLicenceNumber(), is("EXISTING"));
+    }
+
+    @Test
+    public void shouldNotAttachOverPendingFacets() {
+        //Given
+        FacetedPerson lazilyDriving = new FacetedPerson();
+        lazilyDriving.addLazyFacet(Driver.class, () -> JsonNodeFactory.instance.objectNode().put("licenceNumber", "LAZY"));
+        FacetedPerson notDriving = new FacetedPerson();
+
+        //When
+        FacetBulk.Result<FacetedPerson> result = FacetBulk.attach(Driver.class,
+                (FacetedPerson person) -> JsonNodeFactory.instance.objectNode().put("licenceNumber", "BULK"))
+                .to(Arrays.asList(lazilyDriving, notDriving));
+
+        //Then
+        assertThat(result.getAttachedCount(), is(1));
+        assertThat(result.getFailures().get(0).getEntity(), is(sameInstance(lazilyDriving)));
+        assertThat(lazilyDriving.getFacet(Driver.class).get().getLicenceNumber(), is("LAZY"));
+        assertThat(notDriving.getFacet(Driver.class).get().getLicenceNumber(), is("BULK"));
+    }
+
+    @Test
+    public void shouldResolveIdentifiersOfNonUniqueFacets() {
+        //Given
+        List<FacetedPerson> people = new ArrayList<>();
+        IntStream.range(0, 10).forEach(i -> people.add(new FacetedPerson()));
+
+        //When
+        FacetBulk.Result<FacetedPerson> result = FacetBulk.attach(FacetRemovalTest.Membership.class, (FacetedPerson person) -> {
+            int index = people.indexOf(person);
+            if (index == 3) {
+                throw new IllegalArgumentException("No team");
+            }
+            return JsonNodeFactory.instance.objectNode().put("team", "team" + index % 2);
+        }).to(people.stream());
+
+        //Then
+        assertThat(result.getAttachedCount(), is(9));
+        assertThat(result.getFailures().get(0).getEntity(), is(sameInstance(people.get(3))));
+        assertThat(people.get(4).hasFacet(FacetRemovalTest.Membership.class, "team0"), is(true));
+        assertThat(people.get(5).hasFacet(FacetRemovalTest.Membership.class, "team1"), is(true));
+    }
+
+    @Test
+    public void shouldBatchStoreWrites() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = MappedFacetStore.open(folder.getRoot().toPath(), FacetDataCodec.json())) {
+            List<StoredPerson> people = new ArrayList<>();
+            for (long id = 0; id < 1000; id++) {
+                people.add(new StoredPerson(store, id));
+            }
+
+            //When
+            FacetBulk.Result<StoredPerson> result = FacetBulk.attach(Driver.class,
+                    (StoredPerson person) -> JsonNodeFactory.instance.objectNode().put("licenceNumber", "L" + person.getEntityId()))
+                    .inParallel()
+                    .to(people);
+
+            //Then
+            assertThat(result.isComplete(), is(true));
+            assertThat(store.getEntityCount(), is(1000));
+            assertThat(people.get(7).getHydratedFacetCount(), is(1));
+            assertThat(new StoredPerson(store, 999).getFacet(Driver.class).get().getLicenceNumber(), is("L999"));
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetCacheTest {
+
+    @Test
+    public void shouldReturnCachedFacet() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.setName("John");
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        Driver first = person.getFacet(Driver.class).get();
+        Driver second = person.getFacet(Driver.class).get();
+
+        //Then
+        assertThat(first, is(sameInstance(second)));
+        assertThat(first.getLicenceNumber(), is("ABCDEF"));
+        assertThat(person.getFacetCache().getMissCount(), is(1L));
+        assertThat(person.getFacetCache().getHitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotFindMissingFacet() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+
+        //Then
+        assertThat(person.getFacet(Driver.class).isPresent(), is(false));
+        assertThat(person.hasFacet(Driver.class), is(false));
+        assertThat(person.getFacetCache().size(), is(0));
+    }
+
+    @Test
+    public void shouldNotAllocateOnCacheHit() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 100_000; i++) {
+            person.getFacet(Driver.class);
+        }
+
+        //When
+        long before = threads.getThreadAllocatedBytes(threadId);
+        Optional<Driver> driver = null;
+        for (int i = 0; i < 100_000; i++) {
+            driver = person.getFacet(Driver.class);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        //Then
+        assertThat(driver.isPresent(), is(true));
+        assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+    }
+
+    @Test
+    public void shouldBoundCache() {
+        //Given
+        FacetCache cache = FacetCache.bounded(1);
+        FacetKey driverKey = FacetKey.of(Driver.class);
+        FacetKey otherKey = FacetKey.of(Driver.class, "other");
+
+        //When
+        cache.put(driverKey, "driver");
+        cache.put(otherKey, "other");
+
+        //Then
+        assertThat(cache.size(), is(1));
+        assertThat(cache.lookup(otherKey), is((Object) "other"));
+        assertThat(cache.get(driverKey) == null, is(true));
+    }
+
+    @Test
+    public void shouldCanonicaliseKeys() {
+        assertThat(FacetKey.of(Driver.class), is(sameInstance(FacetKey.of(Driver.class))));
+        assertThat(FacetKey.of(Driver.class, "a"), is(sameInstance(FacetKey.of(Driver.class, "a"))));
+        assertThat(FacetKey.of(Driver.class, Driver.class.toString()), is(sameInstance(FacetKey.of(Driver.class))));
+        assertThat(FacetKey.of(Driver.class, "a").getId() == FacetKey.of(Driver.class).getId(), is(false));
+    }
+
+    @Test
+    public void shouldIdentifyUniqueFacetByItsInterface() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+
+        //When
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //Then
+        assertThat(driver.getFacetIdentifier(), is(FacetKey.of(Driver.class).getFacetIdentifier()));
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+    }
+
+    @Test
+    public void shouldKeepEntriesWhenRemovingFromKeyMap() {
+        //Given
+        FacetKeyMap<String> map = new FacetKeyMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(FacetKey.of(Driver.class, "key" + i), "value" + i);
+        }
+
+        //When
+        for (int i = 0; i < 100; i += 2) {
+            map.remove(FacetKey.of(Driver.class, "key" + i));
+        }
+
+        //Then
+        assertThat(map.size(), is(50));
+        for (int i = 0; i < 100; i++) {
+            assertThat(map.get(FacetKey.of(Driver.class, "key" + i)), is(i % 2 == 0 ? null : "value" + i));
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetDeltaTest {
+
+    @Test
+    public void shouldExportOnlyTheChangedPropertiesOfJsonFacets() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.addFacet(FacetRemovalTest.Membership.class, () -> person.baseNode.objectNode().put("team", "red").put("role", "captain"));
+        FacetDelta<FacetedPerson, ObjectNode> first = person.exportDelta();
+
+        //When
+        driver.setLicenceNumber("GHIJKL");
+        person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData().put("role", "player");
+        person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData().remove("role");
+        person.addFacet(FacetRemovalTest.Membership.class, () -> person.baseNode.objectNode().put("team", "blue"));
+        FacetDelta<FacetedPerson, ObjectNode> delta = person.exportDelta();
+
+        //Then
+        assertThat(first.getChanges().size(), is(2));
+        assertThat(first.getChanges().get(0).getType(), is(FacetChange.Type.ADDED));
+        assertThat(delta.getChanges().size(), is(3));
+        FacetChange<ObjectNode> driverChange = delta.getChanges().get(0);
+        assertThat(driverChange.getType(), is(FacetChange.Type.CHANGED));
+        assertThat(driverChange.getChangedProperties(), is(Collections.singletonList("licenceNumber")));
+        assertThat(delta.toJsonMergePatch().toString(), is("{\"$facets$\":{"
+                + "\"" + Driver.class.getName() + "\":{\"" + Driver.class + "\":{\"licenceNumber\":\"GHIJKL\"}},"
+                + "\"" + FacetRemovalTest.Membership.class.getName() + "\":{\"red\":{\"role\":null},\"blue\":{\"team\":\"blue\"}}}}"));
+        assertThat(person.exportDelta().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldIgnoreFacetsThatWereReadButNotChanged() throws IOException {
+        //Given
+        String document = "{\"name\":\"John\",\"$facets$\":{\"" + Driver.class.getName() + "\":{\"" + Driver.class
+                + "\":{\"licenceNumber\":\"ABCDEF\"}},\"other.Facet\":{\"a\":[1,2,3]}}}";
+        FacetedPerson person = new JsonFacetedReader<>(FacetedPerson::new).read(document.getBytes(StandardCharsets.UTF_8));
+        person.markClean();
+
+        //When
+        String licenceNumber = person.getFacet(Driver.class).get().getLicenceNumber();
+        FacetDelta<FacetedPerson, ObjectNode> unchanged = person.exportDelta();
+        person.removeFacet(Driver.class);
+        FacetDelta<FacetedPerson, ObjectNode> removed = person.exportDelta();
+
+        //Then
+        assertThat(licenceNumber, is("ABCDEF"));
+        assertThat(unchanged.isEmpty(), is(true));
+        assertThat(removed.getChanges().size(), is(1));
+        assertThat(removed.getChanges().get(0).getType(), is(FacetChange.Type.REMOVED));
+        assertThat(removed.getChanges().get(0).getFacetData(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReportTheChangedSlotsOfRecords() {
+        //Given
+        SimpleFacetedPerson person = new SimpleFacetedPerson();
+        Car car = person.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true));
+        person.markClean();
+
+        //When
+        car.setSeats(7);
+        car.setElectric(false);
+        FacetDelta<SimpleFacetedPerson, FacetRecord> delta = person.exportDelta();
+
+        //Then
+        assertThat(delta.getChanges().size(), is(1));
+        assertThat(delta.getChanges().get(0).getChangedProperties(), is(Arrays.asList("seats", "electric")));
+        assertThat(delta.getChanges().get(0).getFacetData().getInt(1), is(7));
+        try {
+            delta.toJsonMergePatch();
+            fail("Records are not JSON");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Facet data of " + Car.class.getName() + " is not JSON."));
+        }
+    }
+
+    @Test
+    public void shouldWriteDeltasInBatchesAndRetryFailedBatches() throws IOException {
+        //Given
+        List<List<FacetDelta<ConcurrentFacetedPerson, ObjectNode>>> written = new ArrayList<>();
+        boolean[] failing = {true};
+        FacetFlusher<ConcurrentFacetedPerson, ObjectNode> flusher = new FacetFlusher<>(deltas -> {
+            if (failing[0]) {
+                throw new IOException("Unavailable");
+            }
+            written.add(new ArrayList<>(deltas));
+        }, 4, 1, TimeUnit.HOURS);
+        List<ConcurrentFacetedPerson> people = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+            person.addFacet(Driver.class, Driver.initialise("L" + i));
+            person.markClean();
+            people.add(person);
+        }
+
+        //When
+        for (ConcurrentFacetedPerson person : people) {
+            person.getFacet(Driver.class).get().setLicenceNumber("M" + person.getFacet(Driver.class).get().getLicenceNumber());
+            flusher.submit(person);
+        }
+        flusher.submit(people.get(0));
+        try {
+            flusher.flush();
+            fail("The sink is failing");
+        } catch (IOException e) {
+            assertThat(flusher.getPendingCount(), is(10));
+        }
+        failing[0] = false;
+        flusher.close();
+
+        //Then
+        assertThat(flusher.getWrittenCount(), is(10L));
+        assertThat(written.size(), is(3));
+        assertThat(written.get(0).size(), is(4));
+        assertThat(written.get(2).get(1).getEntity() == people.get(9), is(true));
+        assertThat(written.get(0).get(0).getChanges().get(0).getPatch().toString(), is("{\"licenceNumber\":\"ML0\"}"));
+    }
+
+    @Test
+    public void shouldKeepFlushingInTheBackgroundAfterTheSinkThrowsAnUncheckedException() throws Exception {
+        //Given
+        List<FacetDelta<ConcurrentFacetedPerson, ObjectNode>> written = new CopyOnWriteArrayList<>();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        FacetFlusher<ConcurrentFacetedPerson, ObjectNode> flusher = new FacetFlusher<>(deltas -> {
+            if (failing.getAndSet(false)) {
+                throw new IllegalStateException("Unavailable");
+            }
+            written.addAll(deltas);
+        }, 10, 50, TimeUnit.MILLISECONDS);
+
+        //When
+        for (int i = 0; i < 2; i++) {
+            ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+            person.addFacet(Driver.class, Driver.initialise("L" + i));
+            flusher.submit(person);
+        }
+        for (int wait = 0; wait < 100 && written.size() < 2; wait++) {
+            Thread.sleep(50);
+        }
+
+        //Then
+        assertThat(written.size(), is(2));
+        assertThat(failing.get(), is(false));
+        assertThat(flusher.getLastFailure().getMessage(), is("Unavailable"));
+        assertThat(flusher.getPendingCount(), is(0));
+        flusher.close();
+    }
+
+    @Test
+    public void shouldExportPatchesThatTurnThePreviousDataIntoTheNewData() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.addFacet(FacetRemovalTest.Membership.class, () -> {
+            ObjectNode data = person.baseNode.objectNode().put("team", "red");
+            data.with("position").put("x", 1).put("y", 2);
+            data.with("kit").with("shirt").put("number", 9);
+            return data;
+        });
+        person.markClean();
+        ObjectNode data = person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData();
+        ObjectNode before = data.deepCopy();
+
+        //When
+        ((ObjectNode) data.get("position")).remove("y");
+        ((ObjectNode) data.get("kit").get("shirt")).put("colour", "red");
+        FacetChange<ObjectNode> nested = person.exportDelta().getChanges().get(0);
+        ObjectNode afterNested = data.deepCopy();
+        data = person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData();
+        data.putNull("position");
+        FacetDelta<FacetedPerson, ObjectNode> explicitNull = person.exportDelta();
+
+        //Then
+        assertThat(nested.isMergePatch(), is(true));
+        assertThat(nested.getPatch().toString(), is("{\"position\":{\"y\":null},\"kit\":{\"shirt\":{\"colour\":\"red\"}}}"));
+        assertThat(apply(before, nested), is(afterNested));
+        FacetChange<ObjectNode> nullChange = explicitNull.getChanges().get(0);
+        assertThat(nullChange.isMergePatch(), is(false));
+        assertThat(nullChange.getChangedProperties(), is(Collections.singletonList("position")));
+        assertThat(apply(afterNested, nullChange), is(data));
+        try {
+            explicitNull.toJsonMergePatch();
+            fail("A merge patch cannot set a field to null");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains("sets a field to null"), is(true));
+        }
+    }
+
+    private static JsonNode apply(JsonNode before, FacetChange<ObjectNode> change) {
+        return change.isMergePatch() ? applyMergePatch(before, change.getPatch()) : change.getPatch();
+    }
+
+    /**
+     * The merge patch algorithm of RFC 7386.
+     */
+    private static JsonNode applyMergePatch(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = target != null && target.isObject() ? ((ObjectNode) target).deepCopy() : ((ObjectNode) patch).objectNode();
+        for (Iterator<String> fieldNames = patch.fieldNames(); fieldNames.hasNext(); ) {
+            String fieldName = fieldNames.next();
+            JsonNode value = patch.get(fieldName);
+            if (value.isNull()) {
+                result.remove(fieldName);
+            } else {
+                result.set(fieldName, applyMergePatch(result.get(fieldName), value));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetEngineTest {
+
+    @Test
+    public void shouldGenerateFacetClass() {
+        //Given
+        FacetedPerson person = new GeneratedFacetedPerson();
+        person.setName("John");
+
+        //When
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //Then
+        assertThat(Proxy.isProxyClass(driver.getClass()), is(false));
+        assertThat(driver.getLicenceNumber(), is("ABCDEF"));
+        assertThat(driver.getName(), is("John"));
+
+        //When
+        driver.setName("James");
+        driver.setLicenceNumber("BCDEFG");
+
+        //Then
+        assertThat(person.getName(), is("James"));
+        assertThat(driver.getLicenceNumber(), is("BCDEFG"));
+    }
+
+    @Test
+    public void shouldShareGeneratedClass() {
+        //Given
+        FacetedPerson john = new GeneratedFacetedPerson();
+        FacetedPerson jane = new GeneratedFacetedPerson();
+
+        //When
+        Driver johnDriver = john.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        Driver janeDriver = jane.addFacet(Driver.class, Driver.initialise("BCDEFG"));
+
+        //Then
+        assertThat(johnDriver.getClass(), is(sameInstance(janeDriver.getClass())));
+        assertThat(johnDriver.getLicenceNumber(), is("ABCDEF"));
+        assertThat(janeDriver.getLicenceNumber(), is("BCDEFG"));
+    }
+
+    @Test
+    public void shouldRejectMethodsWithoutImplementation() {
+        //Given
+        FacetedPerson person = new GeneratedFacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        try {
+            driver.setupFacet(data -> { });
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //Then
+            assertThat(e.getMessage().contains("setupFacet"), is(true));
+        }
+    }
+
+    @Test
+    public void shouldFallBackToProxyForNonPublicFaceted() {
+        //Given
+        FacetedPerson person = new FacetedPerson() {
+            @Override
+            protected FacetEngine getFacetEngine() {
+                return FacetEngine.GENERATED;
+            }
+        };
+        person.setName("John");
+
+        //When
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //Then
+        assertThat(Proxy.isProxyClass(driver.getClass()), is(true));
+        assertThat(driver.getName(), is("John"));
+    }
+
+    public static class GeneratedFacetedPerson extends FacetedPerson {
+        @Override
+        protected FacetEngine getFacetEngine() {
+            return FacetEngine.GENERATED;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetRecord;
+import uk.co.fvdl.facet.schema.PropertyIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetIndexTest {
+
+    @Test
+    public void shouldKeepJsonFacetIndexesUpToDateAsFacetsChange() {
+        //Given
+        FacetIndex<FacetedPerson, ObjectNode> index = new FacetIndex<FacetedPerson, ObjectNode>()
+                .createIndex(Driver.class, "licenceNumber", data -> text(data, "licenceNumber"), PropertyIndex.Type.HASH)
+                .indexMembership(FacetRemovalTest.Membership.class);
+        List<FacetedPerson> people = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            FacetedPerson person = new FacetedPerson();
+            person.setName("person" + i);
+            if (i == 0) {
+                person.addFacet(Driver.class, Driver.initialise("L0"));
+            }
+            index.add(person);
+            if (i % 2 == 0 && i > 0) {
+                person.addFacet(Driver.class, Driver.initialise("L" + i));
+            }
+            people.add(person);
+        }
+
+        //When
+        people.get(4).getFacet(Driver.class).get().setLicenceNumber("CHANGED");
+        people.get(6).removeFacet(Driver.class);
+        people.get(1).addFacet(FacetRemovalTest.Membership.class, () -> people.get(1).baseNode.objectNode().put("team", "red"));
+        people.get(1).addFacet(FacetRemovalTest.Membership.class, () -> people.get(1).baseNode.objectNode().put("team", "blue"));
+        people.get(1).removeFacet(FacetRemovalTest.Membership.class, "red");
+
+        //Then
+        assertThat(index.getMembers(Driver.class).size(), is(4));
+        assertThat(index.getMembers(Driver.class).contains(people.get(0)), is(true));
+        assertThat(index.find(Driver.class, "licenceNumber", "CHANGED").contains(people.get(4)), is(true));
+        assertThat(index.find(Driver.class, "licenceNumber", "L4").isEmpty(), is(true));
+        assertThat(index.find(Driver.class, "licenceNumber", "L6").isEmpty(), is(true));
+        assertThat(index.getMembers(FacetRemovalTest.Membership.class).contains(people.get(1)), is(true));
+        index.remove(people.get(1));
+        assertThat(index.getMembers(FacetRemovalTest.Membership.class).isEmpty(), is(true));
+        assertThat(index.size(), is(9));
+    }
+
+    @Test
+    public void shouldFindRecordFacetsInARangeOfValues() {
+        //Given
+        FacetIndex<SimpleFacetedPerson, FacetRecord> index = new FacetIndex<SimpleFacetedPerson, FacetRecord>()
+                .createIndex(Car.class, "seats", record -> record.getInt(CarSchema.SEATS), PropertyIndex.Type.SORTED);
+        List<SimpleFacetedPerson> people = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            SimpleFacetedPerson person = new SimpleFacetedPerson();
+            index.add(person);
+            person.addFacet(Car.class, CarProperties.initialise("CAR" + i, i, false));
+            people.add(person);
+        }
+
+        //When
+        people.get(9).getFacet(Car.class).get().setSeats(3);
+        Set<SimpleFacetedPerson> found = index.findBetween(Car.class, "seats", 2, 4);
+
+        //Then
+        assertThat(found.size(), is(4));
+        assertThat(found.contains(people.get(9)), is(true));
+        assertThat(index.findBetween(Car.class, "seats", 9, 2).isEmpty(), is(true));
+        assertThat(index.find(Car.class, "seats", 3).size(), is(2));
+    }
+
+    private static String text(JsonNode data, String field) {
+        JsonNode value = data.get(field);
+        return value == null ? null : value.asText();
+    }
+}
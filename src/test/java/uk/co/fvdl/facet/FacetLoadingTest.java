@@ -0,0 +1,221 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetLoadingTest {
+
+    @Test
+    public void shouldLoadLazyFacetOnFirstRead() {
+        //Given
+        FakeStore store = new FakeStore().with("John", "ABCDEF");
+        FacetedPerson person = person("John");
+
+        //When
+        Driver driver = person.addLazyFacet(Driver.class, () -> store.get("John"));
+
+        //Then
+        assertThat(person.hasFacet(Driver.class), is(true));
+        assertThat(store.reads.get(), is(0));
+        assertThat(driver.getLicenceNumber(), is("ABCDEF"));
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+        assertThat(store.reads.get(), is(1));
+    }
+
+    @Test
+    public void shouldRemoveLazyFacetWithNoData() throws Exception {
+        //Given
+        FacetedPerson person = person("John");
+        person.addLazyFacet(Driver.class, () -> new FakeStore().get("John"));
+
+        //When
+        Optional<Driver> driver = person.getFacetAsync(Driver.class).get();
+
+        //Then
+        assertThat(driver.isPresent(), is(false));
+        assertThat(person.hasFacet(Driver.class), is(false));
+    }
+
+    @Test
+    public void shouldWaitForAsyncFacetData() throws Exception {
+        //Given
+        FacetedPerson person = person("John");
+        CompletableFuture<ObjectNode> data = new CompletableFuture<>();
+        person.addAsyncFacet(Driver.class, data);
+        CompletableFuture<Optional<Driver>> driver = person.getFacetAsync(Driver.class);
+
+        //When
+        boolean doneBeforeLoad = driver.isDone();
+        data.complete(new FakeStore().with("John", "BCDEFG").get("John"));
+
+        //Then
+        assertThat(doneBeforeLoad, is(false));
+        assertThat(driver.get().get().getLicenceNumber(), is("BCDEFG"));
+    }
+
+    @Test
+    public void shouldLoadAttachedFacetsInOneBatch() throws Exception {
+        //Given
+        FakeStore store = new FakeStore().with("John", "ABCDEF").with("Jane", "BCDEFG").with("Jim", "CDEFGH");
+        FacetBatchLoader<FacetedPerson, Driver, ObjectNode> loader = new FacetBatchLoader<>(Driver.class, store::getAll);
+        List<Driver> drivers = new ArrayList<>();
+        for (String name : Arrays.asList("John", "Jane", "Jim", "Jill")) {
+            drivers.add(loader.attach(person(name)));
+        }
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+
+        //When
+        List<Future<String>> licences = new ArrayList<>();
+        for (Driver driver : drivers.subList(0, 3)) {
+            licences.add(readers.submit(driver::getLicenceNumber));
+        }
+
+        //Then
+        assertThat(licences.get(0).get(), is("ABCDEF"));
+        assertThat(licences.get(1).get(), is("BCDEFG"));
+        assertThat(licences.get(2).get(), is("CDEFGH"));
+        assertThat(store.bulkReads.get(), is(1));
+        assertThat(store.reads.get(), is(4));
+        assertThat(loader.getPendingCount(), is(0));
+        readers.shutdown();
+    }
+
+    @Test
+    public void shouldFailReadersWhenABatchFetchHasNoResults() throws Exception {
+        //Given
+        FacetBatchLoader<FacetedPerson, Driver, ObjectNode> loader =
+                new FacetBatchLoader<>(Driver.class, entities -> CompletableFuture.completedFuture(null));
+        Driver john = loader.attach(person("John"));
+        Driver jane = loader.attach(person("Jane"));
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+
+        //When
+        Future<String> johnsLicence = readers.submit(john::getLicenceNumber);
+        Future<String> janesLicence = readers.submit(jane::getLicenceNumber);
+
+        //Then
+        for (Future<String> licence : Arrays.asList(johnsLicence, janesLicence)) {
+            try {
+                licence.get(5, TimeUnit.SECONDS);
+                fail("There is no data to read");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage(), is("Fetched no results for 2 entities."));
+            }
+        }
+        readers.shutdown();
+    }
+
+    @Test
+    public void shouldAddAFacetOnlyOnceWhenAddedLazilyAndEagerlyAtOnce() throws Exception {
+        //Given
+        ExecutorService adder = Executors.newSingleThreadExecutor();
+        List<Future<Boolean>> lazy = new ArrayList<>();
+        FacetedPerson person = new FacetedPerson() {
+            @Override
+            protected boolean addFacetDataIfAbsent(FacetKey facetKey, ObjectNode facetData) {
+                //Try to add the facet lazily while it is being added eagerly.
+                lazy.add(adder.submit(() -> added(() -> addLazyFacet(Driver.class, () -> new FakeStore().with("John", "LAZY").get("John")))));
+                try {
+                    lazy.get(0).get(200, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    //Blocked until the eager add completes.
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.addFacetDataIfAbsent(facetKey, facetData);
+            }
+        };
+        person.setName("John");
+
+        //When
+        boolean eager = added(() -> person.addFacet(Driver.class, Driver.initialise("EAGER")));
+
+        //Then
+        assertThat(eager, is(true));
+        assertThat(lazy.get(0).get(), is(false));
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("EAGER"));
+        adder.shutdown();
+    }
+
+    private static boolean added(Runnable add) {
+        try {
+            add.run();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static FacetedPerson person(String name) {
+        FacetedPerson person = new FacetedPerson();
+        person.setName(name);
+        return person;
+    }
+
+    /**
+     * An in-process stand in for a slow backing store of driver data, counting the reads made of it.
+     */
+    private static final class FakeStore {
+        private final Map<String, String> licences = new HashMap<>();
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger bulkReads = new AtomicInteger();
+
+        private FakeStore with(String name, String licenceNumber) {
+            licences.put(name, licenceNumber);
+            return this;
+        }
+
+        private ObjectNode get(String name) {
+            reads.incrementAndGet();
+            String licenceNumber = licences.get(name);
+            return licenceNumber == null ? null : JsonNodeFactory.instance.objectNode().put("licenceNumber", licenceNumber);
+        }
+
+        private CompletableFuture<List<ObjectNode>> getAll(List<FacetedPerson> people) {
+            bulkReads.incrementAndGet();
+            List<ObjectNode> result = new ArrayList<>();
+            people.forEach(person -> result.add(get(person.getName())));
+            return CompletableFuture.completedFuture(result);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetMetricsTest {
+
+    @Test
+    public void shouldBeDisabledUnlessChosen() {
+        //Given
+        //When
+        //Then
+        assertThat(FacetInstrumentation.installed().isPresent(), is(false));
+        assertThat(FacetInstruments.load(null), is(nullValue()));
+        assertThat(FacetInstruments.load("metrics"), is(sameInstance((FacetInstrumentation) FacetMetrics.global())));
+    }
+
+    @Test
+    public void shouldCountOperationsAndCacheHits() {
+        //Given
+        FacetMetrics metrics = new FacetMetrics();
+        FacetKey key = FacetKey.of(Driver.class);
+
+        //When
+        metrics.facetRetrieved(key, false, 1000);
+        metrics.facetRetrieved(key, true, 10);
+        metrics.facetRetrieved(key, true, 12);
+        metrics.facetDataLookedUp(key, 4, 5000);
+
+        //Then
+        assertThat(metrics.getCount(FacetOperation.GET), is(3L));
+        assertThat(metrics.getCacheHitCount(), is(2L));
+        assertThat(metrics.getCacheMissCount(), is(1L));
+        assertThat(metrics.getDataLookupCount(4), is(1L));
+        assertThat(metrics.getLatencies(FacetOperation.GET).getPercentileNanos(50), is(15L));
+        assertThat(metrics.getLatencies(FacetOperation.GET).getPercentileNanos(100), is(1023L));
+    }
+
+    @Test
+    public void shouldReportToEveryChosenInstrumentation() {
+        //Given
+        FacetInstrumentation instrumentation = FacetInstruments.load("metrics, " + CountingInstrumentation.class.getName());
+        FacetMetrics.global().reset();
+
+        //When
+        instrumentation.facetAdded(FacetKey.of(Driver.class), 100);
+
+        //Then
+        assertThat(FacetMetrics.global().getCount(FacetOperation.ADD), is(1L));
+        assertThat(CountingInstrumentation.added, is(1));
+    }
+
+    public static class CountingInstrumentation implements FacetInstrumentation {
+        private static int added;
+
+        @Override
+        public void facetAdded(FacetKey facetKey, long elapsedNanos) {
+            added++;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetRecord;
+import uk.co.fvdl.facet.schema.FacetSchema;
+
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetPropertiesTest {
+
+    @Test
+    public void shouldGenerateSchemaWithFixedSlots() {
+        //When
+        FacetSchema schema = CarSchema.SCHEMA;
+
+        //Then
+        assertThat(schema.getName(), is(Car.class.getName()));
+        assertThat(schema.size(), is(3));
+        assertThat(schema.getSlot(CarSchema.REGISTRATION).getName(), is("registration"));
+        assertThat(schema.getSlot(CarSchema.SEATS).getKind(), is(FacetSchema.SlotKind.INT));
+        assertThat(schema.getSlot("electric").get().getIndex(), is(CarSchema.ELECTRIC));
+    }
+
+    @Test
+    public void shouldInitialiseRecord() {
+        //When
+        FacetRecord record = CarProperties.initialise("AB12CDE", 5, true).get();
+
+        //Then
+        assertThat(record.get(CarSchema.REGISTRATION), is("AB12CDE"));
+        assertThat(record.getInt(CarSchema.SEATS), is(5));
+        assertThat(record.getBoolean(CarSchema.ELECTRIC), is(true));
+    }
+
+    @Test
+    public void shouldAccessRecordThroughGeneratedAccessors() {
+        //Given
+        FacetRecord record = CarProperties.initialise("AB12CDE", 5, false).get();
+        CarProperties<?> car = new RecordCar(record);
+
+        //When
+        car.setSeats(7);
+        car.setRegistration("XY34ZZZ");
+
+        //Then
+        assertThat(car.getSeats(), is(7));
+        assertThat(car.getRegistration(), is("XY34ZZZ"));
+        assertThat(car.isElectric(), is(false));
+        assertThat(record.getInt(CarSchema.SEATS), is(7));
+    }
+
+    private static class RecordCar implements CarProperties<RecordCar> {
+        private final FacetRecord record;
+
+        private RecordCar(FacetRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public FacetRecord getFacetData() {
+            return record;
+        }
+
+        @Override
+        public FacetRecord setupFacet(Consumer<FacetRecord> setup) {
+            setup.accept(record);
+            return record;
+        }
+
+        @Override
+        public String getFacetIdentifier() {
+            return "car";
+        }
+    }
+}
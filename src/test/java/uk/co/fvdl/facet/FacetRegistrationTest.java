@@ -0,0 +1,123 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetRegistrationTest {
+
+    @Test
+    public void shouldRegisterFacetsAheadOfUse() {
+        //Given
+        FacetRegistry.register(FacetEngine.GENERATED, FacetEngineTest.GeneratedFacetedPerson.class, Driver.class);
+        FacetRegistry.register(FacetEngine.PROXY, FacetedPerson.class, Driver.class);
+        FacetedPerson generated = new FacetEngineTest.GeneratedFacetedPerson();
+        FacetedPerson proxied = new FacetedPerson();
+        generated.setName("John");
+        proxied.setName("Jane");
+
+        //When
+        Driver generatedDriver = generated.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        Driver proxiedDriver = proxied.addFacet(Driver.class, Driver.initialise("BCDEFG"));
+
+        //Then
+        assertThat(Proxy.isProxyClass(generatedDriver.getClass()), is(false));
+        assertThat(generatedDriver.getName(), is("John"));
+        assertThat(Proxy.isProxyClass(proxiedDriver.getClass()), is(true));
+        assertThat(proxiedDriver.getName(), is("Jane"));
+        assertThat(FacetRegistry.validate(FacetedPerson.class, Driver.class).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldReuseTheIdsOfDroppedKeys() throws InterruptedException {
+        //Given
+        int issued = FacetRegistry.getIssuedIdCount();
+
+        //When
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                FacetKey.of(FacetRemovalTest.Membership.class, "churn-" + round + "-" + i);
+            }
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        //Then
+        assertThat(FacetRegistry.getIssuedIdCount() - issued < 5000, is(true));
+    }
+
+    @Test
+    public void shouldRejectFacetWithUnimplementedMethodOnRegistration() {
+        //When
+        try {
+            FacetRegistry.register(FacetedPerson.class, Pilot.class);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            //Then
+            assertThat(e.getMessage(), containsString("Pilot.getAircraft()"));
+        }
+        assertThat(FacetRegistry.validate(FacetedPerson.class, Pilot.class).size(), is(1));
+    }
+
+    @Test
+    public void shouldRejectFacetWithUnimplementedMethodWhenAdded() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+
+        //When
+        try {
+            person.addFacet(Pilot.class, () -> JsonNodeFactory.instance.objectNode());
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            //Then
+            assertThat(e.getMessage(), containsString("getAircraft"));
+        }
+        assertThat(person.hasFacet(Pilot.class), is(false));
+    }
+
+    @Test
+    public void shouldPassExceptionsFromFacetedMethodsThrough() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        try {
+            driver.getName();
+            fail("Expected a NullPointerException");
+        } catch (NullPointerException e) {
+            //Then the exception thrown by the Faceted type is not wrapped.
+        }
+    }
+
+    public interface Pilot extends UniqueFacet<Pilot, ObjectNode>, Person {
+        String getAircraft();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetRemovalTest {
+
+    private static final int CYCLES = 1_000_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldMakeRemovedFacetsStale() {
+        for (FacetedPerson person : new FacetedPerson[]{new FacetedPerson(), new FacetEngineTest.GeneratedFacetedPerson()}) {
+            //Given
+            person.setName("John");
+            Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+            //When
+            boolean removed = person.removeFacet(Driver.class);
+
+            //Then
+            assertThat(removed, is(true));
+            assertThat(person.hasFacet(Driver.class), is(false));
+            assertThat(person.getFacet(Driver.class).isPresent(), is(false));
+            assertThat(person.removeFacet(Driver.class), is(false));
+            assertStale(driver);
+            try {
+                driver.getName();
+                fail("Delegation through a stale facet should fail.");
+            } catch (StaleFacetException e) {
+                assertThat(e.getFacetKey(), is(FacetKey.of(Driver.class)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReplaceFacetData() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver original = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        Driver replacement = person.replaceFacet(Driver.class, Driver.initialise("GHIJKL"));
+
+        //Then
+        assertThat(replacement.getLicenceNumber(), is("GHIJKL"));
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("GHIJKL"));
+        assertStale(original);
+    }
+
+    @Test
+    public void shouldRemoveFromEveryKindOfStorage() {
+        //Given
+        SimpleFacetedPerson simple = new SimpleFacetedPerson();
+        simple.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true));
+        ConcurrentFacetedPerson concurrent = new ConcurrentFacetedPerson();
+        concurrent.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        FacetedPopulation<PopulationPerson> population = new FacetedPopulation<>(PopulationPerson.SCHEMA,
+                FacetedPopulation.Storage.HEAP, PopulationPerson::new);
+        PopulationPerson member = population.add();
+        member.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true));
+
+        //When
+        simple.removeFacet(Car.class);
+        concurrent.removeFacet(Driver.class);
+        member.removeFacet(Car.class);
+
+        //Then
+        assertThat(simple.getFacetCount(), is(0));
+        assertThat(concurrent.getFacetCount(), is(0));
+        assertThat(population.get(member.getRow()).hasFacet(Car.class), is(false));
+        assertThat(population.getColumns(Car.class).get().getRowCount(), is(0));
+    }
+
+    @Test
+    public void shouldStayTheSameSizeOverAddRemoveCycles() {
+        //Given
+        FacetedPerson json = new FacetedPerson();
+        SimpleFacetedPerson simple = new SimpleFacetedPerson();
+        json.addFacet(Membership.class, membership("permanent"));
+
+        //When
+        for (int i = 0; i < CYCLES; i++) {
+            json.addFacet(Driver.class, Driver.initialise("ABCDEF")).getLicenceNumber();
+            json.removeFacet(Driver.class);
+            simple.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true)).getSeats();
+            simple.removeFacet(Car.class);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            json.addFacet(Membership.class, membership("team" + i));
+            json.removeFacet(Membership.class, "team" + i);
+        }
+
+        //Then
+        assertThat(json.getFacetCache().size(), is(0));
+        assertThat(json.getFacetLifecycleCount(), is(1));
+        assertThat(json.baseNode.get(JsonFaceted.FACET_NODE).size(), is(1));
+        assertThat(json.baseNode.get(JsonFaceted.FACET_NODE).get(Membership.class.getName()).size(), is(1));
+        assertThat(simple.getFacetCount(), is(0));
+        assertThat(simple.getFacetLifecycleCount(), is(0));
+    }
+
+    @Test
+    public void shouldReclaimStoreSpaceForRemovedFacets() throws IOException {
+        //Given
+        Path directory = folder.getRoot().toPath();
+        try (MappedFacetStore<ObjectNode> store = MappedFacetStore.open(directory, FacetDataCodec.json(), 64 << 10, getClass().getClassLoader())) {
+            StoredPerson kept = new StoredPerson(store, 0);
+            kept.addFacet(Driver.class, Driver.initialise("KEPT"));
+
+            //When
+            for (int i = 0; i < CYCLES / 10; i++) {
+                StoredPerson person = new StoredPerson(store, 1 + i % 100);
+                person.addFacet(Driver.class, Driver.initialise("LICENCE" + i));
+                person.removeFacet(Driver.class);
+                if (i % 10_000 == 0) {
+                    store.compact();
+                }
+            }
+            store.compact();
+
+            //Then
+            assertThat(store.getEntityCount(), is(1));
+            assertThat(store.getSegmentCount() <= 3, is(true));
+        }
+        try (MappedFacetStore<ObjectNode> store = MappedFacetStore.open(directory, FacetDataCodec.json(), 64 << 10, getClass().getClassLoader())) {
+            assertThat(store.getEntityCount(), is(1));
+            assertThat(new StoredPerson(store, 0).getFacet(Driver.class).get().getLicenceNumber(), is("KEPT"));
+            assertThat(new StoredPerson(store, 1).hasFacet(Driver.class), is(false));
+        }
+    }
+
+    private static void assertStale(Driver driver) {
+        try {
+            driver.getLicenceNumber();
+            fail("A stale facet should fail when used.");
+        } catch (StaleFacetException e) {
+            assertThat(e.getFacetKey(), is(FacetKey.of(Driver.class)));
+        }
+    }
+
+    private static Supplier<ObjectNode> membership(String team) {
+        return () -> JsonNodeFactory.instance.objectNode().put("team", team);
+    }
+
+    /**
+     * A facet that a person can have many of, identified by the team.
+     */
+    public interface Membership extends Facet<Membership, ObjectNode>, Person {
+        @Override
+        default String getFacetIdentifier() {
+            return getFacetData().get("team").asText();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetSnapshotTest {
+
+    @Test
+    public void shouldKeepJsonFacetsAsTheyWereWhenTaken() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.setName("James");
+        Driver liveDriver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.addFacet(FacetRemovalTest.Membership.class, () -> person.baseNode.objectNode().put("team", "red"));
+
+        //When
+        FacetedSnapshot<FacetedPerson, ObjectNode> snapshot = person.snapshot();
+        liveDriver.setLicenceNumber("GHIJKL");
+        person.removeFacet(FacetRemovalTest.Membership.class, "red");
+        person.addFacet(FacetRemovalTest.Membership.class, () -> person.baseNode.objectNode().put("team", "blue"));
+
+        //Then
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("GHIJKL"));
+        assertThat(snapshot.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+        assertThat(snapshot.getFacet(Driver.class).get().getName(), is("James"));
+        assertThat(snapshot.hasFacet(FacetRemovalTest.Membership.class, "red"), is(true));
+        assertThat(snapshot.hasFacet(FacetRemovalTest.Membership.class, "blue"), is(false));
+        assertThat(person.hasFacet(FacetRemovalTest.Membership.class, "red"), is(false));
+        assertThat(snapshot.getEntity(), is(sameInstance(person)));
+    }
+
+    @Test
+    public void shouldParseUnreadFacetsSeparatelyFromTheEntity() throws IOException {
+        //Given
+        String document = "{\"name\":\"John\",\"$facets$\":{\"" + Driver.class.getName() + "\":{\"" + Driver.class
+                + "\":{\"licenceNumber\":\"ABCDEF\"}}}}";
+        FacetedPerson person = new JsonFacetedReader<>(FacetedPerson::new).read(document.getBytes(StandardCharsets.UTF_8));
+
+        //When
+        FacetedSnapshot<FacetedPerson, ObjectNode> snapshot = person.snapshot();
+        person.getFacet(Driver.class).get().setLicenceNumber("GHIJKL");
+
+        //Then
+        assertThat(snapshot.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("GHIJKL"));
+    }
+
+    @Test
+    public void shouldCopyRecordsOfSimpleFacetedOnlyWhenAskedFor() {
+        //Given
+        SimpleFacetedPerson person = new SimpleFacetedPerson();
+        Car car = person.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true));
+
+        //When
+        FacetedSnapshot<SimpleFacetedPerson, FacetRecord> snapshot = person.snapshot();
+        car.setSeats(7);
+        FacetedSnapshot<SimpleFacetedPerson, FacetRecord> later = person.snapshot();
+        person.removeFacet(Car.class);
+
+        //Then
+        assertThat(snapshot.getFacet(Car.class).get().getSeats(), is(4));
+        assertThat(later.getFacet(Car.class).get().getSeats(), is(7));
+        assertThat(person.hasFacet(Car.class), is(false));
+        try {
+            snapshot.addFacet(Car.class, CarProperties.initialise("AB12 CDE", 4, true));
+            fail("Snapshots should be read only");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getMessage(), is("Snapshots are read only."));
+        }
+    }
+
+    @Test
+    public void shouldRefuseLazyAndAsyncFacetsBeforeLoadingThem() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        FacetedSnapshot<FacetedPerson, ObjectNode> snapshot = person.snapshot();
+        AtomicBoolean loaded = new AtomicBoolean();
+        CompletableFuture<ObjectNode> asyncData = new CompletableFuture<>();
+        List<String> refused = new ArrayList<>();
+
+        //When
+        try {
+            snapshot.addLazyFacet(Driver.class, () -> {
+                loaded.set(true);
+                return Driver.initialise("ABCDEF").get();
+            });
+        } catch (UnsupportedOperationException e) {
+            refused.add(e.getMessage());
+        }
+        try {
+            snapshot.addAsyncFacet(Driver.class, asyncData);
+        } catch (UnsupportedOperationException e) {
+            refused.add(e.getMessage());
+        }
+
+        //Then
+        assertThat(refused.size(), is(2));
+        assertThat(refused.get(0), is("Snapshots are read only."));
+        assertThat(refused.get(1), is("Snapshots are read only."));
+        assertThat(snapshot.hasFacet(Driver.class), is(false));
+        assertThat(loaded.get(), is(false));
+    }
+
+    @Test
+    public void shouldGiveReadersAConsistentViewWhileWritersContinue() throws Exception {
+        //Given
+        ConcurrentFacetedPerson person = new ConcurrentFacetedPerson();
+        person.setName("Jane");
+        person.addFacet(Driver.class, Driver.initialise("0"));
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        //When
+        for (int i = 0; i < 4; i++) {
+            results.add(readers.submit(() -> {
+                int inconsistent = 0;
+                while (writing.get()) {
+                    FacetedSnapshot<ConcurrentFacetedPerson, ObjectNode> snapshot = person.snapshot();
+                    String licenceNumber = snapshot.getFacet(Driver.class).get().getLicenceNumber();
+                    for (int read = 0; read < 10; read++) {
+                        if (!snapshot.getFacet(Driver.class).get().getLicenceNumber().equals(licenceNumber)) {
+                            inconsistent++;
+                        }
+                    }
+                }
+                return inconsistent;
+            }));
+        }
+        for (int i = 1; i <= 100_000; i++) {
+            person.replaceFacet(Driver.class, Driver.initialise(Integer.toString(i)));
+        }
+        writing.set(false);
+        readers.shutdown();
+        readers.awaitTermination(10, TimeUnit.SECONDS);
+
+        //Then
+        for (Future<Integer> result : results) {
+            assertThat(result.get(), is(0));
+        }
+        assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("100000"));
+    }
+
+    @Test
+    public void shouldShareUnchangedNodesOfTheTrie() {
+        //Given
+        FacetTrie<Integer> trie = FacetTrie.empty();
+        List<FacetKey> keys = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            FacetKey key = FacetKey.of(FacetRemovalTest.Membership.class, "team" + i);
+            keys.add(key);
+            trie = trie.put(key, i, null);
+        }
+
+        //When
+        FacetTrie<Integer> changed = trie;
+        for (int i = 0; i < 2_000; i += 2) {
+            changed = changed.remove(keys.get(i));
+        }
+        changed = changed.put(keys.get(1), -1, "edition");
+
+        //Then
+        assertThat(trie.size(), is(2_000));
+        assertThat(changed.size(), is(1_000));
+        for (int i = 0; i < 2_000; i++) {
+            assertThat(trie.get(keys.get(i)), is(i));
+            assertThat(changed.contains(keys.get(i)), is(i % 2 == 1));
+        }
+        assertThat(changed.get(keys.get(1)), is(-1));
+        assertThat(changed.getEdition(keys.get(1)), is("edition"));
+        assertThat(trie.getEdition(keys.get(1)) == null, is(true));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetViewTest {
+
+    @Test
+    public void shouldViewSeveralFacetsTogether() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.setName("John");
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.addFacet(TeamMember.class, TeamMember.initialise("Blue"));
+
+        //When
+        FacetView<FacetedPerson, ObjectNode> view = person.getView(Driver.class, TeamMember.class).get();
+
+        //Then
+        assertThat(view.getEntity().getName(), is("John"));
+        assertThat(view.get(Driver.class).getLicenceNumber(), is("ABCDEF"));
+        assertThat(view.get(TeamMember.class).getTeam(), is("Blue"));
+        assertThat(view.get(TeamMember.class).getName(), is("John"));
+        assertThat(person.getView(Driver.class, TeamMember.class).get(), is(sameInstance(view)));
+        try {
+            person.getView(Driver.class).get().get(TeamMember.class);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            //Then TeamMember is not part of that view.
+        }
+    }
+
+    @Test
+    public void shouldNotViewMissingFacets() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+
+        //When
+        Optional<FacetView<FacetedPerson, ObjectNode>> view = person.getView(Driver.class, TeamMember.class);
+
+        //Then
+        assertThat(view.isPresent(), is(false));
+        //Only the Driver instance created for the view has a lifecycle.
+        assertThat(person.getFacetLifecycleCount(), is(1));
+    }
+
+    @Test
+    public void shouldReplaceViewWhenFacetReplaced() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.addFacet(TeamMember.class, TeamMember.initialise("Blue"));
+        FacetView<FacetedPerson, ObjectNode> view = person.getView(Driver.class, TeamMember.class).get();
+
+        //When
+        person.replaceFacet(TeamMember.class, TeamMember.initialise("Red"));
+        FacetView<FacetedPerson, ObjectNode> replacement = person.getView(Driver.class, TeamMember.class).get();
+
+        //Then
+        assertThat(view.isCurrent(), is(false));
+        assertThat(replacement, is(not(sameInstance(view))));
+        assertThat(replacement.get(TeamMember.class).getTeam(), is("Red"));
+        try {
+            view.get(TeamMember.class).getTeam();
+            fail("Expected a StaleFacetException");
+        } catch (StaleFacetException e) {
+            //Then the old view's facet is stale.
+        }
+    }
+
+    public interface TeamMember extends UniqueFacet<TeamMember, ObjectNode>, Person {
+
+        default String getTeam() {
+            return getFacetData().get("team").asText();
+        }
+
+        static Supplier<ObjectNode> initialise(String team) {
+            return () -> JsonNodeFactory.instance.objectNode().put("team", team);
+        }
+    }
+}
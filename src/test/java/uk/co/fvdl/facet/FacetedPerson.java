@@ -24,6 +24,12 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  */
 public class FacetedPerson extends JsonFaceted<FacetedPerson, ObjectNode> implements Person {
 
+    public FacetedPerson() {
+    }
+
+    public FacetedPerson(ObjectNode baseNode) {
+        super(baseNode);
+    }
 
     @Override
     public String getName() {
@@ -0,0 +1,81 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetColumns;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetedPopulationTest {
+
+    @Test
+    public void shouldShareRowDataBetweenFlyweights() {
+        //Given
+        FacetedPopulation<PopulationPerson> population =
+                new FacetedPopulation<>(PopulationPerson.SCHEMA, FacetedPopulation.Storage.HEAP, PopulationPerson::new);
+        PopulationPerson person = population.add();
+        person.setName("John");
+
+        //When
+        person.addFacet(Car.class, CarProperties.initialise("AB12CDE", 5, true));
+        Car car = population.get(0).getFacet(Car.class).get();
+        car.setSeats(7);
+
+        //Then
+        assertThat(population.get(0), is(person));
+        assertThat(car.describe(), is("John drives AB12CDE (electric)"));
+        assertThat(person.getFacet(Car.class).get().getSeats(), is(7));
+        assertThat(population.get(0).hasFacet(Car.class), is(true));
+    }
+
+    @Test
+    public void shouldScanFacetColumnsOffHeap() {
+        //Given
+        FacetedPopulation<PopulationPerson> population =
+                new FacetedPopulation<>(PopulationPerson.SCHEMA, FacetedPopulation.Storage.OFF_HEAP, PopulationPerson::new);
+        for (int i = 0; i < 1000; i++) {
+            PopulationPerson person = population.add();
+            if (i % 2 == 0) {
+                person.addFacet(Car.class, CarProperties.initialise("CAR" + i, i % 7, false));
+            }
+        }
+
+        //When
+        FacetColumns columns = population.getColumns(Car.class).get();
+        AtomicInteger seats = new AtomicInteger();
+        columns.forEachRow(row -> seats.addAndGet(columns.getInt(row, CarSchema.SEATS)));
+
+        //Then
+        int expected = 0;
+        for (int i = 0; i < 1000; i += 2) {
+            expected += i % 7;
+        }
+        assertThat(columns.isOffHeap(), is(true));
+        assertThat(columns.getRowCount(), is(500));
+        assertThat(seats.get(), is(expected));
+        assertThat(population.get(1).hasFacet(Car.class), is(false));
+        assertThat(population.get(998).getFacet(Car.class).get().getRegistration(), is("CAR998"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class FacetedSerializationTest {
+
+    @Test
+    public void shouldSerialiseJsonFacetedWithOneDictionaryPerStream() throws Exception {
+        //Given
+        List<FacetedPerson> people = new ArrayList<>();
+        for (String name : new String[]{"John", "Jane", "Jim"}) {
+            FacetedPerson person = new FacetedPerson();
+            person.setName(name);
+            person.addFacet(Driver.class, Driver.initialise(name.toUpperCase()));
+            people.add(person);
+        }
+        people.get(2).removeFacet(Driver.class);
+        people.get(2).addAsyncFacet(Driver.class, CompletableFuture.completedFuture(
+                Driver.initialise("LAZY").get()));
+
+        //When
+        byte[] bytes = serialise(people);
+        List<FacetedPerson> read = deserialise(bytes, people.size());
+
+        //Then
+        assertThat(read.get(0).getName(), is("John"));
+        assertThat(read.get(0).getFacet(Driver.class).get().getLicenceNumber(), is("JOHN"));
+        assertThat(read.get(1).getFacet(Driver.class).get().getLicenceNumber(), is("JANE"));
+        assertThat(read.get(2).getFacet(Driver.class).get().getLicenceNumber(), is("LAZY"));
+        //The facet class name and the identifier, which includes it, are each written once.
+        assertThat(occurrences(bytes, Driver.class.getName()), is(2));
+    }
+
+    @Test
+    public void shouldSerialiseSimpleFaceted() throws Exception {
+        //Given
+        List<NamedPerson> people = new ArrayList<>();
+        for (String name : new String[]{"John", "Jane"}) {
+            NamedPerson person = new NamedPerson();
+            person.setName(name);
+            person.addFacet(Nickname.class, () -> name.substring(0, 2));
+            person.addFacet(Alias.class, () -> name + " Doe");
+            people.add(person);
+        }
+
+        //When
+        byte[] bytes = serialise(people);
+        List<NamedPerson> read = deserialise(bytes, people.size());
+
+        //Then
+        assertThat(read.get(1).getName(), is("Jane"));
+        assertThat(read.get(1).getFacet(Nickname.class).get().getNickname(), is("Ja"));
+        assertThat(read.get(1).getFacet(Alias.class, "Jane Doe").get().getFacetData(), is("Jane Doe"));
+        assertThat(read.get(1).getFacetCount(), is(2));
+        assertThat(occurrences(bytes, Nickname.class.getName()), is(2));
+    }
+
+    private static byte[] serialise(List<?> entities) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            for (Object entity : entities) {
+                out.writeObject(entity);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> deserialise(byte[] bytes, int count) throws IOException, ClassNotFoundException {
+        List<T> entities = new ArrayList<>();
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            for (int i = 0; i < count; i++) {
+                entities.add((T) in.readObject());
+            }
+        }
+        return entities;
+    }
+
+    private static int occurrences(byte[] bytes, String text) {
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        int count = 0;
+        for (int index = content.indexOf(text); index >= 0; index = content.indexOf(text, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    public interface Nickname extends UniqueFacet<Nickname, String> {
+        default String getNickname() {
+            return getFacetData();
+        }
+    }
+
+    public interface Alias extends Facet<Alias, String> {
+        @Override
+        default String getFacetIdentifier() {
+            return getFacetData();
+        }
+    }
+
+    public static class NamedPerson extends SimpleFaceted<NamedPerson, String> implements Person {
+
+        private String name;
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            super.writeExternal(out);
+            out.writeUTF(name);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            super.readExternal(in);
+            name = in.readUTF();
+        }
+    }
+}
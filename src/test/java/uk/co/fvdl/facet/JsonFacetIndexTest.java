@@ -0,0 +1,101 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class JsonFacetIndexTest {
+
+    @Test
+    public void shouldKeepIndexInStepWithDocument() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        assertThat(driver.getFacetData(), is(sameInstance(documentNode(person))));
+
+        //When
+        Driver replacement = person.replaceFacet(Driver.class, Driver.initialise("BCDEFG"));
+
+        //Then
+        assertThat(replacement.getLicenceNumber(), is("BCDEFG"));
+        assertThat(replacement.getFacetData(), is(sameInstance(documentNode(person))));
+
+        //When
+        person.removeFacet(Driver.class);
+
+        //Then
+        assertThat(person.hasFacet(Driver.class), is(false));
+        assertThat(person.baseNode.get(JsonFaceted.FACET_NODE).size(), is(0));
+        assertThat(person.addFacet(Driver.class, Driver.initialise("CDEFGH")).getLicenceNumber(), is("CDEFGH"));
+    }
+
+    @Test
+    public void shouldCopyIndexedDataSharedWithSnapshot() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        driver.getLicenceNumber();
+        FacetedSnapshot<FacetedPerson, ObjectNode> snapshot = person.snapshot();
+
+        //When
+        driver.setLicenceNumber("BCDEFG");
+
+        //Then
+        assertThat(snapshot.getFacet(Driver.class).get().getLicenceNumber(), is("ABCDEF"));
+        assertThat(driver.getLicenceNumber(), is("BCDEFG"));
+        assertThat(driver.getFacetData(), is(sameInstance(documentNode(person))));
+        assertThat(documentNode(person).get("licenceNumber").asText(), is("BCDEFG"));
+    }
+
+    @Test
+    public void shouldKeepTheIndexAcrossExportsAndCopyOnlyWhatIsHandedOut() {
+        //Given
+        FacetedPerson person = new FacetedPerson();
+        Driver driver = person.addFacet(Driver.class, Driver.initialise("ABCDEF"));
+        person.addFacet(FacetRemovalTest.Membership.class, () -> person.baseNode.objectNode().put("team", "red"));
+        ObjectNode membership = person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData();
+
+        //When
+        for (int i = 0; i < 3; i++) {
+            driver.setLicenceNumber("LICENCE" + i);
+            person.exportDelta();
+        }
+        FacetedSnapshot<FacetedPerson, ObjectNode> snapshot = person.snapshot();
+        ObjectNode copied = driver.getFacetData();
+
+        //Then
+        assertThat(person.getIndexedFacetCount(), is(2));
+        assertThat(copied, is(sameInstance(documentNode(person))));
+        assertThat(driver.getFacetData(), is(sameInstance(copied)));
+        assertThat(person.getFacet(FacetRemovalTest.Membership.class, "red").get().getFacetData() == membership, is(false));
+        copied.put("licenceNumber", "CHANGED");
+        assertThat(snapshot.getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE2"));
+    }
+
+    private static ObjectNode documentNode(FacetedPerson person) {
+        return (ObjectNode) person.baseNode.path(JsonFaceted.FACET_NODE).path(Driver.class.getName()).path(Driver.class.toString());
+    }
+}
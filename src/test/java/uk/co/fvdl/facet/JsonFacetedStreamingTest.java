@@ -0,0 +1,102 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class JsonFacetedStreamingTest {
+
+    private static final String DOCUMENT = "{\"name\":\"John\",\"$facets$\":{\"" + Driver.class.getName() + "\":{\""
+            + Driver.class + "\":{ \"licenceNumber\" : \"ABCDEF\" }},\"other.Facet\":{\"a\":[1, 2,3]}},\"age\":42}";
+
+    private final JsonFacetedReader<FacetedPerson> reader = new JsonFacetedReader<>(FacetedPerson::new);
+
+    @Test
+    public void shouldParseFacetDataWhenFirstAskedFor() throws IOException {
+        //Given
+        FacetedPerson person = reader.read(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+
+        //When
+        Driver driver = person.getFacet(Driver.class).get();
+
+        //Then
+        assertThat(person.getName(), is("John"));
+        assertThat(driver.getLicenceNumber(), is("ABCDEF"));
+        assertThat(person.hasFacet(Driver.class, "missing"), is(false));
+    }
+
+    @Test
+    public void shouldWriteUntouchedFacetsByteForByte() throws IOException {
+        //Given
+        FacetedPerson person = reader.read(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //When
+        JsonFacetedWriter.write(person, out);
+
+        //Then
+        assertThat(out.toString("UTF-8"), is(DOCUMENT));
+    }
+
+    @Test
+    public void shouldWriteChangedFacetsFromTheirData() throws IOException {
+        //Given
+        FacetedPerson person = reader.read(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+        person.getFacet(Driver.class).get().setLicenceNumber("XYZ");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //When
+        JsonFacetedWriter.write(person, out);
+
+        //Then
+        assertThat(out.toString("UTF-8"), is(DOCUMENT.replace("{ \"licenceNumber\" : \"ABCDEF\" }", "{\"licenceNumber\":\"XYZ\"}")));
+    }
+
+    @Test
+    public void shouldRoundTripNewlineDelimitedJson() throws IOException {
+        //Given
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append(DOCUMENT.replace("John", "John" + i)).append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        List<FacetedPerson> people = new ArrayList<>();
+
+        //When
+        reader.readLines(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), people::add);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonFacetedWriter.writeLines(people.iterator(), out);
+
+        //Then
+        assertThat(people.size(), is(1000));
+        assertThat(people.get(999).getName(), is("John999"));
+        assertThat(out.toString("UTF-8"), is(input.toString().replace("\r\n", "\n")));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import uk.co.fvdl.facet.json.JsonHelper;
+import uk.co.fvdl.facet.json.JsonPath;
+import uk.co.fvdl.facet.json.JsonPathGroup;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for compiled JSON paths.
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class JsonPathTest {
+
+    private static final String DOCUMENT =
+            "{\"name\":\"Fred\",\"drivers\":[{\"name\":\"Wilma\"},{\"name\":\"Barney\",\"points\":[3,6]}],\"licence\":{\"number\":\"F123\"}}";
+
+    private final JsonNode document;
+
+    public JsonPathTest() throws IOException {
+        document = new ObjectMapper().readTree(DOCUMENT);
+    }
+
+    @Test
+    public void shouldFollowFieldsAndIndexes() {
+        //Given
+        JsonPath path = JsonPath.compile("drivers[1]", "points[1]");
+
+        //When
+        JsonNode node = path.find(document);
+
+        //Then
+        assertThat(node.intValue(), is(6));
+    }
+
+    @Test
+    public void shouldNotMatchMissingOrMalformedPaths() {
+        //Given
+        JsonPath missing = JsonPath.compile("drivers[5]", "name");
+        JsonPath malformed = JsonPath.compile("drivers[x]");
+        JsonPath notAnArray = JsonPath.compile("licence[0]");
+
+        //When
+        //Then
+        assertThat(missing.find(document), is(nullValue()));
+        assertThat(malformed.evaluate(document).isPresent(), is(false));
+        assertThat(notAnArray.find(document), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEvaluateGroupInOneWalk() {
+        //Given
+        JsonPathGroup group = JsonPathGroup.of(
+                JsonPath.compile("drivers[0]", "name"),
+                JsonPath.compile("drivers[1]", "name"),
+                JsonPath.compile("drivers[1]", "age"),
+                JsonPath.compile("licence", "number"),
+                JsonPath.compile("drivers[0]", "name"));
+        JsonNode[] results = group.newResults();
+
+        //When
+        group.evaluate(document, results);
+
+        //Then
+        assertThat(results[0].textValue(), is("Wilma"));
+        assertThat(results[1].textValue(), is("Barney"));
+        assertThat(results[2], is(nullValue()));
+        assertThat(results[3].textValue(), is("F123"));
+        assertThat(results[4].textValue(), is("Wilma"));
+    }
+
+    @Test
+    public void shouldResolveHelperAddressesThroughCompiledPaths() {
+        //Given
+        //When
+        String name = JsonHelper.getNode(document, "drivers[1]", "name").map(JsonNode::textValue).orElse(null);
+
+        //Then
+        assertThat(name, is("Barney"));
+        assertThat(JsonHelper.getNode(document, "[0]").isPresent(), is(false));
+    }
+}
@@ -0,0 +1,329 @@
+/*
+Copyright 2017 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class MappedFacetStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRecoverFacetsWhenReopened() throws IOException {
+        //Given
+        Path directory = folder.getRoot().toPath();
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            for (long id = 0; id < 100; id++) {
+                new StoredPerson(store, id).addFacet(Driver.class, Driver.initialise("LICENCE" + id));
+            }
+        }
+
+        //When
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            StoredPerson person = new StoredPerson(store, 42);
+
+            //Then
+            assertThat(store.getEntityCount(), is(100));
+            assertThat(person.getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE42"));
+            assertThat(new StoredPerson(store, 100).hasFacet(Driver.class), is(false));
+        }
+    }
+
+    @Test
+    public void shouldCompactReplacedRecords() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = open(folder.getRoot().toPath())) {
+            StoredPerson person = new StoredPerson(store, 1);
+            Driver driver = person.addFacet(Driver.class, Driver.initialise("LICENCE"));
+            for (int i = 0; i < 1000; i++) {
+                driver.setLicenceNumber("LICENCE" + i);
+                person.save();
+            }
+            int segments = store.getSegmentCount();
+
+            //When
+            int removed = store.compact();
+
+            //Then
+            assertThat(segments > 1, is(true));
+            assertThat(removed, is(segments - 1));
+            assertThat(store.getSegmentCount(), is(1));
+            assertThat(new StoredPerson(store, 1).getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE999"));
+        }
+    }
+
+    @Test
+    public void shouldKeepCompactingInTheBackgroundAfterADeleteFails() throws Exception {
+        //Given
+        Path directory = folder.getRoot().toPath();
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            StoredPerson person = new StoredPerson(store, 1);
+            Driver driver = person.addFacet(Driver.class, Driver.initialise("LICENCE"));
+            for (int i = 0; i < 1000; i++) {
+                driver.setLicenceNumber("LICENCE" + i);
+                person.save();
+            }
+            int segments = store.getSegmentCount();
+            //A directory that is not empty cannot be deleted in place of the first segment file.
+            Path firstSegment = directory.resolve("0000000000.facets");
+            Files.delete(firstSegment);
+            Path blocker = Files.createFile(Files.createDirectory(firstSegment).resolve("blocker"));
+
+            //When
+            store.startCompaction(10, TimeUnit.MILLISECONDS);
+            for (int wait = 0; wait < 100 && store.getLastCompactionFailure() == null; wait++) {
+                Thread.sleep(10);
+            }
+            int segmentsAfterFailure = store.getSegmentCount();
+            Files.delete(blocker);
+            for (int wait = 0; wait < 100 && store.getSegmentCount() > 1; wait++) {
+                Thread.sleep(10);
+            }
+
+            //Then
+            assertThat(segments > 2, is(true));
+            assertThat(store.getLastCompactionFailure() == null, is(false));
+            assertThat(segmentsAfterFailure, is(segments));
+            assertThat(store.getSegmentCount(), is(1));
+            assertThat(new StoredPerson(store, 1).getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE999"));
+        }
+    }
+
+    @Test
+    public void shouldSaveEntitiesEvictedFromHydrationCache() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = open(folder.getRoot().toPath())) {
+            HydrationCache<StoredPerson> cache = new HydrationCache<>(10, id -> new StoredPerson(store, id));
+            for (long id = 0; id < 100; id++) {
+                cache.get(id).addFacet(Driver.class, Driver.initialise("LICENCE" + id));
+            }
+
+            //When
+            cache.get(5).getFacet(Driver.class).get().setLicenceNumber("CHANGED");
+            for (long id = 50; id < 100; id++) {
+                cache.get(id);
+            }
+
+            //Then
+            assertThat(cache.size(), is(10));
+            assertThat(new StoredPerson(store, 5).getFacet(Driver.class).get().getLicenceNumber(), is("CHANGED"));
+        }
+    }
+
+    @Test
+    public void shouldRefuseEntitiesUsedAfterLeavingTheHydrationCache() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = open(folder.getRoot().toPath())) {
+            HydrationCache<StoredPerson> cache = new HydrationCache<>(10, id -> new StoredPerson(store, id));
+            StoredPerson person = cache.get(0);
+            Driver driver = person.addFacet(Driver.class, Driver.initialise("LICENCE"));
+
+            //When
+            for (long id = 1; id <= 10; id++) {
+                cache.get(id);
+            }
+            cache.get(0).getFacet(Driver.class).get().setLicenceNumber("CHANGED");
+            cache.flush();
+
+            //Then
+            assertThat(person.isEvicted(), is(true));
+            assertThat(cache.get(0) == person, is(false));
+            try {
+                driver.setLicenceNumber("LOST");
+                fail("The entity has been evicted");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), is("StoredPerson{entityId=0} has been evicted from its hydration cache, get it from the cache again."));
+            }
+            assertThat(new StoredPerson(store, 0).getFacet(Driver.class).get().getLicenceNumber(), is("CHANGED"));
+        }
+    }
+
+    @Test
+    public void shouldSaveOnlyTheFacetsThatChanged() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = open(folder.getRoot().toPath())) {
+            AtomicInteger puts = new AtomicInteger();
+            FacetStore<ObjectNode> countingStore = new FacetStore<ObjectNode>() {
+                @Override
+                public boolean hasFacetData(long entityId, FacetKey facetKey) {
+                    return store.hasFacetData(entityId, facetKey);
+                }
+
+                @Override
+                public Optional<ObjectNode> getFacetData(long entityId, FacetKey facetKey) {
+                    return store.getFacetData(entityId, facetKey);
+                }
+
+                @Override
+                public void putFacetData(long entityId, FacetKey facetKey, ObjectNode facetData) {
+                    puts.incrementAndGet();
+                    store.putFacetData(entityId, facetKey, facetData);
+                }
+
+                @Override
+                public boolean removeFacetData(long entityId, FacetKey facetKey) {
+                    return store.removeFacetData(entityId, facetKey);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            for (long id = 0; id < 20; id++) {
+                new StoredPerson(store, id).addFacet(Driver.class, Driver.initialise("LICENCE" + id));
+            }
+            HydrationCache<StoredPerson> cache = new HydrationCache<>(10, id -> new StoredPerson(countingStore, id));
+            for (long id = 0; id < 20; id++) {
+                cache.get(id).getFacet(Driver.class).get().getLicenceNumber();
+            }
+
+            //When
+            cache.get(15).getFacet(Driver.class).get().setLicenceNumber("CHANGED");
+            cache.flush();
+            cache.flush();
+
+            //Then
+            assertThat(puts.get(), is(1));
+            assertThat(new StoredPerson(store, 15).getFacet(Driver.class).get().getLicenceNumber(), is("CHANGED"));
+            assertThat(new StoredPerson(store, 5).getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE5"));
+        }
+    }
+
+    @Test
+    public void shouldNotAppendUnchangedDataWrittenInABatch() throws IOException {
+        //Given
+        try (MappedFacetStore<ObjectNode> store = open(folder.getRoot().toPath())) {
+            Map<Long, ObjectNode> drivers = new LinkedHashMap<>();
+            for (long id = 0; id < 50; id++) {
+                drivers.put(id, Driver.initialise("LICENCE" + id).get());
+            }
+            store.putAllFacetData(FacetKey.of(Driver.class), drivers);
+            int segments = store.getSegmentCount();
+
+            //When
+            store.putAllFacetData(FacetKey.of(Driver.class), drivers);
+            drivers.put(7L, Driver.initialise("CHANGED").get());
+            store.putAllFacetData(FacetKey.of(Driver.class), drivers);
+
+            //Then
+            assertThat(segments > 1, is(true));
+            assertThat(store.getSegmentCount(), is(segments));
+            assertThat(new StoredPerson(store, 7).getFacet(Driver.class).get().getLicenceNumber(), is("CHANGED"));
+            assertThat(new StoredPerson(store, 8).getFacet(Driver.class).get().getLicenceNumber(), is("LICENCE8"));
+        }
+    }
+
+    @Test
+    public void shouldDropTombstonesOnceNoSegmentHoldsTheRemovedRecords() throws IOException {
+        //Given
+        Path directory = folder.getRoot().toPath();
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            //Fill the first segment with records that stay current, so it is never compacted.
+            for (long id = 1000; id < 1040; id++) {
+                new StoredPerson(store, id).addFacet(Driver.class, Driver.initialise("LICENCE" + id));
+            }
+            StoredPerson kept = new StoredPerson(store, 0);
+            Driver driver = kept.addFacet(Driver.class, Driver.initialise("LICENCE"));
+            List<Integer> segmentCounts = new ArrayList<>();
+
+            //When
+            for (int round = 0; round < 10; round++) {
+                for (long id = 1; id <= 20; id++) {
+                    StoredPerson person = new StoredPerson(store, 10_000 + round * 100 + id);
+                    person.addFacet(Driver.class, Driver.initialise("LICENCE" + id));
+                    person.removeFacet(Driver.class);
+                }
+                for (int i = 0; i < 100; i++) {
+                    driver.setLicenceNumber("LICENCE" + i);
+                    kept.save();
+                }
+                store.compact();
+                segmentCounts.add(store.getSegmentCount());
+            }
+
+            //Then
+            //The first segment, the active one and perhaps one left behind as the active segment filled.
+            assertThat(Collections.max(segmentCounts) <= 3, is(true));
+        }
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            assertThat(store.getEntityCount(), is(41));
+            for (long id = 1; id <= 20; id++) {
+                assertThat(new StoredPerson(store, 10_000 + id).hasFacet(Driver.class), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void shouldDiscardARecordLeftIncompleteByACrash() throws IOException {
+        //Given
+        Path directory = folder.getRoot().toPath();
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            StoredPerson person = new StoredPerson(store, 1);
+            Driver driver = person.addFacet(Driver.class, Driver.initialise("FIRST"));
+            driver.setLicenceNumber("SECOND");
+            person.save();
+        }
+        Path segment = directory.resolve("0000000000.facets");
+        byte[] bytes = Files.readAllBytes(segment);
+        int torn = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("SECOND");
+        bytes[torn] = 'X';
+        Files.write(segment, bytes);
+
+        //When
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            StoredPerson person = new StoredPerson(store, 1);
+            String recovered = person.getFacet(Driver.class).get().getLicenceNumber();
+            person.getFacet(Driver.class).get().setLicenceNumber("THIRD");
+            person.save();
+
+            //Then
+            assertThat(recovered, is("FIRST"));
+        }
+        try (MappedFacetStore<ObjectNode> store = open(directory)) {
+            assertThat(new StoredPerson(store, 1).getFacet(Driver.class).get().getLicenceNumber(), is("THIRD"));
+        }
+    }
+
+    private static MappedFacetStore<ObjectNode> open(Path directory) throws IOException {
+        return MappedFacetStore.open(directory, FacetDataCodec.json(), 4096, MappedFacetStoreTest.class.getClassLoader());
+    }
+}
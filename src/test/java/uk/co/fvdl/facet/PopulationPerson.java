@@ -0,0 +1,46 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import uk.co.fvdl.facet.schema.FacetSchema;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class PopulationPerson extends PopulationFaceted<PopulationPerson> implements Person {
+
+    public static final FacetSchema SCHEMA = FacetSchema.builder(PopulationPerson.class.getName())
+            .slot("name", String.class)
+            .build();
+
+    private static final int NAME = 0;
+
+    public PopulationPerson(FacetedPopulation<PopulationPerson> population, int row) {
+        super(population, row);
+    }
+
+    @Override
+    public String getName() {
+        return (String) getBaseRecord().get(NAME);
+    }
+
+    @Override
+    public void setName(String name) {
+        getBaseRecord().set(NAME, name);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.PropertyIndex;
+
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class PopulationQueryTest {
+
+    @Test
+    public void shouldFindEntitiesByMembershipAndIndexedProperty() {
+        //Given
+        FacetedPopulation<PopulationPerson> population = population(100);
+        PropertyIndex registrations = population.createIndex(Car.class, CarSchema.SCHEMA, CarSchema.REGISTRATION, PropertyIndex.Type.HASH);
+
+        //When
+        String names = population.query()
+                .having(Car.class)
+                .where(Car.class, CarSchema.REGISTRATION, "CAR30")
+                .stream()
+                .map(Person::getName)
+                .collect(Collectors.joining(","));
+
+        //Then
+        assertThat(names, is("person30"));
+        assertThat(registrations.getValueCount(), is(34));
+        assertThat(population.query().having(Car.class).count(), is(34));
+        assertThat(population.query().where(Car.class, CarSchema.REGISTRATION, "CAR31").count(), is(0));
+    }
+
+    @Test
+    public void shouldKeepIndexUpToDateWhenFacetDataChanges() {
+        //Given
+        FacetedPopulation<PopulationPerson> population = population(10);
+        population.createIndex(Car.class, CarSchema.SCHEMA, CarSchema.SEATS, PropertyIndex.Type.SORTED);
+
+        //When
+        population.get(3).getFacet(Car.class).get().setSeats(42);
+
+        //Then
+        assertThat(population.query().where(Car.class, CarSchema.SEATS, 42).rows().toString(), is("{3}"));
+        assertThat(population.query().whereBetween(Car.class, CarSchema.SEATS, 40, 50).count(), is(1));
+        assertThat(population.query().where(Car.class, CarSchema.SEATS, 3).count(), is(0));
+    }
+
+    @Test
+    public void shouldScanWhenThereIsNoIndex() {
+        //Given
+        FacetedPopulation<PopulationPerson> population = population(30);
+
+        //When
+        int count = population.query().whereBetween(Car.class, CarSchema.SEATS, 0, 9).count();
+
+        //Then
+        assertThat(count, is(4));
+        assertThat(population.getMembers(Car.class).cardinality(), is(10));
+    }
+
+    @Test
+    public void shouldMatchNothingWhenARangeIsEmpty() {
+        //Given
+        FacetedPopulation<PopulationPerson> population = population(30);
+        int scanned = population.query().whereBetween(Car.class, CarSchema.SEATS, 9, 0).count();
+        population.createIndex(Car.class, CarSchema.SCHEMA, CarSchema.SEATS, PropertyIndex.Type.SORTED);
+        String identifier = FacetKey.of(Car.class).getFacetIdentifier();
+
+        //When
+        int indexed = population.query().whereBetween(Car.class, CarSchema.SEATS, 9, 0).count();
+
+        //Then
+        assertThat(scanned, is(0));
+        assertThat(indexed, is(0));
+        assertThat(population.query().whereBetween(Car.class, identifier, CarSchema.SEATS, 0, 9).count(), is(4));
+        assertThat(population.query().whereBetween(Car.class, identifier, CarSchema.SEATS, 9, 9).count(), is(1));
+    }
+
+    private static FacetedPopulation<PopulationPerson> population(int size) {
+        FacetedPopulation<PopulationPerson> population =
+                new FacetedPopulation<>(PopulationPerson.SCHEMA, FacetedPopulation.Storage.HEAP, PopulationPerson::new);
+        for (int i = 0; i < size; i++) {
+            PopulationPerson person = population.add();
+            person.setName("person" + i);
+            if (i % 3 == 0) {
+                person.addFacet(Car.class, CarProperties.initialise("CAR" + i, i, false));
+            }
+        }
+        return population;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+Copyright 2014 Robert Boothby
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package uk.co.fvdl.facet;
+
+import org.junit.Test;
+import uk.co.fvdl.facet.schema.FacetRecord;
+import uk.co.fvdl.facet.schema.FacetSchema;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * <p>&#169; 2017 Robert Boothby.</p>
+ *
+ * @author robertboothby
+ */
+public class SimpleFacetedTest {
+
+    @Test
+    public void shouldAddAndReadRecordFacet() {
+        //Given
+        SimpleFacetedPerson person = new SimpleFacetedPerson();
+        person.setName("John");
+
+        //When
+        Car car = person.addFacet(Car.class, CarProperties.initialise("AB12CDE", 5, true));
+        car.setSeats(7);
+
+        //Then
+        assertThat(person.hasFacet(Car.class), is(true));
+        assertThat(person.getFacetCount(), is(1));
+        assertThat(person.getFacet(Car.class).get().getSeats(), is(7));
+        assertThat(car.describe(), is("John drives AB12CDE (electric)"));
+    }
+
+    @Test
+    public void shouldShareFacetDataBetweenFacetInstances() {
+        //Given
+        SimpleFacetedPerson person = new SimpleFacetedPerson();
+        Car car = person.addFacet(Car.class, CarProperties.initialise("AB12CDE", 5, false));
+
+        //When
+        Car found = person.getFacet(Car.class).get();
+
+        //Then
+        assertThat(found.getFacetData(), is(sameInstance(car.getFacetData())));
+    }
+
+    @Test
+    public void shouldStorePrimitiveSlotsWithoutBoxing() {
+        //Given
+        FacetSchema schema = FacetSchema.builder("test")
+                .slot("count", int.class)
+                .slot("label", String.class)
+                .slot("total", long.class)
+                .slot("ratio", double.class)
+                .slot("active", boolean.class)
+                .build();
+        FacetRecord record = schema.newRecord();
+
+        //When
+        record.setInt(0, -3);
+        record.set(1, "label");
+        record.setLong(2, Long.MAX_VALUE);
+        record.setDouble(3, 0.25);
+        record.set(4, Boolean.TRUE);
+
+        //Then
+        assertThat(record.getInt(0), is(-3));
+        assertThat(record.get(1), is("label"));
+        assertThat(record.getLong(2), is(Long.MAX_VALUE));
+        assertThat(record.get(3), is(0.25));
+        assertThat(record.getBoolean(4), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAccessWithTheWrongPrimitiveType() {
+        //Given
+        FacetRecord record = FacetSchema.builder("test").slot("count", int.class).build().newRecord();
+
+        //When
+        record.getLong(0);
+    }
+}